@@ -3,4 +3,15 @@ package au.edu.usyd.eng.remotelabs.redundanttrussrig;
 import au.edu.uts.eng.remotelabs.rigclient.rig.ConfiguredControlledRig;
 
 public class RedundantTrussRig extends ConfiguredControlledRig {
+
+	@Override
+	protected void init()
+	{
+		super.init();
+
+		// every session is recorded, the recordings are uploaded as session files
+		TrussRecorderAction recorder = new TrussRecorderAction();
+		this.registerAction(recorder, ActionType.ACCESS);
+		this.registerAction(recorder, ActionType.FILES);
+	}
 }
@@ -0,0 +1,142 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussRecordingExporter;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussSessionRecorder;
+import au.edu.uts.eng.remotelabs.rigclient.rig.IAccessAction;
+import au.edu.uts.eng.remotelabs.rigclient.rig.IFilesDetectorAction;
+import au.edu.uts.eng.remotelabs.rigclient.util.ConfigFactory;
+import au.edu.uts.eng.remotelabs.rigclient.util.IConfig;
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Records the telemetry of each session and reports the recordings as
+ * session files. Recording starts when the session is assigned and the
+ * open recording is sealed when the session is revoked. If configured,
+ * each sealed recording is also exported as CSV before it is reported, so
+ * the export runs on the data transfer thread and not a poller.
+ */
+public class TrussRecorderAction implements IAccessAction, IFilesDetectorAction
+{
+    /** Session recorder. */
+    private final TrussSessionRecorder recorder;
+
+    /** Exporter of sealed recordings, null if they are not exported. */
+    private final TrussRecordingExporter exporter;
+
+    /** Reason the last assignment failed. */
+    private String failureReason;
+
+    /** Logger. */
+    private final ILogger logger;
+
+    /**
+     * Constructor, configured with the 'Truss_Export_CSV' and
+     * 'Truss_Export_Max_Points' properties.
+     */
+    public TrussRecorderAction()
+    {
+        this(TrussSessionRecorder.getInstance(), exporterFromConfig());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param recorder session recorder
+     * @param exporter exporter of sealed recordings, null if they are not exported
+     */
+    public TrussRecorderAction(TrussSessionRecorder recorder, TrussRecordingExporter exporter)
+    {
+        this.logger = LoggerFactory.getLoggerInstance();
+        this.recorder = recorder;
+        this.exporter = exporter;
+    }
+
+    private static TrussRecordingExporter exporterFromConfig()
+    {
+        IConfig config = ConfigFactory.getInstance();
+        if (!Boolean.parseBoolean(config.getProperty("Truss_Export_CSV", "true"))) return null;
+
+        try
+        {
+            return new TrussRecordingExporter(Integer.parseInt(config.getProperty("Truss_Export_Max_Points", "0")));
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* Also catches a number format exception. */
+            LoggerFactory.getLoggerInstance().warn("Invalid value for 'Truss_Export_Max_Points', it should be " +
+                    "zero or a positive number. Every record will be exported.");
+            return new TrussRecordingExporter(0);
+        }
+    }
+
+    @Override
+    public boolean assign(String name)
+    {
+        if (this.recorder.startSession(name))
+        {
+            this.failureReason = null;
+            return true;
+        }
+
+        this.failureReason = "Unable to create the telemetry recording directory.";
+        return false;
+    }
+
+    @Override
+    public boolean revoke(String name)
+    {
+        this.recorder.endSession();
+        return true;
+    }
+
+    @Override
+    public Set<File> listFiles()
+    {
+        Set<File> files = this.recorder.getRecordings();
+        if (this.exporter != null)
+        {
+            for (File rec : new ArrayList<File>(files))
+            {
+                File csv = TrussRecordingExporter.exportFile(rec);
+                if (!csv.exists())
+                {
+                    try
+                    {
+                        long rows = this.exporter.export(Collections.singletonList(rec), csv);
+                        this.logger.debug("Exported telemetry recording " + rec.getName() + " with " + rows +
+                                " rows.");
+                    }
+                    catch (IOException e)
+                    {
+                        this.logger.warn("Unable to export telemetry recording " + rec.getName() + ", error: " +
+                                e.getMessage() + '.');
+                        csv.delete();
+                        continue;
+                    }
+                }
+                files.add(csv);
+            }
+        }
+        files.addAll(this.recorder.getExports());
+        return files;
+    }
+
+    @Override
+    public String getActionType()
+    {
+        return "Truss telemetry recorder";
+    }
+
+    @Override
+    public String getFailureReason()
+    {
+        return this.failureReason;
+    }
+}
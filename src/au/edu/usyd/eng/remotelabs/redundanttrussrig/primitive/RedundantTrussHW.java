@@ -2,14 +2,28 @@ package au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive;
 
 import java.io.*;
 
-import gnu.io.CommPortIdentifier; 
-import gnu.io.SerialPort;
-import gnu.io.SerialPortEvent; 
-import gnu.io.SerialPortEventListener; 
-import java.util.Enumeration;
-import java.util.StringTokenizer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive.RedundantTrussHW;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.ITrussLink;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.ITrussResponse;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussCommandQueue;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFieldScanner;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrame;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrameFields;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrameReceiver;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLineReceiver;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLinkArbiter;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLinkFactory;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLinkSupervisor;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussSessionRecorder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussStrainFilter;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetryHistory;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetrySnapshot;
+import au.edu.uts.eng.remotelabs.rigclient.server.TelemetryStream;
+import au.edu.uts.eng.remotelabs.rigclient.util.CommandStatistics;
+import au.edu.uts.eng.remotelabs.rigclient.util.CommandStatistics.Command;
 import au.edu.uts.eng.remotelabs.rigclient.util.ConfigFactory;
 import au.edu.uts.eng.remotelabs.rigclient.util.IConfig;
 import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
@@ -21,17 +35,17 @@ import java.net.URLDecoder;
 
 
 
-public class RedundantTrussHW extends Thread implements SerialPortEventListener {
+public class RedundantTrussHW extends Thread {
 
 	private boolean running = true;
 	private String threadName;
-    private int sleepmSec = 50;
 	
 	//Arduino variable - Data Acquisition
     private volatile int daq_mode;
 	private volatile float[] daq_strain = new float[10];
 	private volatile float[] strain_base = new float[10];
 	private volatile int[] daq_health = new int[10];
+	private final TrussStrainFilter[] strain_filter = new TrussStrainFilter[10];	// filtered as each reading arrives
 	private volatile int daq_watchdog;
 	
 	// Arduino command buffer & flag - Data Acquisition
@@ -54,28 +68,28 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
 	private volatile float ctrl_scale;
 	private volatile int ctrl_offset;
 	
-	// Arduino command buffer & flag - Control
-
-	
-	private volatile int ctrl_angleStepBuffer;
-	private volatile boolean ctrl_angleStepFlag;
-	private volatile int ctrl_loadStepBuffer;
-	private volatile boolean ctrl_loadStepFlag;
-	private volatile float ctrl_tgtLoadBuffer;
-	private volatile boolean ctrl_tgtLoadFlag;
-	private volatile int ctrl_tgtDistanceBuffer;
-	private volatile boolean ctrl_tgtDistanceFlag;
-	
-	private volatile int ctrl_modeBuffer;
-	private volatile boolean ctrl_modeFlag;
-	private volatile int daq_modeBuffer;
-	private volatile boolean daq_modeFlag;
+	// Arduino command queues - pending commands are coalesced (setpoints last writer wins, steps accumulate)
+	// and sent by each link's command sender as soon as the link is free
+	private static final int CMD_MODE = 0;
+	private static final int CMD_TGT_LOAD = 1;
+	private static final int CMD_LOAD_STEP = 2;
+	private static final int CMD_TGT_DISTANCE = 3;
+	private static final int CMD_ANGLE_STEP = 4;
+	private static final String MODE_CMD = "rlab://SETV?addr=01&val=";
+	private final TrussCommandQueue daq_commands = new TrussCommandQueue(
+			new String[] { MODE_CMD },
+			new int[] { TrussCommandQueue.SETPOINT });
+	private final TrussCommandQueue ctrl_commands = new TrussCommandQueue(
+			new String[] { MODE_CMD, "rlab://SETV?addr=11&val=", "rlab://SETV?addr=12&val=",
+					"rlab://SETV?addr=21&val=", "rlab://SETV?addr=22&val=" },
+			new int[] { TrussCommandQueue.SETPOINT, TrussCommandQueue.FLOAT_SETPOINT, TrussCommandQueue.STEP,
+					TrussCommandQueue.SETPOINT, TrussCommandQueue.STEP });
 	
 	private volatile boolean daq_updateFileFlag;
 	private volatile boolean ctrl_updateFileFlag;
 	private volatile boolean daq_fileReadyFlag;
 	private volatile boolean ctrl_fileReadyFlag;
-	private volatile boolean writeToConfigFlag;
+	private volatile boolean ctrl_loadCalFlag;
 
 	
 	// Internal variable - local calculation
@@ -98,26 +112,107 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
     ILogger logger;
 
     // Arduino interfacing
-	SerialPort daq_serialPort;
-	SerialPort ctrl_serialPort;
-	
-	/** The port we're normally going to use. */
-	private static final String PORT_NAMES[] = {
-//		"/dev/tty.usbserial-A9007UX1", // Mac OS X
-//        "/dev/ttyACM0", // Raspberry Pi
-//        "/dev/ttyUSB0", // Linux
-		"COM8", // Windows
-	};
-	
-    private BufferedReader daq_serial_input;
-    private BufferedReader ctrl_serial_input;
-    private static OutputStream daq_output;
-    private static OutputStream ctrl_output;
-    private static final int TIME_OUT = 2000;
-    private static final int DATA_RATE = 115200;
+	ITrussLink daq_link;
+	ITrussLink ctrl_link;
+	private final TrussLineReceiver daq_receiver = new TrussLineReceiver();
+	private final TrussLineReceiver ctrl_receiver = new TrussLineReceiver();
+	private final TrussLinkArbiter daq_linkLock = new TrussLinkArbiter();		// held for each command round trip, given to
+	private final TrussLinkArbiter ctrl_linkLock = new TrussLinkArbiter();	// the highest priority waiting command next
+    private final long responseTimeout;						// ns from sending a command to its response deadline
+    
+    // Link supervision, a link that fails is closed and reopened by its poller with a backoff, without restarting the HW module
+    private final TrussLinkSupervisor daq_supervisor;
+    private final TrussLinkSupervisor ctrl_supervisor;
+    private final int linkFailures;							// consecutive commands without a response before a link is down
+    private final long reconnectSettle;						// ms from reopening a link to the Arduino having restarted
+    
+    // Bulk (REQV?addr=ALL) telemetry requests, disabled per link if the firmware rejects or ignores them
+    private static final int DAQ_BULK_FIELDS = 22;			// 10 strain, 10 health, mode, watchdog
+    private static final int CTRL_BULK_FIELDS = 10;			// distance x3, load x3, health x2, mode, watchdog
+    private static final int BULK_TRIES = 2;				// bulk commands unanswered before per address commands are used
+    private static final int BULK_MALFORMED = 5;			// bulk responses malformed in a row before per address requests are used
+    private volatile boolean daq_bulk;
+    private volatile boolean ctrl_bulk;
+    private boolean daq_bulkAnswered, ctrl_bulkAnswered;	// since the link opened, only used by the link's poller
+    private int daq_bulkIgnored, ctrl_bulkIgnored;
+    private int daq_bulkMalformed, ctrl_bulkMalformed;
+    
+    // Binary framing (TrussFrame), negotiated per link at start up, otherwise the text protocol is used
+    private final boolean binaryFraming;
+    private final TrussFrameReceiver daq_frameReceiver = new TrussFrameReceiver();
+    private final TrussFrameReceiver ctrl_frameReceiver = new TrussFrameReceiver();
+    private final ByteBuffer daq_txFrame = TrussFrame.allocate();
+    private final ByteBuffer ctrl_txFrame = TrussFrame.allocate();
+    private volatile boolean daq_binary;
+    private volatile boolean ctrl_binary;
+    private final AtomicInteger daq_seq = new AtomicInteger();			// also taken by an emergency stop without the link
+    private final AtomicInteger ctrl_seq = new AtomicInteger();
+    
+    // Calibration upload, pipelined on binary framed links as each acknowledgement echoes its command's sequence number
+    private static final int CALIBRATION_TRIES = 3;			// sends of a command before it has failed
+    private final int calibrationWindow;					// commands in flight at once
+    private volatile boolean daq_bulkCalibration;			// SETS/SETO?addr=ALL, disabled if the firmware rejects or ignores them
+    private int daq_bulkCalibrationTimeouts;				// in a row, only used by the DAQ poller
+    
+    // Emergency stop, cleanup mode (31) written straight onto each link by the caller rather than waiting for the link
+    private static final String STOP_CMD = "rlab://SETV?addr=01&val=31";
+    private final ByteBuffer daq_stopFrame = TrussFrame.allocate();
+    private final ByteBuffer ctrl_stopFrame = TrussFrame.allocate();
+    private volatile boolean emergencyStopped;				// queued setpoints are not sent after a stop
+    private static final String STOPPED_RSP = "Err:Stopped";	// a setpoint refused once the link is taken after a stop
+    private static final ByteBuffer NOT_SENT = ByteBuffer.allocate(0);	// the frame of a refused setpoint
+    
+    // Value requests, written from pre-encoded bytes and read in place so polling does not create garbage
+    private static final int REQV_ALL = 0;
+    private static final int REQV_01 = 1;
+    private static final int REQV_02 = 2;
+    private static final int REQV_03 = 3;
+    private static final byte[][] REQV_TEXT = {
+    	"rlab://REQV?addr=ALL\n".getBytes(), "rlab://REQV?addr=01\n".getBytes(),
+    	"rlab://REQV?addr=02\n".getBytes(), "rlab://REQV?addr=03\n".getBytes() };
+    private final TrussFieldScanner daq_scanner = new TrussFieldScanner();
+    private final TrussFieldScanner ctrl_scanner = new TrussFieldScanner();
+    private final TrussFrameFields daq_frameFields = new TrussFrameFields();
+    private final TrussFrameFields ctrl_frameFields = new TrussFrameFields();
+    
+    // Telemetry published once per poll cycle for lock free readers, built from reused scratch arrays
+    private volatile TrussTelemetrySnapshot snapshot;
+    private final float snap_strain[] = new float[TrussTelemetrySnapshot.STRAIN_GAUGES];
+    private final float snap_filtered[] = new float[TrussTelemetrySnapshot.STRAIN_GAUGES];
+    private final int snap_health[] = new int[TrussTelemetrySnapshot.STRAIN_GAUGES];
+    private final float snap_values[] = new float[TrussTelemetrySnapshot.VALUES];
+    private final int snap_status[] = new int[TrussTelemetrySnapshot.STATUS];
+    
+    // Clients watching the telemetry stream of the rig client server
+    private final TelemetryStream stream = TelemetryStream.getInstance();
+    
+    // Recording of the session's telemetry, reported as a session file
+    private final TrussSessionRecorder recorder = TrussSessionRecorder.getInstance();
+    
+    // Recent samples, one per strain read, so clients polling less often do not miss any
+    private final TrussTelemetryHistory history;
+    
+    // Poll phases of each Arduino, run by its poller when due at their target rate or when signalled as having work
+    public static final int PHASE_VALUES = 0;			// strain values, or distance and load
+    public static final int PHASE_HEALTH = 1;			// health, mode and Arduino watchdog
+    public static final int PHASE_HANDSHAKE = 2;		// mode management, signalled until in normal operation
+    public static final int PHASE_CONFIG = 3;			// config file handling, signalled when a file is to be read or written
+    public static final int PHASE_WATCHDOG = 4;			// watchdog refresh, at the health rate
+    public static final int PHASE_STATS = 5;			// logs the achieved phase rates
+    private static final String[] PHASE_NAMES = { "values", "health", "handshake", "config", "watchdog", "stats" };
+    private static final double STATS_HZ = 1.0 / 60;
+    private final TrussPollScheduler daq_scheduler;
+    private final TrussPollScheduler ctrl_scheduler;
     
-    private static final String DAQ_SERIAL = "DAQ";
-    private static final String CTRL_SERIAL = "CTRL";
+    private static final String DAQ_SERIAL = ITrussLink.DAQ;
+    private static final String CTRL_SERIAL = ITrussLink.CTRL;
+    
+    // Response times and failures of each command type, shown on the rig client diagnostics page
+    private final CommandStatistics commandStats = CommandStatistics.getInstance();
+    private final Command[] daq_reqvStats = new Command[REQV_TEXT.length];
+    private final Command[] ctrl_reqvStats = new Command[REQV_TEXT.length];
+    private final Command[] daq_laneWait = new Command[TrussLinkArbiter.LANE_NAMES.length];	// accepted to holding the link,
+    private final Command[] ctrl_laneWait = new Command[TrussLinkArbiter.LANE_NAMES.length];	// by priority lane
     
 //    String inputLine;
 //    boolean inputLineComplete = false;
@@ -129,6 +224,10 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
     String ctrlConfigpath = "empty";
     String daqPortNameFromConfig = "empty";
     String ctrlPortNameFromConfig = "empty"; 
+    String daq_pathFile;
+    String ctrl_pathFile;
+    private volatile TrussCalibrationFile daq_calibration;
+    private volatile TrussCalibrationFile ctrl_calibration;
         
     //------------------------------------------------------------------
     // HW module constructor
@@ -141,6 +240,44 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
         ctrlConfigpath = config.getProperty("Ctrl_Config_File_Path");
         daqPortNameFromConfig = config.getProperty("COM_Port_Daq");
         ctrlPortNameFromConfig = config.getProperty("COM_Port_Ctrl");
+        daq_bulk = ctrl_bulk = Boolean.parseBoolean(config.getProperty("Truss_Bulk_Request", "true"));
+        binaryFraming = Boolean.parseBoolean(config.getProperty("Truss_Binary_Framing", "true"));
+        daq_bulkCalibration = Boolean.parseBoolean(config.getProperty("Truss_Bulk_Calibration", "true"));
+        calibrationWindow = Math.max(1, (int)getPositive("Truss_Calibration_Window", 4));
+        
+        double strainHz = getPositive("Truss_Strain_Poll_Hz", 10);
+        double healthHz = getPositive("Truss_Health_Poll_Hz", 5);
+        double[] rates = { strainHz, healthHz, 0, 0, healthHz, STATS_HZ };
+        daq_scheduler = new TrussPollScheduler(rates);
+        ctrl_scheduler = new TrussPollScheduler(rates);
+        
+        responseTimeout = (long)(getPositive("Truss_Response_Timeout", 250) * 1000000);
+        
+        linkFailures = Math.max(1, (int)getPositive("Truss_Link_Failures", 5));
+        long reconnectMin = Math.max(1, (long)getPositive("Truss_Reconnect_Min_Ms", 500));
+        long reconnectMax = Math.max(reconnectMin, (long)getPositive("Truss_Reconnect_Max_Ms", 30000));
+        daq_supervisor = new TrussLinkSupervisor(linkFailures, reconnectMin, reconnectMax);
+        ctrl_supervisor = new TrussLinkSupervisor(linkFailures, reconnectMin, reconnectMax);
+        reconnectSettle = (long)getPositive("Truss_Reconnect_Settle_Ms", 2000);
+        
+        double historyMinutes = getPositive("Truss_History_Minutes", 10);
+        history = new TrussTelemetryHistory((int)Math.ceil(historyMinutes * 60 * strainHz));
+        
+        String[] reqs = { "ALL", "01", "02", "03" };
+        for (int req = REQV_ALL; req <= REQV_03; req++){
+        	daq_reqvStats[req] = commandStats.get(DAQ_SERIAL + " REQV " + reqs[req]);
+        	ctrl_reqvStats[req] = commandStats.get(CTRL_SERIAL + " REQV " + reqs[req]);
+        }
+        for (int lane = 0; lane < TrussLinkArbiter.LANE_NAMES.length; lane++){
+        	daq_laneWait[lane] = commandStats.get(DAQ_SERIAL + " wait " + TrussLinkArbiter.LANE_NAMES[lane]);
+        	ctrl_laneWait[lane] = commandStats.get(CTRL_SERIAL + " wait " + TrussLinkArbiter.LANE_NAMES[lane]);
+        }
+        
+        String filter = config.getProperty("Truss_Strain_Filter", "none");
+        for (int i = 0; i < 10; i++){
+        	strain_filter[i] = getFilter("Truss_Strain_Filter_" + (i + 1), 
+        			config.getProperty("Truss_Strain_Filter_" + (i + 1), filter), strainHz);
+        }
         
         
         daq_watchdog = 0;
@@ -156,40 +293,48 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
         tgtLoad = 0.0f;
         stepsize = 0;
         
-        daq_modeBuffer = 0;
-        ctrl_modeBuffer = 0;
-
-        ctrl_tgtDistanceBuffer = 0;
-        ctrl_tgtLoadBuffer = 0.0f;
-        ctrl_loadStepBuffer = 0;
-        ctrl_angleStepBuffer = 0;
-        
-        daq_modeFlag = false;
-        ctrl_modeFlag = false;
-
-        ctrl_tgtDistanceFlag = false;
-        ctrl_tgtLoadFlag = false;
-        ctrl_angleStepFlag = false;
-        ctrl_loadStepFlag = false;
-         
         daq_updateFileFlag = false;
         ctrl_updateFileFlag = false;
         daq_fileReadyFlag = false;
         ctrl_fileReadyFlag = false;
         
-        writeToConfigFlag = false;
 
         for (int i = 0; i<10; i++){
         	strain_base[i] = 0.0f;
         }
+        // a new module is created for each session, and its snapshot sequence starts again at 0
+        stream.restart();
+        publishSnapshot();
 	}
 	
+    // Reads a positive number, such as a poll rate, from the rig client configuration
+    private double getPositive(String key, double def){
+    	try{
+    		double rate = Double.parseDouble(config.getProperty(key, String.valueOf(def)).trim());
+    		if (rate > 0) return rate;
+    	} catch (NumberFormatException e){
+    		// falls through to the default
+    	}
+    	LoggerFactory.getLoggerInstance().warn("Primitive Controller HW Interface - invalid value for '" + key + "', using " + def + ".");
+    	return def;
+    }
+	
+    // Creates a strain gauge filter from the rig client configuration, at the strain poll rate
+    private TrussStrainFilter getFilter(String key, String spec, double strainHz){
+    	try{
+    		return TrussStrainFilter.parse(spec, strainHz);
+    	} catch (IllegalArgumentException e){
+    		LoggerFactory.getLoggerInstance().warn("Primitive Controller HW Interface - invalid value for '" + key + "' (" + 
+    				e.getMessage() + "), not filtering.");
+    		return TrussStrainFilter.parse("none", strainHz);
+    	}
+    }
+	
     //------------------------------------------------------------------
     // HW module main operations
 	
 	public void run() {
 
-		String response="";
 	    logger = LoggerFactory.getLoggerInstance();
         logger.info("Primitive Controller HW Interface created");
         
@@ -202,10 +347,12 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
         } catch (UnsupportedEncodingException e){
         	pathJar = "NAN";
         }
-        String daq_pathFile = pathJar +"/" + daqConfigpath;
-        String ctrl_pathFile = pathJar +"/" + ctrlConfigpath;
+        daq_pathFile = pathJar +"/" + daqConfigpath;
+        ctrl_pathFile = pathJar +"/" + ctrlConfigpath;
         logger.debug("Primitive Controller HW Interface - Daq Config File Path = "+daq_pathFile);
         logger.debug("Primitive Controller HW Interface - Ctrl Config File Path = "+ctrl_pathFile);
+        daq_calibration = openCalibration(daq_pathFile);
+        ctrl_calibration = openCalibration(ctrl_pathFile);
         
         // initialize serial ports
         serialInitialise();
@@ -217,203 +364,40 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
              System.err.println(e.toString());
 		 }
 		
+		// Switch to binary framing where the firmware supports it
+		negotiateFraming(DAQ_SERIAL);
+		negotiateFraming(CTRL_SERIAL);
+		
 		logger.info("Primitive Controller HW Interface - Initialized");
 		
 		try {
-			while (getRunning()) {
-				// update value from Arduino
-				updateValue();
-				Thread.sleep(10);
-				// Handshake with Arduino - Mode management
-				if (getDaqMode() == 0){
-					setDaqModeBuffer(11);
-					setDaqFileFlag();
-				}else if (getDaqMode() == 11){
-					if (getDaqFileReadyFlag()){
-						for (int i=0;i<10;i++){
-							pushDaqScale(i);
-							Thread.sleep(10);
-						}
-						for (int i=0;i<10;i++){
-							pushDaqOffset(i);
-							Thread.sleep(10);
-						}
-						offDaqFileReadyFlag();
-					}
-				}else if (getDaqMode() == 14){
-					setDaqModeBuffer(20);
-					setBaseStrain();
-				}else if (getDaqMode() == 20){
-					// normal operation
-				}
-				Thread.sleep(10);
-				if (getCtrlMode() == 0){
-					setCtrlModeBuffer(11);
-					setCtrlFileFlag();
-				}else if (getCtrlMode() == 11){
-					if (getCtrlFileReadyFlag()){
-						pushCtrlScale();
-						Thread.sleep(10);
-						pushCtrlOffset();
-						Thread.sleep(10);
-						offCtrlFileReadyFlag();
-					}
-				}else if (getCtrlMode() == 13){
-					setCtrlModeBuffer(20);
-				}else if (getCtrlMode() == 20){
-					// Normal Operation
-				}else if (getCtrlMode() == 31){
-					// cleanup
-				}
-				Thread.sleep(10);
-				// file handling
-				if (getDaqFileFlag()){
-					//Retrieve info from file
-					try {
-						BufferedReader daq_input = new BufferedReader(new InputStreamReader(new FileInputStream(daq_pathFile)));
-						logger.debug("Primitive Controller HW Interface - Daq Config File Identified");
-			            // Get file info - line by line
-			            while ( daq_input.ready() )
-			            {
-			               String daq_nextline = daq_input.readLine();
-			               logger.debug(daq_nextline);
-			               if (daq_nextline == null) continue;
-			               // Break the line down
-			               StringTokenizer daq_tokens = new StringTokenizer (daq_nextline);
-			               int daq_numargs = daq_tokens.countTokens();
-			               if ( daq_numargs == 0 ) continue;
-			               String daq_attribute = daq_tokens.nextToken();
-			               if (daq_attribute.equals("#")) continue;
-			               // Check the attribute
-			               if (daq_attribute.equals("Scale")){
-			            	   int scale_index = (Integer.valueOf(daq_tokens.nextToken()).intValue())-1;
-			            	   setDaqScale(scale_index, Float.parseFloat(daq_tokens.nextToken()));
-			               }else if (daq_attribute.equals("Offset")){
-			            	   int offset_index = (Integer.valueOf(daq_tokens.nextToken()).intValue())-1;
-			            	   setDaqOffset(offset_index, Integer.parseInt(daq_tokens.nextToken()));
-			               }else if (daq_attribute.equals("LoadScale")){
-			            	   setCtrlScale(Float.parseFloat(daq_tokens.nextToken()));
-			               }else if (daq_attribute.equals("LoadOffset")){
-			            	   setCtrlOffset(Integer.parseInt(daq_tokens.nextToken()));
-			               }
-			            }
-			            logger.info("Primitive Controller HW Interface - Daq Config Extracted");
-			            daq_input.close();
-			         // update flag
-						setDaqFileReadyFlag();
-						offDaqFileFlag();
-					} catch (IOException e) {
-						logger.error("Primitive Controller HW Interface - Cannot get Daq Config file");
-					}
-					
-				}
-				Thread.sleep(10);
-				if (getCtrlFileFlag()){
-					//Retrieve info from file
-					try {
-						BufferedReader ctrl_input = new BufferedReader(new InputStreamReader(new FileInputStream(ctrl_pathFile)));
-						logger.debug("Primitive Controller HW Interface - Ctrl Config File Identified");
-			            // Get file info - line by line
-			            while ( ctrl_input.ready() )
-			            {
-			               String ctrl_nextline = ctrl_input.readLine();
-			               if (ctrl_nextline == null) continue;
-			               logger.debug(ctrl_nextline);
-			               // Break the line down
-			               StringTokenizer ctrl_tokens = new StringTokenizer (ctrl_nextline);
-			               int ctrl_numargs = ctrl_tokens.countTokens();
-			               if ( ctrl_numargs == 0 ) continue;
-
-			               String ctrl_attribute = ctrl_tokens.nextToken();
-			               if (ctrl_attribute.equals("#")) continue;
-
-			               // Check the attribute
-			               if (ctrl_attribute.equals("Reference_Distance")){
-			            	   setRefDistance(Integer.parseInt(ctrl_tokens.nextToken()));
-			               }
-			            }
-			            logger.info("Primitive Controller HW Interface - Ctrl Config Extracted");
-			            ctrl_input.close();
-			         // update flag
-						setCtrlFileReadyFlag();
-						offCtrlFileFlag();
-					} catch (IOException e) {
-						logger.error("Primitive Controller HW Interface - Cannot get Control Config file");
-			        }
-					
-				}
-				Thread.sleep(10);
-				// command handling
-				
-				if (getTgtDistanceFlag()){
-					// Actions
-					response = pushTgtDistance();
-					// update flag
-					offTgtDistanceFlag();
-				}
-				Thread.sleep(10);
-				if (getTgtLoadFlag()){
-					// Actions
-					response = pushTgtLoad();
-					// update flag
-					offTgtLoadFlag();
-				}
-				Thread.sleep(10);
-				if (getDaqModeFlag()){
-					// Actions
-					response = pushDaqMode();
-					// update flag
-					offDaqModeFlag();
-				}
-				Thread.sleep(10);
-				if (getCtrlModeFlag()){
-					// Actions
-					response = pushCtrlMode();
-					// update flag
-					offCtrlModeFlag();
-				}
-				Thread.sleep(10);
-				if (getLoadStepFlag()){
-					// Actions
-					response = pushLoadStep();
-					// update flag
-					offLoadStepFlag();
-				}
-				if (getAngleStepFlag()){
-					// Actions
-					response = pushAngleStep();
-					// update flag
-					offAngleStepFlag();
-				}
-				
-				if (getWriteToConfigFlag()){
-					try {
-						BufferedReader CleanupIn = new BufferedReader(new InputStreamReader(new FileInputStream(ctrl_pathFile)));
-						logger.debug("Primitive Controller HW Interface - Config File Identified");
-						String cleanupOut = "Reference_Distance " + String.valueOf(getRefDistance()) + System.getProperty("line.separator");
-			            // Get file info - line by line
-						FileOutputStream fileOut = new FileOutputStream(ctrl_pathFile);
-				        fileOut.write(cleanupOut.getBytes());
-				        fileOut.close();
-			            logger.info("Primitive Controller HW Interface - Config file updated");
-	
-					} catch (IOException e) {
-						logger.error("Primitive Controller HW Interface - Cannot get Config file");
-						logger.error("Primitive Controller HW Interface - " + e.toString());
-			        }
-					offWriteToConfigFlag();
-				}
-
-				Thread.sleep(10);
-				// Watchdog updates
-				refreshWatchdog();
-				
-				Thread.sleep(100);
-			}
+			// Each Arduino is polled by its own thread so a slow link does not hold up the other
+			LinkPoller daqPoller = new LinkPoller(DAQ_SERIAL, daq_scheduler) {
+				void runPhase(int phase) { daqPhase(phase); }
+			};
+			LinkPoller ctrlPoller = new LinkPoller(CTRL_SERIAL, ctrl_scheduler) {
+				void runPhase(int phase) { ctrlPhase(phase); }
+			};
+			// Commands are sent by their own threads so they do not wait for the poll cycle
+			CommandSender daqSender = new CommandSender(DAQ_SERIAL, daq_commands);
+			CommandSender ctrlSender = new CommandSender(CTRL_SERIAL, ctrl_commands);
+			daqPoller.start();
+			ctrlPoller.start();
+			daqSender.start();
+			ctrlSender.start();
+			
+			daqPoller.join();
+			ctrlPoller.join();
+			daqSender.join();
+			ctrlSender.join();
+			
 			logger.info("Primitive Controller HW Interface - Time to end=");
 			pushCleanup();
 			serialClose();
 			logger.info("Primitive Controller HW Interface - Serial port closed=");
+			// waits for a calibration that has not been saved yet
+			daq_calibration.close();
+			ctrl_calibration.close();
 
 		} catch (InterruptedException e) {
 			logger.error("Primitive Controller HW Interface - Running exception");
@@ -422,249 +406,556 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
         logger.info("Primitive Controller HW Interface - Thread " +  threadName + " exiting.");
 	}
 	
+	// Reads a calibration file before the pollers start, after which its thread reloads it when it changes and saves it
+	private TrussCalibrationFile openCalibration(String path){
+		TrussCalibrationFile calibration = new TrussCalibrationFile(new File(path));
+		try {
+			calibration.reload();
+		} catch (IOException e) {
+			logger.error("Primitive Controller HW Interface - Cannot read config file " + path + ": " + e.toString());
+		}
+		calibration.start();
+		return calibration;
+	}
+	
 	//------------------------------------------------------------------
-    // Operation support functions (private access)
+    // Per link poll cycles
 	//------------------------------------------------------------------
-	// update local variable with live data from Arduino
-	private String updateValue(){
-		String daq_msg1 = "";
-		String daq_msg2 = "";
-		String daq_msg3 = "";
-		String ctrl_msg1 = "";
-		String ctrl_msg2 = "";
-		String ctrl_msg3 = "";
+	// Runs a due phase of the DAQ Arduino poller
+	private void daqPhase(int phase){
+		switch (phase){
+		case PHASE_VALUES:
+		case PHASE_HEALTH:
+			// update value from Arduino
+			updateDaqValue(phase);
+			// the mode handshake has work until the link is in normal operation
+			if (getDaqMode() != 20){
+				daq_scheduler.signal(PHASE_HANDSHAKE);
+			}
+			TrussTelemetrySnapshot snap = publishSnapshot();
+			// a bulk read holds the strain values whichever phase requested it; the snapshot built from this read, as the
+			// shared one may already have been replaced by the CTRL poller
+			if (phase == PHASE_VALUES || daq_bulk){
+				history.append(snap);
+			}
+			break;
+		case PHASE_HANDSHAKE:
+			daqHandshake();
+			break;
+		case PHASE_CONFIG:
+			daqConfig();
+			break;
+		case PHASE_WATCHDOG:
+			refreshDaqWatchdog();
+			publishSnapshot();
+			break;
+		case PHASE_STATS:
+			logPollRates(DAQ_SERIAL, daq_scheduler);
+			break;
+		}
+	}
+	
+	// Handshake with Arduino - Mode management
+	private void daqHandshake(){
+		if (getDaqMode() == 0){
+			setDaqModeBuffer(11);
+			setDaqFileFlag();
+			daq_scheduler.signal(PHASE_CONFIG);
+		}else if (getDaqMode() == 11){
+			// pushed again by the next handshake if any of it was not acknowledged
+			if (getDaqFileReadyFlag() && pushDaqCalibration()){
+				offDaqFileReadyFlag();
+			}
+		}else if (getDaqMode() == 14){
+			setDaqModeBuffer(20);
+			setBaseStrain();
+		}else if (getDaqMode() == 20){
+			// normal operation
+		}
+	}
+	
+	// file handling - the calibration is parsed by its file's thread, so applying it does not wait for the disk
+	private void daqConfig(){
+		if (getDaqFileFlag()){
+			if (!daq_calibration.isLoaded()){
+				logger.error("Primitive Controller HW Interface - Cannot get Daq Config file");
+				return;
+			}
+			for (int i = 0; i < 10; i++){
+				setDaqScale(i, daq_calibration.getFloat("Scale " + (i + 1), getDaqScale(i)));
+				setDaqOffset(i, daq_calibration.getInt("Offset " + (i + 1), getDaqOffset(i)));
+			}
+			setCtrlScale(daq_calibration.getFloat("LoadScale", getCtrlScale()));
+			setCtrlOffset(daq_calibration.getInt("LoadOffset", getCtrlOffset()));
+			logger.info("Primitive Controller HW Interface - Daq Config Extracted");
+			// update flag
+			setDaqFileReadyFlag();
+			setLoadCalFlag();
+			offDaqFileFlag();
+			daq_scheduler.signal(PHASE_HANDSHAKE);
+		}
+	}
+	
+	private void ctrlPhase(int phase){
+		switch (phase){
+		case PHASE_VALUES:
+		case PHASE_HEALTH:
+			// update value from Arduino
+			updateCtrlValue(phase);
+			// the mode handshake has work until the link is in normal operation
+			if (getCtrlMode() != 20){
+				ctrl_scheduler.signal(PHASE_HANDSHAKE);
+			}
+			publishSnapshot();
+			break;
+		case PHASE_HANDSHAKE:
+			ctrlHandshake();
+			break;
+		case PHASE_CONFIG:
+			ctrlConfig();
+			break;
+		case PHASE_WATCHDOG:
+			refreshCtrlWatchdog();
+			publishSnapshot();
+			break;
+		case PHASE_STATS:
+			logPollRates(CTRL_SERIAL, ctrl_scheduler);
+			break;
+		}
+	}
+	
+	// Handshake with Arduino - Mode management
+	private void ctrlHandshake(){
+		if (getCtrlMode() == 0){
+			setCtrlModeBuffer(11);
+			setCtrlFileFlag();
+			ctrl_scheduler.signal(PHASE_CONFIG);
+		}else if (getCtrlMode() == 11){
+			// The load cell calibration is in the Daq config file so wait until it has been read
+			if (getCtrlFileReadyFlag() && getLoadCalFlag() && pushCtrlCalibration()){
+				offCtrlFileReadyFlag();
+			}
+		}else if (getCtrlMode() == 13){
+			setCtrlModeBuffer(20);
+		}else if (getCtrlMode() == 20){
+			// Normal Operation
+		}else if (getCtrlMode() == 31){
+			// cleanup
+		}
+	}
+	
+	// file handling
+	private void ctrlConfig(){
+		if (getCtrlFileFlag()){
+			if (!ctrl_calibration.isLoaded()){
+				logger.error("Primitive Controller HW Interface - Cannot get Control Config file");
+				return;
+			}
+			setRefDistance(ctrl_calibration.getInt("Reference_Distance", getRefDistance()));
+			logger.info("Primitive Controller HW Interface - Ctrl Config Extracted");
+			// update flag
+			setCtrlFileReadyFlag();
+			offCtrlFileFlag();
+			ctrl_scheduler.signal(PHASE_HANDSHAKE);
+		}
+	}
+	
+	// Logs the achieved rate of each phase of a poller
+	private void logPollRates(String channel, TrussPollScheduler scheduler){
+		StringBuilder rates = new StringBuilder();
+		for (int i = 0; i < PHASE_NAMES.length; i++){
+			rates.append(i == 0 ? " " : ", ").append(PHASE_NAMES[i])
+				.append(String.format(" %.1f Hz", scheduler.getRate(i)));
+		}
+		logger.info("Primitive Controller HW Interface - " + channel + " poll rates:" + rates);
+	}
+	
+	// Poller thread for one Arduino link, runs each phase when it is due until the HW module is stopped
+	private abstract class LinkPoller extends Thread {
+		private final String channel;
+		private final TrussPollScheduler scheduler;
 		
-		String daq_feedback1 = "";
-		String daq_feedback2 = "";
-		String daq_feedback3 = "";
-		String ctrl_feedback1 = "";
-		String ctrl_feedback2 = "";
-		String ctrl_feedback3 = "";
-		String[] daq_response1 = new String[5];
-		String[] daq_response2 = new String[5];
-		String[] daq_response3 = new String[12];
-		String[] ctrl_response1 = new String[3];
-		String[] ctrl_response2 = new String[3];
-		String[] ctrl_response3 = new String[5];
-		try{
-			daq_msg1 = sendCmd("rlab://REQV?addr=01",DAQ_SERIAL);
-			if (daq_msg1.startsWith("Cpl")){
-				daq_response1 = daq_msg1.substring(4).trim().split(";",5);
-				for (int i=0;i<5;i++){
-					setDaqStrain(i,Float.parseFloat(daq_response1[i]));
+		LinkPoller(String channel, TrussPollScheduler scheduler){
+			super(threadName + "-" + channel);
+			this.channel = channel;
+			this.scheduler = scheduler;
+		}
+		
+		public void run(){
+			try {
+				while (getRunning()) {
+					// a link that is down is reopened by its poller, the phases wait until it is back up
+					if (!getSupervisor(channel).isUp()){
+						reconnectLink(channel);
+						continue;
+					}
+					// wakes periodically to check the HW module is still running
+					int phase = scheduler.next(100);
+					if (phase >= 0){
+						runPhase(phase);
+					}
 				}
-				daq_feedback1 = "Cpl";
-			}else{
-				daq_feedback1 = "Err";
+			} catch (InterruptedException e) {
+				logger.error("Primitive Controller HW Interface - " + getName() + " poller interrupted");
 			}
-			Thread.sleep(sleepmSec);
-			
-			daq_msg2 = sendCmd("rlab://REQV?addr=02",DAQ_SERIAL);
-			if (daq_msg2.startsWith("Cpl")){
-				daq_response2 = daq_msg2.substring(4).trim().split(";",5);
-				for (int i=0;i<5;i++){
-					setDaqStrain(i+5,Float.parseFloat(daq_response2[i]));
+		}
+		
+		abstract void runPhase(int phase);
+	}
+	
+	// Command sender thread for one Arduino link, sends each queued command as soon as the link is free
+	private class CommandSender extends Thread {
+		private final String channel;
+		private final TrussCommandQueue commands;
+		
+		CommandSender(String channel, TrussCommandQueue commands){
+			super(threadName + "-" + channel + "-Sender");
+			this.channel = channel;
+			this.commands = commands;
+		}
+		
+		public void run(){
+			try {
+				while (getRunning()) {
+					// wakes periodically to check the HW module is still running
+					String cmd = commands.take(100);
+					if (cmd != null){
+						// ahead of any waiting polls, the wait is measured from the command being queued. A stop made while
+						// it waits for the link is seen again once the link is taken, so it is never written after the stop
+						String feedback = emergencyStopped ? STOPPED_RSP :
+								sendCmd(cmd, channel, TrussLinkArbiter.SETPOINT, commands.getQueuedTime());
+						if (feedback.startsWith(STOPPED_RSP)){
+							logger.warn("Primitive Controller HW Interface - " + channel + " not sending " + cmd + " after emergency stop");
+						}else if (cmd.startsWith(MODE_CMD)){
+							// the new mode is read straight away rather than at the next health poll, so the handshake moves on
+							getScheduler(channel).signal(PHASE_HEALTH);
+						}
+					}
 				}
-				daq_feedback2 = "Cpl";
-			}else{
-				daq_feedback2 = "Err";
+			} catch (InterruptedException e) {
+				logger.error("Primitive Controller HW Interface - " + getName() + " interrupted");
 			}
-			Thread.sleep(sleepmSec);
-			
-			daq_msg3 = sendCmd("rlab://REQV?addr=03",DAQ_SERIAL);
-			if (daq_msg3.startsWith("Cpl")){
-				daq_response3 = daq_msg3.substring(4).trim().split(";",12);
-				for (int i=0;i<10;i++){
-					setDaqHealth(i,Integer.parseInt(daq_response3[i]));
+		}
+	}
+	
+	//------------------------------------------------------------------
+    // Operation support functions (private access)
+	//------------------------------------------------------------------
+	// update local variable with live data from the DAQ Arduino, strain values or health and status
+	private String updateDaqValue(int phase){
+		// Single round trip for every field when the firmware supports it
+		if (daq_bulk){
+			if (!updateDaqGroup(REQV_ALL)){
+				// firmware that ignores the bulk request never answers it, so until it has been answered since the link
+				// opened, a per address request is made in its place, which also keeps the link up
+				if (daq_bulk && !daq_bulkAnswered && updateDaqGroup(REQV_03) && ++daq_bulkIgnored >= BULK_TRIES){
+					logger.info("Primitive Controller HW Interface - " + DAQ_SERIAL + " bulk request not answered, using per address requests");
+					daq_bulk = false;
 				}
-				setDaqMode(Integer.parseInt(daq_response3[10]));
-				setDaqWD(Integer.parseInt(daq_response3[11]));
-				daq_feedback3 = "Cpl";
-			}else{
-				daq_feedback3 = "Err";
+				return "Err";
 			}
-			Thread.sleep(sleepmSec);
-			
-			ctrl_msg1 = sendCmd("rlab://REQV?addr=01",CTRL_SERIAL);
-			if (ctrl_msg1.startsWith("Cpl")){
-				ctrl_response1 = ctrl_msg1.substring(4).trim().split(";",3);
-				setCtrlCurDistance(Integer.parseInt(ctrl_response1[0]));
-				setCtrlTgtDistance(Integer.parseInt(ctrl_response1[1]));
-				setCtrlAngleMode(Integer.parseInt(ctrl_response1[2]));
-				ctrl_feedback1 = "Cpl";
-			}else{
-				ctrl_feedback1 = "Err";
+			daq_bulkAnswered = true;
+			// the bulk response also holds the fields of the other phase
+			daq_scheduler.completed(phase == PHASE_VALUES ? PHASE_HEALTH : PHASE_VALUES);
+			return "Cpl";
+		}
+		
+		String daq_feedback = "Cpl";
+		if (phase == PHASE_VALUES){
+			for (int req = REQV_01; req <= REQV_02; req++){
+				if (!updateDaqGroup(req)){
+					daq_feedback = "Err";
+				}
 			}
-			Thread.sleep(sleepmSec);
-			
-			ctrl_msg2 = sendCmd("rlab://REQV?addr=02",CTRL_SERIAL);
-			if (ctrl_msg2.startsWith("Cpl")){
-				ctrl_response2 = ctrl_msg2.substring(4).trim().split(";",3);
-				setCtrlCurLoad(Float.parseFloat(ctrl_response2[0]));
-				setCtrlTgtLoad(Float.parseFloat(ctrl_response2[1]));
-				setCtrlLoadMode(Integer.parseInt(ctrl_response2[2]));
-				ctrl_feedback2 = "Cpl";
-			}else{
-				ctrl_feedback2 = "Err";
+		}else if (!updateDaqGroup(REQV_03)){
+			daq_feedback = "Err";
+		}
+		return daq_feedback;
+	}
+	
+	// Requests a group of DAQ values and applies them, holding the link until the response has been read
+	private boolean updateDaqGroup(int req){
+		lockLink(DAQ_SERIAL, TrussLinkArbiter.TELEMETRY, System.nanoTime());
+		try{
+			ITrussResponse daq_rsp = requestValues(req, DAQ_SERIAL);
+			if (daq_rsp == null){
+				return false;
 			}
-			Thread.sleep(sleepmSec);
-			
-			ctrl_msg3 = sendCmd("rlab://REQV?addr=03",CTRL_SERIAL);
-			if (ctrl_msg3.startsWith("Cpl")){
-				ctrl_response3 = ctrl_msg3.substring(4).trim().split(";",5);
-				setCtrlLoadHealth(Integer.parseInt(ctrl_response3[0]));
-				setCtrlAngleHealth(Integer.parseInt(ctrl_response3[1]));
-				setCtrlMode(Integer.parseInt(ctrl_response3[2]));
-				setCtrlWD(Integer.parseInt(ctrl_response3[3]));
-				ctrl_feedback3 = "Cpl";
+			// applied under the monitor so a published snapshot never holds part of a response
+			synchronized (this){
+				if (applyDaqGroup(req, daq_rsp)){
+					return true;
+				}
+			}
+			if (daq_rsp.isErr()){
+				daq_reqvStats[req].error();
 			}else{
-				ctrl_feedback3 = "Err";
+				daq_reqvStats[req].malformed();
 			}
-			Thread.sleep(sleepmSec);
-			
-			updateInternalCalc();
-			
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
+			return false;
+		}
+        catch (NumberFormatException e) {
+            daq_reqvStats[req].malformed();
             logger.error("Primitive Controller HW Interface - parsing data error");
             logger.error("Primitive Controller HW Interface - " + e.toString());
+            if (req == REQV_ALL){
+                daqBulkMalformed();
+            }
+            return false;
         }
-        String feedback = daq_feedback1 + ";" + daq_feedback2 + ";" + daq_feedback3;
-        feedback = feedback + ";" + ctrl_feedback1 + ";" + ctrl_feedback2 + ";" + ctrl_feedback3;
-		return feedback;
+		finally {
+			daq_linkLock.unlock();
+		}
 	}
 	
-	private String pushDaqScale(int index){
-		String feedback="";
-		try{
-			String msg = String.format("%f",getDaqScale(index));
-            feedback = sendCmd("rlab://SETS?addr="+ String.valueOf(index+10) +"&val=" + msg,DAQ_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
-	}
-	private String pushDaqOffset(int index){
-		String feedback="";
-		try{
-			String msg = String.valueOf(getDaqOffset(index));
-            feedback = sendCmd("rlab://SETO?addr="+ String.valueOf(index+10) +"&val=" + msg, DAQ_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	// Applies a response to a group request while holding the monitor, false if the response is not complete
+	private boolean applyDaqGroup(int req, ITrussResponse daq_rsp){
+		switch (req){
+		case REQV_ALL:
+			if (daq_rsp.isCpl(DAQ_BULK_FIELDS)){
+				applyDaqStrain(daq_rsp, 0, 10);
+				applyDaqStatus(daq_rsp);
+				daq_bulkMalformed = 0;
+				return true;
+			}
+			if (daq_rsp.isErr()){
+				logger.info("Primitive Controller HW Interface - " + DAQ_SERIAL + " bulk request not supported, using per address requests");
+				daq_bulk = false;
+			}else{
+				daqBulkMalformed();
+			}
+			return false;
+		case REQV_01:
+		case REQV_02:
+			if (daq_rsp.isCpl(5)){
+				applyDaqStrain(daq_rsp, (req - REQV_01) * 5, 5);
+				return true;
+			}
+			return false;
+		default:
+			if (daq_rsp.isCpl(12)){
+				applyDaqStatus(daq_rsp);
+				return true;
+			}
+			return false;
+		}
 	}
-	private String pushDaqMode(){
-		String feedback="";
-		try{
-			String msg = String.valueOf(getDaqModeBuffer());
-            feedback = sendCmd("rlab://SETV?addr=01&val=" + msg, DAQ_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	
+	// update local variable with live data from the CTRL Arduino, distance and load values or health and status
+	private String updateCtrlValue(int phase){
+		// Single round trip for every field when the firmware supports it
+		if (ctrl_bulk){
+			boolean ok = updateCtrlGroup(REQV_ALL);
+			// as for the DAQ, a per address request is made in place of a bulk request that has not yet been answered
+			if (!ok && ctrl_bulk && !ctrl_bulkAnswered && updateCtrlGroup(REQV_03) && ++ctrl_bulkIgnored >= BULK_TRIES){
+				logger.info("Primitive Controller HW Interface - " + CTRL_SERIAL + " bulk request not answered, using per address requests");
+				ctrl_bulk = false;
+			}
+			updateInternalCalc();
+			if (!ok){
+				return "Err";
+			}
+			ctrl_bulkAnswered = true;
+			// the bulk response also holds the fields of the other phase
+			ctrl_scheduler.completed(phase == PHASE_VALUES ? PHASE_HEALTH : PHASE_VALUES);
+			return "Cpl";
+		}
+		
+		String ctrl_feedback = "Cpl";
+		if (phase == PHASE_VALUES){
+			for (int req = REQV_01; req <= REQV_02; req++){
+				if (!updateCtrlGroup(req)){
+					ctrl_feedback = "Err";
+				}
+			}
+			updateInternalCalc();
+		}else if (!updateCtrlGroup(REQV_03)){
+			ctrl_feedback = "Err";
+		}
+		return ctrl_feedback;
 	}
 	
-	private String pushCtrlMode(){
-		String feedback="";
+	// Requests a group of CTRL values and applies them, holding the link until the response has been read
+	private boolean updateCtrlGroup(int req){
+		lockLink(CTRL_SERIAL, TrussLinkArbiter.TELEMETRY, System.nanoTime());
 		try{
-			String msg = String.valueOf(getCtrlModeBuffer());
-            feedback = sendCmd("rlab://SETV?addr=01&val=" + msg,CTRL_SERIAL);
+			ITrussResponse ctrl_rsp = requestValues(req, CTRL_SERIAL);
+			if (ctrl_rsp == null){
+				return false;
+			}
+			// applied under the monitor so a published snapshot never holds part of a response
+			synchronized (this){
+				if (applyCtrlGroup(req, ctrl_rsp)){
+					return true;
+				}
+			}
+			if (ctrl_rsp.isErr()){
+				ctrl_reqvStats[req].error();
+			}else{
+				ctrl_reqvStats[req].malformed();
+			}
+			return false;
+		}
+        catch (NumberFormatException e) {
+            ctrl_reqvStats[req].malformed();
+            logger.error("Primitive Controller HW Interface - parsing data error");
+            logger.error("Primitive Controller HW Interface - " + e.toString());
+            if (req == REQV_ALL){
+                ctrlBulkMalformed();
+            }
+            return false;
         }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+		finally {
+			ctrl_linkLock.unlock();
+		}
 	}
-
 	
-	private String pushTgtLoad(){
-		String feedback="";
-		try{
-			String msg = String.format("%f",getTgtLoadBuffer());
-            feedback = sendCmd("rlab://SETV?addr=11&val=" + msg,CTRL_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	// Applies a response to a group request while holding the monitor, false if the response is not complete
+	private boolean applyCtrlGroup(int req, ITrussResponse ctrl_rsp){
+		switch (req){
+		case REQV_ALL:
+			if (ctrl_rsp.isCpl(CTRL_BULK_FIELDS)){
+				applyCtrlDistance(ctrl_rsp);
+				applyCtrlLoad(ctrl_rsp);
+				applyCtrlStatus(ctrl_rsp);
+				ctrl_bulkMalformed = 0;
+				return true;
+			}
+			if (ctrl_rsp.isErr()){
+				logger.info("Primitive Controller HW Interface - " + CTRL_SERIAL + " bulk request not supported, using per address requests");
+				ctrl_bulk = false;
+			}else{
+				ctrlBulkMalformed();
+			}
+			return false;
+		case REQV_01:
+			if (ctrl_rsp.isCpl(3)){
+				applyCtrlDistance(ctrl_rsp);
+				return true;
+			}
+			return false;
+		case REQV_02:
+			if (ctrl_rsp.isCpl(3)){
+				applyCtrlLoad(ctrl_rsp);
+				return true;
+			}
+			return false;
+		default:
+			if (ctrl_rsp.isCpl(4)){
+				applyCtrlStatus(ctrl_rsp);
+				return true;
+			}
+			return false;
+		}
 	}
 	
-	private String pushLoadStep(){
-		String feedback="";
-		try{
-			String msg = String.valueOf(getLoadStepBuffer());
-            feedback = sendCmd("rlab://SETV?addr=12&val=" + msg,CTRL_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	// A short or garbled bulk response is still an answer and may only be noise on the link, so the bulk request is kept
+	// unless several in a row are malformed
+	private void daqBulkMalformed(){
+		daq_bulkAnswered = true;
+		if (++daq_bulkMalformed >= BULK_MALFORMED){
+			logger.info("Primitive Controller HW Interface - " + DAQ_SERIAL + " bulk responses malformed, using per address requests");
+			daq_bulk = false;
+		}
 	}
 	
-	private String pushCtrlScale(){
-		String feedback="";
-		try{
-			String msg = String.format("%f",getCtrlScale());
-            feedback = sendCmd("rlab://SETV?addr=13&val=" + msg,CTRL_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	private void ctrlBulkMalformed(){
+		ctrl_bulkAnswered = true;
+		if (++ctrl_bulkMalformed >= BULK_MALFORMED){
+			logger.info("Primitive Controller HW Interface - " + CTRL_SERIAL + " bulk responses malformed, using per address requests");
+			ctrl_bulk = false;
+		}
 	}
 	
-	private String pushCtrlOffset(){
-		String feedback="";
-		try{
-			String msg = String.valueOf(getCtrlOffset());
-            feedback = sendCmd("rlab://SETV?addr=14&val=" + msg,CTRL_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	// Response field groups, shared by the per address (01/02/03) and bulk (ALL) responses. The fields are read in place from
+	// the link receive buffer, either a text line or a binary frame.
+	private void applyDaqStrain(ITrussResponse rsp, int channel, int count){
+		for (int i=0;i<count;i++){
+			setDaqStrain(channel+i,rsp.nextFloat());
+		}
+	}
+	private void applyDaqStatus(ITrussResponse rsp){
+		for (int i=0;i<10;i++){
+			setDaqHealth(i,rsp.nextInt());
+		}
+		setDaqMode(rsp.nextInt());
+		setDaqWD(rsp.nextInt());
+	}
+	private void applyCtrlDistance(ITrussResponse rsp){
+		setCtrlCurDistance(rsp.nextInt());
+		setCtrlTgtDistance(rsp.nextInt());
+		setCtrlAngleMode(rsp.nextInt());
+	}
+	private void applyCtrlLoad(ITrussResponse rsp){
+		setCtrlCurLoad(rsp.nextFloat());
+		setCtrlTgtLoad(rsp.nextFloat());
+		setCtrlLoadMode(rsp.nextInt());
+	}
+	private void applyCtrlStatus(ITrussResponse rsp){
+		setCtrlLoadHealth(rsp.nextInt());
+		setCtrlAngleHealth(rsp.nextInt());
+		setCtrlMode(rsp.nextInt());
+		setCtrlWD(rsp.nextInt());
 	}
 	
-	private String pushTgtDistance(){
-		String feedback="";
-		try{
-			String msg = String.valueOf(getTgtDistanceBuffer());
-            feedback = sendCmd("rlab://SETV?addr=21&val=" + msg,CTRL_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	// Pushes the strain gauge scales and offsets, as a bulk command each or as pipelined per address commands, true if all were set
+	private boolean pushDaqCalibration(){
+		if (daq_bulkCalibration){
+			StringBuilder scales = new StringBuilder("rlab://SETS?addr=ALL&val=");
+			StringBuilder offsets = new StringBuilder("rlab://SETO?addr=ALL&val=");
+			for (int i = 0; i < 10; i++){
+				scales.append(i == 0 ? "" : ";").append(String.format("%f", getDaqScale(i)));
+				offsets.append(i == 0 ? "" : ";").append(getDaqOffset(i));
+			}
+			String feedback = sendCmd(scales.toString(), DAQ_SERIAL, TrussLinkArbiter.CALIBRATION);
+			if (feedback.startsWith("Cpl")){
+				feedback = sendCmd(offsets.toString(), DAQ_SERIAL, TrussLinkArbiter.CALIBRATION);
+			}
+			if (feedback.startsWith("Cpl")){
+				daq_bulkCalibrationTimeouts = 0;
+				return true;
+			}
+			if (feedback.startsWith("Err:Timeout") && ++daq_bulkCalibrationTimeouts >= BULK_TRIES){
+				// firmware that ignores the bulk form never answers it
+				logger.info("Primitive Controller HW Interface - " + DAQ_SERIAL + " bulk calibration not answered, using per address commands");
+			}else if (!feedback.startsWith("Err") || feedback.startsWith("Err:")){
+				// a link failure or a first timeout is retried by the next handshake
+				return false;
+			}else{
+				logger.info("Primitive Controller HW Interface - " + DAQ_SERIAL + " bulk calibration not supported, using per address commands");
+			}
+			daq_bulkCalibration = false;
+		}
+		
+		String[] cmds = new String[20];
+		for (int i = 0; i < 10; i++){
+			cmds[i] = "rlab://SETS?addr=" + (i + 10) + "&val=" + String.format("%f", getDaqScale(i));
+			cmds[i + 10] = "rlab://SETO?addr=" + (i + 10) + "&val=" + getDaqOffset(i);
+		}
+		return pipelineCmds(cmds, DAQ_SERIAL) == 0;
 	}
-	private String pushAngleStep(){
-		String feedback="";
-		try{
-			String msg = String.valueOf(getAngleStepBuffer());
-            feedback = sendCmd("rlab://SETV?addr=22&val=" + msg,CTRL_SERIAL);
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-        }		
-		return feedback;
+	
+	// Pushes the load cell scale and offset, true if both were set
+	private boolean pushCtrlCalibration(){
+		String[] cmds = {
+			"rlab://SETV?addr=13&val=" + String.format("%f", getCtrlScale()),
+			"rlab://SETV?addr=14&val=" + getCtrlOffset() };
+		return pipelineCmds(cmds, CTRL_SERIAL) == 0;
 	}
+	
 	private String pushCleanup(){
 		String feedback1="";
 		String feedback2="";
 		try{
 			String msg = String.valueOf(31);
-            feedback1 = sendCmd("rlab://SETV?addr=01&val=" + msg, DAQ_SERIAL);
+            feedback1 = sendCmd("rlab://SETV?addr=01&val=" + msg, DAQ_SERIAL, TrussLinkArbiter.EMERGENCY);
         }
         catch (Exception e) {
             System.err.println(e.toString());
         }
         try{
 			String msg = String.valueOf(31);
-            feedback2 = sendCmd("rlab://SETV?addr=01&val=" + msg,CTRL_SERIAL);
+            feedback2 = sendCmd("rlab://SETV?addr=01&val=" + msg,CTRL_SERIAL, TrussLinkArbiter.EMERGENCY);
         }
         catch (Exception e) {
             System.err.println(e.toString());
@@ -673,20 +964,22 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
 	}
 	
 	
-	private synchronized void refreshWatchdog(){
+	private synchronized void refreshDaqWatchdog(){
 		if (daq_watchdog > 500){
 			wdDaq = 1;
 		}else{
 			wdDaq = 0;
 		}
+		if (daq_watchdog < 9999){
+			daq_watchdog++;
+		}
+	}
+	private synchronized void refreshCtrlWatchdog(){
 		if (ctrl_watchdog > 500){
 			wdCtrl = 1;
 		}else{
 			wdCtrl = 0;
 		}
-		if (daq_watchdog < 9999){
-			daq_watchdog++;
-		}
 		if (ctrl_watchdog < 9999){
 			ctrl_watchdog++;
 		}
@@ -695,6 +988,7 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
 	//update local register from Serial data
 	private synchronized void setDaqStrain(int index, float val){
 		daq_strain[index]=val;
+		strain_filter[index].filter(val);
 	}
 	private synchronized void setDaqHealth(int index, int val){
 		daq_health[index]=val;
@@ -738,13 +1032,11 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
 	}
 	
 	// Internal Request Handling
-	private synchronized void setDaqModeBuffer(int val){
-		daq_modeBuffer = val;
-		daq_modeFlag = true;
+	private void setDaqModeBuffer(int val){
+		daq_commands.set(CMD_MODE, val);
 	}
-	private synchronized void setCtrlModeBuffer(int val){
-		ctrl_modeBuffer = val;
-		ctrl_modeFlag = true;
+	private void setCtrlModeBuffer(int val){
+		ctrl_commands.set(CMD_MODE, val);
 	}
 	
 	private synchronized void updateInternalCalc(){
@@ -756,33 +1048,49 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
         tgtLoad = ctrl_tgtLoad;
 	}
 	
+	// Publishes a snapshot of the current values of both Arduinos for the readers and to any stream clients, returning it
+	private TrussTelemetrySnapshot publishSnapshot(){
+		TrussTelemetrySnapshot snap = buildSnapshot();
+		if (stream.hasSubscribers()){
+			stream.publish(snap.getSequence(), snap.toJson());
+		}
+		return snap;
+	}
+	
+	private synchronized TrussTelemetrySnapshot buildSnapshot(){
+		for (int i = 0; i < TrussTelemetrySnapshot.STRAIN_GAUGES; i++){
+			snap_strain[i] = daq_strain[i] - strain_base[i];
+			snap_filtered[i] = strain_filter[i].getOutput() - strain_base[i];
+			snap_health[i] = daq_health[i];
+		}
+		snap_values[TrussTelemetrySnapshot.VAL_ANGLE] = curAngle;
+		snap_values[TrussTelemetrySnapshot.VAL_ANGLE_TARGET] = tgtAngle;
+		snap_values[TrussTelemetrySnapshot.VAL_LOAD] = curLoad;
+		snap_values[TrussTelemetrySnapshot.VAL_LOAD_TARGET] = tgtLoad;
+		snap_status[TrussTelemetrySnapshot.STS_ANGLE_MODE] = ctrl_angleMode;
+		snap_status[TrussTelemetrySnapshot.STS_ANGLE_HEALTH] = ctrl_angleHealth;
+		snap_status[TrussTelemetrySnapshot.STS_LOAD_MODE] = ctrl_loadMode;
+		snap_status[TrussTelemetrySnapshot.STS_LOAD_HEALTH] = ctrl_loadHealth;
+		snap_status[TrussTelemetrySnapshot.STS_DAQ_WATCHDOG] = wdDaq;
+		snap_status[TrussTelemetrySnapshot.STS_CTRL_WATCHDOG] = wdCtrl;
+		snap_status[TrussTelemetrySnapshot.STS_DAQ_MODE] = daq_mode;
+		snap_status[TrussTelemetrySnapshot.STS_CTRL_MODE] = ctrl_mode;
+		snap_status[TrussTelemetrySnapshot.STS_RAW_DISTANCE] = ctrl_curDistance;
+		snap_status[TrussTelemetrySnapshot.STS_REF_DISTANCE] = refDistance;
+		snap_status[TrussTelemetrySnapshot.STS_STEP_SIZE] = stepsize;
+		snap_status[TrussTelemetrySnapshot.STS_DAQ_LINK_DOWN] = daq_supervisor.isUp() ? 0 : 1;
+		snap_status[TrussTelemetrySnapshot.STS_CTRL_LINK_DOWN] = ctrl_supervisor.isUp() ? 0 : 1;
+		
+		long seq = snapshot == null ? 0 : snapshot.getSequence() + 1;
+		snapshot = new TrussTelemetrySnapshot(seq, System.currentTimeMillis(),
+				snap_strain, snap_filtered, snap_health, snap_values, snap_status);
+		// only queued for the session's recorder thread, so no file write is made holding the monitor
+		if (running) recorder.append(snapshot);
+		return snapshot;
+	}
+	
 
 
-	// buffer & flags methods - mode change to arduino (DAQ & Ctrl)
-	private synchronized int getDaqModeBuffer(){ return daq_modeBuffer;}
-	private synchronized int getCtrlModeBuffer(){ return ctrl_modeBuffer;}
-	private synchronized boolean getDaqModeFlag(){ return daq_modeFlag;}
-	private synchronized boolean getCtrlModeFlag(){ return ctrl_modeFlag;}
-	private synchronized void offDaqModeFlag(){ daq_modeFlag = false;}
-	private synchronized void offCtrlModeFlag(){ ctrl_modeFlag = false;}
-	
-	// buffer fetch methods - command to arduino (ctrl)
-	private synchronized int getTgtDistanceBuffer(){ return ctrl_tgtDistanceBuffer;}
-	private synchronized int getAngleStepBuffer(){ return ctrl_angleStepBuffer;}
-	private synchronized float getTgtLoadBuffer(){ return ctrl_tgtLoadBuffer;}
-	private synchronized int getLoadStepBuffer(){ return ctrl_loadStepBuffer;}
-	
-	// flag operation methods - command to arduino (ctrl)
-	private synchronized boolean getTgtDistanceFlag(){ return ctrl_tgtDistanceFlag;}
-	private synchronized boolean getAngleStepFlag(){ return ctrl_angleStepFlag;}
-	private synchronized boolean getTgtLoadFlag(){ return ctrl_tgtLoadFlag;}
-	private synchronized boolean getLoadStepFlag(){ return ctrl_loadStepFlag;}
-	
-	private synchronized void offTgtDistanceFlag(){ ctrl_tgtDistanceFlag = false;}
-	private synchronized void offAngleStepFlag(){ ctrl_angleStepFlag = false;}
-	private synchronized void offTgtLoadFlag(){ ctrl_tgtLoadFlag = false;}
-	private synchronized void offLoadStepFlag(){ ctrl_loadStepFlag = false;}
-	
 	// load cell calibration info operation methods
 	private synchronized float getDaqScale(int index){ return daq_scale[index];}
 	private synchronized float getCtrlScale(){ return ctrl_scale;}
@@ -810,8 +1118,8 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
 	private synchronized boolean getCtrlFileReadyFlag(){ return ctrl_fileReadyFlag;}
 	private synchronized void setCtrlFileReadyFlag(){ctrl_fileReadyFlag = true;}
 	private synchronized void offCtrlFileReadyFlag(){ctrl_fileReadyFlag = false;}
-	private synchronized boolean getWriteToConfigFlag(){ return writeToConfigFlag;}
-	private synchronized void offWriteToConfigFlag(){writeToConfigFlag = false;}
+	private synchronized boolean getLoadCalFlag(){ return ctrl_loadCalFlag;}
+	private synchronized void setLoadCalFlag(){ctrl_loadCalFlag = true;}
 	
 	float distanceToAngle(int val){
 		float length = (float)val;
@@ -829,208 +1137,571 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
 	
 	public void serialInitialise() {
     	logger.info("Primitive Controller HW Interface - beginning serial initialisation");
-		CommPortIdentifier portId1 = null;
-		CommPortIdentifier portId2 = null;
-    	logger.debug("Primitive Controller HW Interface - looking for ports");
-    	try{
-    		Enumeration portEnum = CommPortIdentifier.getPortIdentifiers();
-    		logger.debug("Primitive Controller HW Interface - finished looking for ports");
-    		//First, Find an instance of serial port as set in PORT_NAMES.
-			while (portEnum.hasMoreElements()) {
-				CommPortIdentifier currPortId = (CommPortIdentifier) portEnum.nextElement();
-				if (currPortId.getName().equals(daqPortNameFromConfig)){
-					portId1 = currPortId;
-				}
-				if (currPortId.getName().equals(ctrlPortNameFromConfig)){
-					portId2 = currPortId;
-				}
+    	daq_link = TrussLinkFactory.createLink(DAQ_SERIAL, daqPortNameFromConfig);
+    	ctrl_link = TrussLinkFactory.createLink(CTRL_SERIAL, ctrlPortNameFromConfig);
+    	daq_link.setListener(daq_receiver);
+    	ctrl_link.setListener(ctrl_receiver);
+    	
+    	// a link that does not open is looked for again by its poller
+    	if (!daq_link.open()) {
+    		logger.error("Primitive Controller HW Interface - "+ DAQ_SERIAL +" link could not be opened");
+    		daq_supervisor.error(System.nanoTime());
+    	}
+    	if (!ctrl_link.open()) {
+    		logger.error("Primitive Controller HW Interface - "+ CTRL_SERIAL +" link could not be opened");
+    		ctrl_supervisor.error(System.nanoTime());
+    	}
+	}
+	
+	public synchronized void serialClose() {
+		if (daq_link != null) {
+			daq_link.close();
+		}
+		if (ctrl_link != null) {
+			ctrl_link.close();
+		}
+	}
+	
+	private ITrussLink getLink(String channel){
+		return channel.equals(DAQ_SERIAL) ? daq_link : ctrl_link;
+	}
+	
+	private TrussLineReceiver getReceiver(String channel){
+		return channel.equals(DAQ_SERIAL) ? daq_receiver : ctrl_receiver;
+	}
+	
+	private TrussLinkArbiter getLinkLock(String channel){
+		return channel.equals(DAQ_SERIAL) ? daq_linkLock : ctrl_linkLock;
+	}
+	
+	private TrussFrameReceiver getFrameReceiver(String channel){
+		return channel.equals(DAQ_SERIAL) ? daq_frameReceiver : ctrl_frameReceiver;
+	}
+	
+	private boolean isBinary(String channel){
+		return channel.equals(DAQ_SERIAL) ? daq_binary : ctrl_binary;
+	}
+	
+	private TrussPollScheduler getScheduler(String channel){
+		return channel.equals(DAQ_SERIAL) ? daq_scheduler : ctrl_scheduler;
+	}
+	
+	private TrussLinkSupervisor getSupervisor(String channel){
+		return channel.equals(DAQ_SERIAL) ? daq_supervisor : ctrl_supervisor;
+	}
+	
+	// Asks the Arduino to switch to binary framing, the link stays on the text protocol if it is not supported
+	private void negotiateFraming(String channel){
+		if (!binaryFraming || !getSupervisor(channel).isUp()) return;
+		
+		String response = sendCmd(TrussFrame.NEGOTIATE, channel, TrussLinkArbiter.CALIBRATION);
+		if (response.startsWith("Cpl")){
+			getLink(channel).setListener(getFrameReceiver(channel));
+			if (channel.equals(DAQ_SERIAL)){
+				daq_binary = true;
+			}else{
+				ctrl_binary = true;
 			}
-		}catch (Exception e) {
-			logger.error("Primitive Controller HW Interface - Exception - Could not find port.");
+			logger.info("Primitive Controller HW Interface - " + channel + " link using binary framing");
+		}else{
+			logger.info("Primitive Controller HW Interface - " + channel + " binary framing not supported, using text protocol");
 		}
-    	
-    	logger.debug("Primitive Controller HW Interface - finished finding port instance");
-		if (portId1 == null) {
-			logger.debug("Primitive Controller HW Interface - Could not find " + DAQ_SERIAL + " COM port.");
-			return;
+	}
+	
+	private void useTextProtocol(String channel){
+		getLink(channel).setListener(getReceiver(channel));
+		if (channel.equals(DAQ_SERIAL)){
+			daq_binary = false;
+		}else{
+			ctrl_binary = false;
 		}
-		if (portId2 == null) {
-			logger.debug("Primitive Controller HW Interface - Could not find " + CTRL_SERIAL + " COM port.");
+	}
+	
+	// Reopens a link that is down once its backoff has passed, waiting at most 100 ms so the running flag is still checked
+	private void reconnectLink(String channel) throws InterruptedException {
+		TrussLinkSupervisor supervisor = getSupervisor(channel);
+		ITrussLink link = getLink(channel);
+		TrussLinkArbiter linkLock = getLinkLock(channel);
+		
+		// closed straight away so an unplugged adapter's port is released and can be enumerated again when it is back
+		linkLock.lock(TrussLinkArbiter.CALIBRATION);
+		try {
+			if (link.isOpen()){
+				link.close();
+			}
+		} finally {
+			linkLock.unlock();
+		}
+		
+		long delay = supervisor.getRetryDelay(System.nanoTime());
+		if (delay > 0){
+			Thread.sleep(Math.min(delay / 1000000 + 1, 100));
 			return;
 		}
-		logger.info("Primitive Controller HW Interface - Serial port ID found");
-
+		
+		linkLock.lock(TrussLinkArbiter.CALIBRATION);
 		try {
-			// open serial port, and use class name for the appName.
-			daq_serialPort = (SerialPort) portId1.open(this.getClass().getName()+ DAQ_SERIAL, TIME_OUT);
-			logger.debug("Primitive Controller HW Interface - "+ DAQ_SERIAL +" port Open and set name");
-
-			// set port parameters
-			daq_serialPort.setSerialPortParams(DATA_RATE,
-					SerialPort.DATABITS_8,
-					SerialPort.STOPBITS_1,
-					SerialPort.PARITY_NONE);
-			
-			logger.debug("Primitive Controller HW Interface - "+ DAQ_SERIAL +" port parameter set");
-
-			// open the streams
-			daq_serial_input = new BufferedReader(new InputStreamReader(daq_serialPort.getInputStream()));
-			daq_output = daq_serialPort.getOutputStream();
-			logger.debug("Primitive Controller HW Interface - "+ DAQ_SERIAL +" port stream open");
-
-			daq_serialPort.addEventListener(this);
-            logger.debug("Primitive Controller HW Interface - "+ DAQ_SERIAL +" port event listener added");
-            
-            daq_serialPort.notifyOnDataAvailable(true);
-            logger.info("Primitive Controller HW Interface - "+ DAQ_SERIAL +" ports opened ");
-		} catch (Exception e) {
-			System.err.println(e.toString());
-			logger.error("Primitive Controller HW Interface - "+ DAQ_SERIAL +" port open exception: "+e.toString());
+			// the Arduino restarts when its port is opened, so it is back on the text protocol
+			useTextProtocol(channel);
+			if (!link.open()){
+				supervisor.reconnectFailed(System.nanoTime());
+				logger.debug("Primitive Controller HW Interface - " + channel + " link could not be reopened, retrying in " +
+						supervisor.getRetryDelay(System.nanoTime()) / 1000000 + " ms");
+				return;
+			}
+		} finally {
+			linkLock.unlock();
 		}
 		
-		try {
-			// open serial port, and use class name for the appName.
-			ctrl_serialPort = (SerialPort) portId2.open(this.getClass().getName()+ CTRL_SERIAL, TIME_OUT);
-			logger.debug("Primitive Controller HW Interface - "+ CTRL_SERIAL +" port Open and set name");
-
-			// set port parameters
-			ctrl_serialPort.setSerialPortParams(DATA_RATE,
-					SerialPort.DATABITS_8,
-					SerialPort.STOPBITS_1,
-					SerialPort.PARITY_NONE);
-			
-			logger.debug("Primitive Controller HW Interface - "+ CTRL_SERIAL +" port parameter set");
-
-			// open the streams
-			ctrl_serial_input = new BufferedReader(new InputStreamReader(ctrl_serialPort.getInputStream()));
-			ctrl_output = ctrl_serialPort.getOutputStream();
-			logger.debug("Primitive Controller HW Interface - "+ CTRL_SERIAL +" port stream open");
-
-			ctrl_serialPort.addEventListener(this);
-            logger.debug("Primitive Controller HW Interface - "+ CTRL_SERIAL +" port event listener added");
-            
-            ctrl_serialPort.notifyOnDataAvailable(true);
-            logger.info("Primitive Controller HW Interface - "+ CTRL_SERIAL +" ports opened ");
-		} catch (Exception e) {
-			System.err.println(e.toString());
-			logger.error("Primitive Controller HW Interface - "+ CTRL_SERIAL +" port open exception: "+e.toString());
+		// the reopened port may have a different Arduino behind it, whose bulk request support is found again
+		if (channel.equals(DAQ_SERIAL)){
+			daq_bulkAnswered = false;
+			daq_bulkIgnored = 0;
+			daq_bulkMalformed = 0;
+		}else{
+			ctrl_bulkAnswered = false;
+			ctrl_bulkIgnored = 0;
+			ctrl_bulkMalformed = 0;
 		}
+		
+		// the mode handshake is repeated by the poll cycle once the restarted Arduino reports its mode
+		Thread.sleep(reconnectSettle);
+		supervisor.reconnected();
+		logger.info("Primitive Controller HW Interface - " + channel + " link reopened");
+		negotiateFraming(channel);
+		publishSnapshot();
 	}
 	
-	public synchronized void serialEvent (SerialPortEvent oEvent) {
-        if (oEvent.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
-            try {
-            	// no action
-            } catch (Exception e) {
-                //System.err.println(e.toString());
-                logger.error("Primitive Controller HW Interface - data exception: " + e.toString());
-            }
-        }
-    }
+	// Records a command answered on a link
+	private void linkAnswered(String channel){
+		getSupervisor(channel).success();
+	}
 	
-	public synchronized void serialClose() {
-		if (daq_serialPort != null) {
-			daq_serialPort.removeEventListener();
-			daq_serialPort.close();
+	// Records a command not answered in time, the link is down after several in a row
+	private void linkTimedOut(String channel){
+		if (getSupervisor(channel).timeout(System.nanoTime())){
+			linkDown(channel, "no response to " + linkFailures + " commands");
 		}
-		if (ctrl_serialPort != null) {
-			ctrl_serialPort.removeEventListener();
-			ctrl_serialPort.close();
+	}
+	
+	// Records an I/O error, the link is down straight away
+	private void linkFailed(String channel, IOException e){
+		if (getSupervisor(channel).error(System.nanoTime())){
+			linkDown(channel, e.toString());
 		}
 	}
 	
-	private int read(String channel){
-        int b = 0;
-        try{
-        	if (channel.equals(DAQ_SERIAL)){
-        		b = (int)daq_serial_input.read();
-        	}
-        	if (channel.equals(CTRL_SERIAL)){
-        		b = (int)ctrl_serial_input.read();
-        	}
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-            logger.error("Primitive Controller HW Interface - " + e.toString());
-        }
-        return b;
-    }
+	// Logged once as the link goes down, then it is reported as down in the telemetry until it is reopened
+	private void linkDown(String channel, String reason){
+		logger.error("Primitive Controller HW Interface - " + channel + " link down (" + reason + "), reconnecting");
+		publishSnapshot();
+	}
 	
-	private void write(String channel, String cmd){
-		try{
-        	if (channel.equals(DAQ_SERIAL)){
-        		daq_output.write(cmd.getBytes());
-        		daq_output.write('\n');
-        		daq_output.flush();
-        	}
-        	if (channel.equals(CTRL_SERIAL)){
-        		ctrl_output.write(cmd.getBytes());
-        		ctrl_output.write('\n');
-        		ctrl_output.flush();
-        	}
-        }
-        catch (Exception e) {
-            System.err.println(e.toString());
-            logger.error("Primitive Controller HW Interface - " + e.toString());
-        }
+	// Takes a link for a command of a priority lane, recording the wait from the command being accepted to holding the link
+	private void lockLink(String channel, int lane, long accepted){
+		getLinkLock(channel).lock(lane);
+		Command wait = channel.equals(DAQ_SERIAL) ? daq_laneWait[lane] : ctrl_laneWait[lane];
+		wait.response(System.nanoTime() - accepted);
+	}
+	
+	private String sendCmd(String cmd, String channel, int lane){
+		return sendCmd(cmd, channel, lane, System.nanoTime());
 	}
 	
-	private String sendCmd(String cmd, String channel){
+	private String sendCmd(String cmd, String channel, int lane, long accepted){
+		// the poller and command sender share the link, one round trip at a time, the highest priority lane first
+		TrussLinkArbiter linkLock = getLinkLock(channel);
+		lockLink(channel, lane, accepted);
+		try {
+			// nothing is sent while the link is down
+			if (!getSupervisor(channel).isUp()) return "Err:Link";
+			
+			Command stats = getCommandStats(cmd, channel);
+			long start = System.nanoTime();
+			String response = exchangeCmd(cmd, channel, lane);
+			if (response.startsWith(STOPPED_RSP)){
+				// never written, so there is no round trip to record
+			}else if (response.startsWith("Err:Timeout")){
+				stats.timeout();
+			}else if (response.startsWith("Err:Link")){
+				stats.error();
+			}else{
+				stats.response(System.nanoTime() - start);
+				if (response.startsWith("Err")) stats.error();
+				else if (!response.startsWith("Cpl")) stats.malformed();
+			}
+			return response;
+		} finally {
+			linkLock.unlock();
+		}
+	}
+	
+	// Statistics of a command by link and type, such as 'DAQ SETS', with the address of SETV as each address is a different command
+	private Command getCommandStats(String cmd, String channel){
+		int start = cmd.startsWith("rlab://") ? 7 : 0;
+		int query = cmd.indexOf('?', start);
+		String type = cmd.substring(start, query < 0 ? cmd.length() : query);
+		if (type.equals("SETV")){
+			int addr = cmd.indexOf("addr=", query);
+			if (addr >= 0){
+				int end = cmd.indexOf('&', addr);
+				type += " " + cmd.substring(addr + 5, end < 0 ? cmd.length() : end);
+			}
+		}
+		return commandStats.get(channel + " " + type);
+	}
+	
+	private String exchangeCmd(String cmd, String channel, int lane){
 		String response="";
 		
+		long deadline = System.nanoTime() + responseTimeout;
 		try {
-			if (channel.equals(DAQ_SERIAL)){
-				while (daq_serial_input.ready()) daq_serial_input.read();  // clear input buffer
-			}
-			if (channel.equals(CTRL_SERIAL)){
-				while (ctrl_serial_input.ready()) ctrl_serial_input.read();  // clear input buffer
+			if (isBinary(channel)){
+				// Commands other than requests only need the status
+				ByteBuffer frame = sendFrame(cmd, channel, lane, deadline);
+				if (frame == NOT_SENT){
+					return STOPPED_RSP;
+				}
+				if (frame == null){
+					linkTimedOut(channel);
+					return "Err:Timeout";
+				}
+				linkAnswered(channel);
+				return frame.get() == TrussFrame.CPL ? "Cpl" : "Err";
 			}
+			
+			TrussLineReceiver receiver = getReceiver(channel);
+			receiver.clear();  // discard anything received before this command
 			logger.debug("Primitive Controller HW Interface - Arduino Cmd=" + cmd);
-			write(channel, cmd);
-			Thread.sleep(50);
+			if (!getLinkLock(channel).write(getLink(channel), lane, cmd)){
+				return STOPPED_RSP;
+			}
 			
-			int currentChar;
-			int attempts=0;
-			while (true) {
-				currentChar = read(channel);
-				if (currentChar == 0){
-					logger.debug("Primitive Controller HW Interface - Arduino " + channel + " buffer null, attempt:" + attempts);
-					Thread.sleep(50);
-					attempts++;
+			// the receive thread releases the response line as soon as it is complete
+			response = receiver.awaitLineUntil(deadline);
+			if (response == null){
+				response = "Err:Timeout";
+				linkTimedOut(channel);
+				logger.debug("Primitive Controller HW Interface - Arduino " + channel + " Cmd fb timeout");
+			}else{
+				linkAnswered(channel);
+			}
+			logger.debug("Primitive Controller HW Interface - Arduino " + channel + " Rsp=" + response);
+			
+		 } catch (IOException e) {
+			 linkFailed(channel, e);
+			 response = "Err:Link";
+		 } catch (Exception e) {
+			 logger.error("Primitive Controller HW Interface - could not write to " + channel);
+             System.err.println(e.toString());
+		 }
+		return response;
+	}
+	
+	// Sends commands which only need their status, such as calibration values. On a binary framed link up to the calibration
+	// window of them are in flight at once, each matched to its acknowledgement by its sequence number, and a command without
+	// an acknowledgement is sent again. Returns the number of commands that were not completed.
+	private int pipelineCmds(String[] cmds, String channel){
+		if (!isBinary(channel)){
+			// the text protocol has no sequence numbers, so one command at a time
+			int failed = 0;
+			for (String cmd : cmds){
+				if (!sendCmd(cmd, channel, TrussLinkArbiter.CALIBRATION).startsWith("Cpl")) failed++;
+			}
+			return failed;
+		}
+		
+		boolean daq = channel.equals(DAQ_SERIAL);
+		ByteBuffer tx = daq ? daq_txFrame : ctrl_txFrame;
+		TrussFrameReceiver receiver = getFrameReceiver(channel);
+		int window = Math.min(calibrationWindow, cmds.length);
+		int[] slotCmd = new int[window];		// index of the command in flight in each slot, -1 if free
+		int[] slotSeq = new int[window];
+		long[] slotSent = new long[window];
+		int[] tries = new int[cmds.length];
+		Deque<Integer> pending = new ArrayDeque<Integer>();
+		for (int i = 0; i < cmds.length; i++){
+			pending.add(i);
+		}
+		Arrays.fill(slotCmd, -1);
+		int inFlight = 0;
+		int completed = 0;
+		
+		TrussLinkArbiter linkLock = getLinkLock(channel);
+		lockLink(channel, TrussLinkArbiter.CALIBRATION, System.nanoTime());
+		try {
+			while ((!pending.isEmpty() || inFlight > 0) && getSupervisor(channel).isUp()){
+				// setpoints and emergency commands go between the calibration commands
+				if (inFlight == 0){
+					linkLock.giveWay();
 				}
-
-				if (currentChar==-1 ){
-					logger.debug("Primitive Controller HW Interface - Arduino " + channel + " Cmd fb not ready, attempt:" + attempts);
-					Thread.sleep(50);
-					attempts++;
+				// fill the window, unless a command of a higher lane is waiting for the commands in flight
+				for (int s = 0; s < window && !pending.isEmpty() && !linkLock.hasWaitingAbove(); s++){
+					if (slotCmd[s] >= 0) continue;
+					int c = pending.poll();
+					int seq = nextSeq(daq);
+					int len = TrussFrame.encodeCommand(cmds[c], seq, tx);
+					receiver.expectAck(seq);
+					slotCmd[s] = c;
+					slotSeq[s] = seq;
+					slotSent[s] = System.nanoTime();
+					tries[c]++;
+					inFlight++;
+					logger.debug("Primitive Controller HW Interface - Arduino Cmd=" + cmds[c]);
+					getLink(channel).write(tx.array(), 0, len);
 				}
-				else if (currentChar == '\n') break;
-				else if (currentChar != 0)response += (char) currentChar;
-				if (attempts>60) {
-					response = "Err:Timeout";
-					logger.debug("Primitive Controller HW Interface - Arduino " + channel + " Cmd fb timeout");
-					break;
+				
+				// until an acknowledgement arrives or the oldest command's deadline
+				long oldest = 0;
+				boolean first = true;
+				for (int s = 0; s < window; s++){
+					if (slotCmd[s] >= 0 && (first || slotSent[s] - oldest < 0)){
+						oldest = slotSent[s];
+						first = false;
+					}
+				}
+				receiver.awaitAckUntil(oldest + responseTimeout);
+				
+				long now = System.nanoTime();
+				for (int s = 0; s < window; s++){
+					int c = slotCmd[s];
+					if (c < 0) continue;
+					
+					Command stats = getCommandStats(cmds[c], channel);
+					int status = receiver.takeAck(slotSeq[s]);
+					if (status != TrussFrameReceiver.NO_ACK){
+						stats.response(now - slotSent[s]);
+						linkAnswered(channel);
+						if (status == TrussFrame.CPL){
+							completed++;
+						}else{
+							// rejected, which sending it again does not change
+							stats.error();
+							logger.warn("Primitive Controller HW Interface - Arduino " + channel + " rejected " + cmds[c]);
+						}
+					}else if (now - slotSent[s] >= responseTimeout){
+						receiver.cancelAck(slotSeq[s]);
+						stats.timeout();
+						linkTimedOut(channel);
+						logger.debug("Primitive Controller HW Interface - Arduino " + channel + " Cmd fb timeout");
+						if (tries[c] < CALIBRATION_TRIES){
+							pending.add(c);
+						}
+					}else{
+						continue;
+					}
+					slotCmd[s] = -1;
+					inFlight--;
 				}
 			}
-			logger.debug("Primitive Controller HW Interface - Arduino " + channel + " Rsp=" + response);
+		} catch (IOException e) {
+			linkFailed(channel, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error("Primitive Controller HW Interface - could not write to " + channel);
+			logger.error("Primitive Controller HW Interface - " + e.toString());
+		} finally {
+			// acknowledgements still to come are discarded as stale
+			for (int s = 0; s < window; s++){
+				if (slotCmd[s] >= 0) receiver.cancelAck(slotSeq[s]);
+			}
+			linkLock.unlock();
+		}
+		return cmds.length - completed;
+	}
+	
+	// Sends a command as a binary frame, returns the response body positioned at its status, null on timeout or NOT_SENT if
+	// it is a setpoint refused after an emergency stop
+	private ByteBuffer sendFrame(String cmd, String channel, int lane, long deadline) throws IOException{
+		ByteBuffer response = null;
+		
+		try {
+			boolean daq = channel.equals(DAQ_SERIAL);
+			ByteBuffer tx = daq ? daq_txFrame : ctrl_txFrame;
+			int seq = nextSeq(daq);
+			int len = TrussFrame.encodeCommand(cmd, seq, tx);
 			
+			TrussFrameReceiver receiver = getFrameReceiver(channel);
+			receiver.clear();  // discard anything received before this command
+			logger.debug("Primitive Controller HW Interface - Arduino Cmd=" + cmd);
+			if (!getLinkLock(channel).write(getLink(channel), lane, tx.array(), 0, len)){
+				return NOT_SENT;
+			}
+			
+			response = receiver.awaitFrameUntil(seq, deadline);
+			if (response == null){
+				logger.debug("Primitive Controller HW Interface - Arduino " + channel + " Cmd fb timeout");
+			}
+		 } catch (IOException e) {
+			 throw e;
 		 } catch (Exception e) {
 			 logger.error("Primitive Controller HW Interface - could not write to " + channel);
-             System.err.println(e.toString());
+			 logger.error("Primitive Controller HW Interface - " + e.toString());
 		 }
 		return response;
 	}
 	
+	// Requests values, returns the response read in place from the receive buffer or null on timeout
+	private ITrussResponse requestValues(int req, String channel){
+		// nothing is sent while the link is down
+		if (!getSupervisor(channel).isUp()) return null;
+		
+		boolean daq = channel.equals(DAQ_SERIAL);
+		Command stats = daq ? daq_reqvStats[req] : ctrl_reqvStats[req];
+		long start = System.nanoTime();
+		long deadline = start + responseTimeout;
+		try {
+			if (isBinary(channel)){
+				ByteBuffer tx = daq ? daq_txFrame : ctrl_txFrame;
+				int seq = nextSeq(daq);
+				int len = TrussFrame.encodeRequest(req == REQV_ALL ? TrussFrame.ADDR_ALL : req, seq, tx);
+				TrussFrameReceiver receiver = getFrameReceiver(channel);
+				receiver.clear();
+				getLink(channel).write(tx.array(), 0, len);
+				
+				TrussFrameFields fields = daq ? daq_frameFields : ctrl_frameFields;
+				if (receiver.awaitFrameUntil(fields, seq, deadline)){
+					stats.response(System.nanoTime() - start);
+					linkAnswered(channel);
+					return fields;
+				}
+			}else{
+				TrussLineReceiver receiver = getReceiver(channel);
+				receiver.clear();
+				getLink(channel).write(REQV_TEXT[req], 0, REQV_TEXT[req].length);
+				
+				TrussFieldScanner scanner = daq ? daq_scanner : ctrl_scanner;
+				if (receiver.awaitLineUntil(scanner, deadline)){
+					stats.response(System.nanoTime() - start);
+					linkAnswered(channel);
+					return scanner;
+				}
+			}
+			stats.timeout();
+			linkTimedOut(channel);
+			logger.debug("Primitive Controller HW Interface - Arduino " + channel + " request fb timeout");
+		 } catch (IOException e) {
+			 stats.error();
+			 linkFailed(channel, e);
+		 } catch (Exception e) {
+			 logger.error("Primitive Controller HW Interface - could not write to " + channel);
+			 logger.error("Primitive Controller HW Interface - " + e.toString());
+		 }
+		return null;
+	}
+	
+	private int nextSeq(boolean daq){
+		return (daq ? daq_seq : ctrl_seq).incrementAndGet() & 0xFF;
+	}
+	
 	//------------------------------------------------------------------
     // Public access functions
 	//------------------------------------------------------------------
 	public synchronized boolean getRunning(){ return this.running; }
-	public synchronized void stopRunning() { this.running = false ;	}
+	public void stopRunning() {
+		synchronized (this){
+			this.running = false;
+		}
+		// sealed now, rather than when the pollers exit, so the recording is ready as the session ends, and outside the
+		// monitor as sealing forces the recording to disk
+		recorder.closeRecording();
+	}
+	
+	// External - Stops the screw drive and winch from the caller's thread, returning each link's (DAQ, CTRL) time from the stop
+	// being written to its acknowledgement in ns, -1 if not acknowledged. Not synchronized so it does not wait for the poller.
+	public long[] emergencyStop(){
+		emergencyStopped = true;
+		// setpoints already waiting for a link are refused once they take it
+		daq_linkLock.stop();
+		ctrl_linkLock.stop();
+		logger.warn("Primitive Controller HW Interface - emergency stop");
+		String[] channels = { DAQ_SERIAL, CTRL_SERIAL };
+		int[] seq = new int[channels.length];
+		long[] sent = new long[channels.length];
+		long[] ack = new long[channels.length];
+		
+		// a frame is matched to its acknowledgement by its sequence number, so it is written without waiting for the command
+		// in flight, and both links are written before either acknowledgement is awaited
+		for (int i = 0; i < channels.length; i++){
+			sent[i] = System.nanoTime();
+			seq[i] = isBinary(channels[i]) ? writeStopFrame(channels[i]) : -1;
+		}
+		for (int i = 0; i < channels.length; i++){
+			ack[i] = -1;
+			if (seq[i] >= 0){
+				Command stats = commandStats.get(channels[i] + " STOP");
+				try {
+					int status = getFrameReceiver(channels[i]).awaitAckUntil(seq[i], sent[i] + responseTimeout);
+					if (status == TrussFrame.CPL){
+						ack[i] = System.nanoTime() - sent[i];
+						stats.response(ack[i]);
+						linkAnswered(channels[i]);
+						continue;
+					}
+					if (status == TrussFrameReceiver.NO_ACK){
+						getFrameReceiver(channels[i]).cancelAck(seq[i]);
+						stats.timeout();
+						linkTimedOut(channels[i]);
+					}else{
+						stats.error();
+					}
+				} catch (InterruptedException e) {
+					getFrameReceiver(channels[i]).cancelAck(seq[i]);
+					Thread.currentThread().interrupt();
+				}
+			}else{
+				// the text protocol can not tell responses apart, so the stop goes next after the command in flight
+				long start = System.nanoTime();
+				String feedback = sendCmd(STOP_CMD, channels[i], TrussLinkArbiter.EMERGENCY);
+				if (feedback.startsWith("Cpl")){
+					ack[i] = System.nanoTime() - start;
+					continue;
+				}
+			}
+			logger.error("Primitive Controller HW Interface - " + channels[i] + " emergency stop not acknowledged");
+		}
+		return ack;
+	}
+	
+	// Writes the stop frame onto a binary framed link, returns its sequence number or -1 if it could not be written
+	private int writeStopFrame(String channel){
+		boolean daq = channel.equals(DAQ_SERIAL);
+		ByteBuffer frame = daq ? daq_stopFrame : ctrl_stopFrame;
+		TrussFrameReceiver receiver = getFrameReceiver(channel);
+		synchronized (frame){
+			int seq = nextSeq(daq);
+			int len = TrussFrame.encodeCommand(STOP_CMD, seq, frame);
+			receiver.expectAck(seq);
+			try {
+				// each write is a whole frame, so it goes between the frames of other commands
+				getLinkLock(channel).write(getLink(channel), TrussLinkArbiter.EMERGENCY, frame.array(), 0, len);
+				return seq;
+			} catch (IOException e) {
+				receiver.cancelAck(seq);
+				linkFailed(channel, e);
+				return -1;
+			}
+		}
+	}
 	
 	public synchronized void resetWatchdog(){
 		wdDaq = 0;
 		wdCtrl = 0;
+		publishSnapshot();
 	}
+	
+	// External - Consistent set of all telemetry values, read without locking
+	public TrussTelemetrySnapshot getSnapshot(){ return snapshot;}
+	
+	// External - Recent samples for clients that poll less often than the values change
+	public TrussTelemetryHistory getHistory(){ return history;}
+	
+	// External - Achieved rate in Hz of a poll phase of the DAQ or CTRL link
+	public double getPollRate(String channel, int phase){
+		return (DAQ_SERIAL.equals(channel) ? daq_scheduler : ctrl_scheduler).getRate(phase);
+	}
+	
 	// External - Information fetch
 	public synchronized float getDaqStrain(int index){ return daq_strain[index];}
 	public synchronized float getStrain(int index){ return (daq_strain[index] - strain_base[index]);}
@@ -1062,47 +1733,49 @@ public class RedundantTrussHW extends Thread implements SerialPortEventListener
 		for (int i = 0; i < 10; i++){
 			strain_base[i] = daq_strain[i];
 		}
+		publishSnapshot();
 	}	
 	
 	// External - Specify Angle Target
 	public synchronized void setAngleTarget(float angle){
-		ctrl_tgtDistanceBuffer = refDistance - angleToDistance(angle);
-		ctrl_tgtDistanceFlag = true;
+		ctrl_commands.set(CMD_TGT_DISTANCE, refDistance - angleToDistance(angle));
 	}
 	
 	// External - Screw Drive Motor Stepping
 	public synchronized void incAngleStep(){
-		ctrl_angleStepBuffer = stepsize;
-		ctrl_angleStepFlag = true;
+		ctrl_commands.add(CMD_ANGLE_STEP, stepsize);
 	}
 	public synchronized void decAngleStep(){
-		ctrl_angleStepBuffer = - stepsize;
-		ctrl_angleStepFlag = true;
+		ctrl_commands.add(CMD_ANGLE_STEP, - stepsize);
 	}
 	// External - Winch Drive Motor Stepping
 	public synchronized void incLoadStep(){
-		ctrl_loadStepBuffer = stepsize;
-		ctrl_loadStepFlag = true;
+		ctrl_commands.add(CMD_LOAD_STEP, stepsize);
 	}
 	public synchronized void decLoadStep(){
-		ctrl_loadStepBuffer = 0 - stepsize;
-		ctrl_loadStepFlag = true;
+		ctrl_commands.add(CMD_LOAD_STEP, 0 - stepsize);
 	}
 	
 	// External - Motor Stepping Auxiliaries 
 	public synchronized int getStepSize(){ return stepsize;}
 	public synchronized void setStepSize(int val){
 		stepsize = val;
+		publishSnapshot();
 	}
 	
 	public synchronized void setLoadTarget(float val){
-		ctrl_tgtLoadBuffer = val;
-		ctrl_tgtLoadFlag = true;
+		ctrl_commands.set(CMD_TGT_LOAD, val);
 	}
 	
 	public synchronized void calibrateScrew(){
 		refDistance = ctrl_curDistance;
-		writeToConfigFlag = true;
+		// saved by the calibration file's thread
+		if (ctrl_calibration != null){
+			ctrl_calibration.set("Reference_Distance", String.valueOf(refDistance));
+		}else{
+			logger.error("Primitive Controller HW Interface - Ctrl Config file not open, reference distance not saved");
+		}
+		publishSnapshot();
 	}
 	
 
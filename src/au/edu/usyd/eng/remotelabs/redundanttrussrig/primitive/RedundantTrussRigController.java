@@ -1,15 +1,30 @@
 package au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive;
 
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussBlockEncoder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussDownsampledHistory;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussHistoryRange;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussLttbSampler;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussRecordingExporter;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussSessionRecorder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetryHistory;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetrySnapshot;
 import au.edu.uts.eng.remotelabs.rigclient.rig.IRigControl.PrimitiveRequest;
 import au.edu.uts.eng.remotelabs.rigclient.rig.IRigControl.PrimitiveResponse;
 import au.edu.uts.eng.remotelabs.rigclient.rig.primitive.IPrimitiveController;
+import au.edu.uts.eng.remotelabs.rigclient.util.CommandStatistics;
+import au.edu.uts.eng.remotelabs.rigclient.util.CommandStatistics.Command;
 import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LatencyHistogram;
 import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
 
 import gnu.io.CommPortIdentifier;
 
 import java.io.*;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.xml.bind.DatatypeConverter;
 
 
 public class RedundantTrussRigController implements IPrimitiveController {
@@ -37,44 +52,288 @@ public class RedundantTrussRigController implements IPrimitiveController {
     
     public PrimitiveResponse getValsAction(PrimitiveRequest request) throws IOException
     {
+            // one consistent set of values, read without contending with the poller
+            TrussTelemetrySnapshot snap = rtHW.getSnapshot();
             PrimitiveResponse response = new PrimitiveResponse();
             response.setSuccessful(true);
-			response.addResult("stepsize",		String.valueOf(rtHW.getStepSize()));
+			response.addResult("stepsize",		String.valueOf(snap.getStepSize()));
 		
-            response.addResult("angle", 		String.valueOf(rtHW.getCurAngle()));
-			response.addResult("angletarget", 	String.valueOf(rtHW.getTgtAngle()));
-			response.addResult("anglemode", 	String.valueOf(rtHW.getAngleMode()));
-			response.addResult("anglehealth", 	String.valueOf(rtHW.getAngleHealth()));
+            response.addResult("angle", 		String.valueOf(snap.getAngle()));
+			response.addResult("angletarget", 	String.valueOf(snap.getAngleTarget()));
+			response.addResult("anglemode", 	String.valueOf(snap.getAngleMode()));
+			response.addResult("anglehealth", 	String.valueOf(snap.getAngleHealth()));
 			
-            response.addResult("load", 			String.valueOf(rtHW.getCurLoad()));
-			response.addResult("loadtarget", 	String.valueOf(rtHW.getTgtLoad()));
-			response.addResult("loadmode", 		String.valueOf(rtHW.getLoadMode()));
-			response.addResult("loadhealth", 	String.valueOf(rtHW.getLoadHealth()));
+            response.addResult("load", 			String.valueOf(snap.getLoad()));
+			response.addResult("loadtarget", 	String.valueOf(snap.getLoadTarget()));
+			response.addResult("loadmode", 		String.valueOf(snap.getLoadMode()));
+			response.addResult("loadhealth", 	String.valueOf(snap.getLoadHealth()));
 			
-			for (int i=0;i<10;i++){
-				if (rtHW.getDaqHealth(i)==0){
-					response.addResult("StrainValue"+String.valueOf(i+1),String.valueOf(rtHW.getStrain(i)));
+			for (int i=0;i<TrussTelemetrySnapshot.STRAIN_GAUGES;i++){
+				if (snap.getStrainHealth(i)==0){
+					response.addResult("StrainValue"+String.valueOf(i+1),String.valueOf(snap.getStrain(i)));
+					response.addResult("FilteredStrainValue"+String.valueOf(i+1),String.valueOf(snap.getFilteredStrain(i)));
 				}else{
 					response.addResult("StrainValue"+String.valueOf(i+1),"NaN");
+					response.addResult("FilteredStrainValue"+String.valueOf(i+1),"NaN");
 				}
 			}
-			if (rtHW.getDaqWatchdog()==0) response.addResult("daqlinksts", String.valueOf(0));
-			else if (rtHW.getDaqWatchdog()== 999) response.addResult("daqlinksts", String.valueOf(2));
-			else response.addResult("daqlinksts", String.valueOf(1));
-			
-			if (rtHW.getCtrlWatchdog()==0) response.addResult("ctrllinksts", String.valueOf(0));
-			else if (rtHW.getCtrlWatchdog()== 999) response.addResult("ctrllinksts", String.valueOf(2));
-			else response.addResult("ctrllinksts", String.valueOf(1));
+			response.addResult("daqlinksts", String.valueOf(snap.getDaqLinkStatus()));
+			response.addResult("ctrllinksts", String.valueOf(snap.getCtrlLinkStatus()));
 			
 			// for troubleshooting
-			response.addResult("rawdistance", 	String.valueOf(rtHW.getRawDistance()));
-			response.addResult("refdistance",	String.valueOf(rtHW.getRefDistance()));
-			response.addResult("daqmode",		String.valueOf(rtHW.getDaqMode()));
-			response.addResult("ctrlmode",		String.valueOf(rtHW.getCtrlMode()));
+			response.addResult("rawdistance", 	String.valueOf(snap.getRawDistance()));
+			response.addResult("refdistance",	String.valueOf(snap.getRefDistance()));
+			response.addResult("daqmode",		String.valueOf(snap.getDaqMode()));
+			response.addResult("ctrlmode",		String.valueOf(snap.getCtrlMode()));
 			
             return response;
     }
 	
+	/*
+	 * Samples after the 'since' sequence number (all held if not given), each channel as a comma separated list.
+	 * The 'sequence' result is the sequence number to pass as 'since' in the next request.
+	 * With 'format' set to 'compressed' the samples are instead returned as the base64 'data' result, a block
+	 * encoded by TrussBlockEncoder with the history channels as float columns then the unhealthy strain gauges.
+	 * With 'maxPoints' each channel is downsampled to at most that number of samples for drawing, each channel
+	 * with its own '<channel>time' result. With 'source' set to 'recording' the samples recorded so far in the
+	 * session are downsampled instead, to 'maxPoints' or DEFAULT_HISTORY_POINTS.
+	 */
+	public PrimitiveResponse getHistoryAction(PrimitiveRequest request) throws IOException
+	{
+			PrimitiveResponse response = new PrimitiveResponse();
+			long since = 0;
+			String param = request.getParameters().get("since");
+			try{
+				if (param != null) since = Long.parseLong(param.trim());
+			}catch (NumberFormatException e){
+				response.setSuccessful(false);
+				response.setErrorCode(1);
+				response.setErrorReason("Invalid 'since' sequence number: " + param);
+				return response;
+			}
+
+			boolean recording = "recording".equals(request.getParameters().get("source"));
+			int maxPoints = recording ? DEFAULT_HISTORY_POINTS : 0;
+			param = request.getParameters().get("maxPoints");
+			try{
+				if (param != null) maxPoints = Integer.parseInt(param.trim());
+			}catch (NumberFormatException e){
+				maxPoints = -1;
+			}
+			if (param != null && maxPoints < 3){
+				response.setSuccessful(false);
+				response.setErrorCode(1);
+				response.setErrorReason("Invalid 'maxPoints' value, at least 3 points are needed: " + param);
+				return response;
+			}
+
+			if (maxPoints > 0){
+				TrussDownsampledHistory down;
+				if (recording){
+					try{
+						down = TrussDownsampledHistory.fromRecordings(
+								TrussSessionRecorder.getInstance().getSessionRecordings(), maxPoints);
+					}catch (IOException e){
+						this.logger.warn("Primitive Controller - reading telemetry recordings failed: " + e.getMessage());
+						response.setSuccessful(false);
+						response.setErrorCode(3);
+						response.setErrorReason("Reading telemetry recordings failed: " + e.getMessage());
+						return response;
+					}
+				}
+				else down = rtHW.getHistory().downsample(since, maxPoints);
+
+				response.setSuccessful(true);
+				response.addResult("sequence", 		String.valueOf(down.getLastSequence()));
+				response.addResult("first", 		String.valueOf(down.getFirstSequence()));
+				response.addResult("count", 		String.valueOf(down.getLastSequence() - down.getFirstSequence() + 1));
+				downsampledChannel(response, "angle", 		down.getChannel(TrussTelemetryHistory.CH_ANGLE));
+				downsampledChannel(response, "angletarget", down.getChannel(TrussTelemetryHistory.CH_ANGLE_TARGET));
+				downsampledChannel(response, "load", 		down.getChannel(TrussTelemetryHistory.CH_LOAD));
+				downsampledChannel(response, "loadtarget", 	down.getChannel(TrussTelemetryHistory.CH_LOAD_TARGET));
+				for (int i=0;i<TrussTelemetrySnapshot.STRAIN_GAUGES;i++){
+					downsampledChannel(response, "StrainValue"+String.valueOf(i+1), down.getChannel(i));
+				}
+				return response;
+			}
+
+			TrussHistoryRange range = rtHW.getHistory().since(since);
+			response.setSuccessful(true);
+			response.addResult("sequence", 		String.valueOf(range.getLastSequence()));
+			response.addResult("first", 		String.valueOf(range.getFirstSequence()));
+			response.addResult("count", 		String.valueOf(range.size()));
+
+			if ("compressed".equals(request.getParameters().get("format"))){
+				response.addResult("columns", String.valueOf(HISTORY_COLUMNS));
+				response.addResult("data", DatatypeConverter.printBase64Binary(encodeHistory(range)));
+				return response;
+			}
+
+			StringBuilder times = new StringBuilder();
+			for (int s=0;s<range.size();s++){
+				if (s > 0) times.append(',');
+				times.append(range.getTimestamp(s));
+			}
+			response.addResult("timestamp", times.toString());
+
+			response.addResult("angle", 		historyChannel(range, TrussTelemetryHistory.CH_ANGLE));
+			response.addResult("angletarget", 	historyChannel(range, TrussTelemetryHistory.CH_ANGLE_TARGET));
+			response.addResult("load", 			historyChannel(range, TrussTelemetryHistory.CH_LOAD));
+			response.addResult("loadtarget", 	historyChannel(range, TrussTelemetryHistory.CH_LOAD_TARGET));
+			for (int i=0;i<TrussTelemetrySnapshot.STRAIN_GAUGES;i++){
+				response.addResult("StrainValue"+String.valueOf(i+1), historyChannel(range, i));
+			}
+			return response;
+	}
+
+	// history range as a compressed block, the channel values then the strain gauge fault bits of each sample
+	private static final int HISTORY_COLUMNS = TrussTelemetryHistory.CHANNELS + 1;
+	private static byte[] encodeHistory(TrussHistoryRange range)
+	{
+		TrussBlockEncoder encoder = new TrussBlockEncoder(HISTORY_COLUMNS, 1024);
+		int bits[] = new int[HISTORY_COLUMNS];
+		for (int s=0;s<range.size();s++){
+			int faults = 0;
+			for (int ch=0;ch<TrussTelemetryHistory.CHANNELS;ch++){
+				bits[ch] = Float.floatToRawIntBits(range.getValue(ch, s));
+				if (ch < TrussTelemetrySnapshot.STRAIN_GAUGES && !range.isStrainHealthy(ch, s)) faults |= 1 << ch;
+			}
+			bits[TrussTelemetryHistory.CHANNELS] = faults;
+			encoder.append(range.getTimestamp(s), range.getFirstSequence() + s, bits);
+		}
+		byte data[] = new byte[encoder.getLength()];
+		System.arraycopy(encoder.getBuffer(), 0, data, 0, data.length);
+		return data;
+	}
+
+	// comma separated values of a history channel, unhealthy strain gauge samples as NaN like getVals
+	private static String historyChannel(TrussHistoryRange range, int channel)
+	{
+		StringBuilder values = new StringBuilder();
+		for (int s=0;s<range.size();s++){
+			if (s > 0) values.append(',');
+			if (channel < TrussTelemetrySnapshot.STRAIN_GAUGES && !range.isStrainHealthy(channel, s)) values.append("NaN");
+			else values.append(range.getValue(channel, s));
+		}
+		return values.toString();
+	}
+
+	// number of samples of each channel drawn from session recordings if 'maxPoints' is not given
+	private static final int DEFAULT_HISTORY_POINTS = 1000;
+
+	// downsampled channel as comma separated values and times, unhealthy strain gauge samples are left out
+	private static void downsampledChannel(PrimitiveResponse response, String name, TrussLttbSampler channel)
+	{
+		StringBuilder values = new StringBuilder();
+		StringBuilder times = new StringBuilder();
+		for (int s=0;s<channel.size();s++){
+			if (s > 0){
+				values.append(',');
+				times.append(',');
+			}
+			values.append(channel.getValue(s));
+			times.append(channel.getTime(s));
+		}
+		response.addResult(name, values.toString());
+		response.addResult(name + "time", times.toString());
+	}
+
+	/*
+	 * Exports the telemetry recorded so far in the session to a CSV file, which is reported as a session file.
+	 * With 'maxPoints' the export is decimated to at most that number of rows.
+	 */
+	public PrimitiveResponse exportRecordingAction(PrimitiveRequest request) throws IOException
+	{
+			PrimitiveResponse response = new PrimitiveResponse();
+			int maxPoints = 0;
+			String param = request.getParameters().get("maxPoints");
+			try{
+				if (param != null) maxPoints = Integer.parseInt(param.trim());
+			}catch (NumberFormatException e){
+				maxPoints = -1;
+			}
+			if (maxPoints < 0){
+				response.setSuccessful(false);
+				response.setErrorCode(1);
+				response.setErrorReason("Invalid 'maxPoints' value: " + param);
+				return response;
+			}
+
+			TrussSessionRecorder recorder = TrussSessionRecorder.getInstance();
+			List<File> recordings = recorder.getSessionRecordings();
+			File csv = recorder.newExportFile();
+			if (recordings.isEmpty() || csv == null){
+				response.setSuccessful(false);
+				response.setErrorCode(2);
+				response.setErrorReason("No telemetry has been recorded in this session.");
+				return response;
+			}
+
+			try{
+				long rows = new TrussRecordingExporter(maxPoints).export(recordings, csv);
+				recorder.addExport(csv);
+				response.setSuccessful(true);
+				response.addResult("file", csv.getName());
+				response.addResult("rows", String.valueOf(rows));
+			}catch (IOException e){
+				this.logger.warn("Primitive Controller - telemetry export failed: " + e.getMessage());
+				csv.delete();
+				response.setSuccessful(false);
+				response.setErrorCode(3);
+				response.setErrorReason("Telemetry export failed: " + e.getMessage());
+			}
+			return response;
+	}
+
+	/*
+	 * Response times and failures of each command type sent to the Arduinos, such as 'DAQ REQV 01' or 'CTRL SETV 13'.
+	 * The 'commands' result lists the command types with spaces as underscores and each command type's result is
+	 * comma separated values in the order of the 'fields' result, with latencies in microseconds.
+	 */
+	private static final String COMMAND_STATS_FIELDS = "responses,mean,p50,p90,p99,p999,max,timeouts,errors,malformed";
+	public PrimitiveResponse getCommandStatsAction(PrimitiveRequest request) throws IOException
+	{
+			PrimitiveResponse response = new PrimitiveResponse();
+			response.setSuccessful(true);
+			response.addResult("fields", COMMAND_STATS_FIELDS);
+			
+			StringBuilder names = new StringBuilder();
+			for (Entry<String, Command> c : CommandStatistics.getInstance().getCommands().entrySet()){
+				String name = c.getKey().replace(' ', '_');
+				if (names.length() > 0) names.append(',');
+				names.append(name);
+				
+				LatencyHistogram latency = c.getValue().getLatency();
+				response.addResult(name, latency.getCount() + "," + Math.round(latency.getMean()) + "," + 
+						latency.getPercentile(50) + "," + latency.getPercentile(90) + "," + 
+						latency.getPercentile(99) + "," + latency.getPercentile(99.9) + "," + latency.getMax() + "," + 
+						c.getValue().getTimeouts() + "," + c.getValue().getErrors() + "," + c.getValue().getMalformed());
+			}
+			response.addResult("commands", names.toString());
+			return response;
+	}
+
+	/*
+	 * Stops the screw drive and winch straight away by putting both Arduinos into cleanup mode (31). The stop is written
+	 * on each link from the request's thread, ahead of the poll cycle and any queued command, and setpoints are not sent
+	 * after it. The 'daqack' and 'ctrlack' results are each link's time to acknowledge the stop in microseconds, -1 if
+	 * it was not acknowledged.
+	 */
+	public PrimitiveResponse emergencyStopAction(PrimitiveRequest request) throws IOException
+	{
+			long ack[] = rtHW.emergencyStop();
+			PrimitiveResponse response = new PrimitiveResponse();
+			response.setSuccessful(ack[0] >= 0 && ack[1] >= 0);
+			if (!response.wasSuccessful()){
+				response.setErrorCode(4);
+				response.setErrorReason("Emergency stop not acknowledged by " + 
+						(ack[0] < 0 ? (ack[1] < 0 ? "either Arduino" : "the DAQ Arduino") : "the CTRL Arduino") + ".");
+			}
+			response.addResult("daqack",	String.valueOf(ack[0] < 0 ? -1 : ack[0] / 1000));
+			response.addResult("ctrlack",	String.valueOf(ack[1] < 0 ? -1 : ack[1] / 1000));
+			return response;
+	}
+
 	public PrimitiveResponse setAngleAction(PrimitiveRequest request) throws IOException
     {
             PrimitiveResponse response = new PrimitiveResponse();
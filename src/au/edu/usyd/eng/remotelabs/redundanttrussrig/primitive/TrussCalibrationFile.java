@@ -0,0 +1,369 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Calibration file of an Arduino, such as the strain gauge scales and
+ * offsets or the screw reference distance. Each line holds a value as its
+ * last token after its key, so 'Scale 3 1.5' is the value '1.5' of the key
+ * 'Scale 3'. Lines starting with '#' are comments.
+ * <p>
+ * The file is parsed into memory once and is only read again when it
+ * changes on disk, so the pollers read calibration values without any file
+ * access. Both are done by the file's own thread, which also saves the
+ * values that are set. A save writes a temporary file, syncs it to disk and
+ * renames it over the file, so the file is never left partly written.
+ * Values set but not yet saved take precedence over changes made to the
+ * file on disk.
+ */
+public class TrussCalibrationFile implements Runnable
+{
+    /** Interval the file is checked for changes in milliseconds. */
+    public static final long CHECK_INTERVAL = 1000;
+
+    /** Calibration file. */
+    private final File file;
+
+    /** Lines of the file, with the values set since it was read. */
+    private final List<String> lines;
+
+    /** Values by key. */
+    private final Map<String, String> values;
+
+    /** Whether the file has been read. */
+    private boolean loaded;
+
+    /** Modification time and length of the file when last read or saved. */
+    private long modified, length;
+
+    /** Number of times a value has been set and the number of those saved. */
+    private long version, saved;
+
+    /** Thread that saves and reloads the file. */
+    private Thread thread;
+
+    /** Whether the file has been closed. */
+    private boolean closed;
+
+    /** Logger. */
+    private final ILogger logger;
+
+    /**
+     * Constructor. The file is not read until it is first reloaded.
+     *
+     * @param file calibration file
+     */
+    public TrussCalibrationFile(File file)
+    {
+        this.file = file;
+        this.lines = new ArrayList<String>();
+        this.values = new HashMap<String, String>();
+        this.logger = LoggerFactory.getLoggerInstance();
+    }
+
+    /**
+     * Returns whether the file has been read.
+     *
+     * @return true if read
+     */
+    public synchronized boolean isLoaded()
+    {
+        return this.loaded;
+    }
+
+    /**
+     * Returns a value.
+     *
+     * @param key value key
+     * @return value or null if not set
+     */
+    public synchronized String get(String key)
+    {
+        return this.values.get(key);
+    }
+
+    /**
+     * Returns a numeric value.
+     *
+     * @param key value key
+     * @param def default if not set or not a number
+     * @return value
+     */
+    public float getFloat(String key, float def)
+    {
+        String val = this.get(key);
+        if (val == null) return def;
+        try
+        {
+            return Float.parseFloat(val);
+        }
+        catch (NumberFormatException e)
+        {
+            this.logger.warn("Primitive Controller HW Interface - invalid calibration value '" + key + "' in " +
+                    this.file.getName() + ", using " + def + ".");
+            return def;
+        }
+    }
+
+    /**
+     * Returns an integer value.
+     *
+     * @param key value key
+     * @param def default if not set or not an integer
+     * @return value
+     */
+    public int getInt(String key, int def)
+    {
+        String val = this.get(key);
+        if (val == null) return def;
+        try
+        {
+            return Integer.parseInt(val);
+        }
+        catch (NumberFormatException e)
+        {
+            this.logger.warn("Primitive Controller HW Interface - invalid calibration value '" + key + "' in " +
+                    this.file.getName() + ", using " + def + ".");
+            return def;
+        }
+    }
+
+    /**
+     * Sets a value, replacing its line or adding a line if it is not in the
+     * file. The value is saved by the file's thread, so this does not wait
+     * for the disk.
+     *
+     * @param key value key
+     * @param value new value
+     */
+    public synchronized void set(String key, String value)
+    {
+        String line = key + " " + value;
+        if (this.values.put(key, value) == null)
+        {
+            this.lines.add(line);
+        }
+        else
+        {
+            for (int i = 0; i < this.lines.size(); i++)
+            {
+                if (key.equals(keyOf(tokens(this.lines.get(i))))) this.lines.set(i, line);
+            }
+        }
+
+        this.version++;
+        this.notifyAll();
+    }
+
+    /**
+     * Reads the file if it has changed since it was last read or saved.
+     * It is not read while there are values that have not been saved.
+     *
+     * @return true if the file was read
+     * @throws IOException error reading the file
+     */
+    public boolean reload() throws IOException
+    {
+        /* Read after the file is checked, so a change made while reading is seen by the next check. */
+        long mod = this.file.lastModified();
+        long len = this.file.length();
+        synchronized (this)
+        {
+            /* A file that has been removed keeps its values, which are saved again when one is set. */
+            if (this.loaded && (mod == 0 || mod == this.modified && len == this.length)) return false;
+        }
+
+        List<String> read = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(this.file)));
+        try
+        {
+            String line;
+            while ((line = in.readLine()) != null) read.add(line);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        synchronized (this)
+        {
+            if (this.version != this.saved) return false;
+
+            this.lines.clear();
+            this.lines.addAll(read);
+            this.values.clear();
+            for (String line : read)
+            {
+                String tokens[] = tokens(line);
+                String key = keyOf(tokens);
+                if (key != null) this.values.put(key, tokens[tokens.length - 1]);
+            }
+            this.loaded = true;
+            this.modified = mod;
+            this.length = len;
+            return true;
+        }
+    }
+
+    /**
+     * Saves the values set since the last save.
+     *
+     * @return true if the file was saved, false if there was nothing to save
+     * @throws IOException error writing the file
+     */
+    public boolean save() throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        long saving;
+        synchronized (this)
+        {
+            if (this.version == this.saved) return false;
+
+            String sep = System.getProperty("line.separator");
+            for (String line : this.lines) text.append(line).append(sep);
+            saving = this.version;
+        }
+
+        File tmp = new File(this.file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            out.write(text.toString().getBytes());
+            out.flush();
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        /* Renaming over an existing file fails on Windows, where it is replaced in two steps. */
+        if (!tmp.renameTo(this.file) && !(this.file.delete() && tmp.renameTo(this.file)))
+        {
+            throw new IOException("Cannot replace " + this.file.getPath());
+        }
+
+        synchronized (this)
+        {
+            this.saved = saving;
+            this.modified = this.file.lastModified();
+            this.length = this.file.length();
+        }
+        return true;
+    }
+
+    /**
+     * Starts the thread that saves the values that are set and reloads the
+     * file when it changes.
+     */
+    public synchronized void start()
+    {
+        if (this.thread != null) return;
+
+        this.thread = new Thread(this, "Calibration-" + this.file.getName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the file's thread once it has saved any values not yet saved.
+     *
+     * @throws InterruptedException interrupted waiting for the thread
+     */
+    public void close() throws InterruptedException
+    {
+        Thread t;
+        synchronized (this)
+        {
+            this.closed = true;
+            this.notifyAll();
+            t = this.thread;
+        }
+        if (t != null) t.join();
+    }
+
+    @Override
+    public void run()
+    {
+        String lastError = null;
+        boolean closing = false;
+        while (!closing)
+        {
+            synchronized (this)
+            {
+                if (this.version == this.saved && !this.closed) this.waitQuietly(CHECK_INTERVAL);
+                closing = this.closed;
+            }
+
+            try
+            {
+                if (!this.save() && !closing) this.reload();
+                lastError = null;
+            }
+            catch (IOException e)
+            {
+                /* Logged once rather than at each check it fails. */
+                if (!e.toString().equals(lastError))
+                {
+                    this.logger.error("Primitive Controller HW Interface - calibration file " + this.file.getPath() +
+                            " error: " + e.toString());
+                }
+                lastError = e.toString();
+                /* Not retried until the next check. */
+                synchronized (this)
+                {
+                    if (!this.closed) this.waitQuietly(CHECK_INTERVAL);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits on this file's monitor.
+     *
+     * @param millis time to wait in milliseconds
+     */
+    private void waitQuietly(long millis)
+    {
+        try
+        {
+            this.wait(millis);
+        }
+        catch (InterruptedException e)
+        {
+            this.closed = true;
+        }
+    }
+
+    private static String[] tokens(String line)
+    {
+        return line.trim().split("\\s+");
+    }
+
+    /**
+     * Returns the key of a line, which is its tokens before the value.
+     *
+     * @param tokens tokens of the line
+     * @return key or null if the line does not hold a value
+     */
+    private static String keyOf(String tokens[])
+    {
+        if (tokens.length < 2 || tokens[0].startsWith("#")) return null;
+
+        StringBuilder key = new StringBuilder(tokens[0]);
+        for (int i = 1; i < tokens.length - 1; i++) key.append(' ').append(tokens[i]);
+        return key.toString();
+    }
+}
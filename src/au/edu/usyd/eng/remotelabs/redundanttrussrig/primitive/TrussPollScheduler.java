@@ -0,0 +1,164 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive;
+
+/**
+ * Earliest deadline first scheduler of the phases of an Arduino poller.
+ * Each phase either has a target rate, in which case it is due once per
+ * period, or is only run when it is signalled as having work. The poller
+ * thread waits in {@link #next(long)} until the earliest phase is due, so
+ * idle phases cost nothing. The achieved rate of each phase is measured
+ * as a moving average of the interval between its runs.
+ * <p>
+ * A periodic phase that falls behind runs again as soon as it can, but it
+ * does not try to catch up on the runs it missed.
+ */
+public class TrussPollScheduler
+{
+    /** Weight of the latest interval in the moving average, as a shift. */
+    private static final int AVERAGE_SHIFT = 3;
+
+    /** Period of each phase in nanoseconds, zero if only run when signalled. */
+    private final long periods[];
+
+    /** Time each phase is next due in nanoseconds, Long.MAX_VALUE if not due. */
+    private final long due[];
+
+    /** Time each phase last ran in nanoseconds. */
+    private final long lastRun[];
+
+    /** Number of times each phase has run. */
+    private final long runs[];
+
+    /** Moving average of the interval between runs of each phase in nanoseconds. */
+    private final long meanInterval[];
+
+    /**
+     * Constructor. Every periodic phase is due immediately.
+     *
+     * @param rates target rate of each phase in Hz, zero if only run when signalled
+     */
+    public TrussPollScheduler(double rates[])
+    {
+        this.periods = new long[rates.length];
+        this.due = new long[rates.length];
+        this.lastRun = new long[rates.length];
+        this.runs = new long[rates.length];
+        this.meanInterval = new long[rates.length];
+
+        long now = this.nanoTime();
+        for (int i = 0; i < rates.length; i++)
+        {
+            if (rates[i] < 0) throw new IllegalArgumentException("Poll rate cannot be negative");
+            this.periods[i] = rates[i] > 0 ? (long)(1e9 / rates[i]) : 0;
+            this.due[i] = this.periods[i] > 0 ? now : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Signals that a phase has work so it is run as soon as the phases that
+     * became due before it have run.
+     *
+     * @param phase phase index
+     */
+    public synchronized void signal(int phase)
+    {
+        long now = this.nanoTime();
+        if (this.due[phase] > now)
+        {
+            this.due[phase] = now;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a phase is due and returns it. The phase is recorded as
+     * run and scheduled for its next period.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return due phase index or -1 if the wait timed out
+     * @throws InterruptedException interrupted waiting
+     */
+    public synchronized int next(long timeout) throws InterruptedException
+    {
+        long deadline = this.nanoTime() + timeout * 1000000;
+        while (true)
+        {
+            int phase = 0;
+            for (int i = 1; i < this.due.length; i++)
+            {
+                if (this.due[i] < this.due[phase]) phase = i;
+            }
+
+            long now = this.nanoTime();
+            if (this.due[phase] <= now)
+            {
+                long next = this.periods[phase] > 0 ? this.due[phase] + this.periods[phase] : Long.MAX_VALUE;
+                this.due[phase] = next < now ? now : next;
+                this.recordRun(phase, now);
+                return phase;
+            }
+
+            long wait = Math.min(this.due[phase], deadline) - now;
+            if (wait <= 0) return -1;
+            this.wait(wait / 1000000, (int)(wait % 1000000));
+        }
+    }
+
+    /**
+     * Records that the work of a phase has been done by another phase, for
+     * example a bulk request which also reads the values of another phase.
+     * The phase is next due a full period from now.
+     *
+     * @param phase phase index
+     */
+    public synchronized void completed(int phase)
+    {
+        long now = this.nanoTime();
+        this.due[phase] = this.periods[phase] > 0 ? now + this.periods[phase] : Long.MAX_VALUE;
+        this.recordRun(phase, now);
+    }
+
+    private void recordRun(int phase, long now)
+    {
+        if (this.runs[phase] > 0)
+        {
+            long interval = now - this.lastRun[phase];
+            this.meanInterval[phase] = this.runs[phase] == 1 ? interval :
+                    this.meanInterval[phase] + ((interval - this.meanInterval[phase]) >> AVERAGE_SHIFT);
+        }
+        this.lastRun[phase] = now;
+        this.runs[phase]++;
+    }
+
+    /**
+     * Returns the current time in nanoseconds. May be overridden to run the
+     * scheduler on another clock, which is read from the constructor.
+     *
+     * @return time in nanoseconds
+     */
+    protected long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns the number of times a phase has run.
+     *
+     * @param phase phase index
+     * @return run count
+     */
+    public synchronized long getRuns(int phase)
+    {
+        return this.runs[phase];
+    }
+
+    /**
+     * Returns the achieved rate of a phase, averaged over its recent runs.
+     *
+     * @param phase phase index
+     * @return rate in Hz or zero if the phase has not run twice
+     */
+    public synchronized double getRate(int phase)
+    {
+        return this.meanInterval[phase] > 0 ? 1e9 / this.meanInterval[phase] : 0;
+    }
+}
@@ -0,0 +1,167 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive.tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive.TrussCalibrationFile;
+
+/**
+ * Tests the <code>TrussCalibrationFile</code> class.
+ */
+public class TrussCalibrationFileTester extends TestCase
+{
+    /** Calibration file. */
+    private File file;
+
+    /** Calibration under test. */
+    private TrussCalibrationFile calibration;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.file = new File(System.getProperty("java.io.tmpdir"), "trusscal-" + System.nanoTime() + ".cfg");
+        this.write("# DAQ calibration", "Scale 1 1.5", "  Offset 2\t10", "LoadScale 2.0", "", "Reference_Distance 150");
+        this.calibration = new TrussCalibrationFile(this.file);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception
+    {
+        this.calibration.close();
+        this.file.delete();
+        new File(this.file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testLoad() throws Exception
+    {
+        assertFalse(this.calibration.isLoaded());
+        assertTrue(this.calibration.reload());
+        assertTrue(this.calibration.isLoaded());
+
+        assertEquals(1.5f, this.calibration.getFloat("Scale 1", 0));
+        assertEquals(10, this.calibration.getInt("Offset 2", 0));
+        assertEquals(2.0f, this.calibration.getFloat("LoadScale", 0));
+        assertEquals(150, this.calibration.getInt("Reference_Distance", 0));
+        assertNull(this.calibration.get("Scale 2"));
+        assertEquals(7, this.calibration.getInt("Scale 2", 7));
+        assertNull(this.calibration.get("#"));
+
+        /* Not read again until it changes. */
+        assertFalse(this.calibration.reload());
+    }
+
+    @Test
+    public void testInvalidNumber() throws Exception
+    {
+        this.write("Offset 1 ten");
+        this.calibration.reload();
+        assertEquals(3, this.calibration.getInt("Offset 1", 3));
+    }
+
+    @Test
+    public void testMissingFile() throws Exception
+    {
+        this.file.delete();
+        try
+        {
+            this.calibration.reload();
+            fail("Missing file should not load");
+        }
+        catch (java.io.IOException e)
+        {
+            /* Expected. */
+        }
+        assertFalse(this.calibration.isLoaded());
+    }
+
+    @Test
+    public void testSave() throws Exception
+    {
+        this.calibration.reload();
+        assertFalse(this.calibration.save());
+
+        this.calibration.set("Reference_Distance", "162");
+        this.calibration.set("Scale 2", "1.25");
+        assertEquals(162, this.calibration.getInt("Reference_Distance", 0));
+        assertTrue(this.calibration.save());
+        assertFalse(this.calibration.save());
+
+        /* Only the set values' lines change. */
+        List<String> lines = this.read();
+        assertEquals(7, lines.size());
+        assertEquals("# DAQ calibration", lines.get(0));
+        assertEquals("  Offset 2\t10", lines.get(2));
+        assertEquals("Reference_Distance 162", lines.get(5));
+        assertEquals("Scale 2 1.25", lines.get(6));
+        assertFalse(new File(this.file.getPath() + ".tmp").exists());
+
+        /* Its own save is not read back. */
+        assertFalse(this.calibration.reload());
+    }
+
+    @Test
+    public void testReloadChanged() throws Exception
+    {
+        this.calibration.reload();
+        this.write("Reference_Distance 175", "Scale 1 3.0");
+        assertTrue(this.calibration.reload());
+        assertEquals(175, this.calibration.getInt("Reference_Distance", 0));
+        assertEquals(3.0f, this.calibration.getFloat("Scale 1", 0));
+        assertNull(this.calibration.get("LoadScale"));
+    }
+
+    @Test
+    public void testUnsavedValueKept() throws Exception
+    {
+        this.calibration.reload();
+        this.calibration.set("Reference_Distance", "140");
+        this.write("Reference_Distance 175", "Scale 1 3.0");
+        assertFalse(this.calibration.reload());
+        assertEquals(140, this.calibration.getInt("Reference_Distance", 0));
+
+        this.calibration.save();
+        assertTrue(this.read().contains("Reference_Distance 140"));
+    }
+
+    @Test
+    public void testBackgroundSave() throws Exception
+    {
+        this.calibration.reload();
+        this.calibration.start();
+        this.calibration.set("Reference_Distance", "155");
+
+        /* Closing waits for the save. */
+        this.calibration.close();
+        assertTrue(this.read().contains("Reference_Distance 155"));
+    }
+
+    private void write(String... lines) throws Exception
+    {
+        FileWriter out = new FileWriter(this.file);
+        for (String line : lines) out.write(line + System.getProperty("line.separator"));
+        out.close();
+    }
+
+    private List<String> read() throws Exception
+    {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(this.file));
+        String line;
+        while ((line = in.readLine()) != null) lines.add(line);
+        in.close();
+        return lines;
+    }
+}
@@ -0,0 +1,166 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.primitive.TrussPollScheduler;
+
+/**
+ * Tests the <code>TrussPollScheduler</code> class.
+ */
+public class TrussPollSchedulerTester extends TestCase
+{
+    /** Phases. */
+    private static final int FAST = 0;
+    private static final int SLOW = 1;
+    private static final int ON_SIGNAL = 2;
+
+    @Test
+    public void testPeriodicRates() throws Exception
+    {
+        TrussPollScheduler scheduler = new TrussPollScheduler(new double[] { 100, 20, 0 });
+        int counts[] = new int[3];
+        long end = System.currentTimeMillis() + 500;
+        while (System.currentTimeMillis() < end)
+        {
+            int phase = scheduler.next(10);
+            if (phase >= 0) counts[phase]++;
+        }
+
+        /* Allow for coarse timers, but the rates must be in proportion. */
+        assertTrue("Fast phase ran " + counts[FAST] + " times", counts[FAST] >= 35 && counts[FAST] <= 52);
+        assertTrue("Slow phase ran " + counts[SLOW] + " times", counts[SLOW] >= 7 && counts[SLOW] <= 12);
+        assertEquals(0, counts[ON_SIGNAL]);
+        assertEquals(counts[FAST], scheduler.getRuns(FAST));
+
+        double rate = scheduler.getRate(FAST);
+        assertTrue("Fast phase achieved " + rate + " Hz", rate > 70 && rate < 130);
+        assertEquals(0.0, scheduler.getRate(ON_SIGNAL));
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception
+    {
+        TrussPollScheduler scheduler = new TrussPollScheduler(new double[] { 0, 0 });
+        long start = System.currentTimeMillis();
+        assertEquals(-1, scheduler.next(50));
+        assertTrue(System.currentTimeMillis() - start >= 45);
+    }
+
+    @Test
+    public void testSignal() throws Exception
+    {
+        TrussPollScheduler scheduler = new TrussPollScheduler(new double[] { 1, 0, 0 });
+        assertEquals(FAST, scheduler.next(0));
+
+        /* A signalled phase runs once. */
+        scheduler.signal(ON_SIGNAL);
+        scheduler.signal(ON_SIGNAL);
+        assertEquals(ON_SIGNAL, scheduler.next(0));
+        assertEquals(-1, scheduler.next(0));
+
+        /* Signalled phases run in the order they were signalled. */
+        scheduler.signal(ON_SIGNAL);
+        Thread.sleep(1);
+        scheduler.signal(SLOW);
+        assertEquals(ON_SIGNAL, scheduler.next(0));
+        assertEquals(SLOW, scheduler.next(0));
+    }
+
+    @Test
+    public void testSignalWakesPoller() throws Exception
+    {
+        final TrussPollScheduler scheduler = new TrussPollScheduler(new double[] { 0, 0, 0 });
+        Thread signaller = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                scheduler.signal(ON_SIGNAL);
+            }
+        };
+        signaller.start();
+
+        long start = System.currentTimeMillis();
+        assertEquals(ON_SIGNAL, scheduler.next(5000));
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        signaller.join();
+    }
+
+    @Test
+    public void testCompleted() throws Exception
+    {
+        TrussPollScheduler scheduler = new TrussPollScheduler(new double[] { 10, 10 });
+        assertEquals(FAST, scheduler.next(0));
+
+        /* The slow phase's work was done by the fast phase. */
+        scheduler.completed(SLOW);
+        assertEquals(1, scheduler.getRuns(SLOW));
+        assertEquals(-1, scheduler.next(50));
+        assertEquals(FAST, scheduler.next(100));
+    }
+
+    @Test
+    public void testSlowPhaseNotStarved() throws Exception
+    {
+        /* Run on a simulated clock, so the test does not depend on the timers of the machine running it. */
+        final long clock[] = new long[1];
+        TrussPollScheduler scheduler = new TrussPollScheduler(new double[] { 1000, 20, 0 })
+        {
+            @Override
+            protected long nanoTime()
+            {
+                return clock[0];
+            }
+        };
+
+        /* The fast phase takes longer than its period, so it is always due. */
+        long lastSlow = 0;
+        long maxGap = 0;
+        while (clock[0] < 500000000L)
+        {
+            int phase = scheduler.next(0);
+            if (phase == SLOW)
+            {
+                maxGap = Math.max(maxGap, clock[0] - lastSlow);
+                lastSlow = clock[0];
+            }
+            else if (phase == FAST)
+            {
+                clock[0] += 5000000L;
+            }
+            else
+            {
+                clock[0] += 1000000L;
+            }
+        }
+
+        /* Runs within one slow period, at most one fast run late. */
+        assertTrue("Slow phase ran " + scheduler.getRuns(SLOW) + " times", scheduler.getRuns(SLOW) >= 10);
+        assertTrue("Slow phase waited " + maxGap / 1000000 + " ms", maxGap <= 55000000L);
+        assertEquals(20.0, scheduler.getRate(SLOW), 1.0);
+    }
+
+    @Test
+    public void testNegativeRate()
+    {
+        try
+        {
+            new TrussPollScheduler(new double[] { -1 });
+            fail("Negative rate should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* Expected. */
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.io.IOException;
+
+/**
+ * Transport to one of the redundant truss Arduinos. The rig has two links,
+ * the data acquisition (DAQ) Arduino which reads the strain gauges and the
+ * control (CTRL) Arduino which drives the screw and winch motors. Both
+ * speak the line based <tt>rlab://</tt> protocol, or its binary framed form
+ * (see {@link TrussFrame}), so a link only moves command and response
+ * bytes and has no knowledge of their meaning.
+ * Received characters are pushed to a {@link ITrussLinkListener} as they
+ * arrive rather than being polled for.
+ */
+public interface ITrussLink
+{
+    /** Name of the data acquisition link. */
+    public static final String DAQ = "DAQ";
+
+    /** Name of the control link. */
+    public static final String CTRL = "CTRL";
+
+    /**
+     * Returns the name of this link, either {@link #DAQ} or {@link #CTRL}.
+     *
+     * @return link name
+     */
+    public String getName();
+
+    /**
+     * Opens the link.
+     *
+     * @return true if the link was opened
+     */
+    public boolean open();
+
+    /**
+     * Closes the link. Closing a link that is not open does nothing.
+     */
+    public void close();
+
+    /**
+     * Returns whether the link is open.
+     *
+     * @return true if open
+     */
+    public boolean isOpen();
+
+    /**
+     * Writes a command to the link, terminated with a new line character.
+     *
+     * @param cmd command to write
+     * @throws IOException error writing to link
+     */
+    public void write(String cmd) throws IOException;
+
+    /**
+     * Writes bytes to the link as they are, for example a binary frame.
+     *
+     * @param buf bytes to write
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @throws IOException error writing to link
+     */
+    public void write(byte buf[], int off, int len) throws IOException;
+
+    /**
+     * Sets the listener which is given the characters received on the link.
+     * The listener is called from the link's receive thread as soon as
+     * characters arrive.
+     *
+     * @param listener receive listener
+     */
+    public void setListener(ITrussLinkListener listener);
+}
@@ -0,0 +1,17 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+/**
+ * Listener for characters received on a truss link.
+ */
+public interface ITrussLinkListener
+{
+    /**
+     * Called when characters have been received. The buffer is only valid
+     * for the duration of the call.
+     *
+     * @param buf buffer containing the received characters
+     * @param off offset of the first received character
+     * @param len number of received characters
+     */
+    public void received(byte buf[], int off, int len);
+}
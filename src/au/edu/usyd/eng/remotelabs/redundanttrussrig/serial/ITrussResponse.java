@@ -0,0 +1,43 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+/**
+ * Fields of a response to a value request, read in order directly from the
+ * link receive buffer. Text responses are read by a
+ * {@link TrussFieldScanner} and binary framed responses by a
+ * {@link TrussFrameFields}.
+ */
+public interface ITrussResponse
+{
+    /**
+     * Returns whether the response is 'Cpl' with at least the specified
+     * number of fields. If it is, the response is moved to its first field.
+     *
+     * @param fields number of fields expected
+     * @return true if a complete response
+     */
+    public boolean isCpl(int fields);
+
+    /**
+     * Returns whether the response is 'Err', the firmware refusing the
+     * request, rather than a response that is cut short or garbled.
+     *
+     * @return true if an error response
+     */
+    public boolean isErr();
+
+    /**
+     * Reads the next field as an integer.
+     *
+     * @return field value
+     * @throws NumberFormatException field missing or invalid
+     */
+    public int nextInt();
+
+    /**
+     * Reads the next field as a float.
+     *
+     * @return field value
+     * @throws NumberFormatException field missing or invalid
+     */
+    public float nextFloat();
+}
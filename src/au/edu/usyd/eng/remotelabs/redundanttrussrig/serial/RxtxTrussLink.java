@@ -0,0 +1,197 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.SerialPortEventListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Link to a truss Arduino over a RXTX serial port.
+ */
+public class RxtxTrussLink implements ITrussLink, SerialPortEventListener
+{
+    /** Time to wait for the port to be opened in milliseconds. */
+    private static final int TIME_OUT = 2000;
+
+    /** Serial port baud rate. */
+    private static final int DATA_RATE = 115200;
+
+    /** Link name. */
+    private final String name;
+
+    /** Name of the serial port, e.g. 'COM8' or '/dev/ttyUSB0'. */
+    private final String portName;
+
+    /** Serial port. */
+    private SerialPort serialPort;
+
+    /** Serial port input. */
+    private volatile InputStream input;
+
+    /** Buffer characters are read into when data is available. */
+    private final byte readBuf[] = new byte[256];
+
+    /** Receive listener. */
+    private volatile ITrussLinkListener listener;
+
+    /** Serial port output. */
+    private OutputStream output;
+
+    /** Error reading the port since it was opened, such as the adapter being unplugged. */
+    private volatile IOException readError;
+
+    /** Logger. */
+    private final ILogger logger;
+
+    public RxtxTrussLink(String name, String portName)
+    {
+        this.name = name;
+        this.portName = portName;
+        this.logger = LoggerFactory.getLoggerInstance();
+    }
+
+    @Override
+    public String getName()
+    {
+        return this.name;
+    }
+
+    @Override
+    public synchronized boolean open()
+    {
+        this.logger.debug("Primitive Controller HW Interface - looking for " + this.name + " port " + this.portName);
+        CommPortIdentifier portId = null;
+        try
+        {
+            Enumeration<?> portEnum = CommPortIdentifier.getPortIdentifiers();
+            while (portEnum.hasMoreElements())
+            {
+                CommPortIdentifier currPortId = (CommPortIdentifier) portEnum.nextElement();
+                if (currPortId.getName().equals(this.portName))
+                {
+                    portId = currPortId;
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            this.logger.error("Primitive Controller HW Interface - Exception - Could not find port.");
+        }
+
+        if (portId == null)
+        {
+            this.logger.debug("Primitive Controller HW Interface - Could not find " + this.name + " COM port.");
+            return false;
+        }
+
+        try
+        {
+            /* Open serial port, and use class name for the appName. */
+            this.serialPort = (SerialPort) portId.open(this.getClass().getName() + this.name, TIME_OUT);
+            this.logger.debug("Primitive Controller HW Interface - " + this.name + " port Open and set name");
+
+            this.serialPort.setSerialPortParams(DATA_RATE,
+                    SerialPort.DATABITS_8,
+                    SerialPort.STOPBITS_1,
+                    SerialPort.PARITY_NONE);
+            this.logger.debug("Primitive Controller HW Interface - " + this.name + " port parameter set");
+
+            this.readError = null;
+            this.input = this.serialPort.getInputStream();
+            this.output = this.serialPort.getOutputStream();
+            this.logger.debug("Primitive Controller HW Interface - " + this.name + " port stream open");
+
+            this.serialPort.addEventListener(this);
+            this.serialPort.notifyOnDataAvailable(true);
+            this.logger.info("Primitive Controller HW Interface - " + this.name + " ports opened ");
+            return true;
+        }
+        catch (Exception e)
+        {
+            this.logger.error("Primitive Controller HW Interface - " + this.name + " port open exception: " +
+                    e.toString());
+            this.close();
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (this.serialPort != null)
+        {
+            this.serialPort.removeEventListener();
+            this.serialPort.close();
+            this.serialPort = null;
+        }
+        this.input = null;
+        this.output = null;
+    }
+
+    @Override
+    public synchronized boolean isOpen()
+    {
+        return this.serialPort != null;
+    }
+
+    @Override
+    public synchronized void write(String cmd) throws IOException
+    {
+        if (this.output == null) throw new IOException(this.name + " port is not open");
+        if (this.readError != null) throw this.readError;
+
+        this.output.write(cmd.getBytes());
+        this.output.write('\n');
+        this.output.flush();
+    }
+
+    @Override
+    public synchronized void write(byte buf[], int off, int len) throws IOException
+    {
+        if (this.output == null) throw new IOException(this.name + " port is not open");
+        if (this.readError != null) throw this.readError;
+
+        this.output.write(buf, off, len);
+        this.output.flush();
+    }
+
+    @Override
+    public void setListener(ITrussLinkListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void serialEvent(SerialPortEvent oEvent)
+    {
+        if (oEvent.getEventType() != SerialPortEvent.DATA_AVAILABLE) return;
+
+        InputStream in = this.input;
+        ITrussLinkListener l = this.listener;
+        if (in == null || this.readError != null) return;
+
+        try
+        {
+            int len;
+            while (in.available() > 0 && (len = in.read(this.readBuf)) > 0)
+            {
+                if (l != null) l.received(this.readBuf, 0, len);
+            }
+        }
+        catch (IOException e)
+        {
+            /* A failed port keeps signalling data, so the error is only logged once and is thrown 
+             * by the next write for the link to be reopened. */
+            this.readError = e;
+            this.logger.error("Primitive Controller HW Interface - " + this.name + " data exception: " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * In process simulation of a truss Arduino. The simulator answers the same
+ * <tt>rlab://REQV</tt>, <tt>SETV</tt>, <tt>SETS</tt> and <tt>SETO</tt>
+ * commands as the DAQ or CTRL firmware, including the bulk
+ * <tt>REQV?addr=ALL</tt> request, the bulk <tt>SETS</tt> and <tt>SETO</tt>
+ * of every strain gauge and the {@link TrussFrame#NEGOTIATE}
+ * switch to binary framing, and walks through the same mode handshake:
+ * <ul>
+ *  <li>0 - powered up, waiting for the host;</li>
+ *  <li>11 - receiving calibration from the host;</li>
+ *  <li>14 (DAQ) or 13 (CTRL) - calibration received;</li>
+ *  <li>20 - normal operation;</li>
+ *  <li>31 - cleanup, motors stopped.</li>
+ * </ul>
+ * Each response is delivered to the link listener by a simulator thread
+ * after a configurable latency plus a uniformly distributed jitter, so the
+ * host side polling can be exercised and timed without the rig hardware.
+ */
+public class SimulatedTrussLink implements ITrussLink, Runnable
+{
+    /** Number of strain gauge channels on the DAQ Arduino. */
+    public static final int STRAIN_CHANNELS = 10;
+
+    /** Address used for the bulk 'addr=ALL' request. */
+    private static final int ALL_ADDR = 0;
+
+    /** Rate the screw drive moves towards its target in steps per second. */
+    private static final float DISTANCE_RATE = 400.0f;
+
+    /** Rate the winch moves towards its target load in load units per second. */
+    private static final float LOAD_RATE = 5.0f;
+
+    /** Change of target load for each winch step. */
+    private static final float LOAD_PER_STEP = 0.1f;
+
+    /** Link name. */
+    private final String name;
+
+    /** Whether this simulates the DAQ Arduino, otherwise the CTRL Arduino. */
+    private final boolean daq;
+
+    /** Response latency in nanoseconds. */
+    private final long latency;
+
+    /** Maximum response jitter in nanoseconds. */
+    private final long jitter;
+
+    /** Jitter and noise source. */
+    private final Random random;
+
+    /** Responses which have been generated but not yet received. */
+    private final Deque<Response> pending;
+
+    /** Receive listener. */
+    private ITrussLinkListener listener;
+
+    /** Thread delivering responses to the listener. */
+    private Thread deliveryThread;
+
+    /** Whether the link is open. */
+    private boolean open;
+
+    /** Whether the simulated USB serial adapter is plugged in. */
+    private boolean present = true;
+
+    /** Whether binary framing has been negotiated. */
+    private boolean binary;
+
+    /** Buffer response frames are encoded in. */
+    private final ByteBuffer frame = TrussFrame.allocate();
+
+    /** Firmware operating mode. */
+    private int mode;
+
+    /** Last time the simulated hardware state was advanced. */
+    private long lastAdvance;
+
+    /** DAQ - strain gauge scales, offsets and which of them have been received. */
+    private final float scale[] = new float[STRAIN_CHANNELS];
+    private final int offset[] = new int[STRAIN_CHANNELS];
+    private int scalesReceived;
+    private int offsetsReceived;
+
+    /** DAQ - strain gauge readings. */
+    private final float strain[] = new float[STRAIN_CHANNELS];
+
+    /** CTRL - screw drive position and target. */
+    private float curDistance;
+    private int tgtDistance;
+
+    /** CTRL - winch load and target. */
+    private float curLoad;
+    private float tgtLoad;
+
+    /** CTRL - load cell calibration received flags. */
+    private boolean loadScaleReceived;
+    private boolean loadOffsetReceived;
+
+    /**
+     * Constructor.
+     *
+     * @param name link name, either {@link ITrussLink#DAQ} or {@link ITrussLink#CTRL}
+     * @param latencyMillis response latency in milliseconds
+     * @param jitterMillis maximum response jitter in milliseconds
+     */
+    public SimulatedTrussLink(String name, long latencyMillis, long jitterMillis)
+    {
+        this.name = name;
+        this.daq = ITrussLink.DAQ.equals(name);
+        this.latency = latencyMillis * 1000000;
+        this.jitter = jitterMillis * 1000000;
+        this.random = new Random(name.hashCode());
+        this.pending = new ArrayDeque<Response>();
+    }
+
+    @Override
+    public String getName()
+    {
+        return this.name;
+    }
+
+    @Override
+    public synchronized boolean open()
+    {
+        if (!this.present) return false;
+        if (this.open) return true;
+
+        this.open = true;
+        this.mode = 0;
+        this.binary = false;
+        this.lastAdvance = System.nanoTime();
+
+        this.deliveryThread = new Thread(this, "Simulated-" + this.name);
+        this.deliveryThread.setDaemon(true);
+        this.deliveryThread.start();
+        return true;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        this.open = false;
+        this.pending.clear();
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized boolean isOpen()
+    {
+        return this.open;
+    }
+
+    @Override
+    public synchronized void write(String cmd) throws IOException
+    {
+        if (!this.open) throw new IOException(this.name + " simulator is not open");
+        if (!this.present) throw new IOException(this.name + " simulator is unplugged");
+
+        cmd = cmd.trim();
+        String resp;
+        if (TrussFrame.NEGOTIATE.equals(cmd))
+        {
+            /* The acknowledgement is the last text response. */
+            resp = "Cpl";
+            this.binary = true;
+        }
+        else
+        {
+            this.advance(System.nanoTime());
+            resp = this.handle(cmd);
+        }
+        this.respond((resp + "\r\n").getBytes());
+    }
+
+    @Override
+    public synchronized void write(byte buf[], int off, int len) throws IOException
+    {
+        if (!this.open) throw new IOException(this.name + " simulator is not open");
+        if (!this.present) throw new IOException(this.name + " simulator is unplugged");
+
+        /* Until binary framing is negotiated the bytes are a text command. */
+        if (!this.binary)
+        {
+            this.write(new String(buf, off, len));
+            return;
+        }
+
+        /* Like the firmware, corrupt frames are not answered. */
+        String cmd = TrussFrame.decodeCommand(buf, off, len);
+        if (cmd == null) return;
+
+        this.advance(System.nanoTime());
+        int frameLen = TrussFrame.encodeResponse(this.handle(cmd), buf[off + 2], this.frame);
+        byte resp[] = new byte[frameLen];
+        this.frame.get(resp);
+        this.respond(resp);
+    }
+
+    /**
+     * Queues a response to be delivered after the link latency.
+     *
+     * @param resp response bytes
+     */
+    private void respond(byte resp[])
+    {
+        long delay = this.latency;
+        if (this.jitter > 0) delay += (long)(this.random.nextDouble() * this.jitter);
+        this.pending.addLast(new Response(System.nanoTime() + delay, resp));
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized void setListener(ITrussLinkListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            byte text[];
+            ITrussLinkListener l;
+            synchronized (this)
+            {
+                /* A reopened link is served by a new thread. */
+                if (!this.open || this.deliveryThread != Thread.currentThread()) return;
+
+                if (this.pending.isEmpty())
+                {
+                    this.waitQuietly(0);
+                    continue;
+                }
+
+                long remaining = this.pending.peekFirst().due - System.nanoTime();
+                if (remaining > 0)
+                {
+                    this.waitQuietly(remaining);
+                    continue;
+                }
+
+                text = this.pending.removeFirst().text;
+                l = this.listener;
+            }
+
+            /* The listener is called outside the lock so it is free to write 
+             * the next command. */
+            if (l != null) l.received(text, 0, text.length);
+        }
+    }
+
+    /**
+     * Waits on this simulator's monitor.
+     *
+     * @param nanos time to wait in nanoseconds, 0 to wait until notified
+     */
+    private void waitQuietly(long nanos)
+    {
+        try
+        {
+            this.wait(nanos / 1000000, (int)(nanos % 1000000));
+        }
+        catch (InterruptedException e)
+        {
+            this.open = false;
+        }
+    }
+
+    /**
+     * Simulates unplugging or plugging in the USB serial adapter. While it is
+     * unplugged the link cannot be opened and writes to it fail. Responses
+     * not yet delivered are lost. Plugging it back in does not reopen the
+     * link, and reopening it restarts the simulated firmware.
+     *
+     * @param present whether the adapter is plugged in
+     */
+    public synchronized void setPresent(boolean present)
+    {
+        this.present = present;
+        if (!present) this.pending.clear();
+    }
+
+    /**
+     * Returns the simulated firmware mode.
+     *
+     * @return firmware mode
+     */
+    public synchronized int getMode()
+    {
+        return this.mode;
+    }
+
+    /**
+     * Handles a command and generates its response.
+     *
+     * @param cmd command line
+     * @return response line
+     */
+    private String handle(String cmd)
+    {
+        if (!cmd.startsWith("rlab://")) return "Err;Cmd";
+
+        int q = cmd.indexOf('?');
+        if (q < 0) return "Err;Cmd";
+        String verb = cmd.substring(7, q);
+
+        int addr = -1;
+        String val = null;
+        for (String param : cmd.substring(q + 1).split("&"))
+        {
+            if ("addr=ALL".equals(param))
+            {
+                addr = ALL_ADDR;
+            }
+            else if (param.startsWith("addr="))
+            {
+                try
+                {
+                    addr = Integer.parseInt(param.substring(5));
+                }
+                catch (NumberFormatException e)
+                {
+                    return "Err;Addr";
+                }
+            }
+            else if (param.startsWith("val="))
+            {
+                val = param.substring(4);
+            }
+        }
+
+        try
+        {
+            if ("REQV".equals(verb))
+            {
+                return this.daq ? this.daqRequest(addr) : this.ctrlRequest(addr);
+            }
+            else if (val == null)
+            {
+                return "Err;Val";
+            }
+            else if ("SETV".equals(verb))
+            {
+                return this.daq ? this.daqSet(addr, val) : this.ctrlSet(addr, val);
+            }
+            else if (this.daq && ("SETS".equals(verb) || "SETO".equals(verb)) && addr == ALL_ADDR)
+            {
+                return this.daqSetAll("SETS".equals(verb), val);
+            }
+            else if (this.daq && "SETS".equals(verb) && addr >= 10 && addr < 10 + STRAIN_CHANNELS)
+            {
+                this.scale[addr - 10] = Float.parseFloat(val);
+                this.scalesReceived |= 1 << (addr - 10);
+                this.checkDaqCalibrated();
+                return "Cpl";
+            }
+            else if (this.daq && "SETO".equals(verb) && addr >= 10 && addr < 10 + STRAIN_CHANNELS)
+            {
+                this.offset[addr - 10] = Integer.parseInt(val);
+                this.offsetsReceived |= 1 << (addr - 10);
+                this.checkDaqCalibrated();
+                return "Cpl";
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return "Err;Val";
+        }
+
+        return "Err;Cmd";
+    }
+
+    private String daqRequest(int addr)
+    {
+        StringBuilder buf = new StringBuilder("Cpl");
+        switch (addr)
+        {
+            case 1:
+            case 2:
+                int base = (addr - 1) * 5;
+                for (int i = base; i < base + 5; i++) buf.append(';').append(this.strain[i]);
+                return buf.toString();
+            case 3:
+                for (int i = 0; i < STRAIN_CHANNELS; i++) buf.append(";0");
+                return buf.append(';').append(this.mode).append(";0").toString();
+            case ALL_ADDR:
+                for (int i = 0; i < STRAIN_CHANNELS; i++) buf.append(';').append(this.strain[i]);
+                for (int i = 0; i < STRAIN_CHANNELS; i++) buf.append(";0");
+                return buf.append(';').append(this.mode).append(";0").toString();
+            default:
+                return "Err;Addr";
+        }
+    }
+
+    private String daqSet(int addr, String val)
+    {
+        if (addr != 1) return "Err;Addr";
+        this.setMode(Integer.parseInt(val));
+        return "Cpl";
+    }
+
+    /**
+     * Sets the scale or offset of every strain gauge from a list of values,
+     * none of which are set if any is invalid.
+     */
+    private String daqSetAll(boolean scales, String val)
+    {
+        String vals[] = val.split(";");
+        if (vals.length != STRAIN_CHANNELS) return "Err;Val";
+
+        double parsed[] = new double[STRAIN_CHANNELS];
+        for (int i = 0; i < STRAIN_CHANNELS; i++)
+        {
+            parsed[i] = scales ? Float.parseFloat(vals[i]) : Integer.parseInt(vals[i]);
+        }
+
+        for (int i = 0; i < STRAIN_CHANNELS; i++)
+        {
+            if (scales) this.scale[i] = (float)parsed[i];
+            else this.offset[i] = (int)parsed[i];
+        }
+        if (scales) this.scalesReceived = (1 << STRAIN_CHANNELS) - 1;
+        else this.offsetsReceived = (1 << STRAIN_CHANNELS) - 1;
+        this.checkDaqCalibrated();
+        return "Cpl";
+    }
+
+    private void checkDaqCalibrated()
+    {
+        int all = (1 << STRAIN_CHANNELS) - 1;
+        if (this.mode == 11 && this.scalesReceived == all && this.offsetsReceived == all) this.mode = 14;
+    }
+
+    private String ctrlRequest(int addr)
+    {
+        switch (addr)
+        {
+            case 1:
+                return "Cpl;" + (int)this.curDistance + ';' + this.tgtDistance + ';' +
+                        ((int)this.curDistance == this.tgtDistance ? 0 : 1);
+            case 2:
+                return "Cpl;" + this.curLoad + ';' + this.tgtLoad + ';' + (this.curLoad == this.tgtLoad ? 0 : 1);
+            case 3:
+                return "Cpl;0;0;" + this.mode + ";0";
+            case ALL_ADDR:
+                return this.ctrlRequest(1) + this.ctrlRequest(2).substring(3) + this.ctrlRequest(3).substring(3);
+            default:
+                return "Err;Addr";
+        }
+    }
+
+    private String ctrlSet(int addr, String val)
+    {
+        switch (addr)
+        {
+            case 1:
+                this.setMode(Integer.parseInt(val));
+                return "Cpl";
+            case 11:
+                this.tgtLoad = Float.parseFloat(val);
+                return "Cpl";
+            case 12:
+                this.tgtLoad += Integer.parseInt(val) * LOAD_PER_STEP;
+                return "Cpl";
+            case 13:
+                Float.parseFloat(val);
+                this.loadScaleReceived = true;
+                this.checkCtrlCalibrated();
+                return "Cpl";
+            case 14:
+                Integer.parseInt(val);
+                this.loadOffsetReceived = true;
+                this.checkCtrlCalibrated();
+                return "Cpl";
+            case 21:
+                this.tgtDistance = Integer.parseInt(val);
+                return "Cpl";
+            case 22:
+                this.tgtDistance += Integer.parseInt(val);
+                return "Cpl";
+            default:
+                return "Err;Addr";
+        }
+    }
+
+    private void checkCtrlCalibrated()
+    {
+        if (this.mode == 11 && this.loadScaleReceived && this.loadOffsetReceived) this.mode = 13;
+    }
+
+    /**
+     * Mode change requested by the host.
+     *
+     * @param requested requested mode
+     */
+    private void setMode(int requested)
+    {
+        if (requested == 11)
+        {
+            this.scalesReceived = 0;
+            this.offsetsReceived = 0;
+            this.loadScaleReceived = false;
+            this.loadOffsetReceived = false;
+        }
+        if (requested == 31)
+        {
+            /* Cleanup stops the motors where they are. */
+            this.tgtDistance = (int)this.curDistance;
+            this.tgtLoad = this.curLoad;
+        }
+        this.mode = requested;
+    }
+
+    /**
+     * Advances the simulated hardware to the specified time.
+     *
+     * @param now current time in nanoseconds
+     */
+    private void advance(long now)
+    {
+        float dt = (now - this.lastAdvance) / 1e9f;
+        this.lastAdvance = now;
+
+        if (this.daq)
+        {
+            double t = now / 1e9;
+            for (int i = 0; i < STRAIN_CHANNELS; i++)
+            {
+                this.strain[i] = (float)(100 * Math.sin(t / 10 + i) + this.random.nextGaussian());
+            }
+        }
+        else if (this.mode == 20)
+        {
+            this.curDistance = approach(this.curDistance, this.tgtDistance, DISTANCE_RATE * dt);
+            this.curLoad = approach(this.curLoad, this.tgtLoad, LOAD_RATE * dt);
+        }
+    }
+
+    private static float approach(float cur, float tgt, float maxStep)
+    {
+        if (Math.abs(tgt - cur) <= maxStep) return tgt;
+        return cur + (tgt > cur ? maxStep : -maxStep);
+    }
+
+    /**
+     * Response waiting for its latency to elapse.
+     */
+    private static class Response
+    {
+        /** Time the response is received. */
+        final long due;
+
+        /** Response text or frame. */
+        final byte text[];
+
+        Response(long due, byte text[])
+        {
+            this.due = due;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock free queue of commands to an Arduino which coalesces
+ * commands that have not yet been sent. Each kind of command has a slot,
+ * identified by its index in the command prefixes, with a merge rule:
+ * <ul>
+ *  <li>{@link #SETPOINT} and {@link #FLOAT_SETPOINT} - the last value
+ *  written before the command is sent wins;</li>
+ *  <li>{@link #STEP} - step deltas accumulate, so no step is lost, and
+ *  steps that cancel out are not sent.</li>
+ * </ul>
+ * A slot is in the queue at most once, so the queue never holds more
+ * entries than there are slots and commands are sent in the order their
+ * slots first became pending. Any number of threads may queue commands,
+ * only a single sender thread may take them.
+ * <p>
+ * The time each slot became pending is kept, so the sender can measure how
+ * long a command waited from being accepted to being sent.
+ */
+public class TrussCommandQueue
+{
+    /** Merge rules. */
+    public static final int SETPOINT = 0;
+    public static final int FLOAT_SETPOINT = 1;
+    public static final int STEP = 2;
+
+    /** Command text up to the value, e.g. 'rlab://SETV?addr=21&val='. */
+    private final String prefixes[];
+
+    /** Merge rule of each slot. */
+    private final int rules[];
+
+    /** Pending value of each slot, float setpoints as their bits. */
+    private final AtomicIntegerArray values;
+
+    /** Whether each slot is in the queue. */
+    private final AtomicIntegerArray pending;
+
+    /** <code>System.nanoTime()</code> each slot became pending. */
+    private final AtomicLongArray queued;
+
+    /** Time the last command taken was queued, only written by the sender. */
+    private long takenQueued;
+
+    /** Ring of queued slot numbers plus one, zero if not yet published. */
+    private final AtomicIntegerArray ring;
+
+    /** Next ring position to be written. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Next ring position to be taken, only written by the sender. */
+    private volatile long head;
+
+    /** Sender waiting for a command. */
+    private volatile Thread sender;
+
+    /**
+     * Constructor.
+     *
+     * @param prefixes command text up to the value for each slot
+     * @param rules merge rule of each slot
+     */
+    public TrussCommandQueue(String prefixes[], int rules[])
+    {
+        if (prefixes.length != rules.length) throw new IllegalArgumentException("A rule is needed for each slot");
+
+        this.prefixes = prefixes.clone();
+        this.rules = rules.clone();
+        this.values = new AtomicIntegerArray(prefixes.length);
+        this.pending = new AtomicIntegerArray(prefixes.length);
+        this.queued = new AtomicLongArray(prefixes.length);
+        this.ring = new AtomicIntegerArray(prefixes.length);
+    }
+
+    /**
+     * Queues a setpoint, replacing the value of the slot if it has not been
+     * sent.
+     *
+     * @param slot {@link #SETPOINT} slot
+     * @param value setpoint
+     */
+    public void set(int slot, int value)
+    {
+        this.values.set(slot, value);
+        this.enqueue(slot);
+    }
+
+    /**
+     * Queues a float setpoint, replacing the value of the slot if it has not
+     * been sent.
+     *
+     * @param slot {@link #FLOAT_SETPOINT} slot
+     * @param value setpoint
+     */
+    public void set(int slot, float value)
+    {
+        this.values.set(slot, Float.floatToIntBits(value));
+        this.enqueue(slot);
+    }
+
+    /**
+     * Queues a step, adding it to any steps of the slot that have not been
+     * sent.
+     *
+     * @param slot {@link #STEP} slot
+     * @param delta step size
+     */
+    public void add(int slot, int delta)
+    {
+        this.values.addAndGet(slot, delta);
+        this.enqueue(slot);
+    }
+
+    private void enqueue(int slot)
+    {
+        if (!this.pending.compareAndSet(slot, 0, 1)) return;
+        this.queued.set(slot, System.nanoTime());
+
+        /* At most one entry per slot so the position is always free. */
+        long pos = this.tail.getAndIncrement();
+        this.ring.set((int)(pos % this.prefixes.length), slot + 1);
+        LockSupport.unpark(this.sender);
+    }
+
+    /**
+     * Takes the next command without waiting.
+     *
+     * @return command text or null if there is no command
+     */
+    public String poll()
+    {
+        while (this.head < this.tail.get())
+        {
+            int index = (int)(this.head % this.prefixes.length);
+            int entry;
+            while ((entry = this.ring.get(index)) == 0)
+            {
+                /* A producer has reserved the position but not yet written it. */
+                Thread.yield();
+            }
+            this.ring.set(index, 0);
+            this.head++;
+
+            int slot = entry - 1;
+            /* Taken while still pending, so it is not replaced by the time a later write is queued. */
+            this.takenQueued = this.queued.get(slot);
+            /* Cleared before taking the value so a later write queues the slot again. */
+            this.pending.set(slot, 0);
+            switch (this.rules[slot])
+            {
+                case STEP:
+                    int delta = this.values.getAndSet(slot, 0);
+                    if (delta != 0) return this.prefixes[slot] + delta;
+                    break;
+                case FLOAT_SETPOINT:
+                    return this.prefixes[slot] + String.format("%f", Float.intBitsToFloat(this.values.get(slot)));
+                default:
+                    return this.prefixes[slot] + this.values.get(slot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next command, waiting until one is queued.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return command text or null if the wait timed out
+     * @throws InterruptedException interrupted waiting
+     */
+    public String take(long timeout) throws InterruptedException
+    {
+        this.sender = Thread.currentThread();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        String cmd;
+        long remaining;
+        while ((cmd = this.poll()) == null && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        return cmd;
+    }
+
+    /**
+     * Returns the time the last command taken by the sender was queued, the
+     * first time its slot was written since it was last sent.
+     *
+     * @return <code>System.nanoTime()</code> the command was queued
+     */
+    public long getQueuedTime()
+    {
+        return this.takenQueued;
+    }
+
+    /**
+     * Returns whether there are no queued commands.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty()
+    {
+        return this.head == this.tail.get();
+    }
+}
@@ -0,0 +1,201 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+/**
+ * Reads the fields of a text response line, e.g. 'Cpl;12.5;-3;20', in
+ * place from the receive buffer. The numeric parsers scan the response
+ * bytes directly so reading telemetry does not create any strings or
+ * arrays. A scanner is reset to a new line by
+ * {@link TrussLineReceiver#awaitLine(TrussFieldScanner, long)}.
+ */
+public class TrussFieldScanner implements ITrussResponse
+{
+    /** Field delimiter. */
+    private static final byte DELIMITER = ';';
+
+    /** Exact double powers of ten. */
+    private static final double POW10[] = new double[23];
+    static
+    {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    /** Mantissa digits kept, further digits only scale the value. */
+    private static final int MAX_DIGITS = 18;
+
+    /** Line being scanned. */
+    private byte line[];
+
+    /** Line length. */
+    private int len;
+
+    /** Position of the next character to scan. */
+    private int pos;
+
+    /**
+     * Resets the scanner to the start of a line.
+     *
+     * @param buf line buffer
+     * @param length line length
+     */
+    void reset(byte buf[], int length)
+    {
+        this.line = buf;
+        this.len = length;
+        this.pos = 0;
+    }
+
+    @Override
+    public boolean isCpl(int fields)
+    {
+        if (this.len < 3 || this.line[0] != 'C' || this.line[1] != 'p' || this.line[2] != 'l') return false;
+
+        this.pos = 3;
+        if (this.pos < this.len && this.line[this.pos] == DELIMITER) this.pos++;
+
+        int count = 0;
+        if (this.pos < this.len)
+        {
+            count = 1;
+            for (int i = this.pos; i < this.len; i++)
+            {
+                if (this.line[i] == DELIMITER) count++;
+            }
+        }
+        return count >= fields;
+    }
+
+    @Override
+    public boolean isErr()
+    {
+        return this.len >= 3 && this.line[0] == 'E' && this.line[1] == 'r' && this.line[2] == 'r';
+    }
+
+    @Override
+    public int nextInt()
+    {
+        this.skipSpaces();
+        boolean negative = this.sign();
+
+        int start = this.pos;
+        long value = 0;
+        while (this.pos < this.len && this.isDigit(this.line[this.pos]))
+        {
+            value = value * 10 + (this.line[this.pos++] - '0');
+            if (value > (long)Integer.MAX_VALUE + 1) throw this.invalid();
+        }
+        if (this.pos == start) throw this.invalid();
+        if (negative) value = -value;
+        if (value > Integer.MAX_VALUE) throw this.invalid();
+
+        this.endField();
+        return (int)value;
+    }
+
+    @Override
+    public float nextFloat()
+    {
+        this.skipSpaces();
+        boolean negative = this.sign();
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        boolean fraction = false;
+        for ( ; this.pos < this.len; this.pos++)
+        {
+            byte c = this.line[this.pos];
+            if (this.isDigit(c))
+            {
+                any = true;
+                if (digits < MAX_DIGITS)
+                {
+                    if (mantissa > 0 || c != '0') digits++;
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) exponent--;
+                }
+                else if (!fraction)
+                {
+                    exponent++;
+                }
+            }
+            else if (c == '.' && !fraction)
+            {
+                fraction = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if (!any) throw this.invalid();
+
+        if (this.pos < this.len && (this.line[this.pos] == 'e' || this.line[this.pos] == 'E'))
+        {
+            this.pos++;
+            boolean negExp = this.sign();
+            int start = this.pos;
+            int exp = 0;
+            while (this.pos < this.len && this.isDigit(this.line[this.pos]))
+            {
+                if (exp < 1000) exp = exp * 10 + (this.line[this.pos] - '0');
+                this.pos++;
+            }
+            if (this.pos == start) throw this.invalid();
+            exponent += negExp ? -exp : exp;
+        }
+
+        double value = mantissa;
+        if (exponent < 0)
+        {
+            value = -exponent < POW10.length ? value / POW10[-exponent] : value / Math.pow(10, -exponent);
+        }
+        else if (exponent > 0)
+        {
+            value = exponent < POW10.length ? value * POW10[exponent] : value * Math.pow(10, exponent);
+        }
+
+        this.endField();
+        return (float)(negative ? -value : value);
+    }
+
+    private boolean isDigit(byte c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean sign()
+    {
+        if (this.pos < this.len && (this.line[this.pos] == '-' || this.line[this.pos] == '+'))
+        {
+            return this.line[this.pos++] == '-';
+        }
+        return false;
+    }
+
+    private void skipSpaces()
+    {
+        while (this.pos < this.len && this.line[this.pos] == ' ') this.pos++;
+    }
+
+    /**
+     * Moves past the end of the current field and its delimiter.
+     *
+     * @throws NumberFormatException field has trailing characters
+     */
+    private void endField()
+    {
+        this.skipSpaces();
+        if (this.pos < this.len)
+        {
+            if (this.line[this.pos] != DELIMITER) throw this.invalid();
+            this.pos++;
+        }
+    }
+
+    private NumberFormatException invalid()
+    {
+        return new NumberFormatException("Invalid response field at position " + this.pos);
+    }
+}
@@ -0,0 +1,318 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compact binary framing of the <tt>rlab://</tt> protocol. Once a link has
+ * negotiated binary framing with the {@link #NEGOTIATE} command, commands
+ * and responses are sent as frames:
+ * <pre>
+ *  +------+-----+-----+------------+--------+
+ *  | 0xA5 | LEN | SEQ | BODY (LEN) | CRC-16 |
+ *  +------+-----+-----+------------+--------+
+ * </pre>
+ * <ul>
+ *  <li>LEN - number of body bytes;</li>
+ *  <li>SEQ - command sequence number, echoed in the response;</li>
+ *  <li>CRC-16 - CRC-16/CCITT (polynomial 0x1021, initial value 0xFFFF) of
+ *  the LEN, SEQ and body bytes, little endian.</li>
+ * </ul>
+ * A command body is the verb, address and value type, followed by the
+ * value if it has one. A response body is a status byte followed by the
+ * response fields. All values are 4 byte little endian integers or IEEE
+ * floats, in the same order as the fields of the text response. A command
+ * value may be a list, such as the scale of every strain gauge set by
+ * <tt>SETS?addr=ALL</tt>, whose values are separated by ';' in text and
+ * are preceded by their count in a frame.
+ */
+public final class TrussFrame
+{
+    /** Text command which switches a link to binary framing. */
+    public static final String NEGOTIATE = "rlab://SETF?addr=01&val=1";
+
+    /** Frame start byte. */
+    public static final byte SYNC = (byte)0xA5;
+
+    /** Largest body length. */
+    public static final int MAX_BODY = 255;
+
+    /** Bytes in a frame other than the body. */
+    public static final int OVERHEAD = 5;
+
+    /** Largest frame length. */
+    public static final int MAX_FRAME = MAX_BODY + OVERHEAD;
+
+    /** Command verbs. */
+    public static final byte REQV = 1;
+    public static final byte SETV = 2;
+    public static final byte SETS = 3;
+    public static final byte SETO = 4;
+
+    /** Address of the bulk request, 'addr=ALL' in text. */
+    public static final int ADDR_ALL = 0xFF;
+
+    /** Command value types. */
+    public static final byte VAL_NONE = 0;
+    public static final byte VAL_INT = 1;
+    public static final byte VAL_FLOAT = 2;
+    public static final byte VAL_INTS = 3;
+    public static final byte VAL_FLOATS = 4;
+
+    /** Largest number of values in a list. */
+    public static final int MAX_VALUES = (MAX_BODY - 4) / 4;
+
+    /** Response status codes, 'Cpl', 'Err;Cmd', 'Err;Addr' and 'Err;Val' in text. */
+    public static final byte CPL = 0;
+    public static final byte ERR_CMD = 1;
+    public static final byte ERR_ADDR = 2;
+    public static final byte ERR_VAL = 3;
+
+    /** Verb names indexed by verb code. */
+    private static final String VERBS[] = { null, "REQV", "SETV", "SETS", "SETO" };
+
+    /** Error names indexed by status code. */
+    private static final String ERRORS[] = { null, "Cmd", "Addr", "Val" };
+
+    private TrussFrame()
+    {
+        /* Static methods only. */
+    }
+
+    /**
+     * Creates a buffer large enough for any frame, in the frame byte order.
+     *
+     * @return frame buffer
+     */
+    public static ByteBuffer allocate()
+    {
+        return ByteBuffer.allocate(MAX_FRAME).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Calculates the CRC-16/CCITT of a range of bytes.
+     *
+     * @param buf bytes
+     * @param off offset of the first byte
+     * @param len number of bytes
+     * @return CRC value
+     */
+    public static int crc16(byte buf[], int off, int len)
+    {
+        int crc = 0xFFFF;
+        for (int i = off; i < off + len; i++)
+        {
+            crc ^= (buf[i] & 0xFF) << 8;
+            for (int b = 0; b < 8; b++)
+            {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return crc & 0xFFFF;
+    }
+
+    /**
+     * Encodes a text command as a frame. The buffer is cleared and left with
+     * the frame between position 0 and its limit.
+     *
+     * @param cmd text command, e.g. 'rlab://SETV?addr=11&val=2.500000'
+     * @param seq sequence number
+     * @param out buffer created with {@link #allocate()}
+     * @return frame length
+     * @throws IllegalArgumentException command can not be framed
+     */
+    public static int encodeCommand(String cmd, int seq, ByteBuffer out)
+    {
+        int q = cmd.indexOf('?');
+        if (!cmd.startsWith("rlab://") || q < 0) throw new IllegalArgumentException("Not a command: " + cmd);
+
+        byte verb = 0;
+        String name = cmd.substring(7, q);
+        for (int v = 1; v < VERBS.length; v++)
+        {
+            if (VERBS[v].equals(name)) verb = (byte)v;
+        }
+        if (verb == 0) throw new IllegalArgumentException("Unknown verb: " + cmd);
+
+        int addr = -1;
+        String val = null;
+        for (String param : cmd.substring(q + 1).split("&"))
+        {
+            if (param.startsWith("addr="))
+            {
+                String a = param.substring(5);
+                addr = "ALL".equals(a) ? ADDR_ALL : Integer.parseInt(a);
+            }
+            else if (param.startsWith("val="))
+            {
+                val = param.substring(4);
+            }
+        }
+        if (addr < 0 || addr > 0xFF) throw new IllegalArgumentException("Bad address: " + cmd);
+
+        TrussFrame.begin(out, seq);
+        out.put(verb);
+        out.put((byte)addr);
+        if (val == null)
+        {
+            out.put(VAL_NONE);
+        }
+        else if (val.indexOf(';') >= 0)
+        {
+            String vals[] = val.split(";");
+            if (vals.length > MAX_VALUES) throw new IllegalArgumentException("Too many values: " + cmd);
+
+            boolean floats = isFloat(val);
+            out.put(floats ? VAL_FLOATS : VAL_INTS);
+            out.put((byte)vals.length);
+            for (String v : vals)
+            {
+                if (floats) out.putFloat(Float.parseFloat(v));
+                else out.putInt(Integer.parseInt(v));
+            }
+        }
+        else if (isFloat(val))
+        {
+            out.put(VAL_FLOAT);
+            out.putFloat(Float.parseFloat(val));
+        }
+        else
+        {
+            out.put(VAL_INT);
+            out.putInt(Integer.parseInt(val));
+        }
+        return TrussFrame.end(out);
+    }
+
+    private static boolean isFloat(String val)
+    {
+        return val.indexOf('.') >= 0 || val.indexOf('e') >= 0 || val.indexOf('E') >= 0;
+    }
+
+    /**
+     * Encodes a value request, <tt>REQV</tt>, as a frame without creating any
+     * objects. The buffer is cleared and left with the frame between
+     * position 0 and its limit.
+     *
+     * @param addr requested address or {@link #ADDR_ALL}
+     * @param seq sequence number
+     * @param out buffer created with {@link #allocate()}
+     * @return frame length
+     */
+    public static int encodeRequest(int addr, int seq, ByteBuffer out)
+    {
+        TrussFrame.begin(out, seq);
+        out.put(REQV);
+        out.put((byte)addr);
+        out.put(VAL_NONE);
+        return TrussFrame.end(out);
+    }
+
+    /**
+     * Decodes a command frame back to its text form.
+     *
+     * @param buf buffer containing a whole frame
+     * @param off offset of the frame start byte
+     * @param len number of bytes
+     * @return text command or null if the frame is invalid
+     */
+    public static String decodeCommand(byte buf[], int off, int len)
+    {
+        if (len < OVERHEAD + 3 || buf[off] != SYNC) return null;
+        int bodyLen = buf[off + 1] & 0xFF;
+        if (len != bodyLen + OVERHEAD || !TrussFrame.checkCrc(buf, off + 1, bodyLen + 2)) return null;
+
+        ByteBuffer body = ByteBuffer.wrap(buf, off + 3, bodyLen).order(ByteOrder.LITTLE_ENDIAN);
+        int verb = body.get();
+        int addr = body.get() & 0xFF;
+        int type = body.get();
+        if (verb < 1 || verb >= VERBS.length) return null;
+
+        StringBuilder cmd = new StringBuilder("rlab://").append(VERBS[verb]).append("?addr=");
+        if (addr == ADDR_ALL) cmd.append("ALL");
+        else cmd.append(addr < 10 ? "0" : "").append(addr);
+
+        if (type == VAL_INT && body.remaining() >= 4) cmd.append("&val=").append(body.getInt());
+        else if (type == VAL_FLOAT && body.remaining() >= 4) cmd.append("&val=").append(body.getFloat());
+        else if ((type == VAL_INTS || type == VAL_FLOATS) && body.remaining() >= 1)
+        {
+            int count = body.get() & 0xFF;
+            if (count == 0 || body.remaining() < count * 4) return null;
+            for (int i = 0; i < count; i++)
+            {
+                cmd.append(i == 0 ? "&val=" : ";");
+                if (type == VAL_INTS) cmd.append(body.getInt());
+                else cmd.append(body.getFloat());
+            }
+        }
+        return cmd.toString();
+    }
+
+    /**
+     * Encodes a text response as a frame. Fields containing a decimal point
+     * or exponent are encoded as floats, others as integers.
+     *
+     * @param resp text response, e.g. 'Cpl;1.5;2' or 'Err;Addr'
+     * @param seq sequence number of the command being answered
+     * @param out buffer created with {@link #allocate()}
+     * @return frame length
+     */
+    public static int encodeResponse(String resp, int seq, ByteBuffer out)
+    {
+        String fields[] = resp.split(";");
+        TrussFrame.begin(out, seq);
+        if ("Cpl".equals(fields[0]))
+        {
+            out.put(CPL);
+            for (int i = 1; i < fields.length; i++)
+            {
+                String f = fields[i];
+                if (f.indexOf('.') >= 0 || f.indexOf('E') >= 0) out.putFloat(Float.parseFloat(f));
+                else out.putInt(Integer.parseInt(f));
+            }
+        }
+        else
+        {
+            byte status = ERR_CMD;
+            for (int e = 1; e < ERRORS.length; e++)
+            {
+                if (fields.length > 1 && ERRORS[e].equals(fields[1])) status = (byte)e;
+            }
+            out.put(status);
+        }
+        return TrussFrame.end(out);
+    }
+
+    /**
+     * Returns whether the CRC following a range of bytes matches them.
+     *
+     * @param buf bytes
+     * @param off offset of the first checked byte
+     * @param len number of checked bytes, the CRC follows them
+     * @return true if the CRC matches
+     */
+    static boolean checkCrc(byte buf[], int off, int len)
+    {
+        int crc = (buf[off + len] & 0xFF) | (buf[off + len + 1] & 0xFF) << 8;
+        return crc == TrussFrame.crc16(buf, off, len);
+    }
+
+    private static void begin(ByteBuffer out, int seq)
+    {
+        out.clear();
+        out.put(SYNC);
+        out.put((byte)0);
+        out.put((byte)seq);
+    }
+
+    private static int end(ByteBuffer out)
+    {
+        int len = out.position();
+        out.put(1, (byte)(len - 3));
+        int crc = TrussFrame.crc16(out.array(), 1, len - 1);
+        out.put((byte)crc);
+        out.put((byte)(crc >> 8));
+        out.flip();
+        return out.limit();
+    }
+}
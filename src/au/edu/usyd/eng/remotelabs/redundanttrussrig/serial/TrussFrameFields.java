@@ -0,0 +1,78 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the fields of a binary framed response in place from the frame
+ * receive buffer. Fields are reset to a new frame by
+ * {@link TrussFrameReceiver#awaitFrame(TrussFrameFields, int, long)}.
+ */
+public class TrussFrameFields implements ITrussResponse
+{
+    /** Response body, positioned at the next field. */
+    private ByteBuffer body;
+
+    /** Position of the status byte. */
+    private int status;
+
+    /**
+     * Resets to the start of a response body.
+     *
+     * @param buf response body positioned at its status byte
+     */
+    void reset(ByteBuffer buf)
+    {
+        this.body = buf;
+        this.status = buf.position();
+    }
+
+    /**
+     * Returns the response status code.
+     *
+     * @return status, one of the <code>TrussFrame</code> status codes
+     */
+    public byte getStatus()
+    {
+        return this.body.get(this.status);
+    }
+
+    @Override
+    public boolean isCpl(int fields)
+    {
+        this.body.position(this.status);
+        return this.body.get() == TrussFrame.CPL && this.body.remaining() >= fields * 4;
+    }
+
+    @Override
+    public boolean isErr()
+    {
+        return this.getStatus() != TrussFrame.CPL;
+    }
+
+    @Override
+    public int nextInt()
+    {
+        try
+        {
+            return this.body.getInt();
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new NumberFormatException("Missing response field");
+        }
+    }
+
+    @Override
+    public float nextFloat()
+    {
+        try
+        {
+            return this.body.getFloat();
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new NumberFormatException("Missing response field");
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Assembles the bytes received on a binary framed link into frames and
+ * hands each valid response frame to the thread waiting for it. Frames are
+ * assembled into one of three buffers which are rotated when a frame is
+ * complete, so the waiting thread reads the response fields directly from
+ * the receive buffer while the next frame is assembled in another. A
+ * response handed to a waiting thread is not assembled into again until
+ * the receiver is cleared, so late frames arriving while it is read do not
+ * overwrite it.
+ * Frames with a bad CRC are dropped and the receiver hunts for the next
+ * start byte from the byte after the dropped frame's start byte, as that
+ * may have been noise with a good frame following it. Frames whose
+ * sequence number is not the awaited one, such as a late response to a
+ * timed out command, are discarded, so clearing the receiver does not cut
+ * short a frame being received.
+ * <p>
+ * Several commands may be in flight at once when each is only acknowledged.
+ * The status of an expected acknowledgement is kept by its sequence number
+ * until it is taken, so acknowledgements may arrive in any order.
+ */
+public class TrussFrameReceiver implements ITrussLinkListener
+{
+    /** Acknowledgement status of a sequence number whose acknowledgement has not arrived. */
+    public static final int NO_ACK = -1;
+
+    /** Receive states. */
+    private static final int HUNT = 0;
+    private static final int LENGTH = 1;
+    private static final int BODY = 2;
+
+    /** Frame being assembled, from the length byte to the CRC. */
+    private byte assembling[] = new byte[TrussFrame.MAX_FRAME];
+
+    /** Last completed frame, from the length byte to the CRC. */
+    private byte completed[] = new byte[TrussFrame.MAX_FRAME];
+
+    /** Buffer not in use, taken in place of a completed frame being read. */
+    private byte spare[] = new byte[TrussFrame.MAX_FRAME];
+
+    /** Views of the frame buffers, rotated with them. */
+    private ByteBuffer assemblingView = ByteBuffer.wrap(this.assembling).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer completedView = ByteBuffer.wrap(this.completed).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer spareView = ByteBuffer.wrap(this.spare).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** Completed frame handed to a waiting thread, null if none since the receiver was cleared. */
+    private byte scanned[];
+
+    /** Receive state. */
+    private int state = HUNT;
+
+    /** Number of bytes in the frame being assembled. */
+    private int count;
+
+    /** Number of bytes the frame being assembled needs, from the length byte to the CRC. */
+    private int needed;
+
+    /** Whether there is a completed frame that has not been taken. */
+    private boolean available;
+
+    /** Number of frames dropped because of a bad CRC. */
+    private int crcErrors;
+
+    /** Sequence numbers whose acknowledgement is expected. */
+    private final boolean ackExpected[] = new boolean[256];
+
+    /** Status of the acknowledgement of each sequence number, NO_ACK if not arrived. */
+    private final int ackStatus[] = new int[256];
+
+    /** Number of acknowledgements arrived and not yet taken. */
+    private int acksArrived;
+
+    /**
+     * Constructor.
+     */
+    public TrussFrameReceiver()
+    {
+        Arrays.fill(this.ackStatus, NO_ACK);
+    }
+
+    @Override
+    public synchronized void received(byte buf[], int off, int len)
+    {
+        this.receive(buf, off, len);
+    }
+
+    private void receive(byte buf[], int off, int len)
+    {
+        for (int i = off; i < off + len; i++)
+        {
+            byte b = buf[i];
+            switch (this.state)
+            {
+                case HUNT:
+                    if (b == TrussFrame.SYNC) this.state = LENGTH;
+                    break;
+
+                case LENGTH:
+                    this.assembling[0] = b;
+                    this.count = 1;
+                    /* Length, sequence, body and CRC. */
+                    this.needed = (b & 0xFF) + 4;
+                    this.state = BODY;
+                    break;
+
+                case BODY:
+                    this.assembling[this.count++] = b;
+                    if (this.count == this.needed)
+                    {
+                        this.state = HUNT;
+                        this.frameComplete();
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void frameComplete()
+    {
+        if (!TrussFrame.checkCrc(this.assembling, 0, this.count - 2))
+        {
+            this.crcErrors++;
+
+            /* Rare, so the bytes are copied to hunt them while the next frame is assembled. */
+            byte rehunt[] = new byte[this.count];
+            System.arraycopy(this.assembling, 0, rehunt, 0, this.count);
+            this.receive(rehunt, 0, rehunt.length);
+            return;
+        }
+
+        int seq = this.assembling[1] & 0xFF;
+        if (this.ackExpected[seq])
+        {
+            /* Only the status is kept, so the frame does not take the place of a response. */
+            this.ackExpected[seq] = false;
+            this.ackStatus[seq] = this.count > 4 ? this.assembling[2] & 0xFF : TrussFrame.ERR_CMD;
+            this.acksArrived++;
+            this.notifyAll();
+            return;
+        }
+
+        byte done[] = this.assembling;
+        ByteBuffer doneView = this.assemblingView;
+        if (this.completed == this.scanned)
+        {
+            this.assembling = this.spare;
+            this.assemblingView = this.spareView;
+            this.spare = this.completed;
+            this.spareView = this.completedView;
+        }
+        else
+        {
+            this.assembling = this.completed;
+            this.assemblingView = this.completedView;
+        }
+        this.completed = done;
+        this.completedView = doneView;
+
+        this.available = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Discards any unclaimed frame. This should be called before sending a
+     * command so an old frame is not taken as its response. A frame being
+     * assembled is completed, as its sequence number tells whether it is
+     * the response. A response read for the previous command may be reused
+     * once this is called.
+     */
+    public synchronized void clear()
+    {
+        this.available = false;
+        this.scanned = null;
+    }
+
+    /**
+     * Waits for the response frame with the specified sequence number. The
+     * returned buffer is positioned at the status byte and limited to the
+     * end of the response fields. It is only valid until the receiver is
+     * cleared for the next command.
+     *
+     * @param seq sequence number of the command
+     * @param timeout maximum time to wait in milliseconds
+     * @return response body or null if the wait timed out
+     * @throws InterruptedException interrupted waiting
+     */
+    public ByteBuffer awaitFrame(int seq, long timeout) throws InterruptedException
+    {
+        return this.awaitFrameUntil(seq, System.nanoTime() + timeout * 1000000);
+    }
+
+    /**
+     * Waits for the response frame with the specified sequence number until
+     * a deadline. The returned buffer is positioned at the status byte and
+     * limited to the end of the response fields. It is only valid until the
+     * receiver is cleared for the next command.
+     *
+     * @param seq sequence number of the command
+     * @param deadline <code>System.nanoTime()</code> to wait until
+     * @return response body or null if the deadline passed
+     * @throws InterruptedException interrupted waiting
+     */
+    public synchronized ByteBuffer awaitFrameUntil(int seq, long deadline) throws InterruptedException
+    {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 || this.available)
+        {
+            if (this.available)
+            {
+                this.available = false;
+                if ((this.completed[1] & 0xFF) == (seq & 0xFF))
+                {
+                    this.scanned = this.completed;
+                    this.completedView.limit(2 + (this.completed[0] & 0xFF));
+                    this.completedView.position(2);
+                    return this.completedView;
+                }
+                /* Stale frame. */
+                continue;
+            }
+            this.wait(remaining / 1000000, (int)(remaining % 1000000));
+        }
+        return null;
+    }
+
+    /**
+     * Waits for the response frame with the specified sequence number and
+     * resets the fields to it. The fields are read in place, so they are
+     * only valid until the receiver is cleared for the next command.
+     *
+     * @param fields fields to reset to the response
+     * @param seq sequence number of the command
+     * @param timeout maximum time to wait in milliseconds
+     * @return true if the response was received, false if the wait timed out
+     * @throws InterruptedException interrupted waiting
+     */
+    public boolean awaitFrame(TrussFrameFields fields, int seq, long timeout) throws InterruptedException
+    {
+        return this.awaitFrameUntil(fields, seq, System.nanoTime() + timeout * 1000000);
+    }
+
+    /**
+     * Waits for the response frame with the specified sequence number until
+     * a deadline and resets the fields to it. The fields are only valid
+     * until the receiver is cleared for the next command.
+     *
+     * @param fields fields to reset to the response
+     * @param seq sequence number of the command
+     * @param deadline <code>System.nanoTime()</code> to wait until
+     * @return true if the response was received, false if the deadline passed
+     * @throws InterruptedException interrupted waiting
+     */
+    public synchronized boolean awaitFrameUntil(TrussFrameFields fields, int seq, long deadline)
+            throws InterruptedException
+    {
+        ByteBuffer body = this.awaitFrameUntil(seq, deadline);
+        if (body == null) return false;
+        fields.reset(body);
+        return true;
+    }
+
+    /**
+     * Expects the acknowledgement of a command sent with a sequence number.
+     * Its response frame is not returned by <code>awaitFrame</code>, its
+     * status is kept to be taken with {@link #takeAck(int)}.
+     *
+     * @param seq sequence number of the command
+     */
+    public synchronized void expectAck(int seq)
+    {
+        this.cancelAck(seq);
+        this.ackExpected[seq & 0xFF] = true;
+    }
+
+    /**
+     * Takes the status of an acknowledgement if it has arrived.
+     *
+     * @param seq sequence number of the command
+     * @return response status or {@link #NO_ACK} if it has not arrived
+     */
+    public synchronized int takeAck(int seq)
+    {
+        int status = this.ackStatus[seq & 0xFF];
+        if (status != NO_ACK)
+        {
+            this.ackStatus[seq & 0xFF] = NO_ACK;
+            this.acksArrived--;
+        }
+        return status;
+    }
+
+    /**
+     * Stops expecting an acknowledgement, so it is discarded as stale if it
+     * arrives later.
+     *
+     * @param seq sequence number of the command
+     */
+    public synchronized void cancelAck(int seq)
+    {
+        this.ackExpected[seq & 0xFF] = false;
+        this.takeAck(seq);
+    }
+
+    /**
+     * Waits until there is an acknowledgement that has not been taken or a
+     * deadline passes.
+     *
+     * @param deadline <code>System.nanoTime()</code> to wait until
+     * @return true if there is an acknowledgement to take
+     * @throws InterruptedException interrupted waiting
+     */
+    public synchronized boolean awaitAckUntil(long deadline) throws InterruptedException
+    {
+        long remaining;
+        while (this.acksArrived == 0 && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            this.wait(remaining / 1000000, (int)(remaining % 1000000));
+        }
+        return this.acksArrived > 0;
+    }
+
+    /**
+     * Waits for the acknowledgement of one command until a deadline and
+     * takes it. It is still expected if the deadline passes.
+     *
+     * @param seq sequence number of the command
+     * @param deadline <code>System.nanoTime()</code> to wait until
+     * @return response status or {@link #NO_ACK} if the deadline passed
+     * @throws InterruptedException interrupted waiting
+     */
+    public synchronized int awaitAckUntil(int seq, long deadline) throws InterruptedException
+    {
+        long remaining;
+        while (this.ackStatus[seq & 0xFF] == NO_ACK && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            this.wait(remaining / 1000000, (int)(remaining % 1000000));
+        }
+        return this.takeAck(seq);
+    }
+
+    /**
+     * Returns the number of frames dropped because of a bad CRC.
+     *
+     * @return CRC error count
+     */
+    public synchronized int getCrcErrors()
+    {
+        return this.crcErrors;
+    }
+}
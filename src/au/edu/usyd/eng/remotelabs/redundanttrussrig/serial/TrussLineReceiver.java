@@ -0,0 +1,172 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.nio.charset.Charset;
+
+/**
+ * Assembles the characters received on a link into response lines and hands
+ * each completed line to the thread waiting for a command response. The
+ * receiver acts as a reusable latch: the sending thread clears it, writes
+ * the command then waits for the line which is released as soon as the
+ * terminating new line is received. Lines are assembled into one of three
+ * buffers which are rotated when a line is complete, so a completed line
+ * can be scanned in place while the next is assembled. A line handed to a
+ * scanner is not assembled into again until the receiver is cleared, so
+ * late lines arriving while it is scanned do not overwrite it.
+ * <p>
+ * A line still being received when the receiver is cleared, such as a late
+ * reply to a command that timed out, is skipped as a whole when its
+ * terminator arrives. Truncating it instead would release its tail as the
+ * response to the next command.
+ */
+public class TrussLineReceiver implements ITrussLinkListener
+{
+    /** Line character set. */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /** Maximum line length, longer lines are truncated. */
+    private static final int MAX_LINE = 512;
+
+    /** Line being assembled. */
+    private byte line[] = new byte[MAX_LINE];
+
+    /** Number of characters in the line being assembled. */
+    private int lineLen;
+
+    /** Last completed line. */
+    private byte completed[] = new byte[MAX_LINE];
+
+    /** Number of characters in the last completed line. */
+    private int completedLen;
+
+    /** Buffer not in use, taken in place of a completed line being scanned. */
+    private byte spare[] = new byte[MAX_LINE];
+
+    /** Completed line handed to a scanner, null if none since the receiver was cleared. */
+    private byte scanned[];
+
+    /** Whether the last completed line has not been taken by a waiting thread. */
+    private boolean available;
+
+    /** Whether the line being assembled was started before the receiver was cleared. */
+    private boolean stale;
+
+    @Override
+    public synchronized void received(byte buf[], int off, int len)
+    {
+        for (int i = off; i < off + len; i++)
+        {
+            byte b = buf[i];
+            if (b == '\n' && this.stale)
+            {
+                this.lineLen = 0;
+                this.stale = false;
+            }
+            else if (b == '\n')
+            {
+                byte done[] = this.line;
+                if (this.completed == this.scanned)
+                {
+                    this.line = this.spare;
+                    this.spare = this.completed;
+                }
+                else
+                {
+                    this.line = this.completed;
+                }
+                this.completed = done;
+                this.completedLen = this.lineLen;
+                this.lineLen = 0;
+                this.available = true;
+                this.notifyAll();
+            }
+            else if (b != '\r' && b != 0 && this.lineLen < MAX_LINE)
+            {
+                this.line[this.lineLen++] = b;
+            }
+        }
+    }
+
+    /**
+     * Discards any unclaimed line and marks a partially assembled line to be
+     * skipped. This should be called before sending a command so an old line
+     * is not taken as its response. A line scanned for the previous command
+     * may be reused once this is called.
+     */
+    public synchronized void clear()
+    {
+        this.stale = this.lineLen > 0;
+        this.available = false;
+        this.scanned = null;
+    }
+
+    /**
+     * Waits for the next completed line.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return line without its terminator or null if the wait timed out
+     * @throws InterruptedException interrupted waiting
+     */
+    public String awaitLine(long timeout) throws InterruptedException
+    {
+        return this.awaitLineUntil(System.nanoTime() + timeout * 1000000);
+    }
+
+    /**
+     * Waits for the next completed line until a deadline.
+     *
+     * @param deadline <code>System.nanoTime()</code> to wait until
+     * @return line without its terminator or null if the deadline passed
+     * @throws InterruptedException interrupted waiting
+     */
+    public synchronized String awaitLineUntil(long deadline) throws InterruptedException
+    {
+        if (!this.await(deadline)) return null;
+        return new String(this.completed, 0, this.completedLen, ASCII);
+    }
+
+    /**
+     * Waits for the next completed line and resets the scanner to it. The
+     * line is scanned in place, so it is only valid until the receiver is
+     * cleared for the next command.
+     *
+     * @param scanner scanner to reset to the line
+     * @param timeout maximum time to wait in milliseconds
+     * @return true if a line was received, false if the wait timed out
+     * @throws InterruptedException interrupted waiting
+     */
+    public boolean awaitLine(TrussFieldScanner scanner, long timeout) throws InterruptedException
+    {
+        return this.awaitLineUntil(scanner, System.nanoTime() + timeout * 1000000);
+    }
+
+    /**
+     * Waits for the next completed line until a deadline and resets the
+     * scanner to it. The line is only valid until the receiver is cleared
+     * for the next command.
+     *
+     * @param scanner scanner to reset to the line
+     * @param deadline <code>System.nanoTime()</code> to wait until
+     * @return true if a line was received, false if the deadline passed
+     * @throws InterruptedException interrupted waiting
+     */
+    public synchronized boolean awaitLineUntil(TrussFieldScanner scanner, long deadline) throws InterruptedException
+    {
+        if (!this.await(deadline)) return false;
+        this.scanned = this.completed;
+        scanner.reset(this.completed, this.completedLen);
+        return true;
+    }
+
+    private boolean await(long deadline) throws InterruptedException
+    {
+        long remaining;
+        while (!this.available && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            this.wait(remaining / 1000000, (int)(remaining % 1000000));
+        }
+
+        boolean took = this.available;
+        this.available = false;
+        return took;
+    }
+}
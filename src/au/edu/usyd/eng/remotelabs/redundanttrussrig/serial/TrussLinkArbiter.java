@@ -0,0 +1,228 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.io.IOException;
+
+/**
+ * Lock of a link held for each command round trip, which is given to the
+ * waiting command of the highest priority lane when it is released:
+ * <ul>
+ *  <li>{@link #EMERGENCY} - emergency stop and cleanup;</li>
+ *  <li>{@link #SETPOINT} - user setpoints and mode changes;</li>
+ *  <li>{@link #CALIBRATION} - calibration and link set up;</li>
+ *  <li>{@link #TELEMETRY} - value polls.</li>
+ * </ul>
+ * Commands of the same lane get the link in the order they asked for it.
+ * As a command holds the link for a single round trip, a command waits for
+ * at most the command in flight and any commands of higher lanes. A holder
+ * sending a long run of commands, such as a calibration upload, should
+ * {@link #giveWay()} between them. The lock is reentrant.
+ * <p>
+ * Once the link is {@link #stop() stopped} setpoints are no longer written,
+ * including those already waiting for the link, so none can follow the
+ * stop command onto the link.
+ */
+public class TrussLinkArbiter
+{
+    /** Lanes, highest priority first. */
+    public static final int EMERGENCY = 0;
+    public static final int SETPOINT = 1;
+    public static final int CALIBRATION = 2;
+    public static final int TELEMETRY = 3;
+
+    /** Lane names indexed by lane. */
+    public static final String LANE_NAMES[] = { "emergency", "setpoint", "calibration", "telemetry" };
+
+    /** Next ticket handed out to a command of each lane. */
+    private final long issued[] = new long[LANE_NAMES.length];
+
+    /** Ticket of each lane whose turn is next. */
+    private final long serving[] = new long[LANE_NAMES.length];
+
+    /** Thread holding the link, null if free. */
+    private Thread owner;
+
+    /** Lane of the holder. */
+    private int ownerLane;
+
+    /** Number of times the holder has locked the link. */
+    private int holds;
+
+    /** Whether the link has been stopped. */
+    private boolean stopped;
+
+    /**
+     * Waits until the link is free and no command of a higher lane, or
+     * earlier command of the same lane, is waiting for it, then takes it.
+     * An interrupt does not stop the wait, the thread's interrupt status is
+     * set again once the link is taken.
+     *
+     * @param lane priority lane of the command
+     */
+    public synchronized void lock(int lane)
+    {
+        Thread current = Thread.currentThread();
+        if (this.owner == current)
+        {
+            this.holds++;
+            return;
+        }
+
+        long ticket = this.issued[lane]++;
+        boolean interrupted = false;
+        while (this.owner != null || this.serving[lane] != ticket || this.isWaitingAbove(lane))
+        {
+            try
+            {
+                this.wait();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+
+        this.serving[lane]++;
+        this.owner = current;
+        this.ownerLane = lane;
+        this.holds = 1;
+        if (interrupted) current.interrupt();
+    }
+
+    /**
+     * Releases the link once it has been unlocked as many times as it was
+     * locked.
+     *
+     * @throws IllegalMonitorStateException if the link is not held by this thread
+     */
+    public synchronized void unlock()
+    {
+        if (this.owner != Thread.currentThread()) throw new IllegalMonitorStateException("Link not held");
+
+        if (--this.holds == 0)
+        {
+            this.owner = null;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Lets waiting commands of higher lanes than the holder's go first,
+     * taking the link back after them. The link is only given way when it
+     * is held once, as an outer holder expects it to be held throughout.
+     *
+     * @return true if the link was given to another command
+     */
+    public synchronized boolean giveWay()
+    {
+        if (this.owner != Thread.currentThread() || this.holds != 1 || !this.isWaitingAbove(this.ownerLane))
+        {
+            return false;
+        }
+
+        /* Queued again before the monitor is released, so a lower lane can not take the link in between. */
+        int lane = this.ownerLane;
+        this.unlock();
+        this.lock(lane);
+        return true;
+    }
+
+    /**
+     * Stops the link, after which commands of the {@link #SETPOINT} lane are
+     * not written. The stop command is then written in the
+     * {@link #EMERGENCY} lane, which does not need the link to be held.
+     */
+    public synchronized void stop()
+    {
+        this.stopped = true;
+    }
+
+    /**
+     * Returns whether the link has been stopped.
+     *
+     * @return true if stopped
+     */
+    public synchronized boolean isStopped()
+    {
+        return this.stopped;
+    }
+
+    /**
+     * Writes a command line onto the link, unless it is a setpoint and the
+     * link has been stopped. The check and the write are made together, so
+     * a setpoint is either written before the stop command or not at all.
+     *
+     * @param link link to write to
+     * @param lane priority lane of the command
+     * @param cmd command line
+     * @return true if written, false if refused after a stop
+     * @throws IOException error writing the link
+     */
+    public synchronized boolean write(ITrussLink link, int lane, String cmd) throws IOException
+    {
+        if (this.stopped && lane == SETPOINT) return false;
+
+        link.write(cmd);
+        return true;
+    }
+
+    /**
+     * Writes a command frame onto the link, unless it is a setpoint and the
+     * link has been stopped.
+     *
+     * @param link link to write to
+     * @param lane priority lane of the command
+     * @param buf frame buffer
+     * @param off offset of the frame
+     * @param len frame length
+     * @return true if written, false if refused after a stop
+     * @throws IOException error writing the link
+     */
+    public synchronized boolean write(ITrussLink link, int lane, byte buf[], int off, int len) throws IOException
+    {
+        if (this.stopped && lane == SETPOINT) return false;
+
+        link.write(buf, off, len);
+        return true;
+    }
+
+    /**
+     * Returns whether the link is held by the calling thread.
+     *
+     * @return true if held
+     */
+    public synchronized boolean isHeldByCurrentThread()
+    {
+        return this.owner == Thread.currentThread();
+    }
+
+    /**
+     * Returns whether a command of a higher lane than the holder's is
+     * waiting for the link.
+     *
+     * @return true if a higher priority command is waiting
+     */
+    public synchronized boolean hasWaitingAbove()
+    {
+        return this.owner != null && this.isWaitingAbove(this.ownerLane);
+    }
+
+    /**
+     * Returns the number of commands of a lane waiting for the link.
+     *
+     * @param lane priority lane
+     * @return waiting commands
+     */
+    public synchronized int getWaiting(int lane)
+    {
+        return (int)(this.issued[lane] - this.serving[lane]);
+    }
+
+    private boolean isWaitingAbove(int lane)
+    {
+        for (int l = 0; l < lane; l++)
+        {
+            if (this.issued[l] != this.serving[l]) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.ConfigFactory;
+import au.edu.uts.eng.remotelabs.rigclient.util.IConfig;
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Creates the configured link type. The link type is set with the
+ * 'Truss_Link_Type' property which may be:
+ * <ul>
+ *  <li>RXTX - RXTX serial port (default);</li>
+ *  <li>Tty - Linux tty device opened directly;</li>
+ *  <li>Simulator - in process Arduino simulator.</li>
+ * </ul>
+ */
+public class TrussLinkFactory
+{
+    /** RXTX serial port link type. */
+    public static final String RXTX = "RXTX";
+
+    /** Linux tty device link type. */
+    public static final String TTY = "Tty";
+
+    /** Simulated Arduino link type. */
+    public static final String SIMULATOR = "Simulator";
+
+    /**
+     * Creates a link.
+     *
+     * @param name link name, either {@link ITrussLink#DAQ} or {@link ITrussLink#CTRL}
+     * @param portName serial port name
+     * @return link, not yet opened
+     */
+    public static ITrussLink createLink(String name, String portName)
+    {
+        IConfig config = ConfigFactory.getInstance();
+        ILogger logger = LoggerFactory.getLoggerInstance();
+
+        String type = config.getProperty("Truss_Link_Type", RXTX);
+        if (SIMULATOR.equalsIgnoreCase(type))
+        {
+            long latency = TrussLinkFactory.getLong(config, "Truss_Simulator_Latency", 5);
+            long jitter = TrussLinkFactory.getLong(config, "Truss_Simulator_Jitter", 0);
+            logger.info("Primitive Controller HW Interface - " + name + " link is simulated with latency " +
+                    latency + " ms and jitter " + jitter + " ms.");
+            return new SimulatedTrussLink(name, latency, jitter);
+        }
+
+        if (TTY.equalsIgnoreCase(type) && TtyTrussLink.isSessionLeader())
+        {
+            /* The tty would become the controlling terminal, so unplugging the adapter would hang up the rig client. */
+            logger.error("Primitive Controller HW Interface - the rig client is a session leader so can not use the " +
+                    TTY + " link type, using " + RXTX + ". Start java from a script that does not exec it.");
+        }
+        else if (TTY.equalsIgnoreCase(type))
+        {
+            logger.info("Primitive Controller HW Interface - " + name + " link is the tty " + portName + ".");
+            return new TtyTrussLink(name, portName);
+        }
+        else if (!RXTX.equalsIgnoreCase(type))
+        {
+            logger.warn("Primitive Controller HW Interface - unknown link type '" + type + "', using " + RXTX + ".");
+        }
+        return new RxtxTrussLink(name, portName);
+    }
+
+    /**
+     * Loads a numeric configuration property.
+     *
+     * @param config configuration
+     * @param key property name
+     * @param def default value if not set or invalid
+     * @return property value
+     */
+    static long getLong(IConfig config, String key, long def)
+    {
+        try
+        {
+            return Long.parseLong(config.getProperty(key, String.valueOf(def)).trim());
+        }
+        catch (NumberFormatException e)
+        {
+            LoggerFactory.getLoggerInstance().warn("Primitive Controller HW Interface - invalid value for '" +
+                    key + "', using " + def + ".");
+            return def;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+/**
+ * Decides when a link has failed and when it is next to be reopened. A link
+ * is down after an I/O error, such as a USB serial adapter being unplugged,
+ * or after a number of consecutive commands without a response. While it is
+ * down commands are not sent and the link is reopened with an exponential
+ * backoff, so a missing port is looked for less and less often up to a
+ * maximum interval. A command answered on the link resets the backoff.
+ * <p>
+ * Times are <code>System.nanoTime()</code> values passed in by the caller.
+ */
+public class TrussLinkSupervisor
+{
+    /** Consecutive commands without a response after which the link is down. */
+    private final int maxFailures;
+
+    /** Minimum and maximum interval between reconnect attempts in nanoseconds. */
+    private final long minBackoff, maxBackoff;
+
+    /** Whether the link is up. */
+    private boolean up = true;
+
+    /** Consecutive commands without a response. */
+    private int failures;
+
+    /** Interval from the link going down, or a failed attempt, to the next attempt in nanoseconds. */
+    private long backoff;
+
+    /** Time of the next reconnect attempt. */
+    private long retryAt;
+
+    /** Number of times the link has gone down. */
+    private long downCount;
+
+    /**
+     * Constructor.
+     *
+     * @param maxFailures consecutive commands without a response after which the link is down
+     * @param minBackoffMillis interval to the first reconnect attempt in milliseconds
+     * @param maxBackoffMillis maximum interval between reconnect attempts in milliseconds
+     */
+    public TrussLinkSupervisor(int maxFailures, long minBackoffMillis, long maxBackoffMillis)
+    {
+        if (maxFailures < 1) throw new IllegalArgumentException("At least one failure must be allowed");
+        if (minBackoffMillis < 1 || maxBackoffMillis < minBackoffMillis)
+        {
+            throw new IllegalArgumentException("Invalid reconnect backoff");
+        }
+
+        this.maxFailures = maxFailures;
+        this.minBackoff = minBackoffMillis * 1000000;
+        this.maxBackoff = maxBackoffMillis * 1000000;
+        this.backoff = this.minBackoff;
+    }
+
+    /**
+     * Returns whether the link is up, so commands may be sent on it.
+     *
+     * @return true if up
+     */
+    public synchronized boolean isUp()
+    {
+        return this.up;
+    }
+
+    /**
+     * Records a command that was answered.
+     */
+    public synchronized void success()
+    {
+        this.failures = 0;
+        this.backoff = this.minBackoff;
+    }
+
+    /**
+     * Records a command that was not answered in time.
+     *
+     * @param now current time
+     * @return true if the link has gone down
+     */
+    public synchronized boolean timeout(long now)
+    {
+        return this.up && ++this.failures >= this.maxFailures && this.down(now);
+    }
+
+    /**
+     * Records an I/O error on the link, or that it could not be opened.
+     *
+     * @param now current time
+     * @return true if the link has gone down
+     */
+    public synchronized boolean error(long now)
+    {
+        return this.up && this.down(now);
+    }
+
+    /**
+     * Returns the time until the link is next to be reopened.
+     *
+     * @param now current time
+     * @return nanoseconds until the next attempt, zero or less if it is due
+     */
+    public synchronized long getRetryDelay(long now)
+    {
+        return this.retryAt - now;
+    }
+
+    /**
+     * Records a reconnect attempt that did not open the link.
+     *
+     * @param now current time
+     */
+    public synchronized void reconnectFailed(long now)
+    {
+        this.retryAt = now + this.nextBackoff();
+    }
+
+    /**
+     * Records that the link has been reopened. The backoff is only reset
+     * once a command is answered, so a port that opens but does not answer
+     * is reopened less and less often like a missing port.
+     */
+    public synchronized void reconnected()
+    {
+        this.up = true;
+        this.failures = 0;
+        this.nextBackoff();
+    }
+
+    /**
+     * Returns the number of times the link has gone down.
+     *
+     * @return link failures
+     */
+    public synchronized long getDownCount()
+    {
+        return this.downCount;
+    }
+
+    private boolean down(long now)
+    {
+        this.up = false;
+        this.failures = 0;
+        this.downCount++;
+        this.retryAt = now + this.backoff;
+        return true;
+    }
+
+    /**
+     * Doubles the backoff, up to the maximum.
+     *
+     * @return new backoff in nanoseconds
+     */
+    private long nextBackoff()
+    {
+        return this.backoff = Math.min(this.backoff * 2, this.maxBackoff);
+    }
+}
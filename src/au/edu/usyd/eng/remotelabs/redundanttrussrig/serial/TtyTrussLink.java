@@ -0,0 +1,317 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Link to a truss Arduino through its Linux tty device, such as
+ * '/dev/ttyUSB0', without the RXTX native library. The device is opened as
+ * separate input and output file channels, as a file channel does not
+ * write while a read of it is blocked. Its terminal settings are made once,
+ * with <tt>stty</tt>, before it is opened: raw 8N1 at the Arduino data rate
+ * ignoring the modem lines, so opening it does not wait for carrier, with
+ * reads returning as soon as a byte is available.
+ * <p>
+ * The device is opened without <tt>O_NOCTTY</tt>, so a process that is a
+ * session leader without a controlling terminal would take the tty as its
+ * controlling terminal and be hung up when the adapter is unplugged. The
+ * link is not used by such a process, see {@link #isSessionLeader()}.
+ * <p>
+ * Received bytes are read in bulk into a reused buffer by the link's
+ * receive thread and given to the listener as they arrive. A command is
+ * written with its new line from a reused buffer in a single write, so
+ * sending it does not create any objects. A tty channel can not be
+ * registered with a selector, so each link has its own blocking receive
+ * thread, the same as the RXTX event thread of each port.
+ */
+public class TtyTrussLink implements ITrussLink, Runnable
+{
+    /** Serial port baud rate. */
+    private static final String DATA_RATE = "115200";
+
+    /** Terminal settings, after the device and data rate. */
+    private static final String TERMIOS[] = { "cs8", "-cstopb", "-parenb", "clocal", "raw", "-echo", "min", "1", "time", "0" };
+
+    /** Link name. */
+    private final String name;
+
+    /** Device path, e.g. '/dev/ttyUSB0'. */
+    private final String portName;
+
+    /** Device input channel, null if not open. */
+    private volatile FileChannel input;
+
+    /** Device output channel, null if not open. */
+    private volatile FileChannel output;
+
+    /** Receive thread. */
+    private Thread receiver;
+
+    /** Buffer bytes are read into by the receive thread. */
+    private final ByteBuffer rx = ByteBuffer.allocate(256);
+
+    /** Buffer commands are written from, grown for a longer command. */
+    private ByteBuffer tx = ByteBuffer.allocate(256);
+
+    /** Receive listener. */
+    private volatile ITrussLinkListener listener;
+
+    /** Error reading the device since it was opened, such as the adapter being unplugged. */
+    private volatile IOException readError;
+
+    /** Logger. */
+    private final ILogger logger;
+
+    public TtyTrussLink(String name, String portName)
+    {
+        this.name = name;
+        this.portName = portName;
+        this.logger = LoggerFactory.getLoggerInstance();
+    }
+
+    @Override
+    public String getName()
+    {
+        return this.name;
+    }
+
+    @Override
+    public synchronized boolean open()
+    {
+        if (this.output != null) return true;
+
+        if (this.portName == null || !new File(this.portName).exists())
+        {
+            this.logger.debug("Primitive Controller HW Interface - Could not find " + this.name + " tty " + this.portName);
+            return false;
+        }
+
+        try
+        {
+            /* Configured first, as stty opens the device without waiting for carrier but these opens wait unless clocal is set. */
+            this.configure();
+            this.output = new FileOutputStream(this.portName).getChannel();
+            this.input = new FileInputStream(this.portName).getChannel();
+
+            this.readError = null;
+            this.receiver = new Thread(this, "Tty-" + this.name + "-Receiver");
+            this.receiver.setDaemon(true);
+            this.receiver.start();
+            this.logger.info("Primitive Controller HW Interface - " + this.name + " tty " + this.portName + " opened");
+            return true;
+        }
+        catch (IOException e)
+        {
+            this.logger.error("Primitive Controller HW Interface - " + this.name + " tty open exception: " + e.toString());
+            this.close();
+            return false;
+        }
+    }
+
+    /**
+     * Sets the terminal settings of the device, each time it is opened.
+     *
+     * @throws IOException stty could not be run or failed
+     */
+    protected void configure() throws IOException
+    {
+        String cmd[] = new String[TERMIOS.length + 4];
+        cmd[0] = "stty";
+        cmd[1] = "-F";
+        cmd[2] = this.portName;
+        cmd[3] = DATA_RATE;
+        System.arraycopy(TERMIOS, 0, cmd, 4, TERMIOS.length);
+
+        Process stty = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        StringBuilder out = new StringBuilder();
+        InputStream in = stty.getInputStream();
+        try
+        {
+            int c;
+            while ((c = in.read()) >= 0) out.append((char)c);
+            if (stty.waitFor() != 0) throw new IOException("stty failed: " + out.toString().trim());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted configuring " + this.portName);
+        }
+        finally
+        {
+            in.close();
+            stty.getOutputStream().close();
+            stty.getErrorStream().close();
+        }
+    }
+
+    /**
+     * Returns whether this process is a session leader without a controlling
+     * terminal, which takes the first tty it opens as its controlling
+     * terminal. This is the case for a daemon started directly by an init
+     * system, such as a systemd service executing java.
+     *
+     * @return true if a tty opened by this process becomes its controlling terminal
+     */
+    public static boolean isSessionLeader()
+    {
+        try
+        {
+            BufferedReader in = new BufferedReader(new FileReader("/proc/self/stat"));
+            try
+            {
+                return TtyTrussLink.isSessionLeader(in.readLine());
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            /* Not Linux, where the tty link is not used. */
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether a process is a session leader without a controlling
+     * terminal, from its <tt>/proc/[pid]/stat</tt> line.
+     *
+     * @param stat process stat line
+     * @return true if a tty opened by the process becomes its controlling terminal
+     */
+    public static boolean isSessionLeader(String stat)
+    {
+        /* pid (comm) state ppid pgrp session tty_nr ..., where comm may hold spaces. */
+        int pid = stat == null ? -1 : stat.indexOf(' ');
+        int comm = stat == null ? -1 : stat.lastIndexOf(')');
+        if (pid < 0 || comm < pid) return false;
+
+        String fields[] = stat.substring(comm + 1).trim().split(" ");
+        return fields.length > 4 && fields[3].equals(stat.substring(0, pid)) && "0".equals(fields[4]);
+    }
+
+    @Override
+    public void close()
+    {
+        Thread t;
+        synchronized (this)
+        {
+            /* Closing the input stops the receive thread's read. */
+            this.closeChannel(this.input);
+            this.closeChannel(this.output);
+            this.input = null;
+            this.output = null;
+            t = this.receiver;
+            this.receiver = null;
+        }
+
+        /* Not joined holding the lock, as the receive thread may be waiting to deliver to a listener that holds it. */
+        if (t != null && t != Thread.currentThread())
+        {
+            try
+            {
+                t.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeChannel(FileChannel ch)
+    {
+        if (ch == null) return;
+        try
+        {
+            ch.close();
+        }
+        catch (IOException e)
+        {
+            this.logger.warn("Primitive Controller HW Interface - " + this.name + " tty close exception: " +
+                    e.toString());
+        }
+    }
+
+    @Override
+    public synchronized boolean isOpen()
+    {
+        return this.output != null;
+    }
+
+    @Override
+    public synchronized void write(String cmd) throws IOException
+    {
+        if (cmd.length() + 1 > this.tx.capacity()) this.tx = ByteBuffer.allocate(cmd.length() + 1);
+
+        this.tx.clear();
+        for (int i = 0; i < cmd.length(); i++) this.tx.put((byte)cmd.charAt(i));
+        this.tx.put((byte)'\n');
+        this.tx.flip();
+        this.writeFully(this.tx);
+    }
+
+    @Override
+    public synchronized void write(byte buf[], int off, int len) throws IOException
+    {
+        this.writeFully(ByteBuffer.wrap(buf, off, len));
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException
+    {
+        FileChannel ch = this.output;
+        if (ch == null) throw new IOException(this.name + " tty is not open");
+        if (this.readError != null) throw this.readError;
+
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    @Override
+    public void setListener(ITrussLinkListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void run()
+    {
+        FileChannel ch = this.input;
+        try
+        {
+            while (ch != null && ch == this.input)
+            {
+                this.rx.clear();
+                int len = ch.read(this.rx);
+                if (len < 0) throw new IOException(this.portName + " closed by the device");
+
+                ITrussLinkListener l = this.listener;
+                if (len > 0 && l != null) l.received(this.rx.array(), 0, len);
+            }
+        }
+        catch (ClosedChannelException e)
+        {
+            /* Closed by the link. */
+        }
+        catch (IOException e)
+        {
+            /* Thrown by the next write for the link to be reopened. */
+            if (ch == this.input)
+            {
+                this.readError = e;
+                this.logger.error("Primitive Controller HW Interface - " + this.name + " data exception: " + e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.ITrussLink;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.SimulatedTrussLink;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrame;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrameReceiver;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLineReceiver;
+
+/**
+ * Tests the <code>SimulatedTrussLink</code> class.
+ */
+public class SimulatedTrussLinkTester extends TestCase
+{
+    /** DAQ simulator. */
+    private SimulatedTrussLink daq;
+
+    /** CTRL simulator. */
+    private SimulatedTrussLink ctrl;
+
+    /** DAQ response receiver. */
+    private TrussLineReceiver daqReceiver;
+
+    /** CTRL response receiver. */
+    private TrussLineReceiver ctrlReceiver;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.daq = new SimulatedTrussLink(ITrussLink.DAQ, 0, 0);
+        this.ctrl = new SimulatedTrussLink(ITrussLink.CTRL, 0, 0);
+        this.daqReceiver = new TrussLineReceiver();
+        this.ctrlReceiver = new TrussLineReceiver();
+        this.daq.setListener(this.daqReceiver);
+        this.ctrl.setListener(this.ctrlReceiver);
+        assertTrue(this.daq.open());
+        assertTrue(this.ctrl.open());
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception
+    {
+        this.daq.close();
+        this.ctrl.close();
+    }
+
+    @Test
+    public void testDaqHandshake() throws Exception
+    {
+        assertEquals(0, this.daq.getMode());
+        assertEquals("Cpl", this.command(this.daq, "rlab://SETV?addr=01&val=11"));
+        assertEquals(11, this.daq.getMode());
+
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals("Cpl", this.command(this.daq, "rlab://SETS?addr=" + (i + 10) + "&val=1.500000"));
+            assertEquals(11, this.daq.getMode());
+        }
+        for (int i = 0; i < 9; i++)
+        {
+            assertEquals("Cpl", this.command(this.daq, "rlab://SETO?addr=" + (i + 10) + "&val=100"));
+            assertEquals(11, this.daq.getMode());
+        }
+        assertEquals("Cpl", this.command(this.daq, "rlab://SETO?addr=19&val=100"));
+        assertEquals(14, this.daq.getMode());
+
+        assertEquals("Cpl", this.command(this.daq, "rlab://SETV?addr=01&val=20"));
+        String status = this.command(this.daq, "rlab://REQV?addr=03");
+        assertTrue(status.startsWith("Cpl;"));
+        String fields[] = status.substring(4).split(";");
+        assertEquals(12, fields.length);
+        assertEquals("20", fields[10]);
+
+        assertEquals("Cpl", this.command(this.daq, "rlab://SETV?addr=01&val=31"));
+        assertEquals(31, this.daq.getMode());
+    }
+
+    @Test
+    public void testBulkCalibration() throws Exception
+    {
+        this.command(this.daq, "rlab://SETV?addr=01&val=11");
+
+        /* None of an invalid list is set. */
+        assertEquals("Err;Val", this.command(this.daq, "rlab://SETS?addr=ALL&val=1.5;2.5"));
+        assertEquals("Err;Val", this.command(this.daq, "rlab://SETO?addr=ALL&val=1;2;3;4;5;6;7;8;9;x"));
+
+        assertEquals("Cpl", this.command(this.daq, "rlab://SETS?addr=ALL&val=1;1;1;1;1;1;1;1;1;1.5"));
+        assertEquals(11, this.daq.getMode());
+        assertEquals("Cpl", this.command(this.daq, "rlab://SETO?addr=ALL&val=0;1;2;3;4;5;6;7;8;9"));
+        assertEquals(14, this.daq.getMode());
+    }
+
+    @Test
+    public void testPipelinedCalibration() throws Exception
+    {
+        this.command(this.daq, "rlab://SETV?addr=01&val=11");
+        assertEquals("Cpl", this.command(this.daq, TrussFrame.NEGOTIATE));
+        TrussFrameReceiver frames = new TrussFrameReceiver();
+        this.daq.setListener(frames);
+
+        /* All are sent before any acknowledgement is awaited. */
+        ByteBuffer tx = TrussFrame.allocate();
+        for (int i = 0; i < 20; i++)
+        {
+            String verb = i < 10 ? "SETS" : "SETO";
+            int len = TrussFrame.encodeCommand("rlab://" + verb + "?addr=" + (10 + i % 10) + "&val=2", 100 + i, tx);
+            frames.expectAck(100 + i);
+            this.daq.write(tx.array(), 0, len);
+        }
+
+        /* Taken in any order once they have arrived. */
+        long deadline = System.nanoTime() + 1000000000L;
+        for (int i = 19; i >= 0; i--)
+        {
+            int status;
+            while ((status = frames.takeAck(100 + i)) == TrussFrameReceiver.NO_ACK)
+            {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+            assertEquals(TrussFrame.CPL, status);
+        }
+        assertEquals(14, this.daq.getMode());
+    }
+
+    @Test
+    public void testCtrlHandshake() throws Exception
+    {
+        assertEquals("Cpl", this.command(this.ctrl, "rlab://SETV?addr=01&val=11"));
+        assertEquals("Cpl", this.command(this.ctrl, "rlab://SETV?addr=13&val=2.000000"));
+        assertEquals(11, this.ctrl.getMode());
+        assertEquals("Cpl", this.command(this.ctrl, "rlab://SETV?addr=14&val=5"));
+        assertEquals(13, this.ctrl.getMode());
+        assertEquals("Cpl", this.command(this.ctrl, "rlab://SETV?addr=01&val=20"));
+
+        String status = this.command(this.ctrl, "rlab://REQV?addr=03");
+        assertEquals("Cpl;0;0;20;0", status);
+    }
+
+    @Test
+    public void testStrainRequest() throws Exception
+    {
+        for (String addr : new String[] { "01", "02" })
+        {
+            String resp = this.command(this.daq, "rlab://REQV?addr=" + addr);
+            assertTrue(resp.startsWith("Cpl;"));
+            String values[] = resp.substring(4).split(";");
+            assertEquals(5, values.length);
+            for (String v : values) Float.parseFloat(v);
+        }
+    }
+
+    @Test
+    public void testBulkRequest() throws Exception
+    {
+        String daqFields[] = this.command(this.daq, "rlab://REQV?addr=ALL").split(";");
+        assertEquals("Cpl", daqFields[0]);
+        assertEquals(23, daqFields.length);
+        assertEquals("0", daqFields[21]);
+
+        this.command(this.ctrl, "rlab://SETV?addr=01&val=20");
+        assertEquals("Cpl;0;0;0;0.0;0.0;0;0;0;20;0", this.command(this.ctrl, "rlab://REQV?addr=ALL"));
+    }
+
+    @Test
+    public void testBinaryFraming() throws Exception
+    {
+        /* Frames are not understood until negotiated. */
+        ByteBuffer tx = TrussFrame.allocate();
+        TrussFrameReceiver frames = new TrussFrameReceiver();
+        int len = TrussFrame.encodeCommand("rlab://REQV?addr=03", 1, tx);
+        this.ctrl.write(tx.array(), 0, len);
+        assertEquals("Err;Cmd", this.ctrlReceiver.awaitLine(1000));
+
+        assertEquals("Cpl", this.command(this.ctrl, TrussFrame.NEGOTIATE));
+        this.ctrl.setListener(frames);
+
+        len = TrussFrame.encodeCommand("rlab://SETV?addr=01&val=20", 2, tx);
+        this.ctrl.write(tx.array(), 0, len);
+        assertEquals(TrussFrame.CPL, frames.awaitFrame(2, 1000).get());
+
+        len = TrussFrame.encodeCommand("rlab://REQV?addr=ALL", 3, tx);
+        this.ctrl.write(tx.array(), 0, len);
+        ByteBuffer rsp = frames.awaitFrame(3, 1000);
+        assertEquals(TrussFrame.CPL, rsp.get());
+        assertEquals(40, rsp.remaining());
+        rsp.position(rsp.position() + 32);
+        assertEquals(20, rsp.getInt());
+
+        len = TrussFrame.encodeCommand("rlab://SETV?addr=09&val=1", 4, tx);
+        this.ctrl.write(tx.array(), 0, len);
+        assertEquals(TrussFrame.ERR_ADDR, frames.awaitFrame(4, 1000).get());
+    }
+
+    @Test
+    public void testCtrlMovesToTarget() throws Exception
+    {
+        this.command(this.ctrl, "rlab://SETV?addr=01&val=20");
+        this.command(this.ctrl, "rlab://SETV?addr=21&val=10");
+        Thread.sleep(100);
+
+        String fields[] = this.command(this.ctrl, "rlab://REQV?addr=01").substring(4).split(";");
+        assertEquals("10", fields[0]);
+        assertEquals("10", fields[1]);
+        assertEquals("0", fields[2]);
+    }
+
+    @Test
+    public void testBadCommand() throws Exception
+    {
+        assertTrue(this.command(this.daq, "rlab://REQV?addr=09").startsWith("Err"));
+        assertTrue(this.command(this.daq, "rlab://FOO?addr=01&val=1").startsWith("Err"));
+        assertTrue(this.command(this.ctrl, "nonsense").startsWith("Err"));
+    }
+
+    @Test
+    public void testLatency() throws Exception
+    {
+        SimulatedTrussLink slow = new SimulatedTrussLink(ITrussLink.CTRL, 50, 0);
+        TrussLineReceiver receiver = new TrussLineReceiver();
+        slow.setListener(receiver);
+        slow.open();
+
+        slow.write("rlab://REQV?addr=03");
+        assertNull(receiver.awaitLine(20));
+        assertEquals("Cpl;0;0;0;0", receiver.awaitLine(100));
+        slow.close();
+    }
+
+    @Test
+    public void testClosed() throws Exception
+    {
+        this.daq.close();
+        assertFalse(this.daq.isOpen());
+        try
+        {
+            this.daq.write("rlab://REQV?addr=01");
+            fail("Write to a closed link should fail");
+        }
+        catch (java.io.IOException e)
+        {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testUnplugged() throws Exception
+    {
+        assertEquals("Cpl", this.command(this.daq, "rlab://SETV?addr=01&val=11"));
+        this.daq.setPresent(false);
+        try
+        {
+            this.daq.write("rlab://REQV?addr=03");
+            fail("Write to an unplugged link should fail");
+        }
+        catch (java.io.IOException e)
+        {
+            /* Expected. */
+        }
+
+        this.daq.close();
+        assertFalse(this.daq.open());
+
+        /* Reopening once plugged back in restarts the firmware. */
+        this.daq.setPresent(true);
+        assertTrue(this.daq.open());
+        String status = this.command(this.daq, "rlab://REQV?addr=03");
+        assertEquals("0", status.substring(4).split(";")[10]);
+    }
+
+    /**
+     * Sends a command and waits for the response line.
+     */
+    private String command(SimulatedTrussLink link, String cmd) throws Exception
+    {
+        TrussLineReceiver receiver = link == this.daq ? this.daqReceiver : this.ctrlReceiver;
+        receiver.clear();
+        link.write(cmd);
+        String resp = receiver.awaitLine(1000);
+        assertNotNull(resp);
+        return resp;
+    }
+}
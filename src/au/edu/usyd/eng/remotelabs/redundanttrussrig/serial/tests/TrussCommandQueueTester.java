@@ -0,0 +1,173 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussCommandQueue;
+
+/**
+ * Tests the <code>TrussCommandQueue</code> class.
+ */
+public class TrussCommandQueueTester extends TestCase
+{
+    /** Queue slots. */
+    private static final int MODE = 0;
+    private static final int LOAD = 1;
+    private static final int STEP = 2;
+
+    /** Queue under test. */
+    private TrussCommandQueue queue;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.queue = new TrussCommandQueue(
+                new String[] { "rlab://SETV?addr=01&val=", "rlab://SETV?addr=11&val=", "rlab://SETV?addr=12&val=" },
+                new int[] { TrussCommandQueue.SETPOINT, TrussCommandQueue.FLOAT_SETPOINT, TrussCommandQueue.STEP });
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+    }
+
+    @Test
+    public void testLastSetpointWins()
+    {
+        this.queue.set(MODE, 11);
+        this.queue.set(MODE, 20);
+        assertEquals("rlab://SETV?addr=01&val=20", this.queue.poll());
+        assertNull(this.queue.poll());
+
+        this.queue.set(LOAD, 2.5f);
+        assertEquals(String.format("rlab://SETV?addr=11&val=%f", 2.5f), this.queue.poll());
+    }
+
+    @Test
+    public void testStepsAccumulate()
+    {
+        this.queue.add(STEP, 10);
+        this.queue.add(STEP, 10);
+        this.queue.add(STEP, 5);
+        assertEquals("rlab://SETV?addr=12&val=25", this.queue.poll());
+        assertNull(this.queue.poll());
+    }
+
+    @Test
+    public void testCancellingStepsNotSent()
+    {
+        this.queue.add(STEP, 10);
+        this.queue.add(STEP, -10);
+        assertNull(this.queue.poll());
+        assertTrue(this.queue.isEmpty());
+    }
+
+    @Test
+    public void testOrder()
+    {
+        this.queue.add(STEP, 1);
+        this.queue.set(MODE, 20);
+        this.queue.add(STEP, 1);
+        this.queue.set(LOAD, 1.0f);
+        assertTrue(this.queue.poll().endsWith("addr=12&val=2"));
+        assertTrue(this.queue.poll().endsWith("addr=01&val=20"));
+        assertTrue(this.queue.poll().contains("addr=11"));
+        assertNull(this.queue.poll());
+
+        /* Slots can be queued again once sent. */
+        this.queue.set(MODE, 31);
+        assertTrue(this.queue.poll().endsWith("addr=01&val=31"));
+    }
+
+    @Test
+    public void testQueuedTime() throws Exception
+    {
+        long before = System.nanoTime();
+        this.queue.set(MODE, 11);
+        long after = System.nanoTime();
+        Thread.sleep(5);
+
+        /* The time it was first queued, not when it was last written. */
+        this.queue.set(MODE, 20);
+        assertEquals("rlab://SETV?addr=01&val=20", this.queue.poll());
+        assertTrue(this.queue.getQueuedTime() - before >= 0);
+        assertTrue(this.queue.getQueuedTime() - after <= 0);
+
+        this.queue.set(MODE, 31);
+        this.queue.poll();
+        assertTrue(this.queue.getQueuedTime() - after > 0);
+    }
+
+    @Test
+    public void testTakeTimeout() throws Exception
+    {
+        long start = System.currentTimeMillis();
+        assertNull(this.queue.take(50));
+        assertTrue(System.currentTimeMillis() - start >= 45);
+    }
+
+    @Test
+    public void testTakeWakesSender() throws Exception
+    {
+        Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                TrussCommandQueueTester.this.queue.set(MODE, 20);
+            }
+        };
+        producer.start();
+
+        long start = System.currentTimeMillis();
+        assertEquals("rlab://SETV?addr=01&val=20", this.queue.take(5000));
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        producer.join();
+    }
+
+    @Test
+    public void testConcurrentSteps() throws Exception
+    {
+        final int producers = 4;
+        final int steps = 10000;
+        Thread threads[] = new Thread[producers];
+        for (int p = 0; p < producers; p++)
+        {
+            threads[p] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < steps; i++) TrussCommandQueueTester.this.queue.add(STEP, 1);
+                }
+            };
+            threads[p].start();
+        }
+
+        /* Every step is sent exactly once however the sends interleave. */
+        long total = 0;
+        boolean running = true;
+        while (running || !this.queue.isEmpty())
+        {
+            running = false;
+            for (Thread t : threads) running |= t.isAlive();
+
+            String cmd = this.queue.poll();
+            if (cmd != null) total += Integer.parseInt(cmd.substring(cmd.indexOf("val=") + 4));
+        }
+        assertEquals(producers * steps, total);
+    }
+}
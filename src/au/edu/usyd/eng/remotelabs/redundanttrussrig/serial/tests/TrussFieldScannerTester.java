@@ -0,0 +1,179 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.ITrussResponse;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFieldScanner;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrame;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrameFields;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrameReceiver;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLineReceiver;
+
+/**
+ * Tests the <code>TrussFieldScanner</code> class and that reading telemetry
+ * responses does not allocate.
+ */
+public class TrussFieldScannerTester extends TestCase
+{
+    /** DAQ bulk response, 10 strain, 10 health, mode and watchdog. */
+    private static final String DAQ_BULK = "Cpl;12.50;-3.25;0.00;100.125;-0.5;1;2;3;4;5.5;" +
+            "0;0;0;0;0;0;0;0;0;1;20;15\r\n";
+
+    @Test
+    public void testFields() throws Exception
+    {
+        TrussFieldScanner scanner = this.scan("Cpl;12.5;-3;0.0012; 7 ;1.5E-3;-2147483648\r\n");
+        assertTrue(scanner.isCpl(6));
+        assertEquals(12.5f, scanner.nextFloat());
+        assertEquals(-3, scanner.nextInt());
+        assertEquals(0.0012f, scanner.nextFloat());
+        assertEquals(7, scanner.nextInt());
+        assertEquals(1.5e-3f, scanner.nextFloat());
+        assertEquals(Integer.MIN_VALUE, scanner.nextInt());
+    }
+
+    @Test
+    public void testFloatsMatchParseFloat() throws Exception
+    {
+        String values[] = { "0", "-0.0", "3.14159", "-273.15", "0.000123", "98765.4321", "1e6", "123456789.5" };
+        for (String v : values)
+        {
+            TrussFieldScanner scanner = this.scan("Cpl;" + v + "\n");
+            assertTrue(scanner.isCpl(1));
+            assertEquals(v, Float.parseFloat(v), scanner.nextFloat());
+        }
+    }
+
+    @Test
+    public void testNotCpl() throws Exception
+    {
+        assertFalse(this.scan("Err;Addr\n").isCpl(0));
+        assertFalse(this.scan("Cpl;1;2\n").isCpl(3));
+        assertTrue(this.scan("Cpl\n").isCpl(0));
+
+        /* Only a refusal is an error, not a cut short or garbled response. */
+        assertTrue(this.scan("Err;Addr\n").isErr());
+        assertFalse(this.scan("Cpl;1;2\n").isErr());
+        assertFalse(this.scan("pl;1;2\n").isErr());
+        assertFalse(this.scan("Er\n").isErr());
+    }
+
+    @Test
+    public void testInvalid() throws Exception
+    {
+        String bad[] = { "Cpl;abc\n", "Cpl;1.2.3\n", "Cpl;\n", "Cpl;12x\n", "Cpl;99999999999\n" };
+        for (String line : bad)
+        {
+            TrussFieldScanner scanner = this.scan(line);
+            assertTrue(scanner.isCpl(0));
+            try
+            {
+                scanner.nextInt();
+                fail("'" + line.trim() + "' should be invalid");
+            }
+            catch (NumberFormatException e)
+            {
+                /* Expected. */
+            }
+        }
+
+        TrussFieldScanner scanner = this.scan("Cpl;1\n");
+        assertTrue(scanner.isCpl(1));
+        scanner.nextInt();
+        try
+        {
+            scanner.nextFloat();
+            fail("Missing field should be invalid");
+        }
+        catch (NumberFormatException e)
+        {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testSteadyStateAllocation() throws Exception
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!mx.isThreadAllocatedMemorySupported()) return;
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        byte text[] = DAQ_BULK.getBytes();
+        TrussLineReceiver lines = new TrussLineReceiver();
+        TrussFieldScanner scanner = new TrussFieldScanner();
+
+        ByteBuffer tx = TrussFrame.allocate();
+        ByteBuffer rx = TrussFrame.allocate();
+        TrussFrame.encodeResponse(DAQ_BULK.trim(), 0, rx);
+        byte frame[] = new byte[rx.remaining()];
+        rx.get(frame);
+        TrussFrameReceiver frames = new TrussFrameReceiver();
+        TrussFrameFields fields = new TrussFrameFields();
+
+        float strain[] = new float[10];
+        int status[] = new int[12];
+
+        /* Warm up so the measured cycles are compiled. */
+        for (int i = 0; i < 20000; i++)
+        {
+            this.textCycle(lines, scanner, text, strain, status);
+            this.frameCycle(frames, fields, tx, frame, strain, status);
+        }
+
+        long tid = Thread.currentThread().getId();
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < 1000; i++)
+        {
+            this.textCycle(lines, scanner, text, strain, status);
+            this.frameCycle(frames, fields, tx, frame, strain, status);
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid) - before;
+
+        assertEquals(12.5f, strain[0]);
+        assertEquals(20, status[10]);
+        assertEquals(15, status[11]);
+        /* Allow for the measurement itself. */
+        assertTrue("Allocated " + allocated + " bytes in 1000 cycles", allocated < 1000);
+    }
+
+    private void textCycle(TrussLineReceiver receiver, TrussFieldScanner scanner, byte response[],
+            float strain[], int status[]) throws InterruptedException
+    {
+        receiver.clear();
+        receiver.received(response, 0, response.length);
+        assertTrue(receiver.awaitLine(scanner, 0));
+        this.read(scanner, strain, status);
+    }
+
+    private void frameCycle(TrussFrameReceiver receiver, TrussFrameFields fields, ByteBuffer tx, byte response[],
+            float strain[], int status[]) throws InterruptedException
+    {
+        TrussFrame.encodeRequest(TrussFrame.ADDR_ALL, 0, tx);
+        receiver.clear();
+        receiver.received(response, 0, response.length);
+        assertTrue(receiver.awaitFrame(fields, 0, 0));
+        this.read(fields, strain, status);
+    }
+
+    private void read(ITrussResponse rsp, float strain[], int status[])
+    {
+        assertTrue(rsp.isCpl(22));
+        for (int i = 0; i < strain.length; i++) strain[i] = rsp.nextFloat();
+        for (int i = 0; i < status.length; i++) status[i] = rsp.nextInt();
+    }
+
+    private TrussFieldScanner scan(String line) throws InterruptedException
+    {
+        TrussLineReceiver receiver = new TrussLineReceiver();
+        TrussFieldScanner scanner = new TrussFieldScanner();
+        receiver.received(line.getBytes(), 0, line.length());
+        assertTrue(receiver.awaitLine(scanner, 0));
+        return scanner;
+    }
+}
@@ -0,0 +1,291 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrame;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrameFields;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFrameReceiver;
+
+/**
+ * Tests the <code>TrussFrame</code> codec and <code>TrussFrameReceiver</code>.
+ */
+public class TrussFrameTester extends TestCase
+{
+    @Test
+    public void testCrc()
+    {
+        /* CRC-16/CCITT check value. */
+        assertEquals(0x29B1, TrussFrame.crc16("123456789".getBytes(), 0, 9));
+    }
+
+    @Test
+    public void testCommandRoundTrip()
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        String cmds[] = { "rlab://REQV?addr=01", "rlab://REQV?addr=ALL", "rlab://SETV?addr=21&val=-35",
+                "rlab://SETS?addr=12&val=1.5" };
+        for (String cmd : cmds)
+        {
+            int len = TrussFrame.encodeCommand(cmd, 7, buf);
+            assertEquals(TrussFrame.SYNC, buf.get(0));
+            assertEquals(7, buf.get(2));
+            assertEquals(cmd, TrussFrame.decodeCommand(buf.array(), 0, len));
+        }
+    }
+
+    @Test
+    public void testListRoundTrip()
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        String cmds[] = { "rlab://SETS?addr=ALL&val=1.5;2.0;-0.25", "rlab://SETO?addr=ALL&val=10;-20;30;0" };
+        for (String cmd : cmds)
+        {
+            int len = TrussFrame.encodeCommand(cmd, 8, buf);
+            assertEquals(cmd, TrussFrame.decodeCommand(buf.array(), 0, len));
+        }
+
+        /* A list with any float value is sent as floats. */
+        int len = TrussFrame.encodeCommand("rlab://SETS?addr=ALL&val=1;2.5", 9, buf);
+        assertEquals(TrussFrame.VAL_FLOATS, buf.get(5));
+        assertEquals("rlab://SETS?addr=ALL&val=1.0;2.5", TrussFrame.decodeCommand(buf.array(), 0, len));
+
+        StringBuilder tooMany = new StringBuilder("rlab://SETO?addr=ALL&val=0");
+        for (int i = 0; i < TrussFrame.MAX_VALUES; i++) tooMany.append(";0");
+        try
+        {
+            TrussFrame.encodeCommand(tooMany.toString(), 10, buf);
+            fail("List longer than a frame should not be encoded");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testCorruptCommand()
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        int len = TrussFrame.encodeCommand("rlab://SETV?addr=01&val=20", 1, buf);
+        buf.array()[5] ^= 0x10;
+        assertNull(TrussFrame.decodeCommand(buf.array(), 0, len));
+    }
+
+    @Test
+    public void testResponse() throws Exception
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        int len = TrussFrame.encodeResponse("Cpl;1.5;-2;20", 9, buf);
+        assertEquals(TrussFrame.OVERHEAD + 13, len);
+
+        TrussFrameReceiver receiver = new TrussFrameReceiver();
+        receiver.received(buf.array(), 0, len);
+        ByteBuffer rsp = receiver.awaitFrame(9, 0);
+        assertNotNull(rsp);
+        assertEquals(TrussFrame.CPL, rsp.get());
+        assertEquals(1.5f, rsp.getFloat());
+        assertEquals(-2, rsp.getInt());
+        assertEquals(20, rsp.getInt());
+        assertEquals(0, rsp.remaining());
+
+        len = TrussFrame.encodeResponse("Err;Addr", 10, buf);
+        receiver.received(buf.array(), 0, len);
+        rsp = receiver.awaitFrame(10, 0);
+        assertEquals(TrussFrame.ERR_ADDR, rsp.get());
+    }
+
+    @Test
+    public void testReceiverResync() throws Exception
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        byte stream[] = new byte[64];
+        int pos = 0;
+
+        /* Line noise, a corrupt frame then a good one, delivered a byte at a time. */
+        stream[pos++] = 0x13;
+        int len = TrussFrame.encodeResponse("Cpl;1", 3, buf);
+        buf.get(stream, pos, len);
+        stream[pos + 4] ^= 0x01;
+        pos += len;
+        len = TrussFrame.encodeResponse("Cpl;2", 3, buf);
+        buf.get(stream, pos, len);
+        pos += len;
+
+        TrussFrameReceiver receiver = new TrussFrameReceiver();
+        for (int i = 0; i < pos; i++) receiver.received(stream, i, 1);
+
+        ByteBuffer rsp = receiver.awaitFrame(3, 0);
+        assertNotNull(rsp);
+        assertEquals(TrussFrame.CPL, rsp.get());
+        assertEquals(2, rsp.getInt());
+        assertEquals(1, receiver.getCrcErrors());
+    }
+
+    @Test
+    public void testFalseStart() throws Exception
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        byte stream[] = new byte[64];
+
+        /* Noise that looks like a long frame's start, then a good frame within its length. */
+        stream[0] = TrussFrame.SYNC;
+        stream[1] = 20;
+        int len = TrussFrame.encodeResponse("Cpl;7", 6, buf);
+        buf.get(stream, 2, len);
+        for (int i = 2 + len; i < 40; i++) stream[i] = 0x11;
+
+        TrussFrameReceiver receiver = new TrussFrameReceiver();
+        receiver.received(stream, 0, 40);
+
+        ByteBuffer rsp = receiver.awaitFrame(6, 0);
+        assertNotNull(rsp);
+        assertEquals(TrussFrame.CPL, rsp.get());
+        assertEquals(7, rsp.getInt());
+        assertEquals(1, receiver.getCrcErrors());
+    }
+
+    @Test
+    public void testClearDuringFrame() throws Exception
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        TrussFrameReceiver receiver = new TrussFrameReceiver();
+
+        /* Late response split by the next command, whose response follows. */
+        int len = TrussFrame.encodeResponse("Cpl;1", 4, buf);
+        receiver.received(buf.array(), 0, 3);
+        receiver.clear();
+        receiver.received(buf.array(), 3, len - 3);
+        len = TrussFrame.encodeResponse("Cpl;2", 5, buf);
+        receiver.received(buf.array(), 0, len);
+
+        ByteBuffer rsp = receiver.awaitFrameUntil(5, System.nanoTime());
+        assertNotNull(rsp);
+        assertEquals(TrussFrame.CPL, rsp.get());
+        assertEquals(2, rsp.getInt());
+        assertEquals(0, receiver.getCrcErrors());
+    }
+
+    @Test
+    public void testAcksOutOfOrder() throws Exception
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        TrussFrameReceiver receiver = new TrussFrameReceiver();
+        for (int seq = 20; seq < 23; seq++) receiver.expectAck(seq);
+        assertFalse(receiver.awaitAckUntil(System.nanoTime()));
+
+        int len = TrussFrame.encodeResponse("Err;Val", 22, buf);
+        receiver.received(buf.array(), 0, len);
+        len = TrussFrame.encodeResponse("Cpl", 20, buf);
+        receiver.received(buf.array(), 0, len);
+
+        assertTrue(receiver.awaitAckUntil(System.nanoTime()));
+        assertEquals(TrussFrameReceiver.NO_ACK, receiver.takeAck(21));
+        assertEquals(TrussFrame.CPL, receiver.takeAck(20));
+        assertEquals(TrussFrame.ERR_VAL, receiver.takeAck(22));
+        assertEquals(TrussFrameReceiver.NO_ACK, receiver.takeAck(22));
+        assertFalse(receiver.awaitAckUntil(System.nanoTime()));
+
+        /* A cancelled acknowledgement is a stale frame, which is not a response either. */
+        receiver.cancelAck(21);
+        len = TrussFrame.encodeResponse("Cpl", 21, buf);
+        receiver.received(buf.array(), 0, len);
+        assertEquals(TrussFrameReceiver.NO_ACK, receiver.takeAck(21));
+        assertNull(receiver.awaitFrame(23, 0));
+
+        /* Acknowledgements do not take the place of a response. */
+        receiver.expectAck(24);
+        len = TrussFrame.encodeResponse("Cpl", 24, buf);
+        receiver.received(buf.array(), 0, len);
+        len = TrussFrame.encodeResponse("Cpl;5", 25, buf);
+        receiver.received(buf.array(), 0, len);
+        ByteBuffer rsp = receiver.awaitFrame(25, 0);
+        assertNotNull(rsp);
+        assertEquals(TrussFrame.CPL, rsp.get());
+        assertEquals(5, rsp.getInt());
+        assertEquals(TrussFrame.CPL, receiver.takeAck(24));
+    }
+
+    @Test
+    public void testAwaitOneAck() throws Exception
+    {
+        final ByteBuffer buf = TrussFrame.allocate();
+        final TrussFrameReceiver receiver = new TrussFrameReceiver();
+        receiver.expectAck(30);
+        receiver.expectAck(31);
+        assertEquals(TrussFrameReceiver.NO_ACK, receiver.awaitAckUntil(31, System.nanoTime() + 10000000));
+
+        Thread sender = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                int len = TrussFrame.encodeResponse("Cpl", 30, buf);
+                receiver.received(buf.array(), 0, len);
+                len = TrussFrame.encodeResponse("Cpl", 31, buf);
+                receiver.received(buf.array(), 0, len);
+            }
+        };
+        sender.start();
+
+        /* Still expected after timing out, and not taken by another acknowledgement arriving. */
+        assertEquals(TrussFrame.CPL, receiver.awaitAckUntil(31, System.nanoTime() + 1000000000L));
+        sender.join();
+        assertEquals(TrussFrame.CPL, receiver.takeAck(30));
+    }
+
+    @Test
+    public void testReadFrameKept() throws Exception
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        TrussFrameReceiver receiver = new TrussFrameReceiver();
+        TrussFrameFields fields = new TrussFrameFields();
+
+        int len = TrussFrame.encodeResponse("Cpl;1.5;2.5", 1, buf);
+        receiver.received(buf.array(), 0, len);
+        assertTrue(receiver.awaitFrame(fields, 1, 0));
+
+        /* Late frames arriving while the response is read do not overwrite it. */
+        for (int seq = 7; seq <= 9; seq++)
+        {
+            len = TrussFrame.encodeResponse("Cpl;8.5;8.5", seq, buf);
+            receiver.received(buf.array(), 0, len);
+        }
+        assertTrue(fields.isCpl(2));
+        assertFalse(fields.isErr());
+        assertEquals(1.5f, fields.nextFloat());
+        assertEquals(2.5f, fields.nextFloat());
+
+        receiver.clear();
+        len = TrussFrame.encodeResponse("Cpl;3.5;4.5", 2, buf);
+        receiver.received(buf.array(), 0, len);
+        assertTrue(receiver.awaitFrame(fields, 2, 0));
+        len = TrussFrame.encodeResponse("Cpl;0;0", 10, buf);
+        receiver.received(buf.array(), 0, len);
+        receiver.received(buf.array(), 0, len);
+        assertTrue(fields.isCpl(2));
+        assertEquals(3.5f, fields.nextFloat());
+        assertEquals(4.5f, fields.nextFloat());
+
+        receiver.clear();
+        len = TrussFrame.encodeResponse("Err;Addr", 3, buf);
+        receiver.received(buf.array(), 0, len);
+        assertTrue(receiver.awaitFrame(fields, 3, 0));
+        assertFalse(fields.isCpl(0));
+        assertTrue(fields.isErr());
+    }
+
+    @Test
+    public void testStaleFrame() throws Exception
+    {
+        ByteBuffer buf = TrussFrame.allocate();
+        TrussFrameReceiver receiver = new TrussFrameReceiver();
+
+        int len = TrussFrame.encodeResponse("Cpl;1", 4, buf);
+        receiver.received(buf.array(), 0, len);
+        assertNull(receiver.awaitFrame(5, 20));
+    }
+}
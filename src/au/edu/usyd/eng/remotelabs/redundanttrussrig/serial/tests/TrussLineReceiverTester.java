@@ -0,0 +1,130 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussFieldScanner;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLineReceiver;
+
+/**
+ * Tests the <code>TrussLineReceiver</code> class.
+ */
+public class TrussLineReceiverTester extends TestCase
+{
+    /** Object of class under test. */
+    private TrussLineReceiver receiver;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.receiver = new TrussLineReceiver();
+    }
+
+    @Test
+    public void testSplitLine() throws Exception
+    {
+        this.receive("Cpl;1.0");
+        this.receive(";2.0\r");
+        this.receive("\n");
+        assertEquals("Cpl;1.0;2.0", this.receiver.awaitLine(0));
+    }
+
+    @Test
+    public void testTimeout() throws Exception
+    {
+        this.receive("Cpl;partial");
+        long start = System.nanoTime();
+        assertNull(this.receiver.awaitLine(20));
+        assertTrue(System.nanoTime() - start >= 20000000);
+    }
+
+    @Test
+    public void testClear() throws Exception
+    {
+        this.receive("Cpl;stale\nCpl;par");
+        this.receiver.clear();
+
+        /* The tail of the late line is not taken as the response. */
+        this.receive("tial\nCpl;fresh\n");
+        assertEquals("Cpl;fresh", this.receiver.awaitLine(0));
+        assertNull(this.receiver.awaitLine(0));
+    }
+
+    @Test
+    public void testClearBetweenLines() throws Exception
+    {
+        this.receive("Cpl;stale\n");
+        this.receiver.clear();
+        this.receive("Cpl;fresh\n");
+        assertEquals("Cpl;fresh", this.receiver.awaitLine(0));
+    }
+
+    @Test
+    public void testDeadline() throws Exception
+    {
+        long start = System.nanoTime();
+        assertNull(this.receiver.awaitLineUntil(start + 20000000));
+        long waited = System.nanoTime() - start;
+        assertTrue(waited >= 20000000 && waited < 1000000000);
+
+        /* A passed deadline still takes a line already received. */
+        this.receive("Cpl\n");
+        assertEquals("Cpl", this.receiver.awaitLineUntil(start));
+    }
+
+    @Test
+    public void testScannedLineKept() throws Exception
+    {
+        TrussFieldScanner scanner = new TrussFieldScanner();
+        this.receive("Cpl;1;2.5\n");
+        assertTrue(this.receiver.awaitLine(scanner, 0));
+
+        /* Late lines arriving while the line is scanned do not overwrite it. */
+        this.receive("Cpl;7;8.5\nCpl;9;9.5\nCpl;6;6.5\n");
+        assertTrue(scanner.isCpl(2));
+        assertEquals(1, scanner.nextInt());
+        assertEquals(2.5f, scanner.nextFloat());
+
+        this.receiver.clear();
+        this.receive("Cpl;3;4.5\nCpl;5;5.5\n");
+        assertTrue(this.receiver.awaitLine(scanner, 0));
+        this.receive("Cpl;0;0\nCpl;0;0\n");
+        assertTrue(scanner.isCpl(2));
+        assertEquals(5, scanner.nextInt());
+        assertEquals(5.5f, scanner.nextFloat());
+    }
+
+    @Test
+    public void testWakesWaiter() throws Exception
+    {
+        new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(10);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                TrussLineReceiverTester.this.receive("Cpl\n");
+            }
+        }.start();
+
+        long start = System.nanoTime();
+        assertEquals("Cpl", this.receiver.awaitLine(2000));
+        assertTrue(System.nanoTime() - start < 1000000000);
+    }
+
+    private void receive(String text)
+    {
+        byte buf[] = ("xx" + text).getBytes();
+        this.receiver.received(buf, 2, buf.length - 2);
+    }
+}
@@ -0,0 +1,206 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.ITrussLink;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.SimulatedTrussLink;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussCommandQueue;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLinkArbiter;
+
+/**
+ * Tests the <code>TrussLinkArbiter</code> class.
+ */
+public class TrussLinkArbiterTester extends TestCase
+{
+    /** Arbiter under test. */
+    private TrussLinkArbiter arbiter;
+
+    /** Names of the commands in the order they held the link. */
+    private List<String> order;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.arbiter = new TrussLinkArbiter();
+        this.order = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @Test
+    public void testHighestLaneFirst() throws Exception
+    {
+        this.arbiter.lock(TrussLinkArbiter.TELEMETRY);
+
+        Thread poll = this.waitFor("poll", TrussLinkArbiter.TELEMETRY);
+        Thread calibration = this.waitFor("calibration", TrussLinkArbiter.CALIBRATION);
+        Thread setpoint = this.waitFor("setpoint", TrussLinkArbiter.SETPOINT);
+        Thread stop = this.waitFor("stop", TrussLinkArbiter.EMERGENCY);
+        assertTrue(this.arbiter.hasWaitingAbove());
+
+        this.arbiter.unlock();
+        poll.join(1000);
+        calibration.join(1000);
+        setpoint.join(1000);
+        stop.join(1000);
+
+        assertEquals(4, this.order.size());
+        assertEquals("stop", this.order.get(0));
+        assertEquals("setpoint", this.order.get(1));
+        assertEquals("calibration", this.order.get(2));
+        assertEquals("poll", this.order.get(3));
+    }
+
+    @Test
+    public void testSameLaneInOrder() throws Exception
+    {
+        this.arbiter.lock(TrussLinkArbiter.EMERGENCY);
+
+        Thread first = this.waitFor("first", TrussLinkArbiter.SETPOINT);
+        Thread second = this.waitFor("second", TrussLinkArbiter.SETPOINT);
+        assertEquals(2, this.arbiter.getWaiting(TrussLinkArbiter.SETPOINT));
+        assertFalse(this.arbiter.hasWaitingAbove());
+
+        this.arbiter.unlock();
+        first.join(1000);
+        second.join(1000);
+        assertEquals("first", this.order.get(0));
+        assertEquals("second", this.order.get(1));
+    }
+
+    @Test
+    public void testReentrant() throws Exception
+    {
+        this.arbiter.lock(TrussLinkArbiter.CALIBRATION);
+        this.arbiter.lock(TrussLinkArbiter.SETPOINT);
+        Thread other = this.waitFor("other", TrussLinkArbiter.EMERGENCY);
+
+        /* Not given way while held by an outer lock. */
+        assertFalse(this.arbiter.giveWay());
+        this.arbiter.unlock();
+        assertTrue(this.arbiter.isHeldByCurrentThread());
+        assertTrue(this.order.isEmpty());
+
+        this.arbiter.unlock();
+        other.join(1000);
+        assertEquals(1, this.order.size());
+        assertFalse(this.arbiter.isHeldByCurrentThread());
+
+        try
+        {
+            this.arbiter.unlock();
+            fail("Unlocking a link that is not held should fail");
+        }
+        catch (IllegalMonitorStateException e)
+        {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testGiveWay() throws Exception
+    {
+        this.arbiter.lock(TrussLinkArbiter.CALIBRATION);
+        assertFalse(this.arbiter.giveWay());
+
+        Thread poll = this.waitFor("poll", TrussLinkArbiter.TELEMETRY);
+        assertFalse(this.arbiter.giveWay());
+
+        Thread setpoint = this.waitFor("setpoint", TrussLinkArbiter.SETPOINT);
+        assertTrue(this.arbiter.giveWay());
+        assertTrue(this.arbiter.isHeldByCurrentThread());
+        setpoint.join(1000);
+        assertEquals("setpoint", this.order.get(0));
+
+        /* The poll still waits for the calibration. */
+        assertEquals(1, this.order.size());
+        this.arbiter.unlock();
+        poll.join(1000);
+        assertEquals("poll", this.order.get(1));
+    }
+
+    @Test
+    public void testStopRefusesWaitingSetpoint() throws Exception
+    {
+        final SimulatedTrussLink link = new SimulatedTrussLink(ITrussLink.CTRL, 0, 0);
+        assertTrue(link.open());
+        final TrussCommandQueue queue = new TrussCommandQueue(new String[] { "rlab://SETV?addr=01&val=" },
+                new int[] { TrussCommandQueue.SETPOINT });
+        final boolean written[] = { true };
+
+        /* A poll is in flight when a mode change is queued. */
+        this.arbiter.lock(TrussLinkArbiter.TELEMETRY);
+        queue.set(0, 20);
+        Thread sender = new Thread("sender")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    String cmd = queue.take(1000);
+                    TrussLinkArbiterTester.this.arbiter.lock(TrussLinkArbiter.SETPOINT);
+                    written[0] = TrussLinkArbiterTester.this.arbiter.write(link, TrussLinkArbiter.SETPOINT, cmd);
+                    TrussLinkArbiterTester.this.arbiter.unlock();
+                }
+                catch (Exception e)
+                {
+                    TrussLinkArbiterTester.this.order.add(e.toString());
+                }
+            }
+        };
+        sender.start();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (this.arbiter.getWaiting(TrussLinkArbiter.SETPOINT) == 0)
+        {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+
+        /* The stop is written without waiting for the poll. */
+        this.arbiter.stop();
+        assertTrue(this.arbiter.write(link, TrussLinkArbiter.EMERGENCY, "rlab://SETV?addr=01&val=31"));
+        assertEquals(31, link.getMode());
+
+        this.arbiter.unlock();
+        sender.join(1000);
+        assertTrue(this.order.isEmpty());
+        assertFalse(written[0]);
+        assertEquals(31, link.getMode());
+        link.close();
+    }
+
+    /**
+     * Starts a thread which takes the link for a command, returning once it
+     * is waiting for the link.
+     */
+    private Thread waitFor(final String name, final int lane) throws Exception
+    {
+        int waiting = this.arbiter.getWaiting(lane);
+        Thread t = new Thread(name)
+        {
+            @Override
+            public void run()
+            {
+                TrussLinkArbiterTester.this.arbiter.lock(lane);
+                TrussLinkArbiterTester.this.order.add(name);
+                TrussLinkArbiterTester.this.arbiter.unlock();
+            }
+        };
+        t.start();
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (this.arbiter.getWaiting(lane) == waiting)
+        {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,123 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLinkSupervisor;
+
+/**
+ * Tests the <code>TrussLinkSupervisor</code> class.
+ */
+public class TrussLinkSupervisorTester extends TestCase
+{
+    /** Nanoseconds in a millisecond. */
+    private static final long MS = 1000000;
+
+    /** Supervisor of three failures and a 100 ms to 1 s backoff. */
+    private TrussLinkSupervisor supervisor;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.supervisor = new TrussLinkSupervisor(3, 100, 1000);
+    }
+
+    @Test
+    public void testConsecutiveTimeouts()
+    {
+        assertTrue(this.supervisor.isUp());
+        assertFalse(this.supervisor.timeout(0));
+        assertFalse(this.supervisor.timeout(0));
+
+        /* An answer restarts the count. */
+        this.supervisor.success();
+        assertFalse(this.supervisor.timeout(0));
+        assertFalse(this.supervisor.timeout(0));
+        assertTrue(this.supervisor.isUp());
+
+        assertTrue(this.supervisor.timeout(10 * MS));
+        assertFalse(this.supervisor.isUp());
+        assertEquals(1, this.supervisor.getDownCount());
+        assertEquals(100 * MS, this.supervisor.getRetryDelay(10 * MS));
+
+        /* Only reported as going down once. */
+        assertFalse(this.supervisor.timeout(20 * MS));
+        assertFalse(this.supervisor.error(20 * MS));
+        assertEquals(1, this.supervisor.getDownCount());
+    }
+
+    @Test
+    public void testError()
+    {
+        assertTrue(this.supervisor.error(0));
+        assertFalse(this.supervisor.isUp());
+        assertEquals(100 * MS, this.supervisor.getRetryDelay(0));
+    }
+
+    @Test
+    public void testBackoff()
+    {
+        this.supervisor.error(0);
+        long now = 100 * MS;
+        assertEquals(0, this.supervisor.getRetryDelay(now));
+
+        /* Doubles with each failed attempt up to the maximum. */
+        long expected[] = { 200, 400, 800, 1000, 1000 };
+        for (long delay : expected)
+        {
+            this.supervisor.reconnectFailed(now);
+            assertEquals(delay * MS, this.supervisor.getRetryDelay(now));
+            now += delay * MS;
+        }
+        assertFalse(this.supervisor.isUp());
+    }
+
+    @Test
+    public void testReconnected()
+    {
+        this.supervisor.error(0);
+        this.supervisor.reconnectFailed(100 * MS);
+        this.supervisor.reconnected();
+        assertTrue(this.supervisor.isUp());
+
+        /* Not answered after reopening, so the backoff keeps growing. */
+        this.supervisor.timeout(1000 * MS);
+        this.supervisor.timeout(1000 * MS);
+        assertTrue(this.supervisor.timeout(1000 * MS));
+        assertEquals(400 * MS, this.supervisor.getRetryDelay(1000 * MS));
+        assertEquals(2, this.supervisor.getDownCount());
+
+        /* An answer resets it. */
+        this.supervisor.reconnected();
+        this.supervisor.success();
+        this.supervisor.error(2000 * MS);
+        assertEquals(100 * MS, this.supervisor.getRetryDelay(2000 * MS));
+    }
+
+    @Test
+    public void testInvalid()
+    {
+        try
+        {
+            new TrussLinkSupervisor(0, 100, 1000);
+            fail("No failures allowed should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* Expected. */
+        }
+
+        try
+        {
+            new TrussLinkSupervisor(3, 1000, 100);
+            fail("Maximum backoff below the minimum should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* Expected. */
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.ITrussLink;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TrussLineReceiver;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.serial.TtyTrussLink;
+
+/**
+ * Tests the <code>TtyTrussLink</code> class. The link is opened on a named
+ * pipe, which loops each written command back to the link's receive thread
+ * the same as a tty with its transmit and receive lines joined.
+ */
+public class TtyTrussLinkTester extends TestCase
+{
+    /** Named pipe the link is opened on, null if one could not be made. */
+    private File fifo;
+
+    /** Holds the pipe open for reading and writing, so opening each end does not wait for the other. */
+    private RandomAccessFile holder;
+
+    /** Link under test. */
+    private TtyTrussLink link;
+
+    /** Received lines. */
+    private TrussLineReceiver receiver;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.fifo = new File(System.getProperty("java.io.tmpdir"), "trusstty-" + System.nanoTime());
+        try
+        {
+            if (new ProcessBuilder("mkfifo", this.fifo.getPath()).start().waitFor() != 0) this.fifo = null;
+        }
+        catch (IOException e)
+        {
+            /* Not a platform with named pipes. */
+            this.fifo = null;
+        }
+        if (this.fifo == null) return;
+
+        this.holder = new RandomAccessFile(this.fifo, "rw");
+        this.link = new TtyTrussLink(ITrussLink.DAQ, this.fifo.getPath())
+        {
+            @Override
+            protected void configure()
+            {
+                /* A pipe has no terminal settings. */
+            }
+        };
+        this.receiver = new TrussLineReceiver();
+        this.link.setListener(this.receiver);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception
+    {
+        if (this.fifo == null) return;
+
+        this.link.close();
+        this.holder.close();
+        this.fifo.delete();
+    }
+
+    @Test
+    public void testSessionLeader()
+    {
+        assertTrue(TtyTrussLink.isSessionLeader("812 (java) S 1 812 812 0 -1 4194560 5000"));
+
+        /* The command name may hold spaces and brackets. */
+        assertTrue(TtyTrussLink.isSessionLeader("812 (rig (client) 1) S 1 812 812 0 -1 4194560 5000"));
+
+        /* Has a controlling terminal or is not the session leader. */
+        assertFalse(TtyTrussLink.isSessionLeader("812 (java) S 1 812 812 34816 812 4194560 5000"));
+        assertFalse(TtyTrussLink.isSessionLeader("812 (java) S 1 800 800 0 -1 4194560 5000"));
+        assertFalse(TtyTrussLink.isSessionLeader("812 (java) S"));
+        assertFalse(TtyTrussLink.isSessionLeader(""));
+        assertFalse(TtyTrussLink.isSessionLeader(null));
+    }
+
+    @Test
+    public void testWriteLine() throws Exception
+    {
+        if (this.fifo == null) return;
+
+        assertTrue(this.link.open());
+        this.link.write("rlab://REQV?addr=01");
+        assertEquals("rlab://REQV?addr=01", this.receiver.awaitLine(2000));
+
+        /* Longer than the write buffer, which is grown. */
+        StringBuilder cmd = new StringBuilder("rlab://SETV?addr=13&val=");
+        while (cmd.length() < 300) cmd.append('7');
+        this.link.write(cmd.toString());
+        assertEquals(cmd.toString(), this.receiver.awaitLine(2000));
+
+        this.link.write("rlab://REQV?addr=02");
+        assertEquals("rlab://REQV?addr=02", this.receiver.awaitLine(2000));
+    }
+
+    @Test
+    public void testCloseStopsReceiver() throws Exception
+    {
+        if (this.fifo == null) return;
+
+        assertTrue(this.link.open());
+        assertTrue(this.link.isOpen());
+        Thread t = this.receiverThread();
+        assertNotNull(t);
+
+        /* The receive thread is blocked reading the empty pipe until the link is closed. */
+        Thread.sleep(50);
+        assertTrue(t.isAlive());
+        this.link.close();
+        assertFalse(this.link.isOpen());
+        t.join(2000);
+        assertFalse(t.isAlive());
+
+        try
+        {
+            this.link.write("rlab://REQV?addr=01");
+            fail("Writing a closed link should fail");
+        }
+        catch (IOException e)
+        {
+            /* Expected. */
+        }
+
+        /* May be opened again. */
+        assertTrue(this.link.open());
+        this.link.write("rlab://REQV?addr=01");
+        assertEquals("rlab://REQV?addr=01", this.receiver.awaitLine(2000));
+    }
+
+    private Thread receiverThread()
+    {
+        for (Thread t : Thread.getAllStackTraces().keySet())
+        {
+            if (t.getName().equals("Tty-" + ITrussLink.DAQ + "-Receiver") && t.isAlive()) return t;
+        }
+        return null;
+    }
+}
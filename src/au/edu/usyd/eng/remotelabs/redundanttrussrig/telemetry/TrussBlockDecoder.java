@@ -0,0 +1,172 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+/**
+ * Reads the samples of a block written by a {@link TrussBlockEncoder} in
+ * order. The decoder holds only the current sample and may be reset to
+ * read another block without creating any objects.
+ */
+public class TrussBlockDecoder
+{
+    /** Number of columns of each sample. */
+    private final int columns;
+
+    /** Block being read. */
+    private byte buf[];
+
+    /** Position of the next bit to read. */
+    private long bitPos;
+
+    /** Number of samples in the block and number read. */
+    private int count, read;
+
+    /** Current timestamp, sequence number and their differences. */
+    private long time, timeDelta, seq, seqDelta;
+
+    /** Current value of each column. */
+    private final int bits[];
+
+    /** Leading and trailing zeros of the stored bits of the previous XOR of each column. */
+    private final int leading[], trailing[];
+
+    /**
+     * Constructor.
+     *
+     * @param columns number of columns of each sample
+     */
+    public TrussBlockDecoder(int columns)
+    {
+        this.columns = columns;
+        this.bits = new int[columns];
+        this.leading = new int[columns];
+        this.trailing = new int[columns];
+    }
+
+    /**
+     * Starts reading a block.
+     *
+     * @param block buffer holding the block
+     * @param offset offset of the block in the buffer
+     * @param samples number of samples in the block
+     */
+    public void reset(byte block[], int offset, int samples)
+    {
+        this.buf = block;
+        this.bitPos = (long)offset << 3;
+        this.count = samples;
+        this.read = 0;
+    }
+
+    /**
+     * Reads the next sample.
+     *
+     * @return true if a sample was read, false at the end of the block
+     */
+    public boolean next()
+    {
+        if (this.read >= this.count) return false;
+
+        if (this.read == 0)
+        {
+            this.time = this.readBits(64);
+            this.seq = this.readBits(64);
+            for (int c = 0; c < this.columns; c++) this.bits[c] = (int)this.readBits(32);
+            this.timeDelta = 0;
+            this.seqDelta = 0;
+        }
+        else
+        {
+            this.timeDelta += this.readDeltaOfDelta();
+            this.time += this.timeDelta;
+            this.seqDelta += this.readDeltaOfDelta();
+            this.seq += this.seqDelta;
+
+            for (int c = 0; c < this.columns; c++)
+            {
+                if (this.readBits(1) == 0) continue;
+
+                if (this.readBits(1) == 1)
+                {
+                    this.leading[c] = (int)this.readBits(5);
+                    this.trailing[c] = 32 - this.leading[c] - ((int)this.readBits(5) + 1);
+                }
+                int length = 32 - this.leading[c] - this.trailing[c];
+                this.bits[c] ^= (int)this.readBits(length) << this.trailing[c];
+            }
+        }
+
+        this.read++;
+        return true;
+    }
+
+    /**
+     * Returns the timestamp of the current sample.
+     *
+     * @return sample timestamp
+     */
+    public long getTimestamp()
+    {
+        return this.time;
+    }
+
+    /**
+     * Returns the sequence number of the current sample.
+     *
+     * @return sample sequence number
+     */
+    public long getSequence()
+    {
+        return this.seq;
+    }
+
+    /**
+     * Returns the raw bits of a column of the current sample.
+     *
+     * @param column column
+     * @return column value
+     */
+    public int getBits(int column)
+    {
+        return this.bits[column];
+    }
+
+    /**
+     * Returns a float column of the current sample.
+     *
+     * @param column column
+     * @return column value
+     */
+    public float getFloat(int column)
+    {
+        return Float.intBitsToFloat(this.bits[column]);
+    }
+
+    private long readDeltaOfDelta()
+    {
+        if (this.readBits(1) == 0) return 0;
+        if (this.readBits(1) == 0) return this.readSigned(7);
+        if (this.readBits(1) == 0) return this.readSigned(9);
+        if (this.readBits(1) == 0) return this.readSigned(12);
+        return this.readBits(64);
+    }
+
+    private long readSigned(int n)
+    {
+        long v = this.readBits(n);
+        return (v << (64 - n)) >> (64 - n);
+    }
+
+    private long readBits(int n)
+    {
+        long value = 0;
+        while (n > 0)
+        {
+            int avail = 8 - (int)(this.bitPos & 7);
+            int take = avail < n ? avail : n;
+            int b = this.buf[(int)(this.bitPos >>> 3)] >>> (avail - take) & ((1 << take) - 1);
+            value = (value << take) | b;
+            this.bitPos += take;
+            n -= take;
+        }
+        return value;
+    }
+}
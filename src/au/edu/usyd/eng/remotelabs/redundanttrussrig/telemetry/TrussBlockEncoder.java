@@ -0,0 +1,234 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+/**
+ * Compresses a block of telemetry samples in the manner of the Gorilla time
+ * series encoding. Each sample has a timestamp, a sequence number and a
+ * fixed number of 32 bit columns, which are the raw bits of float values
+ * or integer flags.
+ * <ul>
+ *  <li>Timestamps and sequence numbers are stored as the difference of
+ *  successive differences. At a steady sample rate this is mostly zero and
+ *  takes one bit.</li>
+ *  <li>Each column is stored as the XOR with its previous value. An
+ *  unchanged value takes one bit and a slowly changing value only stores
+ *  the bits between the leading and trailing zeros of the XOR.</li>
+ * </ul>
+ * Samples are encoded as they are appended, so a block is built
+ * incrementally and read back with a {@link TrussBlockDecoder}. The encoder
+ * may be reset and reused, and appending does not create any objects once
+ * the buffer has grown to the block size.
+ */
+public class TrussBlockEncoder
+{
+    /** Number of columns of each sample. */
+    private final int columns;
+
+    /** Encoded bits. */
+    private byte buf[];
+
+    /** Number of bits written. */
+    private int bitPos;
+
+    /** Number of samples encoded. */
+    private int count;
+
+    /** Previous timestamp, sequence number and their differences. */
+    private long lastTime, lastTimeDelta, lastSeq, lastSeqDelta;
+
+    /** Previous value of each column. */
+    private final int lastBits[];
+
+    /** Leading and trailing zeros of the stored bits of the previous XOR of each column. */
+    private final int lastLeading[], lastTrailing[];
+
+    /**
+     * Constructor.
+     *
+     * @param columns number of columns of each sample
+     * @param initialSize initial buffer size in bytes
+     */
+    public TrussBlockEncoder(int columns, int initialSize)
+    {
+        if (columns < 1) throw new IllegalArgumentException("A sample must have at least one column");
+
+        this.columns = columns;
+        this.buf = new byte[Math.max(initialSize, 16)];
+        this.lastBits = new int[columns];
+        this.lastLeading = new int[columns];
+        this.lastTrailing = new int[columns];
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param time sample timestamp
+     * @param seq sample sequence number
+     * @param bits column values, float columns as <code>Float.floatToRawIntBits</code>
+     */
+    public void append(long time, long seq, int bits[])
+    {
+        /* A sample takes at most 68 bits for each of the time and sequence and 44 bits for each column. */
+        this.ensureCapacity(((this.bitPos + 136 + 44 * this.columns) >>> 3) + 1);
+
+        if (this.count == 0)
+        {
+            this.writeBits(time, 64);
+            this.writeBits(seq, 64);
+            for (int c = 0; c < this.columns; c++)
+            {
+                this.writeBits(bits[c], 32);
+                this.lastBits[c] = bits[c];
+                this.lastLeading[c] = -1;
+            }
+            this.lastTimeDelta = 0;
+            this.lastSeqDelta = 0;
+        }
+        else
+        {
+            long delta = time - this.lastTime;
+            this.writeDeltaOfDelta(delta - this.lastTimeDelta);
+            this.lastTimeDelta = delta;
+
+            delta = seq - this.lastSeq;
+            this.writeDeltaOfDelta(delta - this.lastSeqDelta);
+            this.lastSeqDelta = delta;
+
+            for (int c = 0; c < this.columns; c++) this.writeXor(c, bits[c]);
+        }
+
+        this.lastTime = time;
+        this.lastSeq = seq;
+        this.count++;
+    }
+
+    /**
+     * Clears the block so the encoder can be reused.
+     */
+    public void reset()
+    {
+        for (int i = 0, n = this.getLength(); i < n; i++) this.buf[i] = 0;
+        this.bitPos = 0;
+        this.count = 0;
+    }
+
+    /**
+     * Returns the encoded block. Only the first {@link #getLength()} bytes
+     * are part of the block and the array is changed by later appends.
+     *
+     * @return block buffer
+     */
+    public byte[] getBuffer()
+    {
+        return this.buf;
+    }
+
+    /**
+     * Returns the encoded block length.
+     *
+     * @return length in bytes
+     */
+    public int getLength()
+    {
+        return (this.bitPos + 7) >>> 3;
+    }
+
+    /**
+     * Returns the number of samples in the block.
+     *
+     * @return sample count
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * Returns the number of columns of each sample.
+     *
+     * @return column count
+     */
+    public int getColumns()
+    {
+        return this.columns;
+    }
+
+    private void writeDeltaOfDelta(long dod)
+    {
+        if (dod == 0)
+        {
+            this.writeBits(0, 1);
+        }
+        else if (dod >= -64 && dod < 64)
+        {
+            this.writeBits(0x2, 2);
+            this.writeBits(dod, 7);
+        }
+        else if (dod >= -256 && dod < 256)
+        {
+            this.writeBits(0x6, 3);
+            this.writeBits(dod, 9);
+        }
+        else if (dod >= -2048 && dod < 2048)
+        {
+            this.writeBits(0xE, 4);
+            this.writeBits(dod, 12);
+        }
+        else
+        {
+            this.writeBits(0xF, 4);
+            this.writeBits(dod, 64);
+        }
+    }
+
+    private void writeXor(int c, int bits)
+    {
+        int xor = bits ^ this.lastBits[c];
+        this.lastBits[c] = bits;
+        if (xor == 0)
+        {
+            this.writeBits(0, 1);
+            return;
+        }
+
+        int leading = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+        int trailing = Integer.numberOfTrailingZeros(xor);
+        if (this.lastLeading[c] >= 0 && leading >= this.lastLeading[c] && trailing >= this.lastTrailing[c])
+        {
+            /* Fits in the previous window of meaningful bits. */
+            this.writeBits(0x2, 2);
+            this.writeBits(xor >>> this.lastTrailing[c], 32 - this.lastLeading[c] - this.lastTrailing[c]);
+        }
+        else
+        {
+            int length = 32 - leading - trailing;
+            this.writeBits(0x3, 2);
+            this.writeBits(leading, 5);
+            this.writeBits(length - 1, 5);
+            this.writeBits(xor >>> trailing, length);
+            this.lastLeading[c] = leading;
+            this.lastTrailing[c] = trailing;
+        }
+    }
+
+    private void writeBits(long value, int n)
+    {
+        while (n > 0)
+        {
+            int free = 8 - (this.bitPos & 7);
+            int take = free < n ? free : n;
+            int bits = (int)(value >>> (n - take)) & ((1 << take) - 1);
+            this.buf[this.bitPos >>> 3] |= bits << (free - take);
+            this.bitPos += take;
+            n -= take;
+        }
+    }
+
+    private void ensureCapacity(int size)
+    {
+        if (size <= this.buf.length) return;
+
+        byte grown[] = new byte[Math.max(size, this.buf.length * 2)];
+        System.arraycopy(this.buf, 0, grown, 0, this.getLength());
+        this.buf = grown;
+    }
+}
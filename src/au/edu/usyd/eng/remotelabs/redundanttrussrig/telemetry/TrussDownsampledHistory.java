@@ -0,0 +1,113 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Telemetry samples downsampled for drawing, each channel by its own
+ * {@link TrussLttbSampler}, so each channel has its own sample times. The
+ * strain of an unhealthy gauge is not drawn.
+ */
+public final class TrussDownsampledHistory
+{
+    /** Sequence number of the first and last source samples. */
+    private final long first, last;
+
+    /** Samplers of each channel, indexed as the history channels. */
+    private final TrussLttbSampler channels[];
+
+    TrussDownsampledHistory(long first, long last, long count, int maxPoints)
+    {
+        this.first = first;
+        this.last = last;
+        this.channels = new TrussLttbSampler[TrussTelemetryHistory.CHANNELS];
+        for (int c = 0; c < this.channels.length; c++) this.channels[c] = new TrussLttbSampler(count, maxPoints);
+    }
+
+    /**
+     * Downsamples session recordings, in one pass over them.
+     *
+     * @param recordings recording files, in the order they were made
+     * @param maxPoints maximum number of samples kept of each channel, at least three
+     * @return downsampled samples, numbered from one across the recordings
+     * @throws IOException if a recording cannot be read
+     */
+    public static TrussDownsampledHistory fromRecordings(List<File> recordings, int maxPoints) throws IOException
+    {
+        /* Recordings still being written grow, so only the records counted here are read. */
+        long counts[] = new long[recordings.size()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            TrussRecordingReader reader = new TrussRecordingReader(recordings.get(i));
+            total += counts[i] = reader.getRecordCount();
+            reader.close();
+        }
+
+        TrussDownsampledHistory down = new TrussDownsampledHistory(1, total, total, maxPoints);
+        for (int i = 0; i < counts.length; i++)
+        {
+            TrussRecordingReader reader = new TrussRecordingReader(recordings.get(i));
+            try
+            {
+                for (long r = 0; r < counts[i] && reader.next(); r++)
+                {
+                    for (int c = 0; c < TrussTelemetryHistory.CHANNELS; c++)
+                    {
+                        down.channels[c].add(reader.getTimestamp(),
+                                c < TrussTelemetrySnapshot.STRAIN_GAUGES && !reader.isStrainHealthy(c) ?
+                                        Float.NaN : reader.getValue(c));
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        down.finish();
+        return down;
+    }
+
+    void add(int channel, long time, float value)
+    {
+        this.channels[channel].add(time, value);
+    }
+
+    void finish()
+    {
+        for (TrussLttbSampler s : this.channels) s.finish();
+    }
+
+    /**
+     * Returns the sequence number of the first source sample.
+     *
+     * @return first sequence number
+     */
+    public long getFirstSequence()
+    {
+        return this.first;
+    }
+
+    /**
+     * Returns the sequence number of the last source sample.
+     *
+     * @return last sequence number, one before the first if there were none
+     */
+    public long getLastSequence()
+    {
+        return this.last;
+    }
+
+    /**
+     * Returns the samples kept of a channel.
+     *
+     * @param channel strain gauge or <code>CH_</code> constant of the history
+     * @return channel sampler
+     */
+    public TrussLttbSampler getChannel(int channel)
+    {
+        return this.channels[channel];
+    }
+}
@@ -0,0 +1,83 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+/**
+ * Consecutive samples copied out of a {@link TrussTelemetryHistory}. The
+ * range owns its arrays, so it is not changed by later samples.
+ */
+public final class TrussHistoryRange
+{
+    /** Sequence number of the first sample. */
+    private final long first;
+
+    /** Channel values, indexed by channel then sample. */
+    private final float values[][];
+
+    /** Sample times in milliseconds since the epoch. */
+    private final long timestamps[];
+
+    /** Unhealthy strain gauges of each sample, as a bit per gauge. */
+    private final int strainFaults[];
+
+    TrussHistoryRange(long first, float values[][], long timestamps[], int strainFaults[])
+    {
+        this.first = first;
+        this.values = values;
+        this.timestamps = timestamps;
+        this.strainFaults = strainFaults;
+    }
+
+    /**
+     * Returns the sequence number of the first sample. If the range is
+     * empty this is the sequence number the next sample will have.
+     *
+     * @return first sequence number
+     */
+    public long getFirstSequence()
+    {
+        return this.first;
+    }
+
+    /**
+     * Returns the sequence number of the last sample.
+     *
+     * @return last sequence number, one before the first if empty
+     */
+    public long getLastSequence()
+    {
+        return this.first + this.timestamps.length - 1;
+    }
+
+    public int size()
+    {
+        return this.timestamps.length;
+    }
+
+    public long getTimestamp(int sample)
+    {
+        return this.timestamps[sample];
+    }
+
+    /**
+     * Returns the value of a channel.
+     *
+     * @param channel strain gauge or <code>CH_</code> constant of the history
+     * @param sample sample index in the range
+     * @return value
+     */
+    public float getValue(int channel, int sample)
+    {
+        return this.values[channel][sample];
+    }
+
+    /**
+     * Returns whether a strain gauge was healthy when the sample was taken.
+     *
+     * @param gauge strain gauge
+     * @param sample sample index in the range
+     * @return true if healthy
+     */
+    public boolean isStrainHealthy(int gauge, int sample)
+    {
+        return (this.strainFaults[sample] & (1 << gauge)) == 0;
+    }
+}
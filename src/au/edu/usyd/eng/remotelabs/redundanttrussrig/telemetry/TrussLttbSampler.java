@@ -0,0 +1,253 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+/**
+ * Downsamples a series for drawing with the Largest-Triangle-Three-Buckets
+ * algorithm. The first and last samples are kept and the samples between
+ * are split into equal buckets by index. From each bucket the sample kept
+ * is the one making the largest triangle with the sample kept from the
+ * previous bucket and the average of the next bucket, which keeps the
+ * peaks and troughs a chart needs.
+ * <p>
+ * Samples are added in order and the number of samples must be known in
+ * advance. Only two buckets are held at a time, so a series of any length
+ * is downsampled in one pass. A NaN value is a sample that is not drawn,
+ * such as the reading of an unhealthy gauge. It takes its place in a
+ * bucket but is never kept.
+ */
+public class TrussLttbSampler
+{
+    /** Number of samples that will be added. */
+    private final long total;
+
+    /** Width of a bucket in samples, zero if every sample is kept. */
+    private final double every;
+
+    /** Index of the next sample added. */
+    private long index;
+
+    /** Bucket waiting for the next bucket to be filled. */
+    private long curTime[];
+    private float curValue[];
+    private int curCount;
+
+    /** Bucket being filled, numbered from zero after the first sample. */
+    private long nextTime[];
+    private float nextValue[];
+    private int nextCount;
+    private long nextBucket = -1;
+
+    /** Last sample kept. */
+    private boolean kept;
+    private long keptTime;
+    private float keptValue;
+
+    /** Last sample of the series. */
+    private boolean haveLast;
+    private long lastTime;
+    private float lastValue;
+
+    /** Samples kept. */
+    private final long outTime[];
+    private final float outValue[];
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param total number of samples that will be added
+     * @param maxPoints maximum number of samples kept, at least three
+     */
+    public TrussLttbSampler(long total, int maxPoints)
+    {
+        if (maxPoints < 3) throw new IllegalArgumentException("At least three points must be kept");
+
+        this.total = total;
+        int keep = (int)Math.min(total, maxPoints);
+        this.outTime = new long[keep];
+        this.outValue = new float[keep];
+
+        if (total > maxPoints)
+        {
+            this.every = (double)(total - 2) / (maxPoints - 2);
+            int width = (int)Math.ceil(this.every) + 1;
+            this.curTime = new long[width];
+            this.curValue = new float[width];
+            this.nextTime = new long[width];
+            this.nextValue = new float[width];
+        }
+        else
+        {
+            this.every = 0;
+        }
+    }
+
+    /**
+     * Adds the next sample.
+     *
+     * @param time sample time
+     * @param value sample value, NaN if not drawn
+     */
+    public void add(long time, float value)
+    {
+        long i = this.index++;
+        if (i >= this.total) throw new IllegalStateException("More samples added than were counted");
+
+        boolean valid = !Float.isNaN(value) && !Float.isInfinite(value);
+        if (this.every == 0)
+        {
+            if (valid) this.keep(time, value);
+        }
+        else if (i == 0)
+        {
+            if (valid) this.keep(time, value);
+        }
+        else if (i == this.total - 1)
+        {
+            this.haveLast = valid;
+            this.lastTime = time;
+            this.lastValue = value;
+        }
+        else
+        {
+            long bucket = (long)((i - 1) / this.every);
+            if (bucket != this.nextBucket)
+            {
+                /* The bucket being filled is complete, so the one before it can be chosen from. */
+                if (this.nextBucket >= 0) this.chooseCurrent(true);
+                this.swap();
+                this.nextBucket = bucket;
+            }
+            if (valid)
+            {
+                this.nextTime[this.nextCount] = time;
+                this.nextValue[this.nextCount] = value;
+                this.nextCount++;
+            }
+        }
+    }
+
+    /**
+     * Chooses from the buckets still held, after the last sample is added.
+     */
+    public void finish()
+    {
+        if (this.every == 0) return;
+
+        this.chooseCurrent(true);
+        this.swap();
+        this.chooseCurrent(false);
+        if (this.haveLast) this.keep(this.lastTime, this.lastValue);
+    }
+
+    /**
+     * Returns the number of samples kept.
+     *
+     * @return samples kept
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the time of a kept sample, in the order they were added.
+     *
+     * @param i kept sample index, less than {@link #size()}
+     * @return sample time
+     */
+    public long getTime(int i)
+    {
+        return this.outTime[i];
+    }
+
+    /**
+     * Returns the value of a kept sample, in the order they were added.
+     *
+     * @param i kept sample index, less than {@link #size()}
+     * @return sample value
+     */
+    public float getValue(int i)
+    {
+        return this.outValue[i];
+    }
+
+    /**
+     * Chooses a sample from the current bucket, against the average of the
+     * bucket being filled or the last sample.
+     *
+     * @param againstNext whether to use the bucket being filled
+     */
+    private void chooseCurrent(boolean againstNext)
+    {
+        if (this.curCount == 0) return;
+
+        double avgTime, avgValue;
+        if (againstNext && this.nextCount > 0)
+        {
+            avgTime = 0;
+            avgValue = 0;
+            for (int j = 0; j < this.nextCount; j++)
+            {
+                avgTime += this.nextTime[j];
+                avgValue += this.nextValue[j];
+            }
+            avgTime /= this.nextCount;
+            avgValue /= this.nextCount;
+        }
+        else if (this.haveLast && !againstNext)
+        {
+            avgTime = this.lastTime;
+            avgValue = this.lastValue;
+        }
+        else
+        {
+            /* Nothing drawn after this bucket, so keep its first sample. */
+            this.keep(this.curTime[0], this.curValue[0]);
+            this.curCount = 0;
+            return;
+        }
+
+        int best = 0;
+        if (this.kept)
+        {
+            double bestArea = -1;
+            double dt = this.keptTime - avgTime;
+            double dv = avgValue - this.keptValue;
+            for (int j = 0; j < this.curCount; j++)
+            {
+                /* Twice the triangle area, which orders the same. */
+                double area = Math.abs(dt * (this.curValue[j] - this.keptValue) -
+                        (this.keptTime - this.curTime[j]) * dv);
+                if (area > bestArea)
+                {
+                    bestArea = area;
+                    best = j;
+                }
+            }
+        }
+        this.keep(this.curTime[best], this.curValue[best]);
+        this.curCount = 0;
+    }
+
+    private void swap()
+    {
+        long t[] = this.curTime;
+        float v[] = this.curValue;
+        this.curTime = this.nextTime;
+        this.curValue = this.nextValue;
+        this.curCount = this.nextCount;
+        this.nextTime = t;
+        this.nextValue = v;
+        this.nextCount = 0;
+    }
+
+    private void keep(long time, float value)
+    {
+        this.outTime[this.size] = time;
+        this.outValue[this.size] = value;
+        this.size++;
+        this.kept = true;
+        this.keptTime = time;
+        this.keptValue = value;
+    }
+}
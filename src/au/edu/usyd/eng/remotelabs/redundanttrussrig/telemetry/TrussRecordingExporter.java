@@ -0,0 +1,145 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Exports telemetry recordings as CSV. The recordings are read and the
+ * rows written as a stream, so exporting hours of samples takes the same
+ * memory as exporting a few. The export may be decimated to a maximum
+ * number of rows by keeping every n-th record, where n is chosen from the
+ * record counts in the recording headers before any record is read.
+ */
+public class TrussRecordingExporter
+{
+    /** Exported file extension. */
+    public static final String EXTENSION = ".csv";
+
+    /** Write buffer size in characters. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Maximum number of rows, zero for every record. */
+    private final int maxPoints;
+
+    /**
+     * Constructor.
+     *
+     * @param maxPoints maximum number of rows, zero for every record
+     */
+    public TrussRecordingExporter(int maxPoints)
+    {
+        if (maxPoints < 0) throw new IllegalArgumentException("Maximum points must not be negative");
+        this.maxPoints = maxPoints;
+    }
+
+    /**
+     * Exports recordings in order to a file.
+     *
+     * @param recordings recording files
+     * @param file CSV file to write
+     * @return number of rows written
+     * @throws IOException if a recording cannot be read or the file cannot be written
+     */
+    public long export(List<File> recordings, File file) throws IOException
+    {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), BUFFER_SIZE);
+        try
+        {
+            return this.export(recordings, out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Exports recordings in order. The writer is not closed.
+     *
+     * @param recordings recording files
+     * @param out writer of the CSV
+     * @return number of rows written
+     * @throws IOException if a recording cannot be read or the CSV cannot be written
+     */
+    public long export(List<File> recordings, Writer out) throws IOException
+    {
+        /* An open recording grows, so only the records counted here are exported. */
+        long counts[] = new long[recordings.size()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            TrussRecordingReader reader = new TrussRecordingReader(recordings.get(i));
+            total += counts[i] = reader.getRecordCount();
+            reader.close();
+        }
+        long stride = 1;
+        if (this.maxPoints > 0 && total > this.maxPoints) stride = (total + this.maxPoints - 1) / this.maxPoints;
+
+        out.write("time,sequence,angle,angletarget,load,loadtarget");
+        for (int i = 1; i <= TrussTelemetrySnapshot.STRAIN_GAUGES; i++) out.write(",StrainValue" + i);
+        out.write(",anglehealth,loadhealth\n");
+
+        long index = 0, rows = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            TrussRecordingReader reader = new TrussRecordingReader(recordings.get(i));
+            try
+            {
+                for (long r = 0; r < counts[i] && reader.next(); r++)
+                {
+                    if (index++ % stride != 0) continue;
+                    this.writeRow(reader, out);
+                    rows++;
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the file a recording is exported to, next to the recording.
+     *
+     * @param recording recording file
+     * @return CSV file
+     */
+    public static File exportFile(File recording)
+    {
+        String name = recording.getName();
+        if (name.endsWith(TrussSessionRecorder.EXTENSION))
+        {
+            name = name.substring(0, name.length() - TrussSessionRecorder.EXTENSION.length());
+        }
+        return new File(recording.getParentFile(), name + EXTENSION);
+    }
+
+    private void writeRow(TrussRecordingReader reader, Writer out) throws IOException
+    {
+        out.write(String.valueOf(reader.getTimestamp()));
+        out.write(',');
+        out.write(String.valueOf(reader.getSequence()));
+        for (int ch = TrussTelemetryHistory.CH_ANGLE; ch <= TrussTelemetryHistory.CH_LOAD_TARGET; ch++)
+        {
+            out.write(',');
+            out.write(String.valueOf(reader.getValue(ch)));
+        }
+        for (int g = 0; g < TrussTelemetrySnapshot.STRAIN_GAUGES; g++)
+        {
+            out.write(',');
+            out.write(reader.isStrainHealthy(g) ? String.valueOf(reader.getValue(g)) : "NaN");
+        }
+        out.write(',');
+        out.write(String.valueOf(reader.getAngleHealth()));
+        out.write(',');
+        out.write(String.valueOf(reader.getLoadHealth()));
+        out.write('\n');
+    }
+}
@@ -0,0 +1,153 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the records of a telemetry recording written by the
+ * {@link TrussSessionRecorder} in order, holding only the current block,
+ * so a recording of any length is read in bounded memory. A recording
+ * that is still open may be read, in which case the records written when
+ * the reader was opened are read.
+ */
+public class TrussRecordingReader implements Closeable
+{
+    /** Read buffer size in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Recording stream. */
+    private final DataInputStream in;
+
+    /** Recording start time. */
+    private final long startTime;
+
+    /** Number of records in the recording. */
+    private final long count;
+
+    /** Number of records read. */
+    private long read;
+
+    /** Current block. */
+    private byte block[] = new byte[4096];
+
+    /** Decoder of the current block, which holds the current record. */
+    private final TrussBlockDecoder decoder = new TrussBlockDecoder(TrussSessionRecorder.COLUMNS);
+
+    /**
+     * Opens a recording.
+     *
+     * @param file recording file
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public TrussRecordingReader(File file) throws IOException
+    {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try
+        {
+            if (this.in.readInt() != TrussSessionRecorder.MAGIC ||
+                    this.in.readShort() != TrussSessionRecorder.VERSION ||
+                    this.in.readShort() != TrussSessionRecorder.COLUMNS)
+            {
+                throw new IOException(file.getName() + " is not a truss telemetry recording");
+            }
+            this.startTime = this.in.readLong();
+            this.count = this.in.readLong();
+            this.in.readLong();
+        }
+        catch (IOException e)
+        {
+            this.in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return true if a record was read, false at the end of the recording
+     * @throws IOException if the recording cannot be read
+     */
+    public boolean next() throws IOException
+    {
+        if (this.read >= this.count) return false;
+
+        if (!this.decoder.next())
+        {
+            try
+            {
+                int length = this.in.readInt();
+                int records = this.in.readInt();
+                if (length > this.block.length) this.block = new byte[length];
+                this.in.readFully(this.block, 0, length);
+                this.decoder.reset(this.block, 0, records);
+            }
+            catch (EOFException e)
+            {
+                /* Recording cut short before its header was written. */
+                this.read = this.count;
+                return false;
+            }
+            if (!this.decoder.next()) throw new IOException("Empty block in truss telemetry recording");
+        }
+
+        this.read++;
+        return true;
+    }
+
+    public long getStartTime()
+    {
+        return this.startTime;
+    }
+
+    public long getRecordCount()
+    {
+        return this.count;
+    }
+
+    public long getTimestamp()
+    {
+        return this.decoder.getTimestamp();
+    }
+
+    public long getSequence()
+    {
+        return this.decoder.getSequence();
+    }
+
+    /**
+     * Returns a value of the current record.
+     *
+     * @param channel strain gauge or <code>CH_</code> constant of {@link TrussTelemetryHistory}
+     * @return value
+     */
+    public float getValue(int channel)
+    {
+        return this.decoder.getFloat(channel);
+    }
+
+    public boolean isStrainHealthy(int gauge)
+    {
+        return (this.decoder.getBits(TrussSessionRecorder.COL_FAULTS) & (1 << gauge)) == 0;
+    }
+
+    public int getAngleHealth()
+    {
+        return (byte)(this.decoder.getBits(TrussSessionRecorder.COL_HEALTH) >>> 24);
+    }
+
+    public int getLoadHealth()
+    {
+        return (byte)(this.decoder.getBits(TrussSessionRecorder.COL_HEALTH) >>> 16);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.in.close();
+    }
+}
@@ -0,0 +1,596 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.ConfigFactory;
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Records every telemetry snapshot of a session to a binary file of
+ * compressed blocks of records. A poller that publishes a snapshot only
+ * queues it, and the session's recorder thread records the queued
+ * snapshots, so a poller never waits on the recording. Records are
+ * compressed into a block in memory by a {@link TrussBlockEncoder} and
+ * each full block is copied into a memory mapping of the file. The mapping
+ * grows by doubling when it is full. The block being filled is also copied
+ * into its place in the mapping on each pass of the recorder thread and
+ * before the session's recordings are read, and copied over as it grows.
+ * <p>
+ * A session may produce several recordings, one for each run of the
+ * hardware interface. A recording is sealed when the hardware interface
+ * stops or the session ends. Sealing flushes the mapping and trims the file
+ * to its records, after which the file is reported as a session file.
+ * <p>
+ * The file starts with a header, all values big endian:
+ * <pre>
+ *  0  int    magic, 'TRSS'
+ *  4  short  format version
+ *  6  short  number of columns of each record
+ *  8  long   recording start time, milliseconds since the epoch
+ * 16  long   number of records
+ * 24  long   length of the blocks in bytes
+ * </pre>
+ * followed by the blocks:
+ * <pre>
+ *  0  int    encoded length in bytes
+ *  4  int    number of records
+ *  8         records encoded by a TrussBlockEncoder
+ * </pre>
+ * Each record has the snapshot time and sequence number and the columns:
+ * <pre>
+ *  0 - 9   float  strain of gauges 1 to 10
+ * 10 - 13  float  angle, angle target, load and load target
+ * 14       int    unhealthy strain gauges, bit 0 is gauge 1
+ * 15       int    angle health, load health, DAQ link and CTRL link status,
+ *                 a byte each from the most significant
+ * </pre>
+ * The header is updated each time a block is copied, so a reader of the
+ * open recording reads every snapshot recorded up to the last pass of the
+ * recorder thread, and a recording cut short by a crash of the rig client
+ * only loses the snapshots queued since then.
+ */
+public class TrussSessionRecorder implements Runnable
+{
+    /** File magic number, 'TRSS'. */
+    public static final int MAGIC = 0x54525353;
+
+    /** File format version. */
+    public static final int VERSION = 2;
+
+    /** Header size in bytes. */
+    public static final int HEADER_SIZE = 32;
+
+    /** Block header size in bytes. */
+    public static final int BLOCK_HEADER_SIZE = 8;
+
+    /** Record columns. */
+    public static final int COL_FAULTS = TrussTelemetryHistory.CHANNELS;
+    public static final int COL_HEALTH = COL_FAULTS + 1;
+    public static final int COLUMNS = COL_HEALTH + 1;
+
+    /** Recording file extension. */
+    public static final String EXTENSION = ".trec";
+
+    /** Default number of records in a block, about four seconds of snapshots. */
+    public static final int DEFAULT_BLOCK_RECORDS = 128;
+
+    /** Default size in bytes of the mapping of a new recording. */
+    public static final int DEFAULT_INITIAL_SIZE = 256 * 1024;
+
+    /** Default interval in milliseconds the recorder thread records queued snapshots at, and copies the open block. */
+    public static final int DEFAULT_WRITE_INTERVAL = 250;
+
+    /** Number of snapshots that may be queued, about half a minute of snapshots. */
+    private static final int QUEUE_SIZE = 1024;
+
+    /** Header offsets of the record count and blocks length. */
+    private static final int COUNT_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+
+    /** Recorder instance. */
+    private static TrussSessionRecorder instance;
+
+    /** Directory recordings are written to. */
+    private final File directory;
+
+    /** Number of records in a block. */
+    private final int blockRecords;
+
+    /** Size in bytes of the mapping of a new recording. */
+    private final int initialSize;
+
+    /** Interval in milliseconds the recorder thread records queued snapshots at. */
+    private final int writeInterval;
+
+    /** Session user, null if not in session. */
+    private volatile String user;
+
+    /** Snapshots waiting to be recorded. */
+    private final BlockingQueue<TrussTelemetrySnapshot> pending;
+
+    /** Snapshots taken from the queue to be recorded. */
+    private final List<TrussTelemetrySnapshot> draining;
+
+    /** Number of snapshots not queued because the queue was full. */
+    private final AtomicInteger dropped;
+
+    /** Recorder thread of the session, null if not in session. */
+    private Thread writer;
+
+    /** Recordings of the session that have been sealed. */
+    private final Set<File> sealed;
+
+    /** Exports of the session's recordings made during the session. */
+    private final Set<File> exports;
+
+    /** File of the open recording. */
+    private File file;
+
+    /** Open recording file. */
+    private RandomAccessFile raf;
+
+    /** Mapping of the open recording, null if none is open. */
+    private MappedByteBuffer buffer;
+
+    /** Encoder of the block being recorded. */
+    private final TrussBlockEncoder encoder;
+
+    /** Columns of the record being encoded. */
+    private final int record[];
+
+    /** Number of records in the written blocks of the open recording. */
+    private long count;
+
+    /** Number of records of the block being filled that have been copied into the mapping. */
+    private int flushed;
+
+    /** Position in the mapping after the last written block. */
+    private int end;
+
+    /** Sequence number of the last recorded snapshot. */
+    private long sequence;
+
+    /** Set if a recording could not be opened, so it is not tried for each snapshot. */
+    private boolean failed;
+
+    /** Logger. */
+    private final ILogger logger;
+
+    /**
+     * Constructor.
+     *
+     * @param directory directory recordings are written to
+     * @param blockRecords number of records in a block
+     * @param initialSize size in bytes of the mapping of a new recording
+     */
+    public TrussSessionRecorder(File directory, int blockRecords, int initialSize)
+    {
+        this(directory, blockRecords, initialSize, DEFAULT_WRITE_INTERVAL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param directory directory recordings are written to
+     * @param blockRecords number of records in a block
+     * @param initialSize size in bytes of the mapping of a new recording
+     * @param writeInterval interval in milliseconds queued snapshots are recorded at
+     */
+    public TrussSessionRecorder(File directory, int blockRecords, int initialSize, int writeInterval)
+    {
+        if (blockRecords < 1) throw new IllegalArgumentException("A block must hold at least one record");
+
+        this.logger = LoggerFactory.getLoggerInstance();
+        this.directory = directory;
+        this.blockRecords = blockRecords;
+        this.initialSize = Math.max(initialSize, HEADER_SIZE + BLOCK_HEADER_SIZE);
+        this.writeInterval = Math.max(writeInterval, 1);
+        this.encoder = new TrussBlockEncoder(COLUMNS, 1024);
+        this.record = new int[COLUMNS];
+        this.sealed = new LinkedHashSet<File>();
+        this.exports = new LinkedHashSet<File>();
+        this.pending = new ArrayBlockingQueue<TrussTelemetrySnapshot>(QUEUE_SIZE);
+        this.draining = new ArrayList<TrussTelemetrySnapshot>();
+        this.dropped = new AtomicInteger();
+    }
+
+    /**
+     * Returns the recorder, which writes to the directory configured with
+     * the 'Truss_Recording_Directory' property.
+     *
+     * @return recorder instance
+     */
+    public static synchronized TrussSessionRecorder getInstance()
+    {
+        if (TrussSessionRecorder.instance == null)
+        {
+            String dir = ConfigFactory.getInstance().getProperty("Truss_Recording_Directory", "recordings");
+            TrussSessionRecorder.instance = new TrussSessionRecorder(new File(dir.trim()), DEFAULT_BLOCK_RECORDS,
+                    DEFAULT_INITIAL_SIZE);
+        }
+        return TrussSessionRecorder.instance;
+    }
+
+    /**
+     * Starts recording a session, starting its recorder thread. The
+     * recordings of any previous session are forgotten.
+     *
+     * @param name session user
+     * @return true if the recording directory exists or was created
+     */
+    public synchronized boolean startSession(String name)
+    {
+        this.closeRecording();
+        this.sealed.clear();
+        this.exports.clear();
+        this.failed = false;
+        this.user = null;
+
+        if (!this.directory.isDirectory() && !this.directory.mkdirs())
+        {
+            this.logger.warn("Unable to create the telemetry recording directory " +
+                    this.directory.getAbsolutePath() + ".");
+            this.stopWriter();
+            return false;
+        }
+
+        this.user = name;
+        if (this.writer == null)
+        {
+            this.writer = new Thread(this, "Truss-Recorder");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+        return true;
+    }
+
+    /**
+     * Ends the session, sealing the open recording and stopping the
+     * recorder thread.
+     */
+    public synchronized void endSession()
+    {
+        this.closeRecording();
+        this.user = null;
+        this.stopWriter();
+    }
+
+    /**
+     * Queues a snapshot to be appended to the open recording by the
+     * recorder thread, which opens a recording if needed. This does not
+     * wait for the recorder, so it may be called by a poller holding a
+     * lock. Nothing is recorded outside a session. A snapshot older than
+     * the last recorded one is ignored and a snapshot is dropped if the
+     * recorder has fallen too far behind.
+     *
+     * @param snap telemetry snapshot
+     */
+    public void append(TrussTelemetrySnapshot snap)
+    {
+        if (this.user == null) return;
+        if (!this.pending.offer(snap)) this.dropped.incrementAndGet();
+    }
+
+    @Override
+    public void run()
+    {
+        Thread self = Thread.currentThread();
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(this.writeInterval);
+            }
+            catch (InterruptedException e)
+            {
+                /* Session ended. */
+            }
+
+            synchronized (this)
+            {
+                if (this.writer != self) return;
+                this.drain();
+                this.flush();
+            }
+        }
+    }
+
+    /**
+     * Records the queued snapshots.
+     */
+    private void drain()
+    {
+        this.pending.drainTo(this.draining);
+        for (int i = 0; i < this.draining.size(); i++) this.record(this.draining.get(i));
+        this.draining.clear();
+
+        int lost = this.dropped.getAndSet(0);
+        if (lost > 0)
+        {
+            this.logger.warn("Telemetry recorder fell behind, " + lost + " snapshots were not recorded.");
+        }
+    }
+
+    /**
+     * Copies the block being filled into the mapping, if it has records
+     * that have not been copied.
+     */
+    private void flush()
+    {
+        if (this.buffer == null || this.failed || this.encoder.getCount() == this.flushed) return;
+
+        if (!this.writeBlock(false))
+        {
+            this.failed = true;
+            this.seal();
+        }
+    }
+
+    private void record(TrussTelemetrySnapshot snap)
+    {
+        if (this.user == null || this.failed) return;
+
+        if (this.buffer == null)
+        {
+            try
+            {
+                this.openRecording(snap.getTimestamp());
+            }
+            catch (IOException e)
+            {
+                this.logger.warn("Unable to open telemetry recording " + this.file + ", error: " +
+                        e.getMessage() + ". The session will not be recorded.");
+                this.failed = true;
+                this.closeQuietly();
+                return;
+            }
+        }
+        else if (snap.getSequence() <= this.sequence)
+        {
+            return;
+        }
+
+        for (int i = 0; i < TrussTelemetryHistory.CHANNELS; i++)
+        {
+            this.record[i] = Float.floatToRawIntBits(i < TrussTelemetrySnapshot.STRAIN_GAUGES ? snap.getStrain(i) :
+                    snap.getValue(i - TrussTelemetrySnapshot.STRAIN_GAUGES));
+        }
+        int faults = 0;
+        for (int i = 0; i < TrussTelemetrySnapshot.STRAIN_GAUGES; i++)
+        {
+            if (snap.getStrainHealth(i) != 0) faults |= 1 << i;
+        }
+        this.record[COL_FAULTS] = faults;
+        this.record[COL_HEALTH] = (snap.getAngleHealth() & 0xFF) << 24 | (snap.getLoadHealth() & 0xFF) << 16 |
+                (snap.getDaqLinkStatus() & 0xFF) << 8 | (snap.getCtrlLinkStatus() & 0xFF);
+
+        this.encoder.append(snap.getTimestamp(), snap.getSequence(), this.record);
+        this.sequence = snap.getSequence();
+
+        if (this.encoder.getCount() >= this.blockRecords && !this.writeBlock(true))
+        {
+            this.failed = true;
+            this.seal();
+        }
+    }
+
+    /**
+     * Seals the open recording, if any, after recording the queued
+     * snapshots. The next snapshot of the session starts a new recording.
+     */
+    public synchronized void closeRecording()
+    {
+        this.drain();
+        this.seal();
+    }
+
+    private void seal()
+    {
+        if (this.buffer == null) return;
+
+        if (!this.failed && this.encoder.getCount() > 0) this.writeBlock(true);
+        this.encoder.reset();
+        this.buffer.force();
+        this.buffer = null;
+        try
+        {
+            /* Trims the unused part of the mapping, which fails on platforms that do not
+             * allow a mapped file to be truncated. The header still gives its length. */
+            this.raf.setLength(this.end);
+        }
+        catch (IOException e)
+        {
+            this.logger.debug("Unable to trim telemetry recording " + this.file + ", error: " + e.getMessage());
+        }
+        this.closeQuietly();
+
+        this.logger.info("Sealed telemetry recording " + this.file.getAbsolutePath() + " with " + this.count +
+                " records.");
+        this.sealed.add(this.file);
+    }
+
+    /**
+     * Returns the sealed recordings of the session.
+     *
+     * @return recording files
+     */
+    public synchronized Set<File> getRecordings()
+    {
+        return new LinkedHashSet<File>(this.sealed);
+    }
+
+    /**
+     * Returns every recording of the session, including the open recording,
+     * in the order they were made. The queued snapshots are recorded and
+     * the open block copied first, so a reader of the open recording reads
+     * every snapshot appended so far.
+     *
+     * @return recording files
+     */
+    public synchronized List<File> getSessionRecordings()
+    {
+        this.drain();
+        this.flush();
+        List<File> files = new ArrayList<File>(this.sealed);
+        if (this.buffer != null) files.add(this.file);
+        return files;
+    }
+
+    /**
+     * Returns a new file to export the session's recordings to.
+     *
+     * @return export file, null if not in session
+     */
+    public synchronized File newExportFile()
+    {
+        if (this.user == null) return null;
+        return new File(this.directory, this.fileName(System.currentTimeMillis()) + "-export" +
+                TrussRecordingExporter.EXTENSION);
+    }
+
+    /**
+     * Adds an export of the session's recordings, which is then reported
+     * with the recordings.
+     *
+     * @param export export file
+     */
+    public synchronized void addExport(File export)
+    {
+        this.exports.add(export);
+    }
+
+    /**
+     * Returns the exports of the session's recordings made during the session.
+     *
+     * @return export files
+     */
+    public synchronized Set<File> getExports()
+    {
+        return new LinkedHashSet<File>(this.exports);
+    }
+
+    /**
+     * Returns whether a session is being recorded.
+     *
+     * @return true if in session
+     */
+    public synchronized boolean isRecording()
+    {
+        return this.user != null && !this.failed;
+    }
+
+    /**
+     * Copies the encoded block into the mapping, extending the mapping if
+     * it is too small, and updates the header. A block that is not complete
+     * is copied to the same place again as it grows.
+     *
+     * @param complete whether the block is complete, so the encoder starts the next block
+     * @return true if written
+     */
+    private boolean writeBlock(boolean complete)
+    {
+        int length = this.encoder.getLength();
+        int needed = this.end + BLOCK_HEADER_SIZE + length;
+        if (needed > this.buffer.capacity())
+        {
+            try
+            {
+                this.buffer = this.raf.getChannel().map(MapMode.READ_WRITE, 0,
+                        Math.max(needed, HEADER_SIZE + 2L * (this.buffer.capacity() - HEADER_SIZE)));
+            }
+            catch (IOException e)
+            {
+                this.logger.warn("Unable to extend telemetry recording " + this.file + ", error: " +
+                        e.getMessage() + ". Recording has stopped.");
+                return false;
+            }
+        }
+
+        /* Records before the headers that count them, as the open recording may be read. A block copied
+         * again only adds to its earlier bytes, so a reader of the earlier headers reads the same records. */
+        MappedByteBuffer buf = this.buffer;
+        buf.position(this.end + BLOCK_HEADER_SIZE);
+        buf.put(this.encoder.getBuffer(), 0, length);
+        buf.putInt(this.end, length);
+        buf.putInt(this.end + 4, this.encoder.getCount());
+        buf.putLong(COUNT_OFFSET, this.count + this.encoder.getCount());
+        buf.putLong(LENGTH_OFFSET, needed - HEADER_SIZE);
+
+        if (complete)
+        {
+            this.end = needed;
+            this.count += this.encoder.getCount();
+            this.encoder.reset();
+            this.flushed = 0;
+        }
+        else
+        {
+            this.flushed = this.encoder.getCount();
+        }
+        return true;
+    }
+
+    private void openRecording(long start) throws IOException
+    {
+        this.file = new File(this.directory, this.fileName(start) + '-' + (this.sealed.size() + 1) + EXTENSION);
+        this.raf = new RandomAccessFile(this.file, "rw");
+        this.raf.setLength(0);
+
+        FileChannel channel = this.raf.getChannel();
+        this.buffer = channel.map(MapMode.READ_WRITE, 0, this.initialSize);
+        this.buffer.putInt(0, MAGIC);
+        this.buffer.putShort(4, (short)VERSION);
+        this.buffer.putShort(6, (short)COLUMNS);
+        this.buffer.putLong(8, start);
+        this.buffer.putLong(COUNT_OFFSET, 0);
+        this.buffer.putLong(LENGTH_OFFSET, 0);
+        this.encoder.reset();
+        this.flushed = 0;
+        this.count = 0;
+        this.end = HEADER_SIZE;
+        this.sequence = Long.MIN_VALUE;
+    }
+
+    private void stopWriter()
+    {
+        if (this.writer == null) return;
+        this.writer.interrupt();
+        this.writer = null;
+    }
+
+    private String fileName(long time)
+    {
+        return this.user.replaceAll("[^A-Za-z0-9._-]", "_") + '-' +
+                new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(time));
+    }
+
+    private void closeQuietly()
+    {
+        this.buffer = null;
+        if (this.raf == null) return;
+        try
+        {
+            this.raf.close();
+        }
+        catch (IOException e)
+        {
+            this.logger.debug("Error closing telemetry recording " + this.file + ", error: " + e.getMessage());
+        }
+        this.raf = null;
+    }
+}
@@ -0,0 +1,219 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+/**
+ * Incremental low-pass filter of a strain channel. Each reading is filtered
+ * as it is polled in constant time and without creating any objects. The
+ * first reading fills the filter, so the output does not ramp up from zero.
+ * A NaN reading, such as from an unhealthy gauge, is not filtered and the
+ * last output is held.
+ * <p>
+ * A filter is specified as a type and a parameter:
+ * <ul>
+ *   <li><code>none</code> - passes readings through.</li>
+ *   <li><code>average &lt;n&gt;</code> - moving average of the last n readings.</li>
+ *   <li><code>exponential &lt;alpha&gt;</code> - exponential moving average
+ *   with a smoothing factor between 0 and 1.</li>
+ *   <li><code>lowpass &lt;Hz&gt;</code> - 2nd order Butterworth low-pass with
+ *   a cutoff below half the poll rate.</li>
+ * </ul>
+ * A filter is not thread safe, the hardware interface uses its filters
+ * while holding its monitor.
+ */
+public abstract class TrussStrainFilter
+{
+    /** Last output, NaN before the first reading. */
+    protected float output = Float.NaN;
+
+    /**
+     * Creates a filter from its specification.
+     *
+     * @param spec filter type and parameter separated by white space
+     * @param sampleHz rate readings are filtered at
+     * @return filter
+     * @throws IllegalArgumentException if the specification is invalid
+     */
+    public static TrussStrainFilter parse(String spec, double sampleHz)
+    {
+        String parts[] = spec.trim().split("\\s+");
+        String type = parts[0].toLowerCase();
+        if ("none".equals(type) || type.length() == 0) return new None();
+        if (parts.length != 2) throw new IllegalArgumentException("Filter '" + spec + "' needs one parameter");
+
+        try
+        {
+            if ("average".equals(type)) return new MovingAverage(Integer.parseInt(parts[1]));
+            if ("exponential".equals(type)) return new Exponential(Double.parseDouble(parts[1]));
+            if ("lowpass".equals(type)) return new LowPass(Double.parseDouble(parts[1]), sampleHz);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid parameter of filter '" + spec + "'");
+        }
+        throw new IllegalArgumentException("Unknown filter type '" + parts[0] + "'");
+    }
+
+    /**
+     * Filters the next reading.
+     *
+     * @param value reading, NaN if not valid
+     * @return filtered value, NaN if there has not been a valid reading
+     */
+    public float filter(float value)
+    {
+        if (Float.isNaN(value) || Float.isInfinite(value)) return this.output;
+
+        if (Float.isNaN(this.output)) this.fill(value);
+        return this.output = this.next(value);
+    }
+
+    /**
+     * Returns the last filtered value.
+     *
+     * @return filtered value, NaN if there has not been a valid reading
+     */
+    public float getOutput()
+    {
+        return this.output;
+    }
+
+    /**
+     * Forgets the readings, so the next reading fills the filter.
+     */
+    public void reset()
+    {
+        this.output = Float.NaN;
+    }
+
+    /**
+     * Sets the filter state as if every earlier reading had a value.
+     *
+     * @param value first reading
+     */
+    protected abstract void fill(float value);
+
+    /**
+     * Filters a valid reading.
+     *
+     * @param value reading
+     * @return filtered value
+     */
+    protected abstract float next(float value);
+
+    /** Passes readings through. */
+    private static final class None extends TrussStrainFilter
+    {
+        @Override
+        protected void fill(float value)
+        {
+            /* No state. */
+        }
+
+        @Override
+        protected float next(float value)
+        {
+            return value;
+        }
+    }
+
+    /**
+     * Moving average, kept as a running sum of a ring of readings. Float
+     * readings are summed in double precision, which is exact for readings
+     * of similar magnitude, so the sum does not drift.
+     */
+    private static final class MovingAverage extends TrussStrainFilter
+    {
+        private final double window[];
+        private int pos;
+        private double sum;
+
+        MovingAverage(int length)
+        {
+            if (length < 1) throw new IllegalArgumentException("Moving average length must be at least one");
+            this.window = new double[length];
+        }
+
+        @Override
+        protected void fill(float value)
+        {
+            for (int i = 0; i < this.window.length; i++) this.window[i] = value;
+            this.sum = (double)value * this.window.length;
+        }
+
+        @Override
+        protected float next(float value)
+        {
+            this.sum += value - this.window[this.pos];
+            this.window[this.pos] = value;
+            if (++this.pos == this.window.length) this.pos = 0;
+            return (float)(this.sum / this.window.length);
+        }
+    }
+
+    /** Exponential moving average. */
+    private static final class Exponential extends TrussStrainFilter
+    {
+        private final double alpha;
+        private double state;
+
+        Exponential(double alpha)
+        {
+            if (!(alpha > 0 && alpha <= 1)) throw new IllegalArgumentException("Smoothing factor must be in (0, 1]");
+            this.alpha = alpha;
+        }
+
+        @Override
+        protected void fill(float value)
+        {
+            this.state = value;
+        }
+
+        @Override
+        protected float next(float value)
+        {
+            this.state += this.alpha * (value - this.state);
+            return (float)this.state;
+        }
+    }
+
+    /** 2nd order Butterworth low-pass biquad, in direct form I. */
+    private static final class LowPass extends TrussStrainFilter
+    {
+        private final double b0, b1, b2, a1, a2;
+        private double x1, x2, y1, y2;
+
+        LowPass(double cutoffHz, double sampleHz)
+        {
+            if (!(cutoffHz > 0 && cutoffHz < sampleHz / 2))
+            {
+                throw new IllegalArgumentException("Low-pass cutoff must be between 0 and " + (sampleHz / 2) + " Hz");
+            }
+
+            double w0 = 2 * Math.PI * cutoffHz / sampleHz;
+            double cos = Math.cos(w0);
+            double alpha = Math.sin(w0) / Math.sqrt(2);
+            double a0 = 1 + alpha;
+            this.b0 = (1 - cos) / 2 / a0;
+            this.b1 = (1 - cos) / a0;
+            this.b2 = this.b0;
+            this.a1 = -2 * cos / a0;
+            this.a2 = (1 - alpha) / a0;
+        }
+
+        @Override
+        protected void fill(float value)
+        {
+            this.x1 = this.x2 = this.y1 = this.y2 = value;
+        }
+
+        @Override
+        protected float next(float value)
+        {
+            double y = this.b0 * value + this.b1 * this.x1 + this.b2 * this.x2 - this.a1 * this.y1 - this.a2 * this.y2;
+            this.x2 = this.x1;
+            this.x1 = value;
+            this.y2 = this.y1;
+            this.y1 = y;
+            return (float)y;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+/**
+ * Fixed capacity ring buffer of the recent telemetry samples. Each channel
+ * is a primitive float array and the sample times are a long array, so the
+ * buffer is allocated once and appending a sample does not create any
+ * objects. Every sample has a sequence number, starting at one, so a client
+ * can ask for only the samples after the last one it has seen.
+ * <p>
+ * Samples are appended by the DAQ poller and read by any number of request
+ * threads. Both briefly hold the history monitor.
+ */
+public class TrussTelemetryHistory
+{
+    /** Channels, the strain gauges are channels 0 to 9. */
+    public static final int CH_ANGLE = TrussTelemetrySnapshot.STRAIN_GAUGES;
+    public static final int CH_ANGLE_TARGET = CH_ANGLE + 1;
+    public static final int CH_LOAD = CH_ANGLE + 2;
+    public static final int CH_LOAD_TARGET = CH_ANGLE + 3;
+    public static final int CHANNELS = CH_ANGLE + 4;
+
+    /** Number of samples held. */
+    private final int capacity;
+
+    /** Channel values, indexed by channel then ring position. */
+    private final float values[][];
+
+    /** Sample times in milliseconds since the epoch. */
+    private final long timestamps[];
+
+    /** Unhealthy strain gauges of each sample, as a bit per gauge. */
+    private final int strainFaults[];
+
+    /** Sequence number of the last sample, zero if empty. */
+    private long sequence;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity number of samples held
+     */
+    public TrussTelemetryHistory(int capacity)
+    {
+        if (capacity < 1) throw new IllegalArgumentException("History capacity must be at least one sample");
+
+        this.capacity = capacity;
+        this.values = new float[CHANNELS][capacity];
+        this.timestamps = new long[capacity];
+        this.strainFaults = new int[capacity];
+    }
+
+    /**
+     * Appends the values of a snapshot, replacing the oldest sample if the
+     * history is full.
+     *
+     * @param snap telemetry snapshot
+     * @return sequence number of the sample
+     */
+    public synchronized long append(TrussTelemetrySnapshot snap)
+    {
+        int pos = (int)(this.sequence % this.capacity);
+
+        int faults = 0;
+        for (int i = 0; i < TrussTelemetrySnapshot.STRAIN_GAUGES; i++)
+        {
+            this.values[i][pos] = snap.getStrain(i);
+            if (snap.getStrainHealth(i) != 0) faults |= 1 << i;
+        }
+        this.values[CH_ANGLE][pos] = snap.getAngle();
+        this.values[CH_ANGLE_TARGET][pos] = snap.getAngleTarget();
+        this.values[CH_LOAD][pos] = snap.getLoad();
+        this.values[CH_LOAD_TARGET][pos] = snap.getLoadTarget();
+        this.strainFaults[pos] = faults;
+        this.timestamps[pos] = snap.getTimestamp();
+
+        return ++this.sequence;
+    }
+
+    /**
+     * Copies the samples after a sequence number. If samples after it have
+     * already been replaced, the copy starts at the oldest sample held.
+     *
+     * @param since sequence number of the last sample the caller has, zero for all
+     * @return samples after the sequence number, possibly none
+     */
+    public synchronized TrussHistoryRange since(long since)
+    {
+        long oldest = Math.max(1, this.sequence - this.capacity + 1);
+        long first = Math.max(since + 1, oldest);
+        int count = first > this.sequence ? 0 : (int)(this.sequence - first + 1);
+
+        float copy[][] = new float[CHANNELS][count];
+        long times[] = new long[count];
+        int faults[] = new int[count];
+
+        /* At most two contiguous runs, before and after the end of the ring. */
+        int pos = (int)((first - 1) % this.capacity);
+        int run = Math.min(count, this.capacity - pos);
+        for (int c = 0; c < CHANNELS; c++)
+        {
+            System.arraycopy(this.values[c], pos, copy[c], 0, run);
+            System.arraycopy(this.values[c], 0, copy[c], run, count - run);
+        }
+        System.arraycopy(this.timestamps, pos, times, 0, run);
+        System.arraycopy(this.timestamps, 0, times, run, count - run);
+        System.arraycopy(this.strainFaults, pos, faults, 0, run);
+        System.arraycopy(this.strainFaults, 0, faults, run, count - run);
+
+        return new TrussHistoryRange(first, copy, times, faults);
+    }
+
+    /**
+     * Downsamples the samples after a sequence number, in one pass over the
+     * ring without copying it.
+     *
+     * @param since sequence number of the last sample the caller has, zero for all
+     * @param maxPoints maximum number of samples kept of each channel, at least three
+     * @return downsampled samples after the sequence number
+     */
+    public synchronized TrussDownsampledHistory downsample(long since, int maxPoints)
+    {
+        long oldest = Math.max(1, this.sequence - this.capacity + 1);
+        long first = Math.max(since + 1, oldest);
+        int count = first > this.sequence ? 0 : (int)(this.sequence - first + 1);
+
+        TrussDownsampledHistory down = new TrussDownsampledHistory(first, this.sequence, count, maxPoints);
+        int start = (int)((first - 1) % this.capacity);
+        for (int c = 0; c < CHANNELS; c++)
+        {
+            /* Channel at a time, as the channels are sampled independently. */
+            float channel[] = this.values[c];
+            int fault = c < TrussTelemetrySnapshot.STRAIN_GAUGES ? 1 << c : 0;
+            int pos = start;
+            for (int s = 0; s < count; s++)
+            {
+                down.add(c, this.timestamps[pos], (this.strainFaults[pos] & fault) != 0 ? Float.NaN : channel[pos]);
+                if (++pos == this.capacity) pos = 0;
+            }
+        }
+        down.finish();
+        return down;
+    }
+
+    /**
+     * Returns the sequence number of the last sample.
+     *
+     * @return sequence number, zero if empty
+     */
+    public synchronized long getSequence()
+    {
+        return this.sequence;
+    }
+
+    /**
+     * Returns the number of samples held when full.
+     *
+     * @return capacity in samples
+     */
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+}
@@ -0,0 +1,303 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry;
+
+/**
+ * Immutable set of the telemetry values of both Arduinos as they were at the
+ * end of a poll cycle. The hardware interface builds one snapshot per cycle
+ * and publishes it through a volatile reference, so a reader gets a
+ * consistent set of values without taking any lock. The scalar values are
+ * held in two primitive arrays indexed by the <code>VAL_</code> and
+ * <code>STS_</code> constants.
+ */
+public final class TrussTelemetrySnapshot
+{
+    /** Number of strain gauges. */
+    public static final int STRAIN_GAUGES = 10;
+
+    /** Float values. */
+    public static final int VAL_ANGLE = 0;
+    public static final int VAL_ANGLE_TARGET = 1;
+    public static final int VAL_LOAD = 2;
+    public static final int VAL_LOAD_TARGET = 3;
+    public static final int VALUES = 4;
+
+    /** Integer status values. */
+    public static final int STS_ANGLE_MODE = 0;
+    public static final int STS_ANGLE_HEALTH = 1;
+    public static final int STS_LOAD_MODE = 2;
+    public static final int STS_LOAD_HEALTH = 3;
+    public static final int STS_DAQ_WATCHDOG = 4;
+    public static final int STS_CTRL_WATCHDOG = 5;
+    public static final int STS_DAQ_MODE = 6;
+    public static final int STS_CTRL_MODE = 7;
+    public static final int STS_RAW_DISTANCE = 8;
+    public static final int STS_REF_DISTANCE = 9;
+    public static final int STS_STEP_SIZE = 10;
+    public static final int STS_DAQ_LINK_DOWN = 11;
+    public static final int STS_CTRL_LINK_DOWN = 12;
+    public static final int STATUS = 13;
+
+    /** Publication sequence number, increases by one with each snapshot. */
+    private final long sequence;
+
+    /** Time the snapshot was built in milliseconds since the epoch. */
+    private final long timestamp;
+
+    /** Strain of each gauge relative to its zeroed base. */
+    private final float strain[];
+
+    /** Filtered strain of each gauge relative to its zeroed base. */
+    private final float filteredStrain[];
+
+    /** Health of each strain gauge, zero if healthy. */
+    private final int strainHealth[];
+
+    /** Float values indexed by the <code>VAL_</code> constants. */
+    private final float values[];
+
+    /** Status values indexed by the <code>STS_</code> constants. */
+    private final int status[];
+
+    /**
+     * Constructor of a snapshot whose strain is not filtered.
+     *
+     * @param sequence publication sequence number
+     * @param timestamp build time in milliseconds since the epoch
+     * @param strain zeroed strain of each gauge
+     * @param strainHealth health of each gauge
+     * @param values float values indexed by the <code>VAL_</code> constants
+     * @param status status values indexed by the <code>STS_</code> constants
+     */
+    public TrussTelemetrySnapshot(long sequence, long timestamp, float strain[], int strainHealth[],
+            float values[], int status[])
+    {
+        this(sequence, timestamp, strain, strain, strainHealth, values, status);
+    }
+
+    /**
+     * Constructor. The arrays are copied so the caller may reuse them.
+     *
+     * @param sequence publication sequence number
+     * @param timestamp build time in milliseconds since the epoch
+     * @param strain zeroed strain of each gauge
+     * @param filteredStrain zeroed strain of each gauge after its filter
+     * @param strainHealth health of each gauge
+     * @param values float values indexed by the <code>VAL_</code> constants
+     * @param status status values indexed by the <code>STS_</code> constants
+     */
+    public TrussTelemetrySnapshot(long sequence, long timestamp, float strain[], float filteredStrain[],
+            int strainHealth[], float values[], int status[])
+    {
+        if (strain.length != STRAIN_GAUGES || filteredStrain.length != STRAIN_GAUGES ||
+                strainHealth.length != STRAIN_GAUGES || values.length != VALUES || status.length != STATUS)
+        {
+            throw new IllegalArgumentException("Incorrect number of telemetry values");
+        }
+
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.strain = strain.clone();
+        this.filteredStrain = filteredStrain.clone();
+        this.strainHealth = strainHealth.clone();
+        this.values = values.clone();
+        this.status = status.clone();
+    }
+
+    public long getSequence()
+    {
+        return this.sequence;
+    }
+
+    public long getTimestamp()
+    {
+        return this.timestamp;
+    }
+
+    public float getStrain(int gauge)
+    {
+        return this.strain[gauge];
+    }
+
+    public float getFilteredStrain(int gauge)
+    {
+        return this.filteredStrain[gauge];
+    }
+
+    public int getStrainHealth(int gauge)
+    {
+        return this.strainHealth[gauge];
+    }
+
+    /**
+     * Returns a float value.
+     *
+     * @param index <code>VAL_</code> constant
+     * @return value
+     */
+    public float getValue(int index)
+    {
+        return this.values[index];
+    }
+
+    /**
+     * Returns a status value.
+     *
+     * @param index <code>STS_</code> constant
+     * @return value
+     */
+    public int getStatus(int index)
+    {
+        return this.status[index];
+    }
+
+    public float getAngle()
+    {
+        return this.values[VAL_ANGLE];
+    }
+
+    public float getAngleTarget()
+    {
+        return this.values[VAL_ANGLE_TARGET];
+    }
+
+    public float getLoad()
+    {
+        return this.values[VAL_LOAD];
+    }
+
+    public float getLoadTarget()
+    {
+        return this.values[VAL_LOAD_TARGET];
+    }
+
+    public int getAngleMode()
+    {
+        return this.status[STS_ANGLE_MODE];
+    }
+
+    public int getAngleHealth()
+    {
+        return this.status[STS_ANGLE_HEALTH];
+    }
+
+    public int getLoadMode()
+    {
+        return this.status[STS_LOAD_MODE];
+    }
+
+    public int getLoadHealth()
+    {
+        return this.status[STS_LOAD_HEALTH];
+    }
+
+    public int getDaqWatchdog()
+    {
+        return this.status[STS_DAQ_WATCHDOG];
+    }
+
+    public int getCtrlWatchdog()
+    {
+        return this.status[STS_CTRL_WATCHDOG];
+    }
+
+    public int getDaqMode()
+    {
+        return this.status[STS_DAQ_MODE];
+    }
+
+    public int getCtrlMode()
+    {
+        return this.status[STS_CTRL_MODE];
+    }
+
+    public int getRawDistance()
+    {
+        return this.status[STS_RAW_DISTANCE];
+    }
+
+    public int getRefDistance()
+    {
+        return this.status[STS_REF_DISTANCE];
+    }
+
+    public int getStepSize()
+    {
+        return this.status[STS_STEP_SIZE];
+    }
+
+    /**
+     * Returns the status of the DAQ link as reported to the page.
+     *
+     * @return 0 if ok, 1 if the watchdog has expired, 2 if not yet connected,
+     *         3 if the link is down and being reconnected
+     */
+    public int getDaqLinkStatus()
+    {
+        return linkStatus(this.status[STS_DAQ_WATCHDOG], this.status[STS_DAQ_LINK_DOWN]);
+    }
+
+    /**
+     * Returns the status of the CTRL link as reported to the page.
+     *
+     * @return 0 if ok, 1 if the watchdog has expired, 2 if not yet connected,
+     *         3 if the link is down and being reconnected
+     */
+    public int getCtrlLinkStatus()
+    {
+        return linkStatus(this.status[STS_CTRL_WATCHDOG], this.status[STS_CTRL_LINK_DOWN]);
+    }
+
+    private static int linkStatus(int watchdog, int down)
+    {
+        if (down != 0) return 3;
+        if (watchdog == 0) return 0;
+        if (watchdog == 999) return 2;
+        return 1;
+    }
+
+    /**
+     * Returns the snapshot as a JSON object with the same names as the
+     * 'getVals' primitive action results, plus the sequence number and
+     * timestamp. The strain and filtered strain of an unhealthy gauge are
+     * null.
+     *
+     * @return JSON text
+     */
+    public String toJson()
+    {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"seq\":").append(this.sequence);
+        json.append(",\"time\":").append(this.timestamp);
+        json.append(",\"stepsize\":").append(this.getStepSize());
+        json.append(",\"angle\":").append(this.getAngle());
+        json.append(",\"angletarget\":").append(this.getAngleTarget());
+        json.append(",\"anglemode\":").append(this.getAngleMode());
+        json.append(",\"anglehealth\":").append(this.getAngleHealth());
+        json.append(",\"load\":").append(this.getLoad());
+        json.append(",\"loadtarget\":").append(this.getLoadTarget());
+        json.append(",\"loadmode\":").append(this.getLoadMode());
+        json.append(",\"loadhealth\":").append(this.getLoadHealth());
+        this.appendStrain(json, "StrainValue", this.strain);
+        this.appendStrain(json, "FilteredStrainValue", this.filteredStrain);
+        json.append(",\"daqlinksts\":").append(this.getDaqLinkStatus());
+        json.append(",\"ctrllinksts\":").append(this.getCtrlLinkStatus());
+        json.append(",\"daqmode\":").append(this.getDaqMode());
+        json.append(",\"ctrlmode\":").append(this.getCtrlMode());
+        return json.append('}').toString();
+    }
+
+    private void appendStrain(StringBuilder json, String name, float strain[])
+    {
+        for (int i = 0; i < STRAIN_GAUGES; i++)
+        {
+            json.append(",\"").append(name).append(i + 1).append("\":");
+            if (this.strainHealth[i] == 0 && !Float.isNaN(strain[i]) && !Float.isInfinite(strain[i]))
+            {
+                json.append(strain[i]);
+            }
+            else
+            {
+                json.append("null");
+            }
+        }
+    }
+}
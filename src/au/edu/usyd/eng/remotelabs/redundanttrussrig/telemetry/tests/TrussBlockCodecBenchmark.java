@@ -0,0 +1,118 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import java.util.Random;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussBlockDecoder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussBlockEncoder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussSessionRecorder;
+
+/**
+ * Compares the size and decoding throughput of telemetry blocks with raw
+ * arrays of the same samples. This is not a test, it is run by hand:
+ * <pre>
+ * java au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests.TrussBlockCodecBenchmark [samples]
+ * </pre>
+ * The samples model a session recording at 30 snapshots a second, with
+ * slowly drifting noisy strain, a stepped angle and load, and rarely
+ * changing health.
+ */
+public class TrussBlockCodecBenchmark
+{
+    /** Number of timed passes over the samples. */
+    private static final int PASSES = 50;
+
+    public static void main(String args[])
+    {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 108000;
+        int columns = TrussSessionRecorder.COLUMNS;
+
+        long times[] = new long[samples];
+        long seqs[] = new long[samples];
+        int raw[][] = new int[columns][samples];
+        generate(times, seqs, raw);
+
+        TrussBlockEncoder encoder = new TrussBlockEncoder(columns, 1024);
+        int bits[] = new int[columns];
+        for (int s = 0; s < samples; s++)
+        {
+            for (int c = 0; c < columns; c++) bits[c] = raw[c][s];
+            encoder.append(times[s], seqs[s], bits);
+        }
+        long rawBytes = samples * (16L + 4L * columns);
+        System.out.println(samples + " samples of " + columns + " columns: raw " + rawBytes + " bytes, encoded " +
+                encoder.getLength() + " bytes (" + (rawBytes / encoder.getLength()) + "x smaller, " +
+                (encoder.getLength() * 8.0 / samples) + " bits a sample)");
+
+        TrussBlockDecoder decoder = new TrussBlockDecoder(columns);
+        long check = 0;
+        for (int w = 0; w < 10; w++)
+        {
+            check += decode(decoder, encoder, columns);
+            check += scan(times, seqs, raw);
+        }
+
+        long start = System.nanoTime();
+        for (int p = 0; p < PASSES; p++) check += decode(decoder, encoder, columns);
+        long decodeNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int p = 0; p < PASSES; p++) check += scan(times, seqs, raw);
+        long rawNs = System.nanoTime() - start;
+
+        System.out.println("Decode: " + rate(samples, decodeNs) + " samples/s, raw arrays: " +
+                rate(samples, rawNs) + " samples/s (" + check + ")");
+    }
+
+    private static void generate(long times[], long seqs[], int raw[][])
+    {
+        Random rand = new Random(1);
+        long time = 1287360000000L;
+        float strain[] = new float[10];
+        for (int s = 0; s < times.length; s++)
+        {
+            time += 33 + (s % 3 == 0 ? 1 : 0);
+            times[s] = time;
+            seqs[s] = s + 1;
+            for (int g = 0; g < 10; g++)
+            {
+                /* Readings are quantised by the ADC. */
+                strain[g] += (rand.nextInt(5) - 2) * 0.125f;
+                raw[g][s] = Float.floatToRawIntBits(strain[g]);
+            }
+            raw[10][s] = Float.floatToRawIntBits((s / 3000) * 0.5f);
+            raw[11][s] = Float.floatToRawIntBits((s / 3000) * 0.5f);
+            raw[12][s] = Float.floatToRawIntBits((s / 6000) * 2.0f);
+            raw[13][s] = Float.floatToRawIntBits((s / 6000) * 2.0f);
+            raw[14][s] = s % 20000 < 10 ? 1 : 0;
+            raw[15][s] = 0;
+        }
+    }
+
+    private static long decode(TrussBlockDecoder decoder, TrussBlockEncoder encoder, int columns)
+    {
+        long sum = 0;
+        decoder.reset(encoder.getBuffer(), 0, encoder.getCount());
+        while (decoder.next())
+        {
+            sum += decoder.getTimestamp() + decoder.getSequence();
+            for (int c = 0; c < columns; c++) sum += decoder.getBits(c);
+        }
+        return sum;
+    }
+
+    private static long scan(long times[], long seqs[], int raw[][])
+    {
+        long sum = 0;
+        for (int s = 0; s < times.length; s++)
+        {
+            sum += times[s] + seqs[s];
+            for (int c = 0; c < raw.length; c++) sum += raw[c][s];
+        }
+        return sum;
+    }
+
+    private static long rate(int samples, long ns)
+    {
+        return (long)(samples * (double)PASSES / (ns / 1e9));
+    }
+}
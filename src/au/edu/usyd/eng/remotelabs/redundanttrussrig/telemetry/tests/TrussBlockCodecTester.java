@@ -0,0 +1,116 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussBlockDecoder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussBlockEncoder;
+
+/**
+ * Tests the <code>TrussBlockEncoder</code> and <code>TrussBlockDecoder</code>
+ * classes.
+ */
+public class TrussBlockCodecTester extends TestCase
+{
+    /** Number of columns. */
+    private static final int COLUMNS = 4;
+
+    /** Encoder under test. */
+    private TrussBlockEncoder encoder;
+
+    /** Decoder under test. */
+    private TrussBlockDecoder decoder;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.encoder = new TrussBlockEncoder(COLUMNS, 16);
+        this.decoder = new TrussBlockDecoder(COLUMNS);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        assertEquals(0, this.encoder.getLength());
+        this.decoder.reset(this.encoder.getBuffer(), 0, 0);
+        assertFalse(this.decoder.next());
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        Random rand = new Random(42);
+        int n = 1000;
+        long times[] = new long[n];
+        long seqs[] = new long[n];
+        int bits[][] = new int[n][COLUMNS];
+
+        long time = 1287360000000L;
+        float strain = 100.0f;
+        for (int i = 0; i < n; i++)
+        {
+            /* Mostly steady with jitter, gaps and a clock step back. */
+            time += i == 500 ? -3000 : i % 100 == 99 ? 60000 : 100 + rand.nextInt(5) - 2;
+            strain += rand.nextFloat() - 0.5f;
+            times[i] = time;
+            seqs[i] = i % 300 == 299 ? seqs[i - 1] + 7 : i + 1;
+            bits[i][0] = Float.floatToRawIntBits(strain);
+            bits[i][1] = Float.floatToRawIntBits(i % 50 == 0 ? Float.NaN : -strain);
+            bits[i][2] = i % 10 == 0 ? 0x1 << (i % 10) : 0;
+            bits[i][3] = rand.nextInt();
+            this.encoder.append(times[i], seqs[i], bits[i]);
+        }
+        assertEquals(n, this.encoder.getCount());
+
+        this.decoder.reset(this.encoder.getBuffer(), 0, this.encoder.getCount());
+        for (int i = 0; i < n; i++)
+        {
+            assertTrue(this.decoder.next());
+            assertEquals(times[i], this.decoder.getTimestamp());
+            assertEquals(seqs[i], this.decoder.getSequence());
+            for (int c = 0; c < COLUMNS; c++) assertEquals(bits[i][c], this.decoder.getBits(c));
+        }
+        assertFalse(this.decoder.next());
+        assertEquals(Float.intBitsToFloat(bits[n - 1][0]), this.decoder.getFloat(0), 0.0f);
+    }
+
+    @Test
+    public void testCompression()
+    {
+        int bits[] = new int[COLUMNS];
+        for (int i = 0; i < 600; i++)
+        {
+            /* Slowly changing readings sampled at a steady rate. */
+            bits[0] = Float.floatToRawIntBits(100.0f + (i / 20) * 0.25f);
+            bits[1] = Float.floatToRawIntBits(45.0f);
+            this.encoder.append(i * 100L, i, bits);
+        }
+
+        int raw = 600 * (16 + 4 * COLUMNS);
+        assertTrue("Encoded " + this.encoder.getLength() + " bytes", this.encoder.getLength() * 8 < raw);
+    }
+
+    @Test
+    public void testReset()
+    {
+        int bits[] = { 1, 2, 3, 4 };
+        for (int i = 0; i < 10; i++) this.encoder.append(i, i, bits);
+        this.encoder.reset();
+        assertEquals(0, this.encoder.getCount());
+        assertEquals(0, this.encoder.getLength());
+
+        bits[0] = 99;
+        this.encoder.append(5000, 7, bits);
+        this.decoder.reset(this.encoder.getBuffer(), 0, 1);
+        assertTrue(this.decoder.next());
+        assertEquals(5000, this.decoder.getTimestamp());
+        assertEquals(7, this.decoder.getSequence());
+        assertEquals(99, this.decoder.getBits(0));
+        assertEquals(4, this.decoder.getBits(3));
+    }
+}
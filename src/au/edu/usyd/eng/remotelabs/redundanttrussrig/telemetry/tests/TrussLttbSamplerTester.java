@@ -0,0 +1,100 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussLttbSampler;
+
+/**
+ * Tests the <code>TrussLttbSampler</code> class.
+ */
+public class TrussLttbSamplerTester extends TestCase
+{
+    @Test
+    public void testPassThrough()
+    {
+        TrussLttbSampler sampler = new TrussLttbSampler(5, 10);
+        for (int i = 0; i < 5; i++) sampler.add(i * 10L, i);
+        sampler.finish();
+
+        assertEquals(5, sampler.size());
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals(i * 10L, sampler.getTime(i));
+            assertEquals((float)i, sampler.getValue(i));
+        }
+    }
+
+    @Test
+    public void testFirstAndLastKept()
+    {
+        TrussLttbSampler sampler = new TrussLttbSampler(1000, 50);
+        for (int i = 0; i < 1000; i++) sampler.add(i, (float)Math.sin(i / 30.0));
+        sampler.finish();
+
+        assertEquals(50, sampler.size());
+        assertEquals(0L, sampler.getTime(0));
+        assertEquals(999L, sampler.getTime(49));
+        for (int i = 1; i < 50; i++) assertTrue(sampler.getTime(i) > sampler.getTime(i - 1));
+    }
+
+    @Test
+    public void testPeakKept()
+    {
+        TrussLttbSampler sampler = new TrussLttbSampler(10000, 20);
+        for (int i = 0; i < 10000; i++) sampler.add(i, i == 4321 ? 100.0f : 0.0f);
+        sampler.finish();
+
+        boolean peak = false;
+        for (int i = 0; i < sampler.size(); i++) peak |= sampler.getTime(i) == 4321 && sampler.getValue(i) == 100.0f;
+        assertTrue(peak);
+        assertTrue(sampler.size() <= 20);
+    }
+
+    @Test
+    public void testNaNNotKept()
+    {
+        TrussLttbSampler sampler = new TrussLttbSampler(100, 10);
+        for (int i = 0; i < 100; i++) sampler.add(i, i % 2 == 0 || i == 99 ? Float.NaN : i);
+        sampler.finish();
+
+        assertTrue(sampler.size() > 0);
+        assertTrue(sampler.size() <= 10);
+        for (int i = 0; i < sampler.size(); i++)
+        {
+            assertFalse(Float.isNaN(sampler.getValue(i)));
+            assertEquals(1L, sampler.getTime(i) % 2);
+        }
+    }
+
+    @Test
+    public void testTooFewPoints()
+    {
+        try
+        {
+            new TrussLttbSampler(100, 2);
+            fail("Two points accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testTooManySamples()
+    {
+        TrussLttbSampler sampler = new TrussLttbSampler(1, 3);
+        sampler.add(0, 1.0f);
+        try
+        {
+            sampler.add(1, 1.0f);
+            fail("Uncounted sample accepted");
+        }
+        catch (IllegalStateException e)
+        {
+            /* Expected. */
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussRecordingExporter;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussSessionRecorder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetrySnapshot;
+
+/**
+ * Tests the <code>TrussRecordingExporter</code> class.
+ */
+public class TrussRecordingExporterTester extends TestCase
+{
+    /** Recorder of the exported recordings. */
+    private TrussSessionRecorder recorder;
+
+    /** Recording directory. */
+    private File dir;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "trussexp-" + System.nanoTime());
+        this.recorder = new TrussSessionRecorder(this.dir, 2, 256);
+        assertTrue(this.recorder.startSession("user1"));
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception
+    {
+        this.recorder.endSession();
+        File files[] = this.dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        this.dir.delete();
+    }
+
+    @Test
+    public void testExport() throws Exception
+    {
+        for (int i = 1; i <= 3; i++) this.recorder.append(this.snapshot(i));
+        this.recorder.closeRecording();
+
+        StringWriter out = new StringWriter();
+        assertEquals(3, new TrussRecordingExporter(0).export(this.recorder.getSessionRecordings(), out));
+
+        String lines[] = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("time,sequence,angle,angletarget,load,loadtarget,StrainValue1,"));
+        assertTrue(lines[0].endsWith(",StrainValue10,anglehealth,loadhealth"));
+        assertEquals("2000,2,2.0,0.0,-2.0,0.0,20.0,0.0,0.0,NaN,0.0,0.0,0.0,0.0,0.0,0.0,1,0", lines[2]);
+    }
+
+    @Test
+    public void testExportOpenRecording() throws Exception
+    {
+        for (int i = 1; i <= 5; i++) this.recorder.append(this.snapshot(i));
+        this.recorder.closeRecording();
+        for (int i = 1; i <= 3; i++) this.recorder.append(this.snapshot(i));
+
+        /* The sealed recording and every record of the one still being written, including its part block. */
+        List<File> recordings = this.recorder.getSessionRecordings();
+        assertEquals(2, recordings.size());
+
+        StringWriter out = new StringWriter();
+        assertEquals(8, new TrussRecordingExporter(0).export(recordings, out));
+    }
+
+    @Test
+    public void testDecimate() throws Exception
+    {
+        for (int i = 1; i <= 100; i++) this.recorder.append(this.snapshot(i));
+        this.recorder.closeRecording();
+        List<File> recordings = this.recorder.getSessionRecordings();
+
+        StringWriter out = new StringWriter();
+        assertEquals(10, new TrussRecordingExporter(10).export(recordings, out));
+        String lines[] = out.toString().split("\n");
+        assertTrue(lines[1].startsWith("1000,1,"));
+        assertTrue(lines[2].startsWith("11000,11,"));
+
+        /* Rounds the stride up so there are never more rows than asked for. */
+        out = new StringWriter();
+        assertEquals(34, new TrussRecordingExporter(40).export(recordings, out));
+
+        out = new StringWriter();
+        assertEquals(100, new TrussRecordingExporter(1000).export(recordings, out));
+    }
+
+    @Test
+    public void testExportFile() throws Exception
+    {
+        this.recorder.append(this.snapshot(1));
+        this.recorder.closeRecording();
+        File rec = this.recorder.getRecordings().iterator().next();
+
+        File csv = TrussRecordingExporter.exportFile(rec);
+        assertEquals(rec.getParentFile(), csv.getParentFile());
+        assertTrue(csv.getName().endsWith("-1.csv"));
+
+        List<File> recordings = new ArrayList<File>();
+        recordings.add(rec);
+        assertEquals(1, new TrussRecordingExporter(0).export(recordings, csv));
+        assertTrue(csv.length() > 0);
+    }
+
+    @Test
+    public void testNotRecording() throws Exception
+    {
+        File bad = new File(this.dir, "bad" + TrussSessionRecorder.EXTENSION);
+        new FileOutputStream(bad).close();
+
+        List<File> recordings = new ArrayList<File>();
+        recordings.add(bad);
+        try
+        {
+            new TrussRecordingExporter(0).export(recordings, new StringWriter());
+            fail("Exported a file that is not a recording");
+        }
+        catch (IOException e)
+        {
+            /* Expected. */
+        }
+    }
+
+    private TrussTelemetrySnapshot snapshot(int i)
+    {
+        float strain[] = new float[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        int health[] = new int[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        strain[0] = i * 10.0f;
+        health[3] = 1;
+
+        float values[] = new float[TrussTelemetrySnapshot.VALUES];
+        values[TrussTelemetrySnapshot.VAL_ANGLE] = i;
+        values[TrussTelemetrySnapshot.VAL_LOAD] = -i;
+
+        int status[] = new int[TrussTelemetrySnapshot.STATUS];
+        status[TrussTelemetrySnapshot.STS_ANGLE_HEALTH] = 1;
+
+        return new TrussTelemetrySnapshot(i, i * 1000L, strain, health, values, status);
+    }
+}
@@ -0,0 +1,265 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussRecordingReader;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussSessionRecorder;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetryHistory;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetrySnapshot;
+
+/**
+ * Tests the <code>TrussSessionRecorder</code> class.
+ */
+public class TrussSessionRecorderTester extends TestCase
+{
+    /** Recorder under test. */
+    private TrussSessionRecorder recorder;
+
+    /** Recording directory. */
+    private File dir;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "trussrec-" + System.nanoTime());
+        this.recorder = new TrussSessionRecorder(this.dir, 2, 64);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception
+    {
+        this.recorder.endSession();
+        File files[] = this.dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        this.dir.delete();
+    }
+
+    @Test
+    public void testNotRecordingOutsideSession()
+    {
+        this.recorder.append(this.snapshot(1));
+        this.recorder.closeRecording();
+        assertFalse(this.recorder.isRecording());
+        assertEquals(0, this.recorder.getRecordings().size());
+        assertFalse(this.dir.exists());
+    }
+
+    @Test
+    public void testRecord() throws Exception
+    {
+        assertTrue(this.recorder.startSession("user1"));
+        assertTrue(this.recorder.isRecording());
+
+        /* Writes a part block, grows the mapping and ignores the out of order snapshot. */
+        for (int i = 1; i <= 5; i++) this.recorder.append(this.snapshot(i));
+        this.recorder.append(this.snapshot(3));
+        assertEquals(0, this.recorder.getRecordings().size());
+
+        this.recorder.endSession();
+        assertFalse(this.recorder.isRecording());
+
+        Set<File> files = this.recorder.getRecordings();
+        assertEquals(1, files.size());
+        File file = files.iterator().next();
+        assertTrue(file.getName().startsWith("user1-"));
+        assertTrue(file.getName().endsWith(TrussSessionRecorder.EXTENSION));
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            assertEquals(TrussSessionRecorder.MAGIC, in.readInt());
+            assertEquals(TrussSessionRecorder.VERSION, in.readShort());
+            assertEquals(TrussSessionRecorder.COLUMNS, in.readShort());
+            assertEquals(1000L, in.readLong());
+            assertEquals(5L, in.readLong());
+
+            /* Trimmed to the blocks. */
+            assertEquals(file.length() - TrussSessionRecorder.HEADER_SIZE, in.readLong());
+        }
+        finally
+        {
+            in.close();
+        }
+
+        TrussRecordingReader reader = new TrussRecordingReader(file);
+        try
+        {
+            assertEquals(1000L, reader.getStartTime());
+            assertEquals(5L, reader.getRecordCount());
+            for (int i = 1; i <= 5; i++)
+            {
+                assertTrue(reader.next());
+                this.assertRecord(reader, i);
+            }
+            assertFalse(reader.next());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRecordingPerRun()
+    {
+        assertTrue(this.recorder.startSession("user1"));
+        this.recorder.append(this.snapshot(1));
+        this.recorder.closeRecording();
+
+        /* A restarted hardware interface starts its sequence numbers again. */
+        this.recorder.append(this.snapshot(0));
+        this.recorder.endSession();
+        assertEquals(2, this.recorder.getRecordings().size());
+
+        /* The next session forgets the recordings of the last. */
+        assertTrue(this.recorder.startSession("user2"));
+        assertEquals(0, this.recorder.getRecordings().size());
+    }
+
+    @Test
+    public void testAppendDoesNotWait() throws Exception
+    {
+        assertTrue(this.recorder.startSession("user1"));
+
+        Thread poller = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 1; i <= 5; i++) TrussSessionRecorderTester.this.recorder.append(
+                        TrussSessionRecorderTester.this.snapshot(i));
+            }
+        };
+
+        /* A poller appending is not held up by the recorder writing. */
+        synchronized (this.recorder)
+        {
+            poller.start();
+            poller.join(2000);
+            assertFalse(poller.isAlive());
+        }
+
+        this.recorder.endSession();
+        TrussRecordingReader reader = new TrussRecordingReader(this.recorder.getRecordings().iterator().next());
+        try
+        {
+            assertEquals(5L, reader.getRecordCount());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReadOpenRecording() throws Exception
+    {
+        assertTrue(this.recorder.startSession("user1"));
+
+        /* A full block and a part block, which is written again as it fills. */
+        for (int i = 1; i <= 3; i++) this.recorder.append(this.snapshot(i));
+        List<File> files = this.recorder.getSessionRecordings();
+        assertEquals(1, files.size());
+        this.assertRecords(files.get(0), 3);
+
+        for (int i = 4; i <= 5; i++) this.recorder.append(this.snapshot(i));
+        this.assertRecords(this.recorder.getSessionRecordings().get(0), 5);
+        assertEquals(0, this.recorder.getRecordings().size());
+    }
+
+    @Test
+    public void testOpenBlockWritten() throws Exception
+    {
+        this.recorder.endSession();
+        this.recorder = new TrussSessionRecorder(this.dir, 128, 64, 20);
+        assertTrue(this.recorder.startSession("user1"));
+        this.recorder.append(this.snapshot(1));
+
+        /* Written by the recorder thread without the recording being sealed or read through the recorder. */
+        long records = 0;
+        for (int i = 0; i < 100 && records == 0; i++)
+        {
+            Thread.sleep(20);
+            File files[] = this.dir.listFiles();
+            if (files == null || files.length == 0) continue;
+
+            TrussRecordingReader reader = new TrussRecordingReader(files[0]);
+            try
+            {
+                records = reader.getRecordCount();
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        assertEquals(1L, records);
+    }
+
+    private void assertRecords(File file, int count) throws Exception
+    {
+        TrussRecordingReader reader = new TrussRecordingReader(file);
+        try
+        {
+            assertEquals(count, reader.getRecordCount());
+            for (int i = 1; i <= count; i++)
+            {
+                assertTrue(reader.next());
+                this.assertRecord(reader, i);
+            }
+            assertFalse(reader.next());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private void assertRecord(TrussRecordingReader reader, int i)
+    {
+        assertEquals(i * 1000L, reader.getTimestamp());
+        assertEquals(i, reader.getSequence());
+        for (int g = 0; g < TrussTelemetrySnapshot.STRAIN_GAUGES; g++)
+        {
+            assertEquals(g == 0 ? i * 10.0f : 0.0f, reader.getValue(g));
+            assertEquals(g != 3, reader.isStrainHealthy(g));
+        }
+        assertEquals((float)i, reader.getValue(TrussTelemetryHistory.CH_ANGLE));
+        assertEquals(0.0f, reader.getValue(TrussTelemetryHistory.CH_ANGLE_TARGET));
+        assertEquals((float)-i, reader.getValue(TrussTelemetryHistory.CH_LOAD));
+        assertEquals(0.0f, reader.getValue(TrussTelemetryHistory.CH_LOAD_TARGET));
+        assertEquals(2, reader.getAngleHealth());
+        assertEquals(0, reader.getLoadHealth());
+    }
+
+    private TrussTelemetrySnapshot snapshot(int i)
+    {
+        float strain[] = new float[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        int health[] = new int[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        strain[0] = i * 10.0f;
+        health[3] = 1;
+
+        float values[] = new float[TrussTelemetrySnapshot.VALUES];
+        values[TrussTelemetrySnapshot.VAL_ANGLE] = i;
+        values[TrussTelemetrySnapshot.VAL_LOAD] = -i;
+
+        int status[] = new int[TrussTelemetrySnapshot.STATUS];
+        status[TrussTelemetrySnapshot.STS_ANGLE_HEALTH] = 2;
+        status[TrussTelemetrySnapshot.STS_DAQ_WATCHDOG] = 999;
+        status[TrussTelemetrySnapshot.STS_CTRL_WATCHDOG] = 999;
+
+        return new TrussTelemetrySnapshot(i, i * 1000L, strain, health, values, status);
+    }
+}
@@ -0,0 +1,96 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussStrainFilter;
+
+/**
+ * Tests the <code>TrussStrainFilter</code> class.
+ */
+public class TrussStrainFilterTester extends TestCase
+{
+    @Test
+    public void testNone()
+    {
+        TrussStrainFilter filter = TrussStrainFilter.parse("none", 10);
+        assertTrue(Float.isNaN(filter.getOutput()));
+        assertEquals(1.5f, filter.filter(1.5f));
+        assertEquals(-2.0f, filter.filter(-2.0f));
+    }
+
+    @Test
+    public void testMovingAverage()
+    {
+        TrussStrainFilter filter = TrussStrainFilter.parse("average 4", 10);
+
+        /* The first reading fills the window. */
+        assertEquals(8.0f, filter.filter(8.0f));
+        assertEquals(6.0f, filter.filter(0.0f));
+        assertEquals(4.0f, filter.filter(0.0f));
+        assertEquals(2.0f, filter.filter(0.0f));
+        assertEquals(0.0f, filter.filter(0.0f));
+        assertEquals(1.0f, filter.filter(4.0f));
+    }
+
+    @Test
+    public void testExponential()
+    {
+        TrussStrainFilter filter = TrussStrainFilter.parse("Exponential 0.5", 10);
+        assertEquals(4.0f, filter.filter(4.0f));
+        assertEquals(2.0f, filter.filter(0.0f));
+        assertEquals(1.0f, filter.filter(0.0f));
+    }
+
+    @Test
+    public void testLowPass()
+    {
+        TrussStrainFilter filter = TrussStrainFilter.parse("lowpass 1", 10);
+
+        /* Steady readings pass unchanged. */
+        for (int i = 0; i < 10; i++) assertEquals(5.0f, filter.filter(5.0f), 1e-5f);
+
+        /* Settles on a step with unity gain. */
+        for (int i = 0; i < 100; i++) filter.filter(10.0f);
+        assertEquals(10.0f, filter.getOutput(), 1e-3f);
+
+        /* Noise at the Nyquist rate is removed. */
+        filter.reset();
+        float max = 0;
+        for (int i = 0; i < 200; i++)
+        {
+            float out = filter.filter(i % 2 == 0 ? 1.0f : -1.0f);
+            if (i > 100) max = Math.max(max, Math.abs(out));
+        }
+        assertTrue(max < 0.01f);
+    }
+
+    @Test
+    public void testNaNHeld()
+    {
+        TrussStrainFilter filter = TrussStrainFilter.parse("exponential 0.5", 10);
+        assertTrue(Float.isNaN(filter.filter(Float.NaN)));
+        assertEquals(4.0f, filter.filter(4.0f));
+        assertEquals(4.0f, filter.filter(Float.NaN));
+        assertEquals(2.0f, filter.filter(0.0f));
+    }
+
+    @Test
+    public void testInvalid()
+    {
+        String specs[] = { "average", "average 0", "exponential 1.5", "lowpass 5", "lowpass x", "median 3" };
+        for (String spec : specs)
+        {
+            try
+            {
+                TrussStrainFilter.parse(spec, 10);
+                fail("Filter '" + spec + "' accepted");
+            }
+            catch (IllegalArgumentException e)
+            {
+                /* Expected. */
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussDownsampledHistory;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussHistoryRange;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussLttbSampler;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetryHistory;
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetrySnapshot;
+
+/**
+ * Tests the <code>TrussTelemetryHistory</code> class.
+ */
+public class TrussTelemetryHistoryTester extends TestCase
+{
+    /** History under test. */
+    private TrussTelemetryHistory history;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.history = new TrussTelemetryHistory(5);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        TrussHistoryRange range = this.history.since(0);
+        assertEquals(0, range.size());
+        assertEquals(1, range.getFirstSequence());
+        assertEquals(0, range.getLastSequence());
+    }
+
+    @Test
+    public void testSince()
+    {
+        for (int i = 1; i <= 3; i++) assertEquals(i, this.history.append(this.snapshot(i)));
+
+        TrussHistoryRange range = this.history.since(0);
+        assertEquals(3, range.size());
+        assertEquals(1, range.getFirstSequence());
+        assertEquals(3, range.getLastSequence());
+        assertEquals(1000L, range.getTimestamp(0));
+        assertEquals(3.0f, range.getValue(TrussTelemetryHistory.CH_ANGLE, 2));
+        assertEquals(-3.0f, range.getValue(TrussTelemetryHistory.CH_LOAD, 2));
+        assertEquals(30.0f, range.getValue(0, 2));
+
+        range = this.history.since(2);
+        assertEquals(1, range.size());
+        assertEquals(3, range.getFirstSequence());
+        assertEquals(3000L, range.getTimestamp(0));
+
+        /* Nothing new. */
+        range = this.history.since(3);
+        assertEquals(0, range.size());
+        assertEquals(3, range.getLastSequence());
+    }
+
+    @Test
+    public void testWrapAround()
+    {
+        for (int i = 1; i <= 12; i++) this.history.append(this.snapshot(i));
+
+        /* Only the last five samples are held. */
+        TrussHistoryRange range = this.history.since(0);
+        assertEquals(5, range.size());
+        assertEquals(8, range.getFirstSequence());
+        assertEquals(12, range.getLastSequence());
+        for (int s = 0; s < range.size(); s++)
+        {
+            assertEquals((8 + s) * 1000L, range.getTimestamp(s));
+            assertEquals(8.0f + s, range.getValue(TrussTelemetryHistory.CH_ANGLE, s));
+        }
+
+        range = this.history.since(10);
+        assertEquals(2, range.size());
+        assertEquals(11.0f, range.getValue(TrussTelemetryHistory.CH_ANGLE, 0));
+    }
+
+    @Test
+    public void testRangeUnchangedByAppend()
+    {
+        this.history.append(this.snapshot(1));
+        TrussHistoryRange range = this.history.since(0);
+        for (int i = 2; i <= 10; i++) this.history.append(this.snapshot(i));
+        assertEquals(1.0f, range.getValue(TrussTelemetryHistory.CH_ANGLE, 0));
+    }
+
+    @Test
+    public void testStrainHealth()
+    {
+        this.history.append(this.snapshot(1));
+        TrussHistoryRange range = this.history.since(0);
+        assertTrue(range.isStrainHealthy(0, 0));
+        assertFalse(range.isStrainHealthy(3, 0));
+    }
+
+    @Test
+    public void testDownsample()
+    {
+        for (int i = 1; i <= 12; i++) this.history.append(this.snapshot(i));
+
+        TrussDownsampledHistory down = this.history.downsample(0, 3);
+        assertEquals(8, down.getFirstSequence());
+        assertEquals(12, down.getLastSequence());
+        TrussLttbSampler angle = down.getChannel(TrussTelemetryHistory.CH_ANGLE);
+        assertEquals(3, angle.size());
+        assertEquals(8000L, angle.getTime(0));
+        assertEquals(12.0f, angle.getValue(2));
+
+        /* The unhealthy gauge is not drawn. */
+        assertEquals(0, down.getChannel(3).size());
+
+        down = this.history.downsample(10, 3);
+        assertEquals(2, down.getChannel(0).size());
+        assertEquals(110.0f, down.getChannel(0).getValue(0));
+    }
+
+    private TrussTelemetrySnapshot snapshot(int i)
+    {
+        float strain[] = new float[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        int health[] = new int[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        strain[0] = i * 10.0f;
+        health[3] = 1;
+
+        float values[] = new float[TrussTelemetrySnapshot.VALUES];
+        values[TrussTelemetrySnapshot.VAL_ANGLE] = i;
+        values[TrussTelemetrySnapshot.VAL_LOAD] = -i;
+
+        return new TrussTelemetrySnapshot(i, i * 1000L, strain, health, values,
+                new int[TrussTelemetrySnapshot.STATUS]);
+    }
+}
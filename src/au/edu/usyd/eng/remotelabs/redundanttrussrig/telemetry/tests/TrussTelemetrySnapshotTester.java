@@ -0,0 +1,127 @@
+package au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.usyd.eng.remotelabs.redundanttrussrig.telemetry.TrussTelemetrySnapshot;
+
+/**
+ * Tests the <code>TrussTelemetrySnapshot</code> class.
+ */
+public class TrussTelemetrySnapshotTester extends TestCase
+{
+    /** Values the snapshot is built from. */
+    private float strain[];
+    private int health[];
+    private float values[];
+    private int status[];
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.strain = new float[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        this.health = new int[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        for (int i = 0; i < this.strain.length; i++)
+        {
+            this.strain[i] = i * 1.5f;
+            this.health[i] = i % 2;
+        }
+
+        this.values = new float[TrussTelemetrySnapshot.VALUES];
+        this.values[TrussTelemetrySnapshot.VAL_ANGLE] = 12.5f;
+        this.values[TrussTelemetrySnapshot.VAL_LOAD_TARGET] = -3.0f;
+
+        this.status = new int[TrussTelemetrySnapshot.STATUS];
+        this.status[TrussTelemetrySnapshot.STS_CTRL_MODE] = 20;
+        this.status[TrussTelemetrySnapshot.STS_DAQ_WATCHDOG] = 999;
+        this.status[TrussTelemetrySnapshot.STS_STEP_SIZE] = 10;
+    }
+
+    @Test
+    public void testValues()
+    {
+        TrussTelemetrySnapshot snap = new TrussTelemetrySnapshot(7, 1234L,
+                this.strain, this.health, this.values, this.status);
+        assertEquals(7, snap.getSequence());
+        assertEquals(1234L, snap.getTimestamp());
+        assertEquals(4.5f, snap.getStrain(3));
+        assertEquals(1, snap.getStrainHealth(3));
+        assertEquals(12.5f, snap.getAngle());
+        assertEquals(-3.0f, snap.getLoadTarget());
+        assertEquals(0.0f, snap.getLoad());
+        assertEquals(20, snap.getCtrlMode());
+        assertEquals(999, snap.getDaqWatchdog());
+        assertEquals(10, snap.getStepSize());
+        assertEquals(20, snap.getStatus(TrussTelemetrySnapshot.STS_CTRL_MODE));
+    }
+
+    @Test
+    public void testLinkStatus()
+    {
+        this.status[TrussTelemetrySnapshot.STS_CTRL_WATCHDOG] = 1;
+        TrussTelemetrySnapshot snap = new TrussTelemetrySnapshot(0, 0,
+                this.strain, this.health, this.values, this.status);
+        assertEquals(2, snap.getDaqLinkStatus());
+        assertEquals(1, snap.getCtrlLinkStatus());
+
+        /* A link that is down is reported as down whatever its watchdog. */
+        this.status[TrussTelemetrySnapshot.STS_DAQ_LINK_DOWN] = 1;
+        this.status[TrussTelemetrySnapshot.STS_CTRL_LINK_DOWN] = 1;
+        snap = new TrussTelemetrySnapshot(0, 0, this.strain, this.health, this.values, this.status);
+        assertEquals(3, snap.getDaqLinkStatus());
+        assertEquals(3, snap.getCtrlLinkStatus());
+        assertTrue(snap.toJson().contains("\"daqlinksts\":3"));
+    }
+
+    @Test
+    public void testFilteredStrain()
+    {
+        float filtered[] = new float[TrussTelemetrySnapshot.STRAIN_GAUGES];
+        filtered[2] = 2.5f;
+        TrussTelemetrySnapshot snap = new TrussTelemetrySnapshot(0, 0,
+                this.strain, filtered, this.health, this.values, this.status);
+        assertEquals(3.0f, snap.getStrain(2));
+        assertEquals(2.5f, snap.getFilteredStrain(2));
+        assertTrue(snap.toJson().contains("\"FilteredStrainValue3\":2.5"));
+        assertTrue(snap.toJson().contains("\"FilteredStrainValue4\":null"));
+
+        /* Unfiltered snapshots publish the raw strain. */
+        snap = new TrussTelemetrySnapshot(0, 0, this.strain, this.health, this.values, this.status);
+        assertEquals(3.0f, snap.getFilteredStrain(2));
+    }
+
+    @Test
+    public void testImmutable()
+    {
+        TrussTelemetrySnapshot snap = new TrussTelemetrySnapshot(0, 0,
+                this.strain, this.health, this.values, this.status);
+
+        /* The poller reuses its arrays for the next snapshot. */
+        this.strain[0] = 100.0f;
+        this.health[0] = 1;
+        this.values[TrussTelemetrySnapshot.VAL_ANGLE] = 0.0f;
+        this.status[TrussTelemetrySnapshot.STS_CTRL_MODE] = 31;
+
+        assertEquals(0.0f, snap.getStrain(0));
+        assertEquals(0, snap.getStrainHealth(0));
+        assertEquals(12.5f, snap.getAngle());
+        assertEquals(20, snap.getCtrlMode());
+    }
+
+    @Test
+    public void testWrongLength()
+    {
+        try
+        {
+            new TrussTelemetrySnapshot(0, 0, new float[3], this.health, this.values, this.status);
+            fail("Short strain array should be rejected");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* Expected. */
+        }
+    }
+}
@@ -930,9 +930,6 @@ public abstract class AbstractRig implements IRig
             return false;
         }
         
-        /* Notify the data transfer service that the session has completed. */
-        this.dataTransfer.sessionComplete();
-        
         /* Revoke any running batch control operations. */
         if (this instanceof IRigControl)
         {
@@ -952,6 +949,11 @@ public abstract class AbstractRig implements IRig
             /* Clear the primitive control cache. */
             controlRig.expungePrimitiveControllerCache();
         }
+        
+        /* Notify the data transfer service that the session has completed. This
+         * is after batch and primitive control have stopped so the files they
+         * finish writing as they stop are detected as session files. */
+        this.dataTransfer.sessionComplete();
 
         String user = null;
         Session perm;
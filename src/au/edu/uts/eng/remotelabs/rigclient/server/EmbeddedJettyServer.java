@@ -67,13 +67,17 @@ import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
 import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
 
 /**
- * Embedded Jetty Server set up to handle SOAP requests.
+ * Embedded Jetty Server set up to handle SOAP requests and the telemetry
+ * stream.
  */
 public class EmbeddedJettyServer implements IServer
 {
     /** Address post-fix for the service URL. */
     public static final String URL_POSTFIX = "/services/RigClientService";
     
+    /** Path of the telemetry stream servlet. */
+    public static final String TELEMETRY_STREAM_PATH = "/stream/telemetry";
+    
     /** Jetty server. */
     private Server server;
     
@@ -204,6 +208,10 @@ public class EmbeddedJettyServer implements IServer
         holder.setInitParameter("axis2.repository.url", repoURL.toURI().toString());
         this.context.addServlet(holder, "/services/*");
         
+        /* The telemetry stream is served as long polls which are suspended
+         * while they wait, so watching clients do not hold request threads. */
+        this.context.addServlet(new ServletHolder(new TelemetryStreamServlet()), TELEMETRY_STREAM_PATH);
+        
         /* --------------------------------------------------------------------
          * ---- 5. Add the default handler (not the SOAP service). ------------
          * ------------------------------------------------------------------*/
@@ -129,7 +129,7 @@ public class RootServlet extends HttpServlet
             boolean authenticated = session.getAttribute("authenticated") != null;
             if (!authenticated && "POST".equalsIgnoreCase(req.getMethod()))
             {
-                if (this.authenticate(req))
+                if (RootServlet.authenticate(req))
                 {
                     session.setAttribute("authenticated", new Date());
                     authenticated = true;
@@ -215,12 +215,13 @@ public class RootServlet extends HttpServlet
      * Attempts to authenticate the request. The request may be successful if
      * the request provides the correct username / password pair in the 
      * attributes 'username' and 'password' or the correct identity token is
-     * provided in the 'identtok' attribute. 
+     * provided in the 'identtok' attribute. This is also used to
+     * authenticate telemetry stream polls.
      * 
      * @param req request
      * @return true if authenticate succeeds
      */
-    private boolean authenticate(final HttpServletRequest req)
+    static boolean authenticate(final HttpServletRequest req)
     {
         IConfig config = ConfigFactory.getInstance();
         
@@ -0,0 +1,356 @@
+/**
+ * SAHARA Rig Client
+ *
+ * Software abstraction of physical rig to provide rig session control
+ * and rig device control. Automatically tests rig hardware and reports
+ * the rig status to ensure rig goodness.
+ *
+ * @license See LICENSE in the top level directory for complete license terms.
+ *
+ * Copyright (c) 2009, University of Technology, Sydney
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of Technology, Sydney nor the names
+ *    of its contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @date 18th October 2026
+ */
+package au.edu.uts.eng.remotelabs.rigclient.server;
+
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import org.mortbay.util.ajax.Continuation;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.ConfigFactory;
+import au.edu.uts.eng.remotelabs.rigclient.util.IConfig;
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Fans out telemetry frames published by a rig to the clients subscribed to
+ * the telemetry stream, so the rig client does the work of producing each
+ * frame once however many clients are watching. Each subscriber has a
+ * bounded queue. If a slow client falls a full queue behind, its oldest
+ * frames are dropped and the number dropped is reported on its next poll.
+ * <br />
+ * Frames are served by the {@link TelemetryStreamServlet} as long polls.
+ * A subscriber that has not polled for longer than its idle timeout is
+ * removed when the next frame is published.
+ */
+public class TelemetryStream
+{
+    /** Default number of frames queued per subscriber. */
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+
+    /** Default time in seconds a poll waits for a frame. */
+    public static final int DEFAULT_POLL_TIMEOUT = 30;
+
+    /** Stream instance. */
+    private static TelemetryStream instance;
+
+    /** Number of frames queued per subscriber. */
+    private final int queueSize;
+
+    /** Time in milliseconds a poll waits for a frame. */
+    private final long pollTimeout;
+
+    /** Subscribers, iterated by the publisher without locking. */
+    private final CopyOnWriteArrayList<Subscriber> subscribers;
+
+    /** Sequence number of the last published frame. */
+    private long sequence = Long.MIN_VALUE;
+
+    /** Logger. */
+    private final ILogger logger;
+
+    /**
+     * Constructor.
+     *
+     * @param queueSize number of frames queued per subscriber
+     * @param pollTimeout time in milliseconds a poll waits for a frame
+     */
+    public TelemetryStream(int queueSize, long pollTimeout)
+    {
+        this.logger = LoggerFactory.getLoggerInstance();
+        this.queueSize = queueSize;
+        this.pollTimeout = pollTimeout;
+        this.subscribers = new CopyOnWriteArrayList<Subscriber>();
+    }
+
+    /**
+     * Returns the telemetry stream, configured with the 'Stream_Queue_Size'
+     * and 'Stream_Poll_Timeout' properties.
+     *
+     * @return stream instance
+     */
+    public static synchronized TelemetryStream getInstance()
+    {
+        if (TelemetryStream.instance == null)
+        {
+            IConfig config = ConfigFactory.getInstance();
+            int size = TelemetryStream.DEFAULT_QUEUE_SIZE;
+            int timeout = TelemetryStream.DEFAULT_POLL_TIMEOUT;
+            try
+            {
+                size = Integer.parseInt(config.getProperty("Stream_Queue_Size",
+                        String.valueOf(TelemetryStream.DEFAULT_QUEUE_SIZE)));
+                timeout = Integer.parseInt(config.getProperty("Stream_Poll_Timeout",
+                        String.valueOf(TelemetryStream.DEFAULT_POLL_TIMEOUT)));
+            }
+            catch (NumberFormatException ex)
+            {
+                LoggerFactory.getLoggerInstance().warn("Invalid telemetry stream configuration, check the " +
+                        "'Stream_Queue_Size' and 'Stream_Poll_Timeout' properties are numbers. Using the defaults.");
+            }
+            TelemetryStream.instance = new TelemetryStream(size < 1 ? TelemetryStream.DEFAULT_QUEUE_SIZE : size,
+                    (timeout < 1 ? TelemetryStream.DEFAULT_POLL_TIMEOUT : timeout) * 1000L);
+        }
+        return TelemetryStream.instance;
+    }
+
+    /**
+     * Returns whether any clients are subscribed. A publisher may use this
+     * to avoid producing frames no one will receive.
+     *
+     * @return true if there are subscribers
+     */
+    public boolean hasSubscribers()
+    {
+        return !this.subscribers.isEmpty();
+    }
+
+    /**
+     * Publishes a frame to every subscriber. Frames may be published from
+     * several threads, so a frame older than the last published one is
+     * dropped, until the sequence is restarted by a new publisher.
+     *
+     * @param seq frame sequence number
+     * @param frame frame text
+     */
+    public void publish(long seq, String frame)
+    {
+        synchronized (this)
+        {
+            if (seq <= this.sequence) return;
+            this.sequence = seq;
+        }
+
+        long now = System.currentTimeMillis();
+        Iterator<Subscriber> it = this.subscribers.iterator();
+        while (it.hasNext())
+        {
+            Subscriber sub = it.next();
+            if (sub.isIdle(now))
+            {
+                this.logger.debug("Removing idle telemetry stream subscriber.");
+                this.subscribers.remove(sub);
+                continue;
+            }
+            sub.offer(frame);
+        }
+    }
+
+    /**
+     * Restarts the frame sequence for a new publisher, such as a rig's
+     * hardware module created for a new session, whose sequence numbers
+     * start again. Frames of any previous publisher no longer hold back its
+     * frames.
+     */
+    public synchronized void restart()
+    {
+        this.sequence = Long.MIN_VALUE;
+    }
+
+    /**
+     * Adds a new subscriber.
+     *
+     * @return subscriber
+     */
+    public Subscriber subscribe()
+    {
+        Subscriber sub = new Subscriber(this);
+        this.subscribers.add(sub);
+        this.logger.debug("New telemetry stream subscriber, there are " + this.subscribers.size() +
+                " subscribers.");
+        return sub;
+    }
+
+    /**
+     * Removes a subscriber.
+     *
+     * @param sub subscriber
+     */
+    public void unsubscribe(Subscriber sub)
+    {
+        this.subscribers.remove(sub);
+    }
+
+    /**
+     * Returns the time in milliseconds a poll waits for a frame.
+     *
+     * @return poll timeout
+     */
+    public long getPollTimeout()
+    {
+        return this.pollTimeout;
+    }
+
+    /**
+     * A client subscribed to the stream. The subscriber is stored in the
+     * client's HTTP session and is unsubscribed when the session ends.
+     */
+    public static class Subscriber implements HttpSessionBindingListener
+    {
+        /** Stream subscribed to. */
+        private final TelemetryStream stream;
+
+        /** Ring of queued frames. */
+        private final String frames[];
+
+        /** Position of the oldest queued frame. */
+        private int head;
+
+        /** Number of queued frames. */
+        private int count;
+
+        /** Number of frames dropped since the last poll. */
+        private int dropped;
+
+        /** Suspended poll waiting for a frame. */
+        private Continuation continuation;
+
+        /** Time of the last poll. */
+        private long lastPoll;
+
+        Subscriber(TelemetryStream stream)
+        {
+            this.stream = stream;
+            this.frames = new String[stream.queueSize];
+            this.lastPoll = System.currentTimeMillis();
+        }
+
+        /**
+         * Queues a frame, dropping the oldest frame if the queue is full, and
+         * resumes a waiting poll.
+         *
+         * @param frame frame text
+         */
+        synchronized void offer(String frame)
+        {
+            if (this.count == this.frames.length)
+            {
+                this.frames[this.head] = null;
+                this.head = (this.head + 1) % this.frames.length;
+                this.count--;
+                this.dropped++;
+            }
+            this.frames[(this.head + this.count) % this.frames.length] = frame;
+            this.count++;
+
+            if (this.continuation != null && this.continuation.isPending())
+            {
+                this.continuation.resume();
+            }
+        }
+
+        /**
+         * Suspends a poll until a frame is queued or the poll times out. With
+         * the Jetty select channel connector suspending releases the request
+         * thread by throwing a retry request, which must not be caught, and
+         * the poll is dispatched again when it is resumed or times out.
+         *
+         * @param cont continuation of the poll, created with this subscriber as its mutex
+         */
+        public synchronized void await(Continuation cont)
+        {
+            this.lastPoll = System.currentTimeMillis();
+            if (this.count == 0)
+            {
+                this.continuation = cont;
+                cont.suspend(this.stream.pollTimeout);
+            }
+            this.continuation = null;
+        }
+
+        /**
+         * Takes every queued frame.
+         *
+         * @return queued frames, oldest first
+         */
+        public synchronized String[] drain()
+        {
+            this.lastPoll = System.currentTimeMillis();
+            String taken[] = new String[this.count];
+            for (int i = 0; i < this.count; i++)
+            {
+                int pos = (this.head + i) % this.frames.length;
+                taken[i] = this.frames[pos];
+                this.frames[pos] = null;
+            }
+            this.head = 0;
+            this.count = 0;
+            return taken;
+        }
+
+        /**
+         * Returns the number of frames dropped since the last call and resets
+         * the count.
+         *
+         * @return dropped frame count
+         */
+        public synchronized int takeDropped()
+        {
+            int d = this.dropped;
+            this.dropped = 0;
+            return d;
+        }
+
+        /**
+         * Returns whether the client has stopped polling. A client waiting in
+         * a poll is never idle.
+         *
+         * @param now current time in milliseconds
+         * @return true if idle
+         */
+        synchronized boolean isIdle(long now)
+        {
+            return this.continuation == null && now - this.lastPoll > 2 * this.stream.pollTimeout;
+        }
+
+        @Override
+        public void valueBound(HttpSessionBindingEvent event)
+        {
+            /* Subscribed when created. */
+        }
+
+        @Override
+        public void valueUnbound(HttpSessionBindingEvent event)
+        {
+            this.stream.unsubscribe(this);
+        }
+    }
+}
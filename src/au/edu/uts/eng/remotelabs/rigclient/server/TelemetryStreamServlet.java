@@ -0,0 +1,127 @@
+/**
+ * SAHARA Rig Client
+ *
+ * Software abstraction of physical rig to provide rig session control
+ * and rig device control. Automatically tests rig hardware and reports
+ * the rig status to ensure rig goodness.
+ *
+ * @license See LICENSE in the top level directory for complete license terms.
+ *
+ * Copyright (c) 2009, University of Technology, Sydney
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of Technology, Sydney nor the names
+ *    of its contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @date 18th October 2026
+ */
+package au.edu.uts.eng.remotelabs.rigclient.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.mortbay.util.ajax.Continuation;
+import org.mortbay.util.ajax.ContinuationSupport;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.ILogger;
+import au.edu.uts.eng.remotelabs.rigclient.util.LoggerFactory;
+
+/**
+ * Serves the {@link TelemetryStream} as long polls. A poll returns as soon
+ * as there are frames queued for the client, otherwise it is suspended until
+ * a frame is published or the poll times out. Suspended polls do not hold a
+ * request thread. The response is a JSON object with the frames queued since
+ * the last poll, oldest first, and the number of frames dropped because the
+ * client fell behind:
+ * <pre>
+ *   {"dropped":0,"frames":[...]}
+ * </pre>
+ * The client is identified by its HTTP session, so it must keep the session
+ * cookie between polls. Polls must be authenticated in the same way as the
+ * administrative interface, either with a logged in session or with the
+ * identity token in the 'identtok' parameter.
+ */
+public class TelemetryStreamServlet extends HttpServlet
+{
+    /** Session attribute holding the client's subscriber. */
+    public static final String SUBSCRIBER_ATTR = "telemetryStreamSubscriber";
+
+    /** Serializable class. */
+    private static final long serialVersionUID = 2815946420157913452L;
+
+    /** Logger. */
+    private final ILogger logger;
+
+    public TelemetryStreamServlet()
+    {
+        this.logger = LoggerFactory.getLoggerInstance();
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException
+    {
+        HttpSession session = req.getSession();
+        if (session.getAttribute("authenticated") == null)
+        {
+            if (!RootServlet.authenticate(req))
+            {
+                this.logger.warn("Unauthenticated telemetry stream request from " + req.getRemoteAddr() + '.');
+                resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+            session.setAttribute("authenticated", new Date());
+        }
+
+        TelemetryStream.Subscriber sub = (TelemetryStream.Subscriber)session.getAttribute(SUBSCRIBER_ATTR);
+        if (sub == null)
+        {
+            sub = TelemetryStream.getInstance().subscribe();
+            session.setAttribute(SUBSCRIBER_ATTR, sub);
+        }
+
+        /* Suspending throws a retry request which must be propagated to Jetty. */
+        Continuation cont = ContinuationSupport.getContinuation(req, sub);
+        sub.await(cont);
+
+        String frames[] = sub.drain();
+        resp.setContentType("application/json");
+        resp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = resp.getWriter();
+        out.print("{\"dropped\":");
+        out.print(sub.takeDropped());
+        out.print(",\"frames\":[");
+        for (int i = 0; i < frames.length; i++)
+        {
+            if (i > 0) out.print(',');
+            out.print(frames[i]);
+        }
+        out.print("]}");
+        out.flush();
+    }
+}
@@ -59,6 +59,10 @@ import java.util.Map.Entry;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import au.edu.uts.eng.remotelabs.rigclient.util.CommandStatistics;
+import au.edu.uts.eng.remotelabs.rigclient.util.CommandStatistics.Command;
+import au.edu.uts.eng.remotelabs.rigclient.util.LatencyHistogram;
+
 /**
  * Runtime information page.
  */
@@ -85,6 +89,7 @@ public class InfoPage extends AbstractPage
         this.tabNames.put("resources", "System");
         this.tabNames.put("vm", "Java");
         this.tabNames.put("os", "OS");
+        this.tabNames.put("commands", "Commands");
         
         this.tabMethods = new HashMap<String, Method>(4);
         try
@@ -93,6 +98,7 @@ public class InfoPage extends AbstractPage
             this.tabMethods.put("resources", InfoPage.class.getMethod("resTab"));
             this.tabMethods.put("vm", InfoPage.class.getMethod("vmTab"));
             this.tabMethods.put("os", InfoPage.class.getMethod("osTab"));
+            this.tabMethods.put("commands", InfoPage.class.getMethod("commandsTab"));
         }
         catch (SecurityException e)
         {
@@ -110,12 +116,14 @@ public class InfoPage extends AbstractPage
         this.tabIcons.put("resources", "res");
         this.tabIcons.put("vm", "javavm");
         this.tabIcons.put("os", "opsys");
+        this.tabIcons.put("commands", "res");
         
         this.tabTooltips = new HashMap<String, String>(4);
         this.tabTooltips.put("runtime", "Displays runtime information like classpath and system properties...");
         this.tabTooltips.put("resources", "Displays resources being used by the rig client.");
         this.tabTooltips.put("vm", "Displays information about the in use Java virtual machine.");
         this.tabTooltips.put("os", "Displays operating system information.");
+        this.tabTooltips.put("commands", "Displays the response times and failures of the commands sent to the rig devices.");
     }
     
     @Override
@@ -434,6 +442,47 @@ public class InfoPage extends AbstractPage
         this.addRow("Temp directory", System.getProperty("java.io.tmpdir"));
     }
     
+    /**
+     * Rig device command statistics.
+     */
+    public void commandsTab()
+    {
+        Map<String, Command> commands = CommandStatistics.getInstance().getCommands();
+        if (commands.isEmpty())
+        {
+            this.addRow(null, "No commands have been sent.");
+            return;
+        }
+
+        for (Entry<String, Command> c : commands.entrySet())
+        {
+            LatencyHistogram latency = c.getValue().getLatency();
+            StringBuilder stats = new StringBuilder();
+            stats.append("Responses: ").append(latency.getCount());
+            stats.append("<br />Mean: ").append(this.millis(latency.getMean()));
+            stats.append("<br />50th percentile: ").append(this.millis(latency.getPercentile(50)));
+            stats.append("<br />90th percentile: ").append(this.millis(latency.getPercentile(90)));
+            stats.append("<br />99th percentile: ").append(this.millis(latency.getPercentile(99)));
+            stats.append("<br />99.9th percentile: ").append(this.millis(latency.getPercentile(99.9)));
+            stats.append("<br />Max: ").append(this.millis(latency.getMax()));
+            stats.append("<br />Timeouts: ").append(c.getValue().getTimeouts());
+            stats.append("<br />Error responses: ").append(c.getValue().getErrors());
+            stats.append("<br />Malformed responses: ").append(c.getValue().getMalformed());
+            this.addRow(c.getKey(), stats.toString());
+        }
+    }
+
+    /**
+     * Formats a latency in microseconds as milliseconds.
+     *
+     * @param micros latency in microseconds
+     * @return formatted latency
+     */
+    private String millis(double micros)
+    {
+        return String.format("%.3f ms", micros / 1000);
+    }
+
     /**
      * Adds a row to the output.
      * 
@@ -0,0 +1,186 @@
+/**
+ * SAHARA Rig Client
+ *
+ * Software abstraction of physical rig to provide rig session control
+ * and rig device control. Automatically tests rig hardware and reports
+ * the rig status to ensure rig goodness.
+ *
+ * @license See LICENSE in the top level directory for complete license terms.
+ *
+ * Copyright (c) 2009, University of Technology, Sydney
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of Technology, Sydney nor the names
+ *    of its contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @date 18th October 2026
+ */
+package au.edu.uts.eng.remotelabs.rigclient.server.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mortbay.util.ajax.WaitingContinuation;
+
+import au.edu.uts.eng.remotelabs.rigclient.server.TelemetryStream;
+
+/**
+ * Tests the <code>TelemetryStream</code> class.
+ */
+public class TelemetryStreamTester extends TestCase
+{
+    /** Object of class under test. */
+    private TelemetryStream stream;
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        this.stream = new TelemetryStream(3, 2000);
+    }
+
+    @Test
+    public void testFanOut()
+    {
+        assertFalse(this.stream.hasSubscribers());
+        TelemetryStream.Subscriber first = this.stream.subscribe();
+        TelemetryStream.Subscriber second = this.stream.subscribe();
+        assertTrue(this.stream.hasSubscribers());
+
+        this.stream.publish(1, "{\"seq\":1}");
+        this.stream.publish(2, "{\"seq\":2}");
+
+        String frames[] = first.drain();
+        assertEquals(2, frames.length);
+        assertEquals("{\"seq\":1}", frames[0]);
+        assertEquals("{\"seq\":2}", frames[1]);
+        assertEquals(0, first.drain().length);
+        assertEquals(2, second.drain().length);
+
+        this.stream.unsubscribe(first);
+        this.stream.unsubscribe(second);
+        assertFalse(this.stream.hasSubscribers());
+    }
+
+    @Test
+    public void testSlowSubscriberDropsOldest()
+    {
+        TelemetryStream.Subscriber sub = this.stream.subscribe();
+        for (int i = 1; i <= 5; i++) this.stream.publish(i, String.valueOf(i));
+
+        String frames[] = sub.drain();
+        assertEquals(3, frames.length);
+        assertEquals("3", frames[0]);
+        assertEquals("5", frames[2]);
+        assertEquals(2, sub.takeDropped());
+        assertEquals(0, sub.takeDropped());
+    }
+
+    @Test
+    public void testOutOfOrderFrameDropped()
+    {
+        TelemetryStream.Subscriber sub = this.stream.subscribe();
+        this.stream.publish(5, "5");
+        this.stream.publish(4, "4");
+        this.stream.publish(5, "5");
+
+        String frames[] = sub.drain();
+        assertEquals(1, frames.length);
+        assertEquals("5", frames[0]);
+    }
+
+    @Test
+    public void testSecondPublisher()
+    {
+        TelemetryStream.Subscriber sub = this.stream.subscribe();
+        this.stream.publish(0, "a0");
+        this.stream.publish(1, "a1");
+        this.stream.publish(2, "a2");
+        sub.drain();
+
+        /* The next session's publisher starts its sequence again. */
+        this.stream.restart();
+        this.stream.publish(0, "b0");
+        this.stream.publish(1, "b1");
+        this.stream.publish(1, "b1");
+
+        String frames[] = sub.drain();
+        assertEquals(2, frames.length);
+        assertEquals("b0", frames[0]);
+        assertEquals("b1", frames[1]);
+    }
+
+    @Test
+    public void testAwaitReturnsWhenQueued()
+    {
+        TelemetryStream.Subscriber sub = this.stream.subscribe();
+        this.stream.publish(1, "1");
+
+        long start = System.currentTimeMillis();
+        sub.await(new WaitingContinuation(sub));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, sub.drain().length);
+    }
+
+    @Test
+    public void testAwaitResumedByPublish() throws Exception
+    {
+        final TelemetryStream.Subscriber sub = this.stream.subscribe();
+        Thread publisher = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                TelemetryStreamTester.this.stream.publish(1, "1");
+            }
+        };
+        publisher.start();
+
+        long start = System.currentTimeMillis();
+        sub.await(new WaitingContinuation(sub));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue("Waited " + waited + " ms", waited >= 50 && waited < 1500);
+        assertEquals(1, sub.drain().length);
+        publisher.join();
+    }
+
+    @Test
+    public void testAwaitTimesOut()
+    {
+        TelemetryStream.Subscriber sub = new TelemetryStream(3, 100).subscribe();
+
+        long start = System.currentTimeMillis();
+        sub.await(new WaitingContinuation(sub));
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        assertEquals(0, sub.drain().length);
+    }
+}
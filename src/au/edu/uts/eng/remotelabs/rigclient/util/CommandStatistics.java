@@ -0,0 +1,164 @@
+/**
+ * SAHARA Rig Client
+ *
+ * Software abstraction of physical rig to provide rig session control
+ * and rig device control. Automatically tests rig hardware and reports
+ * the rig status to ensure rig goodness.
+ *
+ * @license See LICENSE in the top level directory for complete license terms.
+ *
+ * Copyright (c) 2009, University of Technology, Sydney
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of Technology, Sydney nor the names
+ *    of its contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @date 18th October 2026
+ */
+package au.edu.uts.eng.remotelabs.rigclient.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the commands a rig sends to its devices, such as the
+ * commands sent over a serial link to a microcontroller. Each command type
+ * has a latency histogram of its responses and counters of the commands
+ * that timed out, had an error response or had a response that could not
+ * be parsed. The statistics are shown on the 'Commands' tab of the
+ * diagnostics page.
+ */
+public class CommandStatistics
+{
+    /** Statistics instance. */
+    private static final CommandStatistics instance = new CommandStatistics();
+
+    /** Statistics of each command type, keyed by name. */
+    private final ConcurrentMap<String, Command> commands = new ConcurrentHashMap<String, Command>();
+
+    /**
+     * Returns the statistics instance.
+     *
+     * @return statistics
+     */
+    public static CommandStatistics getInstance()
+    {
+        return CommandStatistics.instance;
+    }
+
+    /**
+     * Returns the statistics of a command type, adding it if it has not been
+     * used. Callers on a timing critical path should look up their command
+     * types once and keep them.
+     *
+     * @param name command type name, such as the link and command
+     * @return command statistics
+     */
+    public Command get(String name)
+    {
+        Command command = this.commands.get(name);
+        if (command == null)
+        {
+            Command added = new Command();
+            command = this.commands.putIfAbsent(name, added);
+            if (command == null) command = added;
+        }
+        return command;
+    }
+
+    /**
+     * Returns the statistics of every command type that has been used.
+     *
+     * @return command statistics ordered by name
+     */
+    public Map<String, Command> getCommands()
+    {
+        return new TreeMap<String, Command>(this.commands);
+    }
+
+    /**
+     * Statistics of a command type.
+     */
+    public static class Command
+    {
+        /** Latency of each response. */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /** Number of commands without a response. */
+        private final AtomicLong timeouts = new AtomicLong();
+
+        /** Number of error responses. */
+        private final AtomicLong errors = new AtomicLong();
+
+        /** Number of responses that could not be parsed. */
+        private final AtomicLong malformed = new AtomicLong();
+
+        /**
+         * Records the latency of a response.
+         *
+         * @param nanos time from sending the command to the response in nanoseconds
+         */
+        public void response(long nanos)
+        {
+            this.latency.record(nanos);
+        }
+
+        public void timeout()
+        {
+            this.timeouts.incrementAndGet();
+        }
+
+        public void error()
+        {
+            this.errors.incrementAndGet();
+        }
+
+        public void malformed()
+        {
+            this.malformed.incrementAndGet();
+        }
+
+        public LatencyHistogram getLatency()
+        {
+            return this.latency;
+        }
+
+        public long getTimeouts()
+        {
+            return this.timeouts.get();
+        }
+
+        public long getErrors()
+        {
+            return this.errors.get();
+        }
+
+        public long getMalformed()
+        {
+            return this.malformed.get();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * SAHARA Rig Client
+ *
+ * Software abstraction of physical rig to provide rig session control
+ * and rig device control. Automatically tests rig hardware and reports
+ * the rig status to ensure rig goodness.
+ *
+ * @license See LICENSE in the top level directory for complete license terms.
+ *
+ * Copyright (c) 2009, University of Technology, Sydney
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of Technology, Sydney nor the names
+ *    of its contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @date 18th October 2026
+ */
+package au.edu.uts.eng.remotelabs.rigclient.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds with logarithmic buckets, in the
+ * style of HdrHistogram. Latencies below 32 microseconds have a bucket each
+ * and above that each power of two is split into 16 buckets, so a recorded
+ * latency is within about 6% of its bucket. Every latency from zero to
+ * <code>Long.MAX_VALUE</code> microseconds fits in a fixed set of buckets.
+ * <br />
+ * Recording does not lock or allocate, so it may be done from any number of
+ * threads on a timing critical path. Reading the statistics while latencies
+ * are recorded gives values that may be a few samples apart.
+ */
+public class LatencyHistogram
+{
+    /** Bits of the exact sub-bucket range, values below 2 ^ SUB_BITS have a bucket each. */
+    private static final int SUB_BITS = 5;
+
+    /** Number of buckets of each power of two above the exact range. */
+    private static final int HALF = 1 << (SUB_BITS - 1);
+
+    /** Total number of buckets. */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF + HALF;
+
+    /** Count of each bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Number of latencies recorded. */
+    private final AtomicLong total = new AtomicLong();
+
+    /** Sum of the latencies recorded in microseconds. */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** Largest latency recorded in microseconds. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency in nanoseconds, negative latencies are recorded as zero
+     */
+    public void record(long nanos)
+    {
+        long micros = Math.max(0, nanos / 1000);
+        this.counts.incrementAndGet(bucket(micros));
+        this.total.incrementAndGet();
+        this.sum.addAndGet(micros);
+
+        long prev;
+        while (micros > (prev = this.max.get()))
+        {
+            if (this.max.compareAndSet(prev, micros)) break;
+        }
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     *
+     * @return count
+     */
+    public long getCount()
+    {
+        return this.total.get();
+    }
+
+    /**
+     * Returns the largest latency recorded.
+     *
+     * @return latency in microseconds, zero if none have been recorded
+     */
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return latency in microseconds, zero if none have been recorded
+     */
+    public double getMean()
+    {
+        long n = this.total.get();
+        return n == 0 ? 0 : (double)this.sum.get() / n;
+    }
+
+    /**
+     * Returns the latency at a percentile, as the highest latency of the
+     * bucket it is in, so the true percentile is no higher.
+     *
+     * @param percentile percentile from 0 to 100
+     * @return latency in microseconds, zero if none have been recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long n = 0;
+        long snapshot[] = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) n += snapshot[i] = this.counts.get(i);
+        if (n == 0) return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(Math.min(100, percentile) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highest(i), this.max.get());
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Returns the bucket of a latency.
+     *
+     * @param micros latency in microseconds, not negative
+     * @return bucket index
+     */
+    static int bucket(long micros)
+    {
+        if (micros < 2 * HALF) return (int)micros;
+
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BITS - 1);
+        return shift * HALF + (int)(micros >>> shift);
+    }
+
+    /**
+     * Returns the highest latency of a bucket.
+     *
+     * @param bucket bucket index
+     * @return latency in microseconds
+     */
+    static long highest(int bucket)
+    {
+        if (bucket < 2 * HALF) return bucket;
+
+        int shift = bucket / HALF - 1;
+        long sub = bucket - shift * HALF;
+        long high = ((sub + 1) << shift) - 1;
+        return high < 0 ? Long.MAX_VALUE : high;
+    }
+}
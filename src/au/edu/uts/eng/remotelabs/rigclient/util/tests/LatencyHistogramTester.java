@@ -0,0 +1,146 @@
+/**
+ * SAHARA Rig Client
+ *
+ * Software abstraction of physical rig to provide rig session control
+ * and rig device control. Automatically tests rig hardware and reports
+ * the rig status to ensure rig goodness.
+ *
+ * @license See LICENSE in the top level directory for complete license terms.
+ *
+ * Copyright (c) 2009, University of Technology, Sydney
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of Technology, Sydney nor the names
+ *    of its contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @date 18th October 2026
+ */
+package au.edu.uts.eng.remotelabs.rigclient.util.tests;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.uts.eng.remotelabs.rigclient.util.CommandStatistics;
+import au.edu.uts.eng.remotelabs.rigclient.util.LatencyHistogram;
+
+/**
+ * Tests the latency histogram class.
+ */
+public class LatencyHistogramTester extends TestCase
+{
+    /** Object of class under test. */
+    private LatencyHistogram histogram;
+
+    @Override
+    @Before
+    public void setUp()
+    {
+        this.histogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        assertEquals(0, this.histogram.getCount());
+        assertEquals(0, this.histogram.getMax());
+        assertEquals(0.0, this.histogram.getMean());
+        assertEquals(0, this.histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testExactRange()
+    {
+        /* 1 to 20 microseconds. */
+        for (int i = 1; i <= 20; i++) this.histogram.record(i * 1000L);
+
+        assertEquals(20, this.histogram.getCount());
+        assertEquals(20, this.histogram.getMax());
+        assertEquals(10.5, this.histogram.getMean());
+        assertEquals(10, this.histogram.getPercentile(50));
+        assertEquals(18, this.histogram.getPercentile(90));
+        assertEquals(20, this.histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testPrecision()
+    {
+        /* 1 ms to 1 s in 1 ms steps. */
+        for (int i = 1; i <= 1000; i++) this.histogram.record(i * 1000000L);
+
+        long p50 = this.histogram.getPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 1.07);
+        long p99 = this.histogram.getPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        assertEquals(1000000, this.histogram.getMax());
+    }
+
+    @Test
+    public void testExtremes()
+    {
+        this.histogram.record(-5);
+        this.histogram.record(Long.MAX_VALUE);
+        assertEquals(0, this.histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE / 1000, this.histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception
+    {
+        Thread threads[] = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 10000; i++) LatencyHistogramTester.this.histogram.record(i * 1000L);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertEquals(40000, this.histogram.getCount());
+        assertEquals(9999, this.histogram.getMax());
+    }
+
+    @Test
+    public void testCommandStatistics()
+    {
+        CommandStatistics stats = CommandStatistics.getInstance();
+        CommandStatistics.Command cmd = stats.get("TEST REQV");
+        assertSame(cmd, stats.get("TEST REQV"));
+
+        cmd.response(2000000L);
+        cmd.timeout();
+        cmd.error();
+        assertTrue(stats.getCommands().containsKey("TEST REQV"));
+        assertEquals(1, cmd.getLatency().getCount());
+        assertEquals(1, cmd.getTimeouts());
+        assertEquals(1, cmd.getErrors());
+        assertEquals(0, cmd.getMalformed());
+    }
+}